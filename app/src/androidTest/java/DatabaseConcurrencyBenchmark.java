@@ -0,0 +1,150 @@
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Measures how long reads take while a sync is writing to the database, with and without write-ahead logging
+ */
+@LargeTest
+public class DatabaseConcurrencyBenchmark {
+	private static final String TAG = DatabaseConcurrencyBenchmark.class.getSimpleName();
+	
+	private static final int readerCount = 2;
+	private static final int writeBatchCount = 200;
+	private static final int writeBatchSize = 500;
+	
+	@Test
+	public void benchmarkConcurrentReads() throws Exception {
+		Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		
+		ReadResult rollbackResult = measureReads(context, false);
+		ReadResult walResult = measureReads(context, true);
+		
+		Log.i(TAG, "Rollback journal: " + rollbackResult);
+		Log.i(TAG, "Write-ahead log: " + walResult);
+		
+		assertThat(walResult.readCount).isGreaterThan(0);
+	}
+	
+	/**
+	 * Writes batches of messages on one thread while reading the latest messages on other threads
+	 * @param useWAL Whether to enable write-ahead logging
+	 * @return The read statistics
+	 */
+	private static ReadResult measureReads(Context context, boolean useWAL) throws Exception {
+		File databaseFile = context.getDatabasePath("benchmark-" + (useWAL ? "wal" : "rollback") + ".db");
+		SQLiteDatabase.deleteDatabase(databaseFile);
+		databaseFile.getParentFile().mkdirs();
+		
+		SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
+		try {
+			if(useWAL) {
+				database.enableWriteAheadLogging();
+				database.execSQL("PRAGMA synchronous = NORMAL");
+			}
+			database.execSQL("CREATE TABLE messages (_id INTEGER PRIMARY KEY, guid TEXT, message_text TEXT, chat INTEGER NOT NULL, sort_id_linked INTEGER, sort_id_linked_offset INTEGER)");
+			database.execSQL("CREATE INDEX messages_chat_index ON messages (chat, sort_id_linked, sort_id_linked_offset)");
+			
+			ExecutorService executor = Executors.newFixedThreadPool(readerCount + 1);
+			try {
+				AtomicBoolean isWriting = new AtomicBoolean(true);
+				
+				//Writing messages in batches, like a sync does
+				Future<?> writer = executor.submit(() -> {
+					try {
+						for(int batch = 0; batch < writeBatchCount; batch++) {
+							database.beginTransaction();
+							try {
+								for(int i = 0; i < writeBatchSize; i++) {
+									long id = (long) batch * writeBatchSize + i;
+									ContentValues contentValues = new ContentValues();
+									contentValues.put("guid", "message-" + id);
+									contentValues.put("message_text", "Message text " + id);
+									contentValues.put("chat", id % 20);
+									contentValues.put("sort_id_linked", id);
+									contentValues.put("sort_id_linked_offset", 0);
+									database.insert("messages", null, contentValues);
+								}
+								database.setTransactionSuccessful();
+							} finally {
+								database.endTransaction();
+							}
+						}
+					} finally {
+						isWriting.set(false);
+					}
+				});
+				
+				//Loading the latest messages of a conversation, like the message list does
+				List<Future<ReadResult>> readers = new ArrayList<>();
+				for(int i = 0; i < readerCount; i++) {
+					final int chat = i;
+					readers.add(executor.submit(() -> {
+						ReadResult result = new ReadResult();
+						while(isWriting.get()) {
+							long startTime = System.nanoTime();
+							try(Cursor cursor = database.rawQuery("SELECT * FROM messages WHERE chat = ? ORDER BY sort_id_linked DESC, sort_id_linked_offset DESC LIMIT 50", new String[]{Integer.toString(chat)})) {
+								while(cursor.moveToNext()) cursor.getString(1);
+							}
+							result.addRead(System.nanoTime() - startTime);
+						}
+						return result;
+					}));
+				}
+				
+				writer.get();
+				ReadResult result = new ReadResult();
+				for(Future<ReadResult> reader : readers) result.merge(reader.get());
+				return result;
+			} finally {
+				executor.shutdownNow();
+			}
+		} finally {
+			database.close();
+			SQLiteDatabase.deleteDatabase(databaseFile);
+		}
+	}
+	
+	private static class ReadResult {
+		int readCount = 0;
+		long totalNanos = 0;
+		long maxNanos = 0;
+		
+		void addRead(long nanos) {
+			readCount++;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+		}
+		
+		void merge(ReadResult other) {
+			readCount += other.readCount;
+			totalNanos += other.totalNanos;
+			maxNanos = Math.max(maxNanos, other.maxNanos);
+		}
+		
+		@Override
+		public String toString() {
+			double averageMillis = readCount == 0 ? 0 : (double) totalNanos / readCount / TimeUnit.MILLISECONDS.toNanos(1);
+			double maxMillis = (double) maxNanos / TimeUnit.MILLISECONDS.toNanos(1);
+			return readCount + " reads, " + String.format("%.2f", averageMillis) + " ms average, " + String.format("%.2f", maxMillis) + " ms max";
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.tagavari.airmessage.data.DatabaseManager;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * Makes sure that commonly run queries are backed by an index, rather than scanning their whole table
+ */
+@SmallTest
+public class DatabaseQueryPlanTest {
+	private static final String[] hotQueries = {
+			//Loading a conversation's messages
+			"SELECT * FROM messages WHERE chat = ? ORDER BY messages.sort_id_linked ASC, messages.sort_id_linked_offset ASC",
+			"SELECT * FROM messages WHERE chat = ? ORDER BY messages.sort_id_linked DESC, messages.sort_id_linked_offset DESC LIMIT 10",
+			"SELECT * FROM messages WHERE chat = ? AND (sort_id_linked < ? OR (sort_id_linked = ? AND (sort_id_linked_offset < ? OR (sort_id_linked_offset = ? AND _id < ?)))) ORDER BY messages.sort_id_linked DESC, messages.sort_id_linked_offset DESC, messages._id DESC LIMIT 20",
+			"SELECT * FROM messages WHERE chat = ? AND (date < ? OR (date = ? AND _id < ?)) ORDER BY messages.date DESC, messages._id DESC LIMIT 20",
+			
+			//Keeping conversation previews up to date
+			"SELECT _id FROM messages WHERE chat = ? AND item_type IN (0, 3) ORDER BY messages.sort_id_linked DESC, messages.sort_id_linked_offset DESC, messages._id DESC LIMIT 1",
+			
+			//Looking up messages by GUID
+			"SELECT _id FROM messages WHERE guid = ?",
+			
+			//Finding the latest sort ID when adding a message
+			"SELECT sort_id_linked, sort_id_linked_offset FROM messages WHERE sort_id_linked = (SELECT MAX(sort_id_linked) FROM messages) ORDER BY sort_id_linked_offset DESC LIMIT 1",
+			
+			//Merging incoming messages into ghost messages
+			"SELECT _id FROM messages WHERE state = ? AND sender IS NULL AND message_text = ? AND chat = ? ORDER BY messages.sort_id_linked DESC, messages.sort_id_linked_offset DESC LIMIT 1",
+			"SELECT attachments._id, attachments.message FROM attachments JOIN messages ON message = messages._id WHERE messages.state = ? AND messages.sender IS NULL AND attachments.checksum = ? AND messages.chat = ? ORDER BY messages.sort_id_linked DESC, messages.sort_id_linked_offset DESC LIMIT 1",
+			
+			//Loading message components
+			"SELECT * FROM attachments WHERE message IN (1,2,3) ORDER BY message ASC, sort ASC",
+			"SELECT _id FROM attachments WHERE guid = ?",
+			"SELECT * FROM sticker WHERE message IN (1,2,3)",
+			"SELECT _id, message, message_index, sender, code FROM tapback WHERE message IN (1,2,3)",
+			"SELECT _id FROM tapback WHERE message = ? AND message_index = ? AND sender = ?",
+			
+			//Loading conversations
+			"SELECT member, color FROM users WHERE chat = ?",
+			"SELECT chat, member, color FROM users WHERE chat IN (1,2,3)",
+			"SELECT messages.item_type, messages.date, messages.message_text FROM conversations LEFT JOIN messages ON messages._id = conversations.preview_message WHERE conversations._id = ?",
+			"SELECT _id FROM conversations WHERE guid = ? AND service_handler = ?"
+	};
+	
+	@BeforeClass
+	public static void setUp() {
+		DatabaseManager.createInstance(InstrumentationRegistry.getInstrumentation().getTargetContext());
+	}
+	
+	@Test
+	public void testHotQueriesUseIndices() {
+		SQLiteDatabase database = DatabaseManager.getInstance().getReadableDatabase();
+		
+		for(String query : hotQueries) {
+			for(String step : getQueryPlan(database, query)) {
+				//Full scans show up as "SCAN TABLE x" on older versions of SQLite and "SCAN x" on newer versions, as opposed to "SEARCH" for index lookups
+				assertWithMessage("Query plan for \"" + query + "\"").that(step).doesNotMatch("SCAN .*");
+				assertWithMessage("Query plan for \"" + query + "\"").that(step).doesNotContain("USE TEMP B-TREE");
+			}
+		}
+	}
+	
+	/**
+	 * Gets the steps SQLite will take to run a query
+	 */
+	private static List<String> getQueryPlan(SQLiteDatabase database, String query) {
+		//Filling in the query's parameters
+		int argCount = query.length() - query.replace("?", "").length();
+		String[] args = new String[argCount];
+		for(int i = 0; i < argCount; i++) args[i] = "1";
+		
+		List<String> steps = new ArrayList<>();
+		try(Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + query, args)) {
+			int iDetail = cursor.getColumnIndexOrThrow("detail");
+			while(cursor.moveToNext()) steps.add(cursor.getString(iDetail));
+		}
+		return steps;
+	}
+}
\ No newline at end of file
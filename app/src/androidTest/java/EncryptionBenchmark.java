@@ -0,0 +1,55 @@
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import me.tagavari.airmessage.connection.encryption.EncryptionAES;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Measures the encryption round trip of a packet when a new key is derived for every packet, compared to reusing the cached session key
+ */
+@LargeTest
+public class EncryptionBenchmark {
+	private static final String TAG = EncryptionBenchmark.class.getSimpleName();
+	
+	private static final String password = "password";
+	private static final int packetCount = 50;
+	
+	@Test
+	public void benchmarkEncryption() throws GeneralSecurityException {
+		byte[] packet = new byte[1024];
+		new Random(0).nextBytes(packet);
+		
+		//Deriving a new key for every packet
+		long uncachedStartTime = System.nanoTime();
+		for(int i = 0; i < packetCount; i++) {
+			EncryptionAES encryption = new EncryptionAES(password);
+			encryption.decrypt(encryption.encrypt(packet));
+		}
+		long uncachedNanos = (System.nanoTime() - uncachedStartTime) / packetCount;
+		
+		//Reusing the session key
+		EncryptionAES encryption = new EncryptionAES(password);
+		encryption.decrypt(encryption.encrypt(packet));
+		long cachedStartTime = System.nanoTime();
+		for(int i = 0; i < packetCount; i++) {
+			encryption.decrypt(encryption.encrypt(packet));
+		}
+		long cachedNanos = (System.nanoTime() - cachedStartTime) / packetCount;
+		
+		Log.i(TAG, "Encryption round trip per packet: " + formatMicros(uncachedNanos) + " uncached, " + formatMicros(cachedNanos) + " cached");
+		
+		assertThat(cachedNanos).isLessThan(uncachedNanos);
+	}
+	
+	private static String formatMicros(long nanos) {
+		return String.format("%.1f", (double) nanos / TimeUnit.MICROSECONDS.toNanos(1)) + " µs";
+	}
+}
\ No newline at end of file
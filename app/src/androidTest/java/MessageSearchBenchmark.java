@@ -0,0 +1,125 @@
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import me.tagavari.airmessage.helper.MessageSearchHelper;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Measures how long a page of message search results takes to load with the full-text index, compared to scanning the messages table
+ */
+@LargeTest
+public class MessageSearchBenchmark {
+	private static final String TAG = MessageSearchBenchmark.class.getSimpleName();
+	
+	private static final int[] messageCounts = {100_000, 1_000_000};
+	private static final String[] queries = {"dinner", "tomorrow morning", "pho"};
+	private static final int pageSize = 50;
+	private static final int runCount = 10;
+	
+	private static final String[] vocabulary = {
+			"hey", "are", "we", "still", "on", "for", "dinner", "tonight", "tomorrow", "morning", "meeting", "running", "late", "sorry",
+			"can", "you", "send", "me", "the", "photos", "from", "trip", "lol", "sounds", "good", "see", "there", "thanks", "call", "later",
+			"what", "time", "is", "it", "happy", "birthday", "movie", "coffee", "lunch", "weekend", "plans", "work", "home", "pho", "pizza"
+	};
+	
+	@Test
+	public void benchmarkSearch() {
+		Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		
+		for(int messageCount : messageCounts) {
+			File databaseFile = context.getDatabasePath("benchmark-search.db");
+			SQLiteDatabase.deleteDatabase(databaseFile);
+			databaseFile.getParentFile().mkdirs();
+			
+			SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
+			try {
+				fillDatabase(database, messageCount);
+				
+				for(String query : queries) {
+					String matchQuery = MessageSearchHelper.buildMatchQuery(query);
+					String likeSelection = "message_text LIKE ?" + (query.contains(" ") ? " AND message_text LIKE ?" : "");
+					String[] likeArgs = Arrays.stream(query.split(" ")).map(term -> "%" + term + "%").toArray(String[]::new);
+					
+					long ftsNanos = measureQuery(database, "SELECT messages._id, messages.chat, messages.date, messages.message_text FROM messages_search JOIN messages ON messages._id = messages_search.docid WHERE messages_search MATCH ? ORDER BY messages.date DESC, messages._id DESC LIMIT " + pageSize, new String[]{matchQuery});
+					long likeNanos = measureQuery(database, "SELECT _id, chat, date, message_text FROM messages WHERE " + likeSelection + " ORDER BY date DESC, _id DESC LIMIT " + pageSize, likeArgs);
+					
+					Log.i(TAG, messageCount + " messages, \"" + query + "\": full-text " + formatMillis(ftsNanos) + ", scan " + formatMillis(likeNanos));
+				}
+			} finally {
+				database.close();
+				SQLiteDatabase.deleteDatabase(databaseFile);
+			}
+		}
+	}
+	
+	/**
+	 * Creates the messages table and search index, and fills them with random messages
+	 */
+	private static void fillDatabase(SQLiteDatabase database, int messageCount) {
+		database.execSQL("CREATE TABLE messages (_id INTEGER PRIMARY KEY, date INTEGER NOT NULL, message_text TEXT, message_subject TEXT, chat INTEGER NOT NULL)");
+		database.execSQL("CREATE VIRTUAL TABLE messages_search USING fts4(message_text, message_subject, tokenize=unicode61)");
+		database.execSQL("CREATE TRIGGER messages_search_insert AFTER INSERT ON messages WHEN NEW.message_text IS NOT NULL OR NEW.message_subject IS NOT NULL BEGIN INSERT INTO messages_search (docid, message_text, message_subject) VALUES (NEW._id, NEW.message_text, NEW.message_subject); END");
+		
+		Random random = new Random(0);
+		database.beginTransaction();
+		try(SQLiteStatement statement = database.compileStatement("INSERT INTO messages (date, message_text, chat) VALUES (?, ?, ?)")) {
+			for(int i = 0; i < messageCount; i++) {
+				StringBuilder text = new StringBuilder();
+				int wordCount = 3 + random.nextInt(10);
+				for(int j = 0; j < wordCount; j++) {
+					if(j > 0) text.append(' ');
+					text.append(vocabulary[random.nextInt(vocabulary.length)]);
+				}
+				
+				statement.bindLong(1, i * 1000L);
+				statement.bindString(2, text.toString());
+				statement.bindLong(3, random.nextInt(500));
+				statement.executeInsert();
+			}
+			database.setTransactionSuccessful();
+		} finally {
+			database.endTransaction();
+		}
+	}
+	
+	/**
+	 * Runs a query several times, reading every row
+	 * @return The median time the query took, in nanoseconds
+	 */
+	private static long measureQuery(SQLiteDatabase database, String query, String[] args) {
+		long[] times = new long[runCount];
+		for(int i = 0; i < runCount; i++) {
+			long startTime = System.nanoTime();
+			int rowCount = 0;
+			try(Cursor cursor = database.rawQuery(query, args)) {
+				while(cursor.moveToNext()) {
+					cursor.getString(3);
+					rowCount++;
+				}
+			}
+			times[i] = System.nanoTime() - startTime;
+			assertThat(rowCount).isGreaterThan(0);
+		}
+		
+		Arrays.sort(times);
+		return times[runCount / 2];
+	}
+	
+	private static String formatMillis(long nanos) {
+		return String.format("%.2f", (double) nanos / TimeUnit.MILLISECONDS.toNanos(1)) + " ms";
+	}
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.tagavari.airmessage.helper.MessageSearchHelper;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Runs search queries against a real full-text index, to make sure that the match expressions they're converted into find the expected messages
+ */
+@SmallTest
+public class MessageSearchQueryTest {
+	private static final String[] messages = {
+			"Are we still on for dinner tonight?",
+			"I left the dinnerware in the sink",
+			"It's raining cats and dogs",
+			"Let's meet near the café",
+			"Say \"cheese\" or whatever",
+			"Or maybe tomorrow"
+	};
+	
+	private SQLiteDatabase database;
+	
+	@Before
+	public void setUp() {
+		//Creating an in-memory index with the same options as the messages index
+		database = SQLiteDatabase.create(null);
+		database.execSQL("CREATE VIRTUAL TABLE search USING fts4(text" + (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? ", tokenize=unicode61" : "") + ");");
+		for(int i = 0; i < messages.length; i++) {
+			database.execSQL("INSERT INTO search (docid, text) VALUES (?, ?)", new Object[]{i, messages[i]});
+		}
+	}
+	
+	@After
+	public void tearDown() {
+		database.close();
+	}
+	
+	@Test
+	public void testPrefixMatch() {
+		//Each word should be matched as a prefix
+		assertThat(search("dinner")).containsExactly(0, 1);
+		assertThat(search("din")).containsExactly(0, 1);
+		assertThat(search("dinnerw")).containsExactly(1);
+	}
+	
+	@Test
+	public void testAllWordsMatch() {
+		//All words should have to be present in a message
+		assertThat(search("  dinner,  tonight ")).containsExactly(0);
+		assertThat(search("din ton")).containsExactly(0);
+		assertThat(search("dinner dogs")).isEmpty();
+	}
+	
+	@Test
+	public void testOperatorsMatchAsText() {
+		//Operators should be searched for as words
+		assertThat(search("or")).containsExactly(4, 5);
+		assertThat(search("cheese OR say")).containsExactly(4);
+		assertThat(search("near")).containsExactly(3);
+		
+		//Quotes and other symbols shouldn't break the query
+		assertThat(search("\"cheese")).containsExactly(4);
+		assertThat(search("-cats* \"dogs\"")).containsExactly(2);
+	}
+	
+	/**
+	 * Searches the index, and returns the IDs of the matching messages
+	 */
+	private List<Integer> search(String query) {
+		String matchQuery = MessageSearchHelper.buildMatchQuery(query);
+		assertThat(matchQuery).isNotNull();
+		
+		List<Integer> results = new ArrayList<>();
+		try(Cursor cursor = database.rawQuery("SELECT docid FROM search WHERE search MATCH ? ORDER BY docid", new String[]{matchQuery})) {
+			while(cursor.moveToNext()) results.add(cursor.getInt(0));
+		}
+		return results;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,67 @@
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.security.crypto.EncryptedSharedPreferences;
+import androidx.security.crypto.MasterKeys;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import me.tagavari.airmessage.data.SharedPreferencesManager;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Measures how long reading the direct connection details takes when the encrypted shared preferences are opened for every read, compared to the cached values used when reconnecting
+ */
+@LargeTest
+public class SecurePreferencesBenchmark {
+	private static final String TAG = SecurePreferencesBenchmark.class.getSimpleName();
+	
+	private static final int uncachedRunCount = 20;
+	private static final int cachedRunCount = 10_000;
+	
+	@Test
+	public void benchmarkConnectionDetails() throws GeneralSecurityException, IOException {
+		Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		
+		//Opening the encrypted shared preferences for every read, as was done on every reconnect
+		long uncachedStartTime = System.nanoTime();
+		for(int i = 0; i < uncachedRunCount; i++) {
+			SharedPreferences prefs = EncryptedSharedPreferences.create(
+					"secure",
+					MasterKeys.getOrCreate(MasterKeys.AES256_GCM_SPEC),
+					context,
+					EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
+					EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM
+			);
+			prefs.getString("hostname", null);
+			prefs.getString("hostname_fallback", null);
+			prefs.getString("password", null);
+		}
+		long uncachedNanos = (System.nanoTime() - uncachedStartTime) / uncachedRunCount;
+		
+		//Reading the cached connection details
+		SharedPreferencesManager.getDirectConnectionDetails(context);
+		long cachedStartTime = System.nanoTime();
+		for(int i = 0; i < cachedRunCount; i++) {
+			SharedPreferencesManager.getDirectConnectionDetails(context);
+		}
+		long cachedNanos = (System.nanoTime() - cachedStartTime) / cachedRunCount;
+		
+		Log.i(TAG, "Opening for every read: " + formatMicros(uncachedNanos) + ", cached: " + formatMicros(cachedNanos));
+		
+		assertThat(cachedNanos).isLessThan(uncachedNanos);
+		assertThat(cachedNanos).isLessThan(TimeUnit.MILLISECONDS.toNanos(1));
+	}
+	
+	private static String formatMicros(long nanos) {
+		return String.format("%.1f", (double) nanos / TimeUnit.MICROSECONDS.toNanos(1)) + " µs";
+	}
+}
\ No newline at end of file
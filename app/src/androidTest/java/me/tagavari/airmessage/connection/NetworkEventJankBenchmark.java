@@ -0,0 +1,157 @@
+package me.tagavari.airmessage.connection;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.core.util.Consumer;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.tagavari.airmessage.connection.listener.CommunicationsManagerListener;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Replays the events of a sync, and measures how backed up the main thread's message queue gets when every event is posted to the main thread, compared to sending data events through the network events thread
+ */
+@LargeTest
+public class NetworkEventJankBenchmark {
+	private static final String TAG = NetworkEventJankBenchmark.class.getSimpleName();
+	
+	private static final int eventCount = 5000;
+	private static final int mainEventInterval = 50; //One in every 50 events is a state change that needs the main thread, such as the start of a file
+	private static final long eventWorkNanos = TimeUnit.MICROSECONDS.toNanos(500); //The time a listener takes to handle an event
+	private static final long packetIntervalNanos = TimeUnit.MICROSECONDS.toNanos(200); //The time between packets arriving from the network
+	private static final long frameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / 60;
+	
+	@Test
+	public void benchmarkSync() throws InterruptedException {
+		SyncResult directResult = runSync(false);
+		SyncResult pipelineResult = runSync(true);
+		
+		Log.i(TAG, "Posting all events to the main thread: " + directResult);
+		Log.i(TAG, "Sending data events through the network events thread: " + pipelineResult);
+		
+		assertThat(pipelineResult.maxQueueDepth).isAtMost(directResult.maxQueueDepth);
+	}
+	
+	/**
+	 * Dispatches a sync's worth of events, while watching the main thread's queue and frames
+	 * @param usePipeline Whether to send data events through a network event dispatcher, rather than posting them to the main thread
+	 */
+	private static SyncResult runSync(boolean usePipeline) throws InterruptedException {
+		Handler handler = new Handler(Looper.getMainLooper());
+		AtomicInteger queueDepth = new AtomicInteger();
+		AtomicInteger maxQueueDepth = new AtomicInteger();
+		CountDownLatch latch = new CountDownLatch(eventCount);
+		
+		//Tracking how many of our events are waiting in the main thread's queue
+		Executor mainExecutor = runnable -> {
+			int depth = queueDepth.incrementAndGet();
+			maxQueueDepth.accumulateAndGet(depth, Math::max);
+			handler.post(() -> {
+				queueDepth.decrementAndGet();
+				runnable.run();
+			});
+		};
+		NetworkEventDispatcher dispatcher = new NetworkEventDispatcher(mainExecutor, null);
+		
+		//Counting frames that took longer than two frame intervals
+		FrameMonitor frameMonitor = new FrameMonitor();
+		InstrumentationRegistry.getInstrumentation().runOnMainSync(frameMonitor::start);
+		
+		//Dispatching the events, acting as the network thread
+		long startTime = System.nanoTime();
+		for(int i = 0; i < eventCount; i++) {
+			Consumer<CommunicationsManagerListener> callback = listener -> {
+				spin(eventWorkNanos);
+				latch.countDown();
+			};
+			
+			if(!usePipeline) {
+				mainExecutor.execute(() -> callback.accept(null));
+			} else if(i % mainEventInterval == 0) {
+				dispatcher.dispatchMain(callback);
+			} else {
+				dispatcher.dispatchData(callback);
+			}
+			
+			spin(packetIntervalNanos);
+		}
+		
+		assertThat(latch.await(1, TimeUnit.MINUTES)).isTrue();
+		long elapsedTime = System.nanoTime() - startTime;
+		InstrumentationRegistry.getInstrumentation().runOnMainSync(frameMonitor::stop);
+		
+		return new SyncResult(maxQueueDepth.get(), frameMonitor.frameCount, frameMonitor.slowFrameCount, elapsedTime);
+	}
+	
+	/**
+	 * Keeps the current thread busy for a period of time
+	 */
+	private static void spin(long nanos) {
+		long endTime = System.nanoTime() + nanos;
+		while(System.nanoTime() < endTime);
+	}
+	
+	/**
+	 * Counts the frames drawn on the main thread, and how many of them were late
+	 */
+	private static class FrameMonitor implements Choreographer.FrameCallback {
+		private boolean running = false;
+		private long lastFrameTime = -1;
+		private int frameCount = 0;
+		private int slowFrameCount = 0;
+		
+		void start() {
+			running = true;
+			Choreographer.getInstance().postFrameCallback(this);
+		}
+		
+		void stop() {
+			running = false;
+			Choreographer.getInstance().removeFrameCallback(this);
+		}
+		
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			if(!running) return;
+			
+			if(lastFrameTime != -1) {
+				frameCount++;
+				if(frameTimeNanos - lastFrameTime > frameIntervalNanos * 2) slowFrameCount++;
+			}
+			lastFrameTime = frameTimeNanos;
+			
+			Choreographer.getInstance().postFrameCallback(this);
+		}
+	}
+	
+	private static class SyncResult {
+		final int maxQueueDepth;
+		final int frameCount;
+		final int slowFrameCount;
+		final long elapsedNanos;
+		
+		SyncResult(int maxQueueDepth, int frameCount, int slowFrameCount, long elapsedNanos) {
+			this.maxQueueDepth = maxQueueDepth;
+			this.frameCount = frameCount;
+			this.slowFrameCount = slowFrameCount;
+			this.elapsedNanos = elapsedNanos;
+		}
+		
+		@Override
+		public String toString() {
+			return "max queue depth " + maxQueueDepth + ", " + slowFrameCount + " of " + frameCount + " frames late, " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms";
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,173 @@
+package me.tagavari.airmessage.connection.comm5;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.DeflaterInputStream;
+
+import me.tagavari.airmessage.connection.DataProxy;
+import me.tagavari.airmessage.connection.encryption.EncryptionAES;
+import me.tagavari.airmessage.connection.encryption.EncryptionManager;
+import me.tagavari.airmessage.helper.LookAheadStreamIterator;
+import me.tagavari.airmessage.util.ConnectionParams;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Measures the speed of uploading a file to a loopback server when each chunk is encrypted by the writer thread, compared to encrypting chunks ahead of time with an {@link UploadPipeline}
+ */
+@LargeTest
+public class UploadPipelineBenchmark {
+	private static final String TAG = UploadPipelineBenchmark.class.getSimpleName();
+	
+	private static final String password = "password";
+	private static final int chunkSize = 1024 * 1024; //1 MB
+	private static final int fileSize = 20 * 1024 * 1024; //20 MB
+	
+	@Test
+	public void benchmarkUpload() throws Exception {
+		//Creating a file that compresses about as well as a typical photo
+		Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		File file = File.createTempFile("upload", ".bin", context.getCacheDir());
+		try(OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
+			Random random = new Random(0);
+			byte[] block = new byte[1024];
+			for(int i = 0; i < fileSize / block.length; i++) {
+				random.nextBytes(block);
+				for(int j = 0; j < block.length; j += 4) block[j] = 0;
+				outputStream.write(block);
+			}
+		}
+		
+		try {
+			double sequentialSpeed = measureUpload(file, false);
+			double pipelinedSpeed = measureUpload(file, true);
+			Log.i(TAG, "Upload speed: " + String.format("%.1f", sequentialSpeed) + " MB/s sequential, " + String.format("%.1f", pipelinedSpeed) + " MB/s pipelined");
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Uploads a file to a loopback server stub in the same way as {@link ClientProtocol5#sendFile}
+	 * @param file The file to upload
+	 * @param pipelined TRUE to encrypt chunks with an {@link UploadPipeline}, or FALSE to have the writer thread encrypt each chunk
+	 * @return The upload speed in MB/s
+	 */
+	private static double measureUpload(File file, boolean pipelined) throws Exception {
+		ExecutorService serverExecutor = Executors.newSingleThreadExecutor();
+		try(ServerSocket serverSocket = new ServerSocket(0)) {
+			//Reading packets on the server until the last chunk is received
+			Future<Long> serverResult = serverExecutor.submit(() -> {
+				try(Socket socket = serverSocket.accept(); DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+					EncryptionManager encryptionManager = new EncryptionAES(password);
+					byte[] buffer = new byte[chunkSize * 2];
+					long totalLength = 0;
+					while(true) {
+						int length = inputStream.readInt();
+						boolean isEncrypted = inputStream.readBoolean();
+						inputStream.readFully(buffer, 0, length);
+						totalLength += length;
+						
+						//Checking the last chunk
+						ByteBuffer data = ByteBuffer.wrap(buffer, 0, length);
+						if(isEncrypted) data = encryptionManager.decrypt(data);
+						AirUnpacker unpacker = new AirUnpacker(data);
+						unpacker.unpackInt(); //Message type
+						unpacker.unpackShort(); //Request ID
+						unpacker.unpackInt(); //Request index
+						if(unpacker.unpackBoolean()) return totalLength; //Is last
+					}
+				}
+			});
+			
+			try(Socket socket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort())) {
+				DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+				EncryptionManager encryptionManager = new EncryptionAES(password);
+				ProxyDirectTCPWriter writer = new ProxyDirectTCPWriter(code -> {}, encryptionManager, outputStream, ProxyDirectTCPWriter.defaultMaxBatchSize, ProxyDirectTCPWriter.defaultBatchWindowMillis);
+				writer.start();
+				DataProxy<EncryptedPacket> dataProxy = new TestDataProxy(writer::queuePacket);
+				
+				long startTime = System.nanoTime();
+				try(UploadPipeline pipeline = new UploadPipeline(dataProxy, pipelined ? encryptionManager : null, pipelined ? 3 : 1, 6, null);
+					InputStream inputStream = new DeflaterInputStream(new DigestInputStream(new BufferedInputStream(new FileInputStream(file)), MessageDigest.getInstance("MD5")))) {
+					int requestIndex = 0;
+					for(LookAheadStreamIterator iterator = new LookAheadStreamIterator(chunkSize, inputStream); iterator.hasNext();) {
+						LookAheadStreamIterator.ForwardsStreamData data = iterator.next();
+						try(AirPacker packer = AirPacker.get()) {
+							packer.packInt(403); //Message type
+							packer.packShort((short) 0); //Request ID
+							packer.packInt(requestIndex++); //Request index
+							packer.packBoolean(data.isLast()); //Is last
+							packer.packPayload(data.getData(), data.getLength()); //File bytes
+							pipeline.submit(packer.toPacket(true));
+						}
+					}
+					pipeline.finish();
+				}
+				
+				assertThat(serverResult.get()).isGreaterThan(0L);
+				long elapsedTime = System.nanoTime() - startTime;
+				writer.interrupt();
+				
+				return (double) file.length() / (1024 * 1024) / (elapsedTime / 1e9);
+			}
+		} finally {
+			serverExecutor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * A data proxy that passes packets to a consumer
+	 */
+	private static class TestDataProxy extends DataProxy<EncryptedPacket> {
+		private final Consumer<EncryptedPacket> consumer;
+		
+		TestDataProxy(Consumer<EncryptedPacket> consumer) {
+			this.consumer = consumer;
+		}
+		
+		@Override
+		public void start(Context context, ConnectionParams override) {
+		}
+		
+		@Override
+		public void stop(int code) {
+		}
+		
+		@Override
+		public boolean send(EncryptedPacket packet) {
+			consumer.accept(packet);
+			return true;
+		}
+		
+		@Override
+		public boolean isUsingFallback() {
+			return false;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,77 @@
+package me.tagavari.airmessage.connection.request;
+
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import kotlin.Pair;
+import me.tagavari.airmessage.common.Blocks;
+import me.tagavari.airmessage.enums.ConversationState;
+import me.tagavari.airmessage.enums.MessageSendErrorCode;
+import me.tagavari.airmessage.enums.MessageState;
+import me.tagavari.airmessage.enums.ServiceHandler;
+import me.tagavari.airmessage.messaging.ConversationInfo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Replays a synthetic mass retrieval, comparing the GUID index against scanning the conversation list for every item
+ */
+@LargeTest
+public class MassRetrievalMatchBenchmark {
+	private static final String TAG = MassRetrievalMatchBenchmark.class.getSimpleName();
+	
+	private static final int conversationCount = 2000;
+	private static final int messageCount = 100_000;
+	
+	@Test
+	public void benchmarkMatchConversationItems() {
+		List<ConversationInfo> conversationList = new ArrayList<>(conversationCount);
+		for(int i = 0; i < conversationCount; i++) {
+			conversationList.add(new ConversationInfo(i + 1, "iMessage;+;chat" + UUID.randomUUID(), -1, ConversationState.ready, ServiceHandler.appleBridge, null, new ArrayList<>(), null));
+		}
+		
+		Random random = new Random(0);
+		List<Blocks.ConversationItem> itemList = new ArrayList<>(messageCount);
+		for(int i = 0; i < messageCount; i++) {
+			itemList.add(new Blocks.MessageInfo(i, UUID.randomUUID().toString(), conversationList.get(random.nextInt(conversationCount)).getGUID(), i * 1000L, "Message " + i, null, null,
+					Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), null, MessageState.delivered, MessageSendErrorCode.none, 0));
+		}
+		
+		//Matching with the index
+		long startTime = System.nanoTime();
+		List<Pair<Long, Blocks.ConversationItem>> indexedList = MassRetrievalRequest.matchConversationItems(MassRetrievalRequest.indexConversations(conversationList), itemList);
+		long indexedNanos = System.nanoTime() - startTime;
+		
+		//Matching with a linear scan
+		startTime = System.nanoTime();
+		List<Long> scannedList = new ArrayList<>(messageCount);
+		for(Blocks.ConversationItem structItem : itemList) {
+			for(ConversationInfo conversation : conversationList) {
+				if(structItem.chatGuid.equals(conversation.getGUID())) {
+					scannedList.add(conversation.getLocalID());
+					break;
+				}
+			}
+		}
+		long scannedNanos = System.nanoTime() - startTime;
+		
+		Log.i(TAG, messageCount + " messages in " + conversationCount + " conversations: index " + formatMillis(indexedNanos) + ", scan " + formatMillis(scannedNanos));
+		
+		assertThat(indexedList).hasSize(scannedList.size());
+		assertThat(indexedNanos).isLessThan(scannedNanos);
+	}
+	
+	private static String formatMillis(long nanos) {
+		return String.format("%.1f", (double) nanos / TimeUnit.MILLISECONDS.toNanos(1)) + " ms";
+	}
+}
\ No newline at end of file
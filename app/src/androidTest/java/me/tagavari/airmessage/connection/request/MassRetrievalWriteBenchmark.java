@@ -0,0 +1,79 @@
+package me.tagavari.airmessage.connection.request;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import kotlin.Pair;
+import me.tagavari.airmessage.common.Blocks;
+import me.tagavari.airmessage.data.DatabaseManager;
+import me.tagavari.airmessage.enums.MessageSendErrorCode;
+import me.tagavari.airmessage.enums.MessageState;
+import me.tagavari.airmessage.messaging.ConversationInfo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Measures how long a mass retrieval takes to write 100,000 messages to the database, in batches the way they are received from the server
+ */
+@LargeTest
+public class MassRetrievalWriteBenchmark {
+	private static final String TAG = MassRetrievalWriteBenchmark.class.getSimpleName();
+	
+	private static final int messageCount = 100_000;
+	private static final int batchSize = 1000;
+	private static final long targetNanos = TimeUnit.SECONDS.toNanos(10);
+	
+	@Test
+	public void benchmarkWriteMessages() {
+		Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		DatabaseManager.createInstance(context);
+		DatabaseManager databaseManager = DatabaseManager.getInstance();
+		
+		//Creating a conversation to write to
+		ConversationInfo conversationInfo = databaseManager.addReadyConversationInfoAMBridge(new Blocks.ConversationInfo("iMessage;+;benchmark" + UUID.randomUUID(), "iMessage", null, new String[]{"+15555550100"}));
+		assertThat(conversationInfo).isNotNull();
+		
+		try {
+			long elapsedNanos = 0;
+			int writtenCount = 0;
+			for(int batch = 0; batch < messageCount / batchSize; batch++) {
+				//Creating the batch
+				List<Pair<Long, Blocks.ConversationItem>> writeList = new ArrayList<>(batchSize);
+				for(int i = 0; i < batchSize; i++) {
+					long serverID = (long) batch * batchSize + i;
+					writeList.add(new Pair<>(conversationInfo.getLocalID(), new Blocks.MessageInfo(serverID, UUID.randomUUID().toString(), conversationInfo.getGUID(), serverID * 1000, "Message " + serverID, null, null,
+							Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), null, MessageState.delivered, MessageSendErrorCode.none, 0)));
+				}
+				
+				//Writing the batch
+				long startTime = System.nanoTime();
+				List<?> resultList = databaseManager.addConversationStructs(context, writeList, true);
+				elapsedNanos += System.nanoTime() - startTime;
+				
+				for(Object result : resultList) if(result != null) writtenCount++;
+			}
+			
+			Log.i(TAG, "Wrote " + writtenCount + " messages in " + formatMillis(elapsedNanos) + " (" + String.format("%.1f", writtenCount / ((double) elapsedNanos / TimeUnit.SECONDS.toNanos(1))) + " messages/s)");
+			
+			assertThat(writtenCount).isEqualTo(messageCount);
+			assertThat(elapsedNanos).isLessThan(targetNanos);
+		} finally {
+			databaseManager.deleteConversation(context, conversationInfo.getLocalID());
+		}
+	}
+	
+	private static String formatMillis(long nanos) {
+		return String.format("%.1f", (double) nanos / TimeUnit.MILLISECONDS.toNanos(1)) + " ms";
+	}
+}
\ No newline at end of file
@@ -0,0 +1,169 @@
+package me.tagavari.airmessage.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteTransactionListener;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * Writes messages to a real messages table, to make sure that the sort ID cache stays in step with the table when transactions are committed or rolled back
+ */
+@SmallTest
+public class SortAnchorCacheDatabaseTest {
+	private static final String table = DatabaseManager.Contract.MessageEntry.TABLE_NAME;
+	private static final String columnSortID = DatabaseManager.Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED;
+	private static final String columnSortIDOffset = DatabaseManager.Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET;
+	
+	private SQLiteDatabase database;
+	private SortAnchorCache cache;
+	private SQLiteTransactionListener transactionListener;
+	
+	@Before
+	public void setUp() {
+		database = SQLiteDatabase.create(null);
+		database.execSQL("CREATE TABLE " + table + " (" + columnSortID + " INTEGER, " + columnSortIDOffset + " INTEGER);");
+		
+		cache = new SortAnchorCache();
+		transactionListener = new SQLiteTransactionListener() {
+			@Override
+			public void onBegin() {
+			}
+			
+			@Override
+			public void onCommit() {
+			}
+			
+			@Override
+			public void onRollback() {
+				cache.invalidate();
+			}
+		};
+	}
+	
+	@After
+	public void tearDown() {
+		database.close();
+	}
+	
+	@Test
+	public void testCommit() {
+		insertServerMessage(100);
+		
+		//Local messages should be placed after the latest message, without reading the table again
+		writeLocalMessages(2, true);
+		assertThat(cache.isLoaded()).isTrue();
+		assertThat(reserveSortPosition()).isEqualTo(queryNextSortPosition());
+	}
+	
+	@Test
+	public void testRollback() {
+		insertServerMessage(100);
+		writeLocalMessages(1, true);
+		
+		//Positions reserved by a rolled back transaction should be given out again
+		writeLocalMessages(3, false);
+		assertThat(cache.isLoaded()).isFalse();
+		assertThat(reserveSortPosition()).isEqualTo(new long[]{100, 2});
+	}
+	
+	/**
+	 * Runs a random sequence of writes, and checks that every local message is given the same sort position that querying the table would have given it
+	 */
+	@Test
+	public void testMatchesQuery() {
+		Random random = new Random(0);
+		long serverID = 0;
+		
+		for(int i = 0; i < 1000; i++) {
+			int action = random.nextInt(10);
+			if(action < 4) {
+				//Adding a local message
+				long[] expected = queryNextSortPosition();
+				long[] actual = writeLocalMessages(1, true);
+				assertWithMessage("Local message " + i).that(actual).isEqualTo(expected);
+			} else if(action < 7) {
+				//Adding a message from the server
+				serverID += random.nextInt(5);
+				insertServerMessage(serverID);
+			} else if(action < 9) {
+				//Deleting a message
+				database.execSQL("DELETE FROM " + table + " WHERE rowid = (SELECT rowid FROM " + table + " ORDER BY RANDOM() LIMIT 1);");
+				cache.invalidate();
+			} else {
+				//Writing local messages in a transaction that is rolled back
+				writeLocalMessages(3, false);
+			}
+		}
+	}
+	
+	private void insertServerMessage(long serverID) {
+		ContentValues contentValues = new ContentValues();
+		contentValues.put(columnSortID, serverID);
+		contentValues.put(columnSortIDOffset, 0);
+		database.insertOrThrow(table, null, contentValues);
+		cache.record(serverID, 0);
+	}
+	
+	/**
+	 * Writes local messages in a transaction, the same way DatabaseManager does
+	 * @return The sort position of the last message
+	 */
+	private long[] writeLocalMessages(int count, boolean commit) {
+		long[] position = null;
+		database.beginTransactionWithListener(transactionListener);
+		try {
+			for(int i = 0; i < count; i++) {
+				position = reserveSortPosition();
+				
+				ContentValues contentValues = new ContentValues();
+				contentValues.put(columnSortID, position[0]);
+				contentValues.put(columnSortIDOffset, position[1]);
+				database.insertOrThrow(table, null, contentValues);
+			}
+			
+			if(commit) database.setTransactionSuccessful();
+		} finally {
+			database.endTransaction();
+		}
+		return position;
+	}
+	
+	/**
+	 * Mirrors DatabaseManager's handling of a new local message, reading the table only when the cache isn't loaded
+	 */
+	private long[] reserveSortPosition() {
+		if(!cache.isLoaded()) {
+			long[] latest = queryLatestSortPosition();
+			if(latest != null) cache.load(latest[0], (int) latest[1]);
+			else cache.loadEmpty();
+		}
+		
+		long[] position = {cache.getNextSortID(), cache.getNextSortIDOffset()};
+		cache.record(position[0], (int) position[1]);
+		return position;
+	}
+	
+	private long[] queryLatestSortPosition() {
+		try(Cursor cursor = database.query(table, new String[]{columnSortID, columnSortIDOffset}, columnSortID + " = (SELECT MAX(" + columnSortID + ") FROM " + table + ")", null, null, null, columnSortIDOffset + " DESC", "1")) {
+			if(cursor.moveToNext()) return new long[]{cursor.getLong(0), cursor.getInt(1)};
+			else return null;
+		}
+	}
+	
+	private long[] queryNextSortPosition() {
+		long[] latest = queryLatestSortPosition();
+		if(latest == null) return new long[]{-1, 0};
+		else return new long[]{latest[0], latest[1] + 1};
+	}
+}
\ No newline at end of file
@@ -28,6 +28,7 @@ import me.tagavari.airmessage.util.ConnectionParams;
 
 import org.java_websocket.WebSocket;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.enums.Opcode;
 import org.java_websocket.exceptions.InvalidDataException;
 import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import org.java_websocket.framing.CloseFrame;
@@ -72,6 +73,9 @@ class ProxyConnect extends DataProxy<EncryptedPacket> {
 	
 	private static final URI connectHostname = URI.create(BuildConfig.CONNECT_ENDPOINT);
 	private static final long handshakeTimeout = 8 * 1000;
+	private static final int decryptPacketsInFlight = 8; //The maximum amount of received packets waiting to be decrypted before reading from the socket is paused
+	private static final int proxyHeaderLength = Integer.SIZE / Byte.SIZE + 1; //Header type + encryption flag
+	private static final int frameFragmentSize = 64 * 1024; //64 KiB, messages larger than this are sent as multiple WebSocket frames
 	
 	//Creating the state values
 	private boolean isRunning = false;
@@ -79,6 +83,8 @@ class ProxyConnect extends DataProxy<EncryptedPacket> {
 	private final Runnable handshakeExpiryRunnable = () -> stop(ConnectionErrorCode.internet);
 	private WSClient client;
 	private Scheduler encryptionScheduler;
+	private final Object sendLock = new Object();
+	private volatile DecryptPipeline decryptPipeline;
 	@Nullable private EncryptionManager encryptionManager;
 	
 	@Override
@@ -192,6 +198,20 @@ class ProxyConnect extends DataProxy<EncryptedPacket> {
 		//Initializing the scheduler
 		encryptionScheduler = Schedulers.from(Executors.newSingleThreadExecutor(), true);
 		
+		//Initializing the decrypt pipeline, kept separate from the encryption scheduler so that large incoming packets don't hold up outgoing ones
+		decryptPipeline = new DecryptPipeline(encryptionManager, decryptPacketsInFlight, new DecryptPipeline.Listener() {
+			@Override
+			public void onPacket(EncryptedPacket packet) {
+				ProxyConnect.this.notifyMessage(packet);
+			}
+			
+			@Override
+			public void onError(Exception exception) {
+				exception.printStackTrace();
+				CrashlyticsBridge.recordException(exception);
+			}
+		});
+		
 		//Updating the running state
 		isRunning = true;
 	}
@@ -208,6 +228,10 @@ class ProxyConnect extends DataProxy<EncryptedPacket> {
 		//Stopping the client
 		if(client != null) client.closeSilently();
 		
+		//Handling packets that were received before the client was closed
+		decryptPipeline.close();
+		decryptPipeline = null;
+		
 		//Cancelling the handshake expiry timer
 		handler.removeCallbacks(handshakeExpiryRunnable);
 		
@@ -235,39 +259,89 @@ class ProxyConnect extends DataProxy<EncryptedPacket> {
 		}
 		
 		//Encrypting the content if requested and a password is set
-		byte[] packetData = packet.getData();
 		boolean packetWantsEncryption = packet.getEncrypt();
 		boolean isEncrypted = packetWantsEncryption && serverSupportsEncryption;
 		
 		Single.fromCallable(() -> {
 			if(isEncrypted) {
-				return encryptionManager.encrypt(packetData);
+				return packet.getEncryptedDataBuffer(encryptionManager);
 			} else {
-				return packetData;
+				return packet.getDataBuffer();
 			}
 		})
 			.subscribeOn(encryptionScheduler)
 			.doOnSuccess((content) -> {
-				//Constructing and sending the message
-				ByteBuffer byteBuffer = ByteBuffer.allocate(1 + (Integer.SIZE / Byte.SIZE) + content.length);
-				byteBuffer.putInt(NHT.nhtClientProxy);
+				byte encryptionValue;
+				if(isEncrypted) encryptionValue = -100; //The content is encrypted
+				else if(serverSupportsEncryption) encryptionValue = -101; //We support encryption, but this packet should not be encrypted
+				else encryptionValue = -102; //We don't support encryption
 				
-				if(isEncrypted) byteBuffer.put((byte) -100); //The content is encrypted
-				else if(serverSupportsEncryption) byteBuffer.put((byte) -101); //We support encryption, but this packet should not be encrypted
-				else byteBuffer.put((byte) -102); //We don't support encryption
-				
-				byteBuffer.put(content);
+				//Constructing and sending the message
+				sendMessage(frameProxyMessage(content, encryptionValue));
+				packet.notifySent();
+			})
+			.doOnError((error) -> {
+				error.printStackTrace();
 				
-				//Sending the data
-				client.send(byteBuffer.array());
+				//Letting the sender know that this packet won't be written
+				packet.notifyFailed();
 			})
-			.doOnError(Throwable::printStackTrace)
 			.onErrorComplete()
 			.subscribe();
 		
 		return true;
 	}
 	
+	/**
+	 * Adds the proxy header in front of a packet's content
+	 * If the content has space reserved in front of it (see {@link EncryptedPacket#reservedHeaderLength}), the header is written there, and the content isn't copied.
+	 * @param content The content to send
+	 * @param encryptionValue The encryption flag to send with the content
+	 * @return A buffer containing the header followed by the content
+	 */
+	private static ByteBuffer frameProxyMessage(ByteBuffer content, byte encryptionValue) {
+		ByteBuffer message;
+		if(content.position() >= proxyHeaderLength && !content.isReadOnly()) {
+			//Writing the header into the reserved space
+			message = content.duplicate();
+			message.position(content.position() - proxyHeaderLength);
+		} else {
+			//Copying the content into a new buffer after the header
+			message = ByteBuffer.allocate(proxyHeaderLength + content.remaining());
+			message.position(proxyHeaderLength);
+			message.put(content.duplicate());
+			message.flip();
+		}
+		
+		message.duplicate()
+			.putInt(NHT.nhtClientProxy)
+			.put(encryptionValue);
+		return message;
+	}
+	
+	/**
+	 * Sends a binary message to the server, splitting it into multiple frames if it is large
+	 * Frames of different messages are never interleaved, regardless of the thread this method is called from.
+	 */
+	private void sendMessage(ByteBuffer message) {
+		synchronized(sendLock) {
+			if(message.remaining() <= frameFragmentSize) {
+				client.send(message);
+				return;
+			}
+			
+			//Sending the message in fragments, so that it isn't framed as a single large array
+			while(message.hasRemaining()) {
+				int fragmentLength = Math.min(message.remaining(), frameFragmentSize);
+				ByteBuffer fragment = message.slice();
+				fragment.limit(fragmentLength);
+				message.position(message.position() + fragmentLength);
+				
+				client.sendFragmentedFrame(Opcode.BINARY, fragment, !message.hasRemaining());
+			}
+		}
+	}
+	
 	@Override
 	public boolean isUsingFallback() {
 		//AirMessage Connect doesn't use fallback methods
@@ -284,7 +358,8 @@ class ProxyConnect extends DataProxy<EncryptedPacket> {
 		byteBuffer.put(tokenBytes);
 		
 		//Sending the data
-		client.send(byteBuffer.array());
+		byteBuffer.flip();
+		sendMessage(byteBuffer);
 	}
 	
 	public void sendTokenRemove(String token) {
@@ -297,7 +372,8 @@ class ProxyConnect extends DataProxy<EncryptedPacket> {
 		byteBuffer.put(tokenBytes);
 		
 		//Sending the data
-		client.send(byteBuffer.array());
+		byteBuffer.flip();
+		sendMessage(byteBuffer);
 	}
 	
 	protected class WSClient extends WebSocketClient {
@@ -363,23 +439,20 @@ class ProxyConnect extends DataProxy<EncryptedPacket> {
 							Log.w(TAG, "Received unknown encryption value:" + encryptionValue);
 							return;
 						}
-						byte[] data = new byte[bytes.remaining()];
-						bytes.get(data);
-						
-						//Decrypting the data
-						if(isEncrypted && encryptionManager != null) {
-							data = encryptionManager.decrypt(data);
-						}
 						
-						//Handling the message
-						ProxyConnect.this.notifyMessage(new EncryptedPacket(data, isSecure));
+						//Decrypting and handling the message on the decrypt pipeline, directly from the received buffer
+						DecryptPipeline decryptPipeline = ProxyConnect.this.decryptPipeline;
+						if(decryptPipeline == null) return;
+						decryptPipeline.submit(bytes, isEncrypted, isSecure);
 						
 						break;
 					}
 				}
-			} catch(BufferUnderflowException | GeneralSecurityException exception) {
+			} catch(BufferUnderflowException exception) {
 				exception.printStackTrace();
 				CrashlyticsBridge.recordException(exception);
+			} catch(InterruptedException exception) {
+				Thread.currentThread().interrupt();
 			}
 		}
 		
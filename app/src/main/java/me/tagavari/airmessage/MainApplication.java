@@ -14,9 +14,12 @@ import android.webkit.WebView;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.preference.PreferenceManager;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
 import androidx.work.ExistingWorkPolicy;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.OutOfQuotaPolicy;
+import androidx.work.PeriodicWorkRequest;
 import androidx.work.WorkManager;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
@@ -25,9 +28,11 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.ref.WeakReference;
 import java.security.Security;
+import java.util.concurrent.TimeUnit;
 
 import me.tagavari.airmessage.activity.CrashReport;
 import me.tagavari.airmessage.activity.Preferences;
+import me.tagavari.airmessage.connection.ConnectionManager;
 import me.tagavari.airmessage.data.DatabaseManager;
 import me.tagavari.airmessage.data.SharedPreferencesManager;
 import me.tagavari.airmessage.data.UserCacheHelper;
@@ -39,6 +44,8 @@ import me.tagavari.airmessage.redux.ReduxEmitterNetwork;
 import me.tagavari.airmessage.redux.ReduxReceiverFaceTime;
 import me.tagavari.airmessage.redux.ReduxReceiverNotification;
 import me.tagavari.airmessage.redux.ReduxReceiverShortcut;
+import me.tagavari.airmessage.service.ConnectionService;
+import me.tagavari.airmessage.worker.AttachmentReconcileWorker;
 import me.tagavari.airmessage.worker.SystemMessageCleanupWorker;
 
 public class MainApplication extends Application {
@@ -113,6 +120,12 @@ public class MainApplication extends Application {
 		//Creating the database manager
 		DatabaseManager.createInstance(this);
 		
+		//Checking for attachment files that have gone missing from disk in the background once a day, rather than every time the process starts
+		WorkManager.getInstance(this).enqueueUniquePeriodicWork(AttachmentReconcileWorker.workName, ExistingPeriodicWorkPolicy.KEEP,
+				new PeriodicWorkRequest.Builder(AttachmentReconcileWorker.class, AttachmentReconcileWorker.intervalDays, TimeUnit.DAYS)
+						.setConstraints(new Constraints.Builder().setRequiresBatteryNotLow(true).build())
+						.build());
+		
 		//Applying the dark mode
 		ThemeHelper.applyDarkMode(PreferenceManager.getDefaultSharedPreferences(this).getString(getResources().getString(R.string.preference_appearance_theme_key), ""));
 		
@@ -192,6 +205,12 @@ public class MainApplication extends Application {
 	public void onTrimMemory(int level) {
 		super.onTrimMemory(level);
 		
+		if(level >= TRIM_MEMORY_UI_HIDDEN) {
+			//Writing pending connection details to disk, in case the process is killed in the background
+			ConnectionManager connectionManager = ConnectionService.getConnectionManager();
+			if(connectionManager != null) connectionManager.flushBookkeeping();
+		}
+		
 		if(level >= TRIM_MEMORY_BACKGROUND) {
 			//Clearing the caches
 			userCacheHelper.clearCache();
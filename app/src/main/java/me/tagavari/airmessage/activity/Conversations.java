@@ -69,6 +69,7 @@ import me.tagavari.airmessage.messaging.viewholder.VHConversationDetailed;
 import me.tagavari.airmessage.redux.*;
 import me.tagavari.airmessage.task.ConversationActionTask;
 import me.tagavari.airmessage.util.DisposableViewHolder;
+import me.tagavari.airmessage.util.MessageSearchResult;
 import me.tagavari.airmessage.util.ReplaceInsertResult;
 import me.tagavari.airmessage.util.ServerUpdateData;
 import me.tagavari.airmessage.util.TransferredConversation;
@@ -1580,13 +1581,18 @@ public class Conversations extends AppCompatCompositeActivity {
 		private static final int itemTypeConversation = 0;
 		private static final int itemTypeMessage = 1;
 		
+		private static final int messageSearchPageSize = 50;
+		
 		//Creating the list values
 		private final List<ConversationInfo> conversationSourceList;
 		
 		private final List<ConversationInfo> conversationFilterList = new ArrayList<>();
-		private final List<MessageInfo> messageFilterList = new ArrayList<>();
+		private final List<MessageSearchResult> messageFilterList = new ArrayList<>();
 		
 		private Disposable searchTask = null;
+		private Disposable messageSearchTask = null;
+		private MessageSearchResult lastMessageResult = null; //The last message loaded from the database, to continue the next page from
+		private boolean messageSearchHasMore = false;
 		
 		SearchRecyclerAdapter(List<ConversationInfo> conversationList) {
 			//Setting the list
@@ -1608,8 +1614,9 @@ public class Conversations extends AppCompatCompositeActivity {
 		
 		private String lastFilterText = "";
 		void updateFilterText(String text) {
-			//Cancelling the current subscription
+			//Cancelling the current subscriptions
 			if(searchTask != null && !searchTask.isDisposed()) searchTask.dispose();
+			if(messageSearchTask != null && !messageSearchTask.isDisposed()) messageSearchTask.dispose();
 			
 			//Setting the last filter text
 			lastFilterText = text;
@@ -1617,6 +1624,8 @@ public class Conversations extends AppCompatCompositeActivity {
 			//Clearing the filter lists
 			conversationFilterList.clear();
 			messageFilterList.clear();
+			lastMessageResult = null;
+			messageSearchHasMore = false;
 			
 			//Returning if there is no filter text
 			if(text.isEmpty()) {
@@ -1647,6 +1656,9 @@ public class Conversations extends AppCompatCompositeActivity {
 			//Updating the list
 			notifyDataSetChanged();
 			
+			//Searching the messages
+			loadMessageResults(text, null);
+			
 			if(!asyncSearchList.isEmpty()) {
 				//Starting a search for member names
 				searchTask = Observable.fromIterable(asyncSearchList).flatMapMaybe(conversation ->
@@ -1675,13 +1687,45 @@ public class Conversations extends AppCompatCompositeActivity {
 			return Pattern.compile(Pattern.quote(query), Pattern.CASE_INSENSITIVE).matcher(target).find();
 		}
 		
+		/**
+		 * Loads a page of messages that match the search query, and adds them to the list
+		 * @param query The search query
+		 * @param after The last message of the previous page, or NULL to load the first page
+		 */
+		private void loadMessageResults(String query, @Nullable MessageSearchResult after) {
+			messageSearchTask = Single.fromCallable(() -> DatabaseManager.getInstance().searchMessages(query, after, messageSearchPageSize))
+					.subscribeOn(Schedulers.single())
+					.observeOn(AndroidSchedulers.mainThread())
+					.subscribe((results) -> {
+						if(!results.isEmpty()) lastMessageResult = results.get(results.size() - 1);
+						messageSearchHasMore = results.size() == messageSearchPageSize;
+						
+						//Adding messages from conversations that are loaded
+						for(MessageSearchResult result : results) {
+							if(findConversation(result.getConversationID()) != null) messageFilterList.add(result);
+						}
+						
+						//Updating the list
+						notifyDataSetChanged();
+					}, Throwable::printStackTrace);
+		}
+		
+		@Nullable
+		private ConversationInfo findConversation(long conversationID) {
+			for(ConversationInfo conversationInfo : conversationSourceList) {
+				if(conversationInfo.getLocalID() == conversationID) return conversationInfo;
+			}
+			return null;
+		}
+		
 		@NonNull
 		@Override
 		public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
 			switch(viewType) {
 				case itemTypeSubheader:
 					return new SubheaderViewHolder(getLayoutInflater().inflate(R.layout.listitem_subheader, parent, false));
-				case itemTypeConversation: {
+				case itemTypeConversation:
+				case itemTypeMessage: {
 					View view = getLayoutInflater().inflate(R.layout.listitem_conversation, parent, false);
 					return new VHConversationDetailed(view,
 							view.findViewById(R.id.conversationicon),
@@ -1695,8 +1739,6 @@ public class Conversations extends AppCompatCompositeActivity {
 							view.findViewById(R.id.flag_draft)
 					);
 				}
-				case itemTypeMessage:
-					return null;
 				default:
 					throw new IllegalArgumentException("Invalid view type requested: " + viewType);
 			}
@@ -1744,8 +1786,38 @@ public class Conversations extends AppCompatCompositeActivity {
 					
 					break;
 				}
-				case itemTypeMessage:
+				case itemTypeMessage: {
+					//Getting the data
+					VHConversationDetailed viewHolder = (VHConversationDetailed) holder;
+					int messageIndex = position - (conversationFilterList.isEmpty() ? 1 : conversationFilterList.size() + 2);
+					MessageSearchResult result = messageFilterList.get(messageIndex);
+					ConversationInfo conversation = findConversation(result.getConversationID());
+					if(conversation == null) break;
+					
+					//Binding the title and icon
+					viewHolder.getCompositeDisposable().addAll(
+							VBConversation.bindTitle(Conversations.this, viewHolder.getConversationTitle(), conversation).subscribe(),
+							VBConversation.bindUsers(Conversations.this, viewHolder.getIconGroup(), conversation).subscribe()
+					);
+					
+					//Binding the message
+					viewHolder.getLabelMessage().setText(result.getText() != null ? result.getText() : result.getSubject());
+					viewHolder.getLabelStatus().setText(LanguageHelper.getLastUpdateStatusTime(Conversations.this, result.getDate()));
+					VBConversation.bindUnreadStatus(Conversations.this, viewHolder.getConversationTitle(), viewHolder.getLabelMessage(), viewHolder.getLabelUnread(), 0);
+					viewHolder.getFlagMuted().setVisibility(View.GONE);
+					viewHolder.getFlagDraft().setVisibility(View.GONE);
+					
+					//Setting the view's click listener
+					holder.itemView.setOnClickListener(view -> startActivity(new Intent(Conversations.this, Messaging.class).putExtra(Messaging.intentParamTargetID, conversation.getLocalID())));
+					
+					//Loading the next page of results when the end of the list is reached
+					if(messageIndex == messageFilterList.size() - 1 && messageSearchHasMore && (messageSearchTask == null || messageSearchTask.isDisposed())) {
+						messageSearchHasMore = false;
+						loadMessageResults(lastFilterText, lastMessageResult);
+					}
+					
 					break;
+				}
 			}
 		}
 		
@@ -158,6 +158,7 @@ import me.tagavari.airmessage.composite.AppCompatCompositeActivity;
 import me.tagavari.airmessage.compositeplugin.PluginConnectionService;
 import me.tagavari.airmessage.compositeplugin.PluginMessageBar;
 import me.tagavari.airmessage.compositeplugin.PluginRXDisposable;
+import me.tagavari.airmessage.connection.AttachmentDownloadManager;
 import me.tagavari.airmessage.connection.ConnectionTaskManager;
 import me.tagavari.airmessage.connection.exception.AMRequestException;
 import me.tagavari.airmessage.constants.ColorConstants;
@@ -170,6 +171,7 @@ import me.tagavari.airmessage.enums.ConnectionErrorCode;
 import me.tagavari.airmessage.enums.ConnectionState;
 import me.tagavari.airmessage.enums.ConversationItemType;
 import me.tagavari.airmessage.enums.ConversationState;
+import me.tagavari.airmessage.enums.DownloadPriority;
 import me.tagavari.airmessage.enums.MessageComponentType;
 import me.tagavari.airmessage.enums.MessagePreviewState;
 import me.tagavari.airmessage.enums.MessagePreviewType;
@@ -3256,6 +3258,9 @@ public class Messaging extends AppCompatCompositeActivity {
 					
 					//Subscribing to download updates
 					attachmentSubscribeDownload(viewHolderStructure, viewHolder, messageInfo, component, downloadObservable);
+					
+					//Moving the download back up the queue now that it's on screen
+					attachmentTrackDownloadOnScreen(viewHolderStructure, component);
 				} else {
 					//Showing the download prompt view
 					setAttachmentView(viewHolder, viewHolder.getGroupPrompt());
@@ -3268,7 +3273,7 @@ public class Messaging extends AppCompatCompositeActivity {
 					}
 					
 					//Setting the download click listener
-					viewHolder.itemView.setOnClickListener(view -> downloadAttachmentContent(viewHolderStructure, viewHolder, messageInfo, component));
+					viewHolder.itemView.setOnClickListener(view -> downloadAttachmentContent(viewHolderStructure, viewHolder, messageInfo, component, DownloadPriority.visible));
 					
 					//Checking if we should auto-download this content
 					if(component.getShouldAutoDownload() && Preferences.getPreferenceAutoDownloadAttachments(Messaging.this)) {
@@ -3282,7 +3287,7 @@ public class Messaging extends AppCompatCompositeActivity {
 									component.setShouldAutoDownload(false);
 									Completable.fromAction(() -> DatabaseManager.getInstance().markAttachmentAutoDownloaded(messageInfo.getLocalID()))
 										.subscribeOn(Schedulers.single()).subscribe();
-									downloadAttachmentContent(viewHolderStructure, viewHolder, messageInfo, component);
+									downloadAttachmentContent(viewHolderStructure, viewHolder, messageInfo, component, DownloadPriority.autoDownload);
 								})
 						);
 					}
@@ -3296,8 +3301,9 @@ public class Messaging extends AppCompatCompositeActivity {
 		 * @param viewHolder The view holder of the component
 		 * @param messageInfo The message of the attachment
 		 * @param component The attachment to download
+		 * @param priority The priority of the download
 		 */
-		private void downloadAttachmentContent(VHMessageStructure viewHolderStructure, VHMessageComponentAttachment viewHolder, MessageInfo messageInfo, AttachmentInfo component) {
+		private void downloadAttachmentContent(VHMessageStructure viewHolderStructure, VHMessageComponentAttachment viewHolder, MessageInfo messageInfo, AttachmentInfo component, @DownloadPriority int priority) {
 			if(component.getGUID() != null) {
 				if(pluginCS.isServiceBound()) {
 					//Switching to the download view
@@ -3305,13 +3311,28 @@ public class Messaging extends AppCompatCompositeActivity {
 					viewHolder.getProgressProgress().setIndeterminate(true);
 					
 					//Starting the download
-					attachmentSubscribeDownload(viewHolderStructure, viewHolder, messageInfo, component, ConnectionTaskManager.downloadAttachment(pluginCS.getConnectionManager(), messageInfo.getLocalID(), component.getLocalID(), component.getGUID(), component.getFileName()));
+					attachmentSubscribeDownload(viewHolderStructure, viewHolder, messageInfo, component, ConnectionTaskManager.downloadAttachment(pluginCS.getConnectionManager(), messageInfo.getLocalID(), component.getLocalID(), component.getGUID(), component.getFileName(), priority));
+					attachmentTrackDownloadOnScreen(viewHolderStructure, component);
 				} else {
 					Toast.makeText(Messaging.this, R.string.message_connectionerror, Toast.LENGTH_SHORT).show();
 				}
 			}
 		}
 		
+		/**
+		 * Marks an attachment's download as on screen, and moves it to the back of the download queue once its view is recycled
+		 * @param viewHolderStructure The view holder structure
+		 * @param attachmentInfo The attachment being downloaded
+		 */
+		private void attachmentTrackDownloadOnScreen(VHMessageStructure viewHolderStructure, AttachmentInfo attachmentInfo) {
+			if(!pluginCS.isServiceBound()) return;
+			
+			AttachmentDownloadManager downloadManager = pluginCS.getConnectionManager().getDownloadManager();
+			long attachmentLocalID = attachmentInfo.getLocalID();
+			downloadManager.setOnScreen(attachmentLocalID, true);
+			viewHolderStructure.getCompositeDisposable().add(Disposable.fromAction(() -> downloadManager.setOnScreen(attachmentLocalID, false)));
+		}
+		
 		/**
 		 * Subscribes a message component to its download progress
 		 * @param viewHolderStructure The view holder structure
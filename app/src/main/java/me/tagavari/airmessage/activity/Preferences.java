@@ -66,6 +66,7 @@ import me.tagavari.airmessage.R;
 import me.tagavari.airmessage.composite.AppCompatCompositeActivity;
 import me.tagavari.airmessage.compositeplugin.PluginConnectionService;
 import me.tagavari.airmessage.compositeplugin.PluginQNavigation;
+import me.tagavari.airmessage.connection.AttachmentDownloadManager;
 import me.tagavari.airmessage.connection.ConnectionTaskManager;
 import me.tagavari.airmessage.connection.MassRetrievalParams;
 import me.tagavari.airmessage.constants.ColorConstants;
@@ -351,6 +352,16 @@ public class Preferences extends AppCompatCompositeActivity implements Preferenc
 			//Accepting the change
 			return true;
 		};
+		Preference.OnPreferenceChangeListener concurrentDownloadsChangeListener = (preference, newValue) -> {
+			//Applying the limit to the running connection
+			PluginConnectionService pluginCS = getPluginCS();
+			if(pluginCS != null && pluginCS.isServiceBound()) {
+				pluginCS.getConnectionManager().getDownloadManager().setMaxConcurrentDownloads(Integer.parseInt((String) newValue));
+			}
+			
+			//Accepting the change
+			return true;
+		};
 		@RequiresApi(api = Build.VERSION_CODES.N)
 		Preference.OnPreferenceChangeListener textIntegrationChangeListener = (preference, newValue) -> {
 			//Checking if the preference is enabled
@@ -490,6 +501,7 @@ public class Preferences extends AppCompatCompositeActivity implements Preferenc
 			findPreference(getResources().getString(R.string.preference_storage_deleteattachments_key)).setOnPreferenceClickListener(deleteAttachmentsClickListener);
 			findPreference(getResources().getString(R.string.preference_server_downloadmessages_key)).setOnPreferenceClickListener(syncMessagesClickListener);
 			findPreference(getResources().getString(R.string.preference_appearance_theme_key)).setOnPreferenceChangeListener(themeChangeListener);
+			findPreference(getResources().getString(R.string.preference_storage_concurrentdownloads_key)).setOnPreferenceChangeListener(concurrentDownloadsChangeListener);
 			{
 				Preference preference = findPreference(getResources().getString(R.string.preference_account_accountdetails_key));
 				if(preference != null) {
@@ -1101,6 +1113,10 @@ public class Preferences extends AppCompatCompositeActivity implements Preferenc
 		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(context.getResources().getString(R.string.preference_storage_autodownload_key), true);
 	}
 	
+	public static int getPreferenceMaxConcurrentDownloads(Context context) {
+		return Integer.parseInt(PreferenceManager.getDefaultSharedPreferences(context).getString(context.getResources().getString(R.string.preference_storage_concurrentdownloads_key), Integer.toString(AttachmentDownloadManager.defaultMaxConcurrentDownloads)));
+	}
+	
 	public static boolean getPreferenceSMSDeliveryReports(Context context) {
 		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(context.getResources().getString(R.string.preference_textmessage_deliveryreport_key), false);
 	}
@@ -1129,6 +1145,10 @@ public class Preferences extends AppCompatCompositeActivity implements Preferenc
 		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(context.getResources().getString(R.string.preference_server_connectionboot_key), false);
 	}
 	
+	public static boolean getPreferenceNonBlockingConnection(Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(context.getResources().getString(R.string.preference_server_nonblocking_key), false);
+	}
+	
 	public static void updateConnectionServiceBootEnabled(Context context) {
 		int accountType = SharedPreferencesManager.getProxyType(context);
 		updateConnectionServiceBootEnabled(context, getPreferenceStartOnBoot(context) && accountType == ProxyType.direct); //Don't start on boot if we're using Connect
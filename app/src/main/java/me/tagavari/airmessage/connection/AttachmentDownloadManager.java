@@ -0,0 +1,277 @@
+package me.tagavari.airmessage.connection;
+
+import androidx.annotation.NonNull;
+import androidx.core.util.Supplier;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import me.tagavari.airmessage.enums.DownloadPriority;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Schedules attachment downloads, limiting how many can run at once and starting higher-priority downloads first
+ * Downloads whose attachments aren't on screen wait behind all other downloads, with {@link DownloadPriority#background} priority.
+ */
+public class AttachmentDownloadManager {
+	//Creating the constants
+	public static final int defaultMaxConcurrentDownloads = 3;
+	private static final int ioThreadCount = 2;
+	
+	//Creating the shared I/O pool, for writing downloaded data to disk
+	private static final ExecutorService ioExecutor = Executors.newFixedThreadPool(ioThreadCount);
+	
+	//Creating the state values
+	private final Queue<PendingDownload> pendingQueue = new PriorityQueue<>(11, (download1, download2) -> {
+		//Sorting by priority, then by the order the downloads were queued in
+		int priority1 = download1.getEffectivePriority();
+		int priority2 = download2.getEffectivePriority();
+		if(priority1 != priority2) return Integer.compare(priority1, priority2);
+		else return Long.compare(download1.sequence, download2.sequence);
+	});
+	private long nextSequence = 0;
+	private int activeCount = 0;
+	private int maxConcurrentDownloads = defaultMaxConcurrentDownloads;
+	
+	/**
+	 * Creates a scheduler for a download's disk operations
+	 * Tasks submitted to the scheduler run one at a time in the order they were submitted, on the shared I/O pool
+	 */
+	public static Scheduler createRequestScheduler() {
+		return Schedulers.from(new SerialExecutor(ioExecutor));
+	}
+	
+	/**
+	 * Queues a download, and starts it once there is room for another download
+	 * @param key A key that identifies this download, such as the local ID of the attachment
+	 * @param priority The priority of this download
+	 * @param taskSupplier A supplier that starts the download
+	 * @return An observable that mirrors the download task once it has started
+	 */
+	public <T> Observable<T> enqueue(long key, @DownloadPriority int priority, Supplier<Observable<T>> taskSupplier) {
+		return Observable.create(emitter -> {
+			PendingDownload download = new PendingDownload(key, priority);
+			download.startAction = () -> {
+				Disposable disposable = taskSupplier.get().subscribe(
+						emitter::onNext,
+						(error) -> {
+							finishDownload(download);
+							emitter.tryOnError(error);
+						},
+						() -> {
+							finishDownload(download);
+							emitter.onComplete();
+						}
+				);
+				download.setDisposable(disposable);
+			};
+			emitter.setCancellable(() -> cancelDownload(download));
+			
+			//Queuing the download
+			synchronized(this) {
+				download.sequence = nextSequence++;
+				pendingQueue.add(download);
+			}
+			startPendingDownloads();
+		});
+	}
+	
+	/**
+	 * Raises the priority of a download that is still waiting to start
+	 * Downloads that have already started, or that already have an equal or higher priority, are left as they are
+	 * @param key The key of the download
+	 * @param priority The new priority of the download
+	 * @return Whether a pending download was found and moved up the queue
+	 */
+	public synchronized boolean promote(long key, @DownloadPriority int priority) {
+		PendingDownload download = findPending(key);
+		if(download == null || download.priority <= priority) return false;
+		
+		//Re-adding the download to update its position in the queue
+		pendingQueue.remove(download);
+		download.priority = priority;
+		pendingQueue.add(download);
+		return true;
+	}
+	
+	/**
+	 * Updates whether a download's attachment is on screen
+	 * A pending download is moved behind all other downloads when its attachment leaves the screen, and back to its original priority when it returns.
+	 * @param key The key of the download
+	 * @param onScreen Whether the download's attachment is on screen
+	 * @return Whether a pending download was found
+	 */
+	public synchronized boolean setOnScreen(long key, boolean onScreen) {
+		PendingDownload download = findPending(key);
+		if(download == null) return false;
+		if(download.onScreen == onScreen) return true;
+		
+		//Re-adding the download to update its position in the queue
+		pendingQueue.remove(download);
+		download.onScreen = onScreen;
+		pendingQueue.add(download);
+		return true;
+	}
+	
+	/**
+	 * Finds a download that is waiting to start
+	 */
+	private PendingDownload findPending(long key) {
+		for(PendingDownload download : pendingQueue) {
+			if(download.key == key) return download;
+		}
+		return null;
+	}
+	
+	/**
+	 * Sets the maximum amount of downloads that can run at once
+	 */
+	public void setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+		if(maxConcurrentDownloads < 1) throw new IllegalArgumentException("Max concurrent downloads must be at least 1");
+		
+		synchronized(this) {
+			this.maxConcurrentDownloads = maxConcurrentDownloads;
+		}
+		startPendingDownloads();
+	}
+	
+	/**
+	 * Gets the maximum amount of downloads that can run at once
+	 */
+	public synchronized int getMaxConcurrentDownloads() {
+		return maxConcurrentDownloads;
+	}
+	
+	/**
+	 * Gets the amount of downloads that are currently running
+	 */
+	public synchronized int getActiveCount() {
+		return activeCount;
+	}
+	
+	/**
+	 * Gets the amount of downloads that are waiting to start
+	 */
+	public synchronized int getPendingCount() {
+		return pendingQueue.size();
+	}
+	
+	/**
+	 * Starts as many pending downloads as there is room for
+	 */
+	private void startPendingDownloads() {
+		//Taking downloads from the queue
+		List<PendingDownload> startList = new ArrayList<>();
+		synchronized(this) {
+			while(activeCount < maxConcurrentDownloads && !pendingQueue.isEmpty()) {
+				PendingDownload download = pendingQueue.remove();
+				download.isStarted = true;
+				activeCount++;
+				startList.add(download);
+			}
+		}
+		
+		//Starting the downloads outside of the lock, in case they finish immediately
+		for(PendingDownload download : startList) download.startAction.run();
+	}
+	
+	/**
+	 * Frees up a download's slot, and starts the next pending download
+	 */
+	private void finishDownload(PendingDownload download) {
+		synchronized(this) {
+			if(download.isFinished) return;
+			download.isFinished = true;
+			activeCount--;
+		}
+		startPendingDownloads();
+	}
+	
+	/**
+	 * Cancels a download, either removing it from the queue or stopping it if it has already started
+	 */
+	private void cancelDownload(PendingDownload download) {
+		synchronized(this) {
+			if(!download.isStarted) {
+				pendingQueue.remove(download);
+				return;
+			}
+		}
+		
+		download.dispose();
+		finishDownload(download);
+	}
+	
+	private static class PendingDownload {
+		final long key;
+		int priority;
+		boolean onScreen = true;
+		long sequence;
+		Runnable startAction;
+		boolean isStarted = false;
+		boolean isFinished = false;
+		private Disposable disposable = null;
+		private boolean isDisposed = false;
+		
+		PendingDownload(long key, int priority) {
+			this.key = key;
+			this.priority = priority;
+		}
+		
+		/**
+		 * Gets the priority to sort this download by, taking into account whether its attachment is on screen
+		 */
+		int getEffectivePriority() {
+			return onScreen ? priority : DownloadPriority.background;
+		}
+		
+		synchronized void setDisposable(Disposable disposable) {
+			if(isDisposed) disposable.dispose();
+			else this.disposable = disposable;
+		}
+		
+		synchronized void dispose() {
+			isDisposed = true;
+			if(disposable != null) disposable.dispose();
+		}
+	}
+	
+	/**
+	 * An executor that runs tasks one at a time on another executor
+	 */
+	private static class SerialExecutor implements Executor {
+		private final Queue<Runnable> tasks = new ArrayDeque<>();
+		private final Executor executor;
+		private Runnable active;
+		
+		SerialExecutor(Executor executor) {
+			this.executor = executor;
+		}
+		
+		@Override
+		public synchronized void execute(@NonNull Runnable runnable) {
+			tasks.add(() -> {
+				try {
+					runnable.run();
+				} finally {
+					scheduleNext();
+				}
+			});
+			if(active == null) scheduleNext();
+		}
+		
+		private synchronized void scheduleNext() {
+			if((active = tasks.poll()) != null) {
+				executor.execute(active);
+			}
+		}
+	}
+}
\ No newline at end of file
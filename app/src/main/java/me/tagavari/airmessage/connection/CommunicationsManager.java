@@ -19,6 +19,7 @@ import me.tagavari.airmessage.util.ConversationTarget;
 import java.io.File;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public abstract class CommunicationsManager<Packet> {
 	//Creating the handler
@@ -26,12 +27,15 @@ public abstract class CommunicationsManager<Packet> {
 	
 	//Creating the connection values
 	private final CommunicationsManagerListener listener;
+	private final NetworkEventDispatcher eventDispatcher;
+	private final AtomicBoolean packetNotificationPending = new AtomicBoolean(false);
 	@ProxyType private final int dataProxyType;
 	private final DataProxy<Packet> dataProxy;
 	
 	public CommunicationsManager(CommunicationsManagerListener listener, @ProxyType int proxyType) {
 		//Setting the values
 		this.listener = listener;
+		eventDispatcher = new NetworkEventDispatcher(handler::post, listener);
 		this.dataProxyType = proxyType;
 		dataProxy = getDataProxy(proxyType);
 		
@@ -137,6 +141,14 @@ public abstract class CommunicationsManager<Packet> {
 	 */
 	public abstract boolean requestAttachmentDownload(short requestID, String attachmentGUID);
 	
+	/**
+	 * Stops tracking a download request that the client gave up on
+	 * The server isn't notified, and any further data it sends for the request is ignored.
+	 *
+	 * @param requestID The ID of the request
+	 */
+	public abstract void cancelAttachmentDownload(short requestID);
+	
 	/**
 	 * Sends a request to fetch conversation information
 	 *
@@ -277,10 +289,31 @@ public abstract class CommunicationsManager<Packet> {
 	}
 	
 	/**
-	 * Calls the provided callback function with the listener on the main thread
+	 * Calls the provided callback function with the listener on the main thread, once all earlier events have been handled
 	 */
 	public void runListener(Consumer<CommunicationsManagerListener> callback) {
-		handler.post(() -> callback.accept(getListener()));
+		eventDispatcher.dispatchMain(callback);
+	}
+	
+	/**
+	 * Calls the provided callback function with the listener on the network events thread, once all earlier events have been handled
+	 * This should be used for data events that don't need the main thread, such as message updates and file chunks.
+	 */
+	public void runDataListener(Consumer<CommunicationsManagerListener> callback) {
+		eventDispatcher.dispatchData(callback);
+	}
+	
+	/**
+	 * Notifies the listener on the main thread that a packet was received
+	 * Packets can arrive much faster than the main thread needs to hear about them, so this does nothing while an earlier notification is still waiting to run.
+	 */
+	protected void notifyPacketReceived() {
+		if(!packetNotificationPending.compareAndSet(false, true)) return;
+		
+		handler.post(() -> {
+			packetNotificationPending.set(false);
+			getListener().onPacket();
+		});
 	}
 	
 	/**
@@ -0,0 +1,142 @@
+package me.tagavari.airmessage.connection;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Keeps track of the connection details that change with every packet, such as the time of the last packet and the ID of the last message received from the server
+ * Changes are held in memory and written to disk together after a short delay, rather than once per packet. Call {@link #flush()} to write pending changes right away, such as when disconnecting or when the app is sent to the background.
+ * This class is not thread-safe, and should only be used from the main thread.
+ */
+class ConnectionBookkeeper {
+	//Creating the reference values
+	static final long flushDelayMillis = 10 * 1000; //10 seconds
+	
+	//Creating the bookkeeping values
+	private final Store store;
+	private final FlushTimer flushTimer;
+	private final Runnable flushRunnable = this::flush;
+	private boolean flushScheduled = false;
+	
+	private boolean lastConnectionTimeLoaded = false;
+	private boolean lastConnectionTimeDirty = false;
+	private long lastConnectionTime;
+	
+	private boolean lastServerMessageIDLoaded = false;
+	private boolean lastServerMessageIDDirty = false;
+	private long lastServerMessageID;
+	
+	/**
+	 * Creates a new connection bookkeeper
+	 * @param store The store to read and write values from
+	 * @param flushTimer The timer to schedule delayed writes with
+	 */
+	ConnectionBookkeeper(Store store, FlushTimer flushTimer) {
+		this.store = store;
+		this.flushTimer = flushTimer;
+	}
+	
+	/**
+	 * Gets the time this client last received data from the server, or -1 if unavailable
+	 */
+	long getLastConnectionTime() {
+		if(!lastConnectionTimeLoaded) {
+			lastConnectionTime = store.loadLastConnectionTime();
+			lastConnectionTimeLoaded = true;
+		}
+		
+		return lastConnectionTime;
+	}
+	
+	/**
+	 * Sets the time this client last received data from the server
+	 */
+	void setLastConnectionTime(long time) {
+		lastConnectionTime = time;
+		lastConnectionTimeLoaded = true;
+		lastConnectionTimeDirty = true;
+		scheduleFlush();
+	}
+	
+	/**
+	 * Gets the ID of the last message received from the server, or -1 if unavailable
+	 */
+	long getLastServerMessageID() {
+		if(!lastServerMessageIDLoaded) {
+			lastServerMessageID = store.loadLastServerMessageID();
+			lastServerMessageIDLoaded = true;
+		}
+		
+		return lastServerMessageID;
+	}
+	
+	/**
+	 * Sets the ID of the last message received from the server
+	 */
+	void setLastServerMessageID(long messageID) {
+		lastServerMessageID = messageID;
+		lastServerMessageIDLoaded = true;
+		lastServerMessageIDDirty = true;
+		scheduleFlush();
+	}
+	
+	/**
+	 * Removes the ID of the last message received from the server
+	 */
+	void removeLastServerMessageID() {
+		setLastServerMessageID(-1);
+	}
+	
+	/**
+	 * Writes any pending changes to the store
+	 */
+	void flush() {
+		//Cancelling the scheduled flush
+		if(flushScheduled) {
+			flushTimer.cancel(flushRunnable);
+			flushScheduled = false;
+		}
+		
+		//Ignoring if there are no changes to write
+		if(!lastConnectionTimeDirty && !lastServerMessageIDDirty) return;
+		
+		//Writing the changes
+		store.save(lastConnectionTimeDirty ? lastConnectionTime : null, lastServerMessageIDDirty ? lastServerMessageID : null);
+		lastConnectionTimeDirty = false;
+		lastServerMessageIDDirty = false;
+	}
+	
+	/**
+	 * Schedules a flush, if one isn't already scheduled
+	 */
+	private void scheduleFlush() {
+		if(flushScheduled) return;
+		
+		flushTimer.schedule(flushRunnable, flushDelayMillis);
+		flushScheduled = true;
+	}
+	
+	/**
+	 * Reads and writes connection details to disk
+	 */
+	interface Store {
+		long loadLastConnectionTime();
+		
+		long loadLastServerMessageID();
+		
+		/**
+		 * Writes connection details to disk
+		 * @param lastConnectionTime The last connection time to save, or NULL to leave it unchanged
+		 * @param lastServerMessageID The last server message ID to save, -1 to remove it, or NULL to leave it unchanged
+		 */
+		void save(@Nullable Long lastConnectionTime, @Nullable Long lastServerMessageID);
+	}
+	
+	/**
+	 * Runs delayed tasks
+	 */
+	interface FlushTimer {
+		void schedule(Runnable runnable, long delayMillis);
+		
+		void cancel(Runnable runnable);
+	}
+}
\ No newline at end of file
@@ -18,6 +18,7 @@ import androidx.arch.core.util.Function;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -28,6 +29,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -49,10 +51,12 @@ import kotlin.Pair;
 import kotlin.Unit;
 import me.tagavari.airmessage.MainApplication;
 import me.tagavari.airmessage.activity.Messaging;
+import me.tagavari.airmessage.activity.Preferences;
 import me.tagavari.airmessage.common.Blocks;
 import me.tagavari.airmessage.connection.comm5.ClientComm5;
 import me.tagavari.airmessage.connection.exception.AMRemoteUpdateException;
 import me.tagavari.airmessage.connection.exception.AMRequestException;
+import me.tagavari.airmessage.connection.exception.ChecksumMismatchException;
 import me.tagavari.airmessage.connection.listener.CommunicationsManagerListener;
 import me.tagavari.airmessage.connection.request.FileFetchRequest;
 import me.tagavari.airmessage.connection.request.MassRetrievalRequest;
@@ -68,6 +72,7 @@ import me.tagavari.airmessage.enums.ConnectionFeature;
 import me.tagavari.airmessage.enums.ConnectionMode;
 import me.tagavari.airmessage.enums.ConnectionState;
 import me.tagavari.airmessage.enums.ConversationState;
+import me.tagavari.airmessage.enums.DownloadPriority;
 import me.tagavari.airmessage.enums.FaceTimeInitiateCode;
 import me.tagavari.airmessage.enums.FaceTimeLinkErrorCode;
 import me.tagavari.airmessage.enums.MassRetrievalErrorCode;
@@ -105,10 +110,13 @@ public class ConnectionManager {
 	private static final long pingExpiryTime = 40 * 1000; //40 seconds
 	private static final long keepAliveMillis = 20 * 60 * 1000; //30 * 60 * 1000; //20 minutes
 	private static final long keepAliveWindowMillis = 5 * 60 * 1000; //5 minutes
+	private static final long connectionTestResetIntervalMillis = 60 * 1000; //1 minute, the minimum time between re-arming the ping alarm while packets are being received
 	private static final long[] immediateReconnectDelayMillis = {1000, 2 * 1000}; //1 second, 2 seconds
 	private static final long backgroundReconnectFrequencyMillis = 10 * 60 * 1000; //10 minutes
 	
 	private static final long requestTimeoutSeconds = 24;
+	private static final int downloadResumeAttempts = 3; //The amount of times to resume a download interrupted by a connection drop
+	private static final long downloadResumeWaitSeconds = 60; //How long to wait for the connection to come back before giving up on an interrupted download
 	
 	private static final String intentActionPing = "me.tagavari.airmessage.connection.ConnectionManager-Ping";
 	private static final String intentActionBackgroundReconnect = "me.tagavari.airmessage.connection.ConnectionManager-BackgroundReconnect";
@@ -116,6 +124,9 @@ public class ConnectionManager {
 	//Schedulers
 	private final Scheduler uploadScheduler = Schedulers.from(Executors.newSingleThreadExecutor(), true);
 	
+	//Download manager
+	private final AttachmentDownloadManager downloadManager = new AttachmentDownloadManager();
+	
 	//Handler
 	private final Handler handler = new Handler(Looper.getMainLooper());
 	
@@ -137,12 +148,41 @@ public class ConnectionManager {
 		}
 	};
 	private final Runnable pingExpiryRunnable = () -> disconnect(ConnectionErrorCode.connection);
+	private long lastConnectionTestResetTime = -1;
+	
+	//Connection bookkeeping, written to disk in batches rather than once per packet
+	private final ConnectionBookkeeper bookkeeper = new ConnectionBookkeeper(new ConnectionBookkeeper.Store() {
+		@Override
+		public long loadLastConnectionTime() {
+			return SharedPreferencesManager.getLastConnectionTime(getContext());
+		}
+		
+		@Override
+		public long loadLastServerMessageID() {
+			return SharedPreferencesManager.getLastServerMessageID(getContext());
+		}
+		
+		@Override
+		public void save(@Nullable Long lastConnectionTime, @Nullable Long lastServerMessageID) {
+			SharedPreferencesManager.setConnectionBookkeeping(getContext(), lastConnectionTime, lastServerMessageID);
+		}
+	}, new ConnectionBookkeeper.FlushTimer() {
+		@Override
+		public void schedule(Runnable runnable, long delayMillis) {
+			handler.postDelayed(runnable, delayMillis);
+		}
+		
+		@Override
+		public void cancel(Runnable runnable) {
+			handler.removeCallbacks(runnable);
+		}
+	});
 	
 	//Intents
 	private final PendingIntent pingPendingIntent, reconnectPendingIntent;
 	
 	//Connection values
-	private CommunicationsManager<?> communicationsManager = null;
+	private volatile CommunicationsManager<?> communicationsManager = null;
 	private final Runnable immediateReconnectRunnable = () -> connectFromList(getContext(), 0);
 	private int immediateReconnectIndex = 0;
 	
@@ -175,7 +215,7 @@ public class ConnectionManager {
 	private final CompositeDisposable compositeDisposable = new CompositeDisposable();
 	
 	//Response values
-	private final Map<Short, RequestSubject<?, ?>> idRequestSubjectMap = new HashMap<>(); //For ID-based requests
+	private final Map<Short, RequestSubject<?, ?>> idRequestSubjectMap = new ConcurrentHashMap<>(); //For ID-based requests, read from the network events thread
 	private SingleSubject<String> faceTimeLinkSubject = null;
 	private CompletableSubject faceTimeInitiateSubject = null;
 
@@ -184,6 +224,9 @@ public class ConnectionManager {
 	@Nullable private ConnectionOverride<?> connectionOverride = null;
 	
 	public ConnectionManager(Context context) {
+		//Applying the download limit
+		downloadManager.setMaxConcurrentDownloads(Preferences.getPreferenceMaxConcurrentDownloads(context));
+		
 		//Registering broadcast listeners
 		pingPendingIntent = PendingIntent.getBroadcast(context, 0, new Intent(intentActionPing), PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
 		context.registerReceiver(pingBroadcastReceiver, new IntentFilter(intentActionPing));
@@ -220,6 +263,17 @@ public class ConnectionManager {
 		
 		//Cancelling all reconnection timers
 		stopCurrentMode();
+		
+		//Writing pending connection details to disk
+		bookkeeper.flush();
+	}
+	
+	/**
+	 * Writes any pending connection details to disk
+	 * This should be called when the app's process may be about to be killed, such as when it is sent to the background.
+	 */
+	public void flushBookkeeping() {
+		bookkeeper.flush();
 	}
 	
 	private Context getContext() {
@@ -238,8 +292,8 @@ public class ConnectionManager {
 			serverSupportsFaceTime = supportsFaceTime;
 			
 			//Updating shared preferences
-			long lastConnectionTime = SharedPreferencesManager.getLastConnectionTime(getContext());
-			SharedPreferencesManager.setLastConnectionTime(getContext(), System.currentTimeMillis());
+			long lastConnectionTime = bookkeeper.getLastConnectionTime();
+			bookkeeper.setLastConnectionTime(System.currentTimeMillis());
 			if(userName != null) SharedPreferencesManager.setServerUserName(getContext(), userName);
 			SharedPreferencesManager.setServerSupportsFaceTime(getContext(), serverSupportsFaceTime);
 			
@@ -289,9 +343,9 @@ public class ConnectionManager {
 			//Checking if we are connected to a new server
 			if(isNewServer) {
 				//Resetting the last message ID
-				SharedPreferencesManager.removeLastServerMessageID(getContext());
+				bookkeeper.removeLastServerMessageID();
 			} else {
-				long lastServerMessageID = SharedPreferencesManager.getLastServerMessageID(getContext());
+				long lastServerMessageID = bookkeeper.getLastServerMessageID();
 				
 				//Fetching missed messages
 				if(communicationsManager.isFeatureSupported(ConnectionFeature.idBasedRetrieval) && lastServerMessageID != -1) {
@@ -331,6 +385,9 @@ public class ConnectionManager {
 				
 				//Cancelling connection test timers
 				cancelConnectionTest(getContext());
+				
+				//Writing pending connection details to disk
+				bookkeeper.flush();
 
 				//Removing any pending updates
 				ReduxEmitterNetwork.getRemoteUpdateSubject().onNext(Optional.empty());
@@ -384,16 +441,22 @@ public class ConnectionManager {
 		public void onPacket() {
 			if(connState == ConnectionState.connected) {
 				//Updating the last connection time
-				SharedPreferencesManager.setLastConnectionTime(getContext(), System.currentTimeMillis());
+				bookkeeper.setLastConnectionTime(System.currentTimeMillis());
 				
-				//Resetting connection tests
-				resetConnectionTest(getContext());
+				//Resetting connection tests, only re-arming the ping alarm if it hasn't been done recently
+				if(lastConnectionTestResetTime == -1 || SystemClock.elapsedRealtime() - lastConnectionTestResetTime >= connectionTestResetIntervalMillis) {
+					resetConnectionTest(getContext());
+				} else {
+					handler.removeCallbacks(pingExpiryRunnable);
+				}
 			}
 		}
 		
 		@Override
 		public void onMessageUpdate(Collection<Blocks.ConversationItem> data) {
 			//Filtering out data that would be received over FCM
+			CommunicationsManager<?> communicationsManager = ConnectionManager.this.communicationsManager;
+			if(communicationsManager == null) return;
 			Collection<Blocks.ConversationItem> filteredData;
 			if(communicationsManager.getDataProxyType() == ProxyType.connect && communicationsManager.isFeatureSupported(ConnectionFeature.payloadPushNotifications)) {
 				filteredData = data.stream().filter(item -> !(item instanceof Blocks.MessageInfo && ((Blocks.MessageInfo) item).sender != null)).collect(Collectors.toList());
@@ -571,7 +634,7 @@ public class ConnectionManager {
 		}
 		
 		@Override
-		public void onMassRetrievalFileProgress(short requestID, int responseIndex, String fileGUID, byte[] fileData) {
+		public void onMassRetrievalFileProgress(short requestID, int responseIndex, String fileGUID, ByteBuffer fileData) {
 			//Getting the request
 			RequestSubject.Publish<ReduxEventMassRetrieval, MassRetrievalRequest> subject = (RequestSubject.Publish<ReduxEventMassRetrieval, MassRetrievalRequest>) idRequestSubjectMap.get(requestID);
 			if(subject == null) return;
@@ -680,6 +743,8 @@ public class ConnectionManager {
 		@Override
 		public void onModifierUpdate(Collection<Blocks.ModifierInfo> data) {
 			//Filtering out data that would be received over FCM
+			CommunicationsManager<?> communicationsManager = ConnectionManager.this.communicationsManager;
+			if(communicationsManager == null) return;
 			Collection<Blocks.ModifierInfo> filteredData;
 			if(communicationsManager.getDataProxyType() == ProxyType.connect && communicationsManager.isFeatureSupported(ConnectionFeature.payloadPushNotifications)) {
 				filteredData = data.stream().filter(item -> !(item instanceof Blocks.TapbackModifierInfo && ((Blocks.TapbackModifierInfo) item).sender != null)).collect(Collectors.toList());
@@ -701,7 +766,7 @@ public class ConnectionManager {
 		}
 		
 		@Override
-		public void onFileRequestStart(short requestID, @Nullable String downloadFileName, @Nullable String downloadFileType, long fileLength, @Nullable Function<OutputStream, OutputStream> streamWrapper) {
+		public void onFileRequestStart(short requestID, @Nullable String downloadFileName, @Nullable String downloadFileType, long fileLength, int chunkSize, @Nullable Function<OutputStream, OutputStream> streamWrapper) {
 			//Getting the request
 			RequestSubject.Publish<ReduxEventAttachmentDownload, FileFetchRequest> subject = (RequestSubject.Publish<ReduxEventAttachmentDownload, FileFetchRequest>) idRequestSubjectMap.get(requestID);
 			if(subject == null) return;
@@ -709,7 +774,7 @@ public class ConnectionManager {
 			//Initializing the request
 			FileFetchRequest fileFetchRequest = subject.getRequestData();
 			try {
-				fileFetchRequest.initialize(getContext(), downloadFileName, downloadFileType, fileLength, streamWrapper);
+				fileFetchRequest.initialize(getContext(), downloadFileName, downloadFileType, fileLength, chunkSize, streamWrapper);
 			} catch(IOException exception) {
 				subject.onError(new AMRequestException(AttachmentReqErrorCode.localIO));
 				idRequestSubjectMap.remove(requestID);
@@ -721,7 +786,7 @@ public class ConnectionManager {
 		}
 		
 		@Override
-		public void onFileRequestData(short requestID, int responseIndex, byte[] data) {
+		public void onFileRequestData(short requestID, int responseIndex, ByteBuffer data) {
 			//Getting the request
 			RequestSubject.Publish<ReduxEventAttachmentDownload, FileFetchRequest> subject = (RequestSubject.Publish<ReduxEventAttachmentDownload, FileFetchRequest>) idRequestSubjectMap.get(requestID);
 			if(subject == null) return;
@@ -734,7 +799,7 @@ public class ConnectionManager {
 						RequestSubject.Publish<ReduxEventAttachmentDownload, FileFetchRequest> localSubject = (RequestSubject.Publish<ReduxEventAttachmentDownload, FileFetchRequest>) idRequestSubjectMap.get(requestID);
 						if(localSubject == null) return;
 						
-						localSubject.get().onNext(new ReduxEventAttachmentDownload.Progress(writtenLength, fileFetchRequest.getTotalLength()));
+						localSubject.get().onNext(new ReduxEventAttachmentDownload.Progress(writtenLength, fileFetchRequest.getTotalLength(), fileFetchRequest.getChunkSize()));
 					}, (error) -> {
 						//Getting the request
 						RequestSubject.Publish<ReduxEventAttachmentDownload, FileFetchRequest> localSubject = (RequestSubject.Publish<ReduxEventAttachmentDownload, FileFetchRequest>) idRequestSubjectMap.get(requestID);
@@ -774,7 +839,11 @@ public class ConnectionManager {
 						RequestSubject.Publish<ReduxEventAttachmentDownload, FileFetchRequest> localSubject = (RequestSubject.Publish<ReduxEventAttachmentDownload, FileFetchRequest>) idRequestSubjectMap.get(requestID);
 						if(localSubject == null) return;
 						
-						localSubject.onError(new AMRequestException(AttachmentReqErrorCode.localIO));
+						if(error instanceof ChecksumMismatchException) {
+							localSubject.onError(new AMRequestException(AttachmentReqErrorCode.localBadResponse, error));
+						} else {
+							localSubject.onError(new AMRequestException(AttachmentReqErrorCode.localIO, error));
+						}
 						idRequestSubjectMap.remove(requestID);
 					})
 			);
@@ -793,7 +862,7 @@ public class ConnectionManager {
 		
 		@Override
 		public void onIDUpdate(long messageID) {
-			SharedPreferencesManager.setLastServerMessageID(getContext(), messageID);
+			bookkeeper.setLastServerMessageID(messageID);
 		}
 		
 		@Override
@@ -1166,6 +1235,7 @@ public class ConnectionManager {
 				SystemClock.elapsedRealtime() + keepAliveMillis - keepAliveWindowMillis,
 				keepAliveWindowMillis * 2,
 				pingPendingIntent);
+		lastConnectionTestResetTime = SystemClock.elapsedRealtime();
 	}
 	
 	/**
@@ -1177,6 +1247,7 @@ public class ConnectionManager {
 		
 		//Cancelling the ping timer
 		context.getSystemService(AlarmManager.class).cancel(pingPendingIntent);
+		lastConnectionTestResetTime = -1;
 	}
 	
 	/**
@@ -1239,9 +1310,48 @@ public class ConnectionManager {
 	 * @param attachmentLocalID The local ID of the attachment
 	 * @param attachmentGUID The GUID of the attachment
 	 * @param attachmentName The name of the attachment file
+	 * @param priority The priority of this download relative to other downloads
 	 * @return An observable to track the progress of the download, or an {@link AMRequestException} with an {@link AttachmentReqErrorCode}
 	 */
-	public Observable<ReduxEventAttachmentDownload> fetchAttachment(long messageLocalID, long attachmentLocalID, String attachmentGUID, String attachmentName) {
+	public Observable<ReduxEventAttachmentDownload> fetchAttachment(long messageLocalID, long attachmentLocalID, String attachmentGUID, String attachmentName, @DownloadPriority int priority) {
+		//Waiting for room to start the download
+		return downloadManager.enqueue(attachmentLocalID, priority, () -> startResumableFetchAttachment(messageLocalID, attachmentLocalID, attachmentGUID, attachmentName, 0));
+	}
+	
+	/**
+	 * Starts fetching an attachment, and resumes the download once the connection comes back if it is interrupted
+	 * @param attempt The amount of times this download has already been resumed
+	 */
+	private Observable<ReduxEventAttachmentDownload> startResumableFetchAttachment(long messageLocalID, long attachmentLocalID, String attachmentGUID, String attachmentName, int attempt) {
+		return startFetchAttachment(messageLocalID, attachmentLocalID, attachmentGUID, attachmentName).onErrorResumeNext((error) -> {
+			//Only resuming downloads that were interrupted by the connection after receiving some data
+			if(!isDownloadResumable(error) || !FileFetchRequest.hasPartialDownload(getContext(), attachmentLocalID)) return Observable.error(error);
+			
+			//Giving up on the partial download once we're out of attempts
+			if(attempt >= downloadResumeAttempts) {
+				FileFetchRequest.discardPartialDownload(getContext(), attachmentLocalID);
+				return Observable.error(error);
+			}
+			
+			//Waiting for the connection to come back, then picking up where we left off
+			return ReduxEmitterNetwork.getConnectionStateSubject()
+					.filter((event) -> event instanceof ReduxEventConnection.Connected)
+					.firstOrError()
+					.timeout(downloadResumeWaitSeconds, TimeUnit.SECONDS, Single.error(error))
+					.observeOn(AndroidSchedulers.mainThread())
+					.doOnError((timeoutError) -> FileFetchRequest.discardPartialDownload(getContext(), attachmentLocalID))
+					.flatMapObservable((event) -> startResumableFetchAttachment(messageLocalID, attachmentLocalID, attachmentGUID, attachmentName, attempt + 1));
+		});
+	}
+	
+	/**
+	 * Gets whether an attachment download that failed with the specified error can be resumed later
+	 */
+	private static boolean isDownloadResumable(Throwable error) {
+		return error instanceof AMRequestException && ((AMRequestException) error).getErrorCode() == AttachmentReqErrorCode.localTimeout;
+	}
+	
+	private Observable<ReduxEventAttachmentDownload> startFetchAttachment(long messageLocalID, long attachmentLocalID, String attachmentGUID, String attachmentName) {
 		final Throwable error = new AMRequestException(AttachmentReqErrorCode.localTimeout);
 		
 		//Failing immediately if there is no network connection
@@ -1251,15 +1361,20 @@ public class ConnectionManager {
 		short requestID = generateRequestID();
 		
 		//Sending the request
+		CommunicationsManager<?> communicationsManager = this.communicationsManager;
 		boolean result = communicationsManager.requestAttachmentDownload(requestID, attachmentGUID);
 		if(!result) return Observable.error(error);
 		
 		//Adding the request
 		FileFetchRequest fileFetchRequest = new FileFetchRequest(messageLocalID, attachmentLocalID, attachmentName);
 		return this.<ReduxEventAttachmentDownload, FileFetchRequest>queueObservableIDRequest(requestID, error, fileFetchRequest).doOnError((observableError) -> {
-			//Cleaning up
-			fileFetchRequest.cancel();
-		});
+			//Keeping the partial file if the download can be resumed, otherwise cleaning up
+			if(isDownloadResumable(observableError)) fileFetchRequest.suspend();
+			else fileFetchRequest.cancel();
+			
+			//Letting the protocol forget about the request
+			communicationsManager.cancelAttachmentDownload(requestID);
+		}).doOnDispose(() -> communicationsManager.cancelAttachmentDownload(requestID));
 	}
 	
 	/**
@@ -1549,6 +1664,13 @@ public class ConnectionManager {
 		else return null;
 	}
 	
+	/**
+	 * Gets the manager that schedules attachment downloads
+	 */
+	public AttachmentDownloadManager getDownloadManager() {
+		return downloadManager;
+	}
+	
 	/**
 	 * Gets if a mass retrieval is currently in progress
 	 */
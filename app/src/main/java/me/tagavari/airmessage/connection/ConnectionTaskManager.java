@@ -4,14 +4,18 @@ import androidx.annotation.Nullable;
 import io.reactivex.rxjava3.annotations.CheckReturnValue;
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.subjects.BehaviorSubject;
+import me.tagavari.airmessage.enums.DownloadPriority;
 import me.tagavari.airmessage.redux.ReduxEventAttachmentDownload;
 import me.tagavari.airmessage.util.TaskManagerLongBehavior;
 
 public class ConnectionTaskManager {
 	private static final TaskManagerLongBehavior<ReduxEventAttachmentDownload> downloadAttachmentTaskManager = new TaskManagerLongBehavior<>();
 	
-	public static Observable<ReduxEventAttachmentDownload> downloadAttachment(ConnectionManager connectionManager, long messageLocalID, long attachmentLocalID, String attachmentGUID, String attachmentName) {
-		return downloadAttachmentTaskManager.run(attachmentLocalID, () -> connectionManager.fetchAttachment(messageLocalID, attachmentLocalID, attachmentGUID, attachmentName));
+	public static Observable<ReduxEventAttachmentDownload> downloadAttachment(ConnectionManager connectionManager, long messageLocalID, long attachmentLocalID, String attachmentGUID, String attachmentName, @DownloadPriority int priority) {
+		//Moving the download up the queue if it is already waiting with a lower priority
+		connectionManager.getDownloadManager().promote(attachmentLocalID, priority);
+		
+		return downloadAttachmentTaskManager.run(attachmentLocalID, () -> connectionManager.fetchAttachment(messageLocalID, attachmentLocalID, attachmentGUID, attachmentName, priority));
 	}
 	
 	public static boolean isAttachmentDownloading(long attachmentLocalID) {
@@ -0,0 +1,64 @@
+package me.tagavari.airmessage.connection;
+
+import androidx.annotation.Nullable;
+import androidx.core.util.Consumer;
+import me.tagavari.airmessage.connection.listener.CommunicationsManagerListener;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Passes events from a communications manager to its listener, in the order that they were received
+ * Data events, such as message updates and file chunks, are handled on a shared network events thread, so that a sync doesn't flood the main thread.
+ * Other events are handed off to the main thread, and the network events thread waits for them to finish before moving on to the next event.
+ */
+class NetworkEventDispatcher {
+	//Creating the network events executor, shared between all connections so that events from an old connection can't overtake those of a new one
+	private static final ExecutorService networkEventExecutor = Executors.newSingleThreadExecutor();
+	
+	//Creating the dispatcher values
+	private final Executor mainExecutor;
+	@Nullable private final CommunicationsManagerListener listener;
+	
+	/**
+	 * Creates a new network event dispatcher
+	 * @param mainExecutor The executor to run main thread events on
+	 * @param listener The listener to pass events to
+	 */
+	NetworkEventDispatcher(Executor mainExecutor, @Nullable CommunicationsManagerListener listener) {
+		this.mainExecutor = mainExecutor;
+		this.listener = listener;
+	}
+	
+	/**
+	 * Calls the provided callback function with the listener on the main thread, once all earlier events have been handled
+	 */
+	void dispatchMain(Consumer<CommunicationsManagerListener> callback) {
+		networkEventExecutor.execute(() -> {
+			CountDownLatch latch = new CountDownLatch(1);
+			mainExecutor.execute(() -> {
+				try {
+					callback.accept(listener);
+				} finally {
+					latch.countDown();
+				}
+			});
+			
+			//Waiting for the event to finish, so that later data events see its changes
+			try {
+				latch.await();
+			} catch(InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		});
+	}
+	
+	/**
+	 * Calls the provided callback function with the listener on the network events thread, once all earlier events have been handled
+	 */
+	void dispatchData(Consumer<CommunicationsManagerListener> callback) {
+		networkEventExecutor.execute(() -> callback.accept(listener));
+	}
+}
\ No newline at end of file
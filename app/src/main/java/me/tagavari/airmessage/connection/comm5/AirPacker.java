@@ -3,38 +3,61 @@ package me.tagavari.airmessage.connection.comm5;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 
 public class AirPacker implements AutoCloseable {
-	//4 MiB
-	private static final int bufferSize = 4 * 1024 * 1024;
-	//Shared instance for write operations
-	private static AirPacker instance = new AirPacker(ByteBuffer.allocate(bufferSize));
-	
+	//1 KiB
+	private static final int initialBufferSize = 1024;
+	//50 MB, the largest packet the server will accept
+	private static final int maxBufferSize = 50 * 1024 * 1024;
+	//64 KiB, the largest buffer an idle instance can hold on to
+	private static final int maxPooledBufferSize = 64 * 1024;
+	//The maximum amount of idle instances to keep around
+	private static final int maxPoolSize = 4;
+	//Shared instances for write operations
+	private static final Deque<AirPacker> pool = new ArrayDeque<>(maxPoolSize);
+	
+	/**
+	 * Gets a packer for writing a packet
+	 * Packers are not thread-safe, but each call to this method returns an instance that is not in use by anything else.
+	 * Close the packer once finished to return it to the pool.
+	 */
 	public static AirPacker get() {
-		return instance;
+		AirPacker packer;
+		synchronized(pool) {
+			packer = pool.pollFirst();
+		}
+		
+		if(packer == null) packer = new AirPacker(initialBufferSize, true);
+		return packer;
 	}
 	
-	private final ByteBuffer byteBuffer;
+	private final boolean isPooled;
+	private ByteBuffer byteBuffer;
 	
-	private AirPacker(ByteBuffer byteBuffer) {
-		this.byteBuffer = byteBuffer;
-		byteBuffer.mark();
+	private AirPacker(int capacity, boolean isPooled) {
+		this.byteBuffer = ByteBuffer.allocate(capacity);
+		this.isPooled = isPooled;
 	}
 	
 	public AirPacker(int capacity) {
-		this(ByteBuffer.allocate(capacity));
+		this(capacity, false);
 	}
 	
 	public void packBoolean(boolean value) throws BufferOverflowException {
+		ensureRemaining(1);
 		byteBuffer.put((byte) (value ? 1 : 0));
 	}
 	
 	public void packShort(short value) throws BufferOverflowException {
+		ensureRemaining(Short.SIZE / Byte.SIZE);
 		byteBuffer.putShort(value);
 	}
 	
 	public void packInt(int value) throws BufferOverflowException {
+		ensureRemaining(Integer.SIZE / Byte.SIZE);
 		byteBuffer.putInt(value);
 	}
 	
@@ -43,10 +66,12 @@ public class AirPacker implements AutoCloseable {
 	}
 	
 	public void packLong(long value) throws BufferOverflowException {
+		ensureRemaining(Long.SIZE / Byte.SIZE);
 		byteBuffer.putLong(value);
 	}
 	
 	public void packDouble(double value) throws BufferOverflowException {
+		ensureRemaining(Double.SIZE / Byte.SIZE);
 		byteBuffer.putDouble(value);
 	}
 	
@@ -69,6 +94,7 @@ public class AirPacker implements AutoCloseable {
 	
 	public void packPayload(byte[] bytes, int length) throws BufferOverflowException {
 		packInt(length);
+		ensureRemaining(length);
 		byteBuffer.put(bytes, 0, length);
 	}
 	
@@ -81,16 +107,61 @@ public class AirPacker implements AutoCloseable {
 		}
 	}
 	
+	/**
+	 * Grows the buffer if there isn't enough space to write the specified amount of bytes
+	 */
+	private void ensureRemaining(int length) throws BufferOverflowException {
+		if(byteBuffer.remaining() >= length) return;
+		
+		int requiredCapacity = byteBuffer.position() + length;
+		if(length < 0 || requiredCapacity < 0 || requiredCapacity > maxBufferSize) throw new BufferOverflowException();
+		
+		//Leaving some extra room after large writes, so the fields that follow a payload don't cause another copy
+		ByteBuffer newBuffer = ByteBuffer.allocate(Math.min(Math.max(byteBuffer.capacity() * 2, requiredCapacity + initialBufferSize), maxBufferSize));
+		byteBuffer.flip();
+		newBuffer.put(byteBuffer);
+		byteBuffer = newBuffer;
+	}
+	
 	public byte[] toByteArray() {
 		return Arrays.copyOfRange(byteBuffer.array(), 0, byteBuffer.position());
 	}
 	
+	/**
+	 * Creates a packet from the written data, without copying it
+	 * The packet takes ownership of this packer's buffer, and this packer continues with a new empty buffer
+	 * @param encrypt Whether the packet should be encrypted
+	 * @return A packet containing the written data
+	 */
+	public EncryptedPacket toPacket(boolean encrypt) {
+		ByteBuffer data = byteBuffer;
+		data.flip();
+		
+		//Leaving the new buffer empty until something is written, so that a packer that isn't used again doesn't hold on to memory
+		byteBuffer = ByteBuffer.allocate(0);
+		
+		return new EncryptedPacket(data, encrypt);
+	}
+	
 	public void reset() {
-		byteBuffer.reset();
+		byteBuffer.clear();
 	}
 	
 	@Override
 	public void close() {
 		reset();
+		
+		//Dropping large buffers, so that idle packers don't hold on to the memory used by a large packet
+		//and restoring the buffer given away by toPacket(), so that the next packet doesn't have to grow it from nothing
+		if(byteBuffer.capacity() == 0 || byteBuffer.capacity() > maxPooledBufferSize) {
+			byteBuffer = ByteBuffer.allocate(initialBufferSize);
+		}
+		
+		//Returning this packer to the pool
+		if(isPooled) {
+			synchronized(pool) {
+				if(pool.size() < maxPoolSize) pool.offerFirst(this);
+			}
+		}
 	}
 }
\ No newline at end of file
@@ -47,7 +47,18 @@ public class AirUnpacker {
 	
 	@NonNull
 	public String unpackString() throws BufferUnderflowException, LargeAllocationException {
-		return new String(unpackPayload(), StandardCharsets.UTF_8);
+		int length = unpackPayloadLength();
+		
+		//Decoding the string directly from the packet data if possible
+		if(!byteBuffer.hasArray()) {
+			byte[] data = new byte[length];
+			byteBuffer.get(data);
+			return new String(data, StandardCharsets.UTF_8);
+		}
+		
+		String string = new String(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), length, StandardCharsets.UTF_8);
+		byteBuffer.position(byteBuffer.position() + length);
+		return string;
 	}
 	
 	public String unpackNullableString() throws BufferUnderflowException, LargeAllocationException {
@@ -60,13 +71,37 @@ public class AirUnpacker {
 	
 	@NonNull
 	public byte[] unpackPayload() throws BufferUnderflowException, LargeAllocationException {
+		int length = unpackPayloadLength();
+		byte[] data = new byte[length];
+		byteBuffer.get(data);
+		return data;
+	}
+	
+	/**
+	 * Unpacks a payload without copying it
+	 * @return A view of the payload, backed by this unpacker's buffer
+	 */
+	@NonNull
+	public ByteBuffer unpackPayloadBuffer() throws BufferUnderflowException, LargeAllocationException {
+		int length = unpackPayloadLength();
+		ByteBuffer data = byteBuffer.slice();
+		data.limit(length);
+		byteBuffer.position(byteBuffer.position() + length);
+		return data;
+	}
+	
+	/**
+	 * Reads the length of a payload, and validates that the payload is available
+	 */
+	private int unpackPayloadLength() throws BufferUnderflowException, LargeAllocationException {
 		int length = unpackInt();
 		if(length >= maxPacketAllocation) {
 			throw new LargeAllocationException(length, maxPacketAllocation);
 		}
-		byte[] data = new byte[length];
-		byteBuffer.get(data);
-		return data;
+		if(length < 0 || length > byteBuffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		return length;
 	}
 	
 	public byte[] unpackNullablePayload() throws BufferUnderflowException, LargeAllocationException {
@@ -0,0 +1,55 @@
+package me.tagavari.airmessage.connection.comm5;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks attachment chunk sizes based on the throughput measured from previous chunks
+ * Chunks are sized so that each one takes roughly the same amount of time to transfer, which keeps round trips low on fast connections
+ * and keeps retransmits and progress updates small on slow connections
+ */
+class ChunkSizeController {
+	//Creating the constants
+	static final int minChunkSize = 64 * 1024; //64 kB
+	static final int maxChunkSize = 8 * 1024 * 1024; //8 MB
+	static final int defaultChunkSize = 1024 * 1024; //1 MB
+	private static final int chunkSizeStep = 64 * 1024; //64 kB
+	private static final long targetChunkNanos = TimeUnit.MILLISECONDS.toNanos(500); //500 milliseconds
+	private static final double smoothingFactor = 0.3;
+	
+	//Creating the state values
+	private double bytesPerSecond = -1;
+	
+	/**
+	 * Records the transfer of a chunk
+	 * @param length The length of the chunk in bytes
+	 * @param elapsedNanos The time it took to transfer the chunk
+	 */
+	synchronized void recordChunk(long length, long elapsedNanos) {
+		if(length <= 0 || elapsedNanos <= 0) return;
+		
+		//Smoothing out the measured throughput
+		double sample = (double) length * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+		if(bytesPerSecond < 0) bytesPerSecond = sample;
+		else bytesPerSecond = smoothingFactor * sample + (1 - smoothingFactor) * bytesPerSecond;
+	}
+	
+	/**
+	 * Gets the measured throughput in bytes per second, or -1 if no chunks have been recorded
+	 */
+	synchronized double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+	
+	/**
+	 * Gets the chunk size to use for the next request
+	 */
+	synchronized int getChunkSize() {
+		//Using the default chunk size until we have a measurement
+		if(bytesPerSecond < 0) return defaultChunkSize;
+		
+		double chunkSize = bytesPerSecond * targetChunkNanos / TimeUnit.SECONDS.toNanos(1);
+		if(chunkSize <= minChunkSize) return minChunkSize;
+		else if(chunkSize >= maxChunkSize) return maxChunkSize;
+		else return (int) chunkSize / chunkSizeStep * chunkSizeStep;
+	}
+}
\ No newline at end of file
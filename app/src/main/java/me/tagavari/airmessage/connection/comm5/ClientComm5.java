@@ -6,6 +6,8 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import io.reactivex.rxjava3.core.Observable;
+import me.tagavari.airmessage.MainApplication;
+import me.tagavari.airmessage.activity.Preferences;
 import me.tagavari.airmessage.connection.CommunicationsManager;
 import me.tagavari.airmessage.connection.DataProxy;
 import me.tagavari.airmessage.connection.MassRetrievalParams;
@@ -23,6 +25,7 @@ import me.tagavari.airmessage.util.ConversationTarget;
 import java.io.File;
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.Collection;
@@ -81,7 +84,11 @@ public class ClientComm5 extends CommunicationsManager<EncryptedPacket> {
 	@Override
 	protected DataProxy<EncryptedPacket> getDataProxy(int proxyType) {
 		//Assigning the proxy
-		if(proxyType == ProxyType.direct) return new ProxyDirectTCP();
+		if(proxyType == ProxyType.direct) {
+			//Using a non-blocking channel if enabled
+			if(Preferences.getPreferenceNonBlockingConnection(MainApplication.getInstance())) return new ProxyDirectNIO();
+			else return new ProxyDirectTCP();
+		}
 		else if(proxyType == ProxyType.connect) return new ProxyConnect();
 		else throw new IllegalArgumentException("Unknown proxy type " + proxyType);
 	}
@@ -118,17 +125,17 @@ public class ClientComm5 extends CommunicationsManager<EncryptedPacket> {
 	@Override
 	protected void handleMessage(EncryptedPacket packet) {
 		//Sending an update for the received packet
-		runListener(CommunicationsManagerListener::onPacket);
+		notifyPacketReceived();
 		
 		//Processing the data
-		if(protocolManager != null) protocolManager.processData(packet.getData(), packet.getEncrypt());
-		else processFloatingData(packet.getData());
+		if(protocolManager != null) protocolManager.processData(packet.getDataBuffer(), packet.getEncrypt());
+		else processFloatingData(packet.getDataBuffer());
 	}
 	
 	/**
 	 * Processes any data before a protocol manager is selected, usually to handle version processing
 	 */
-	private void processFloatingData(byte[] data) {
+	private void processFloatingData(ByteBuffer data) {
 		//Unpacking the data
 		AirUnpacker unpacker = new AirUnpacker(data);
 		
@@ -226,6 +233,12 @@ public class ClientComm5 extends CommunicationsManager<EncryptedPacket> {
 		return protocolManager.requestAttachmentDownload(requestID, attachmentGUID);
 	}
 	
+	@Override
+	public void cancelAttachmentDownload(short requestID) {
+		if(protocolManager == null) return;
+		protocolManager.cancelAttachmentDownload(requestID);
+	}
+	
 	@Override
 	public boolean requestConversationInfo(Collection<String> conversations) {
 		if(protocolManager == null) return false;
@@ -26,6 +26,7 @@ import me.tagavari.airmessage.util.ConversationTarget;
 import java.io.*;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.security.DigestInputStream;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
@@ -103,7 +104,7 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 		try(AirPacker packer = AirPacker.get()) {
 			packer.packInt(header);
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), shouldEncrypt));
+			dataProxy.send(packer.toPacket(shouldEncrypt));
 			
 			return true;
 		} catch(BufferOverflowException exception) {
@@ -114,7 +115,7 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 	}
 	
 	@Override
-	void processData(byte[] data, boolean wasEncrypted) {
+	void processData(ByteBuffer data, boolean wasEncrypted) {
 		//Wrapping the data in an unpacker
 		AirUnpacker unpacker = new AirUnpacker(data);
 		try {
@@ -247,7 +248,7 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 	
 	private void handleMessageMessageUpdate(AirUnpacker unpacker) throws BufferUnderflowException, LargeAllocationException {
 		List<Blocks.ConversationItem> conversationItems = unpackConversationItems(unpacker);
-		communicationsManager.runListener(listener -> listener.onMessageUpdate(conversationItems));
+		communicationsManager.runDataListener(listener -> listener.onMessageUpdate(conversationItems));
 	}
 	
 	private void handleMessageMassRetrieval(AirUnpacker unpacker) {
@@ -271,7 +272,7 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 			List<Blocks.ConversationItem> conversationItems = unpackConversationItems(unpacker);
 			
 			//Processing the packet
-			communicationsManager.runListener(listener -> listener.onMassRetrievalUpdate(requestID, packetIndex, conversationItems));
+			communicationsManager.runDataListener(listener -> listener.onMassRetrievalUpdate(requestID, packetIndex, conversationItems));
 		}
 	}
 	
@@ -295,14 +296,12 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 		boolean isLast = unpacker.unpackBoolean();
 		
 		String fileGUID = unpacker.unpackString();
-		byte[] fileData = unpacker.unpackPayload();
+		ByteBuffer fileData = unpacker.unpackPayloadBuffer();
 		
 		//Processing the data
-		communicationsManager.runListener(listener -> {
-			if(requestIndex == 0) listener.onMassRetrievalFileStart(requestID, fileGUID, fileName, downloadFileName, downloadFileType, InflaterOutputStream::new);
-			listener.onMassRetrievalFileProgress(requestID, requestIndex, fileGUID, fileData);
-			if(isLast) listener.onMassRetrievalFileComplete(requestID, fileGUID);
-		});
+		if(requestIndex == 0) communicationsManager.runListener(listener -> listener.onMassRetrievalFileStart(requestID, fileGUID, fileName, downloadFileName, downloadFileType, InflaterOutputStream::new));
+		communicationsManager.runDataListener(listener -> listener.onMassRetrievalFileProgress(requestID, requestIndex, fileGUID, fileData));
+		if(isLast) communicationsManager.runListener(listener -> listener.onMassRetrievalFileComplete(requestID, fileGUID));
 	}
 	
 	private void handleMessageConversationUpdate(AirUnpacker unpacker) {
@@ -318,7 +317,7 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 		List<Blocks.ModifierInfo> modifiers = unpackModifiers(unpacker);
 		
 		//Processing the conversations
-		communicationsManager.runListener(listener -> listener.onModifierUpdate(modifiers));
+		communicationsManager.runDataListener(listener -> listener.onModifierUpdate(modifiers));
 	}
 	
 	private void handleMessageAttachmentRequest(AirUnpacker unpacker) {
@@ -341,14 +340,12 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 		
 		boolean isLast = unpacker.unpackBoolean();
 		
-		byte[] fileData = unpacker.unpackPayload();
+		ByteBuffer fileData = unpacker.unpackPayloadBuffer();
 		
 		//Forwarding the data to the listeners
-		communicationsManager.runListener(listener -> {
-			if(requestIndex == 0) listener.onFileRequestStart(requestID, downloadFileName, downloadFileType, fileLength, InflaterOutputStream::new);
-			listener.onFileRequestData(requestID, requestIndex, fileData);
-			if(isLast) listener.onFileRequestComplete(requestID);
-		});
+		if(requestIndex == 0) communicationsManager.runListener(listener -> listener.onFileRequestStart(requestID, downloadFileName, downloadFileType, fileLength, attachmentChunkSize, InflaterOutputStream::new));
+		communicationsManager.runDataListener(listener -> listener.onFileRequestData(requestID, requestIndex, fileData));
+		if(isLast) communicationsManager.runListener(listener -> listener.onFileRequestComplete(requestID));
 	}
 	
 	private void handleMessageAttachmentRequestConfirm(AirUnpacker unpacker) {
@@ -416,7 +413,7 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 			for(String item : chatMembers) packer.packString(item);
 			packer.packString(service);
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -452,7 +449,7 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 				packer.packBoolean(params.attachmentFilterDLOutside); //Whether or not to download "other" items
 			}
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -510,7 +507,7 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 				
 				packer.packPayload(secureData);
 				
-				dataProxy.send(new EncryptedPacket(packer.toByteArray(), false));
+				dataProxy.send(packer.toPacket(false));
 				return true;
 			} catch(BufferOverflowException | GeneralSecurityException exception) {
 				exception.printStackTrace();
@@ -528,7 +525,7 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 				packer.packString(clientName); //Client name
 				packer.packString(platformID); //Platform ID
 				
-				dataProxy.send(new EncryptedPacket(packer.toByteArray(), false));
+				dataProxy.send(packer.toPacket(false));
 				return true;
 			} catch(BufferOverflowException exception) {
 				exception.printStackTrace();
@@ -564,7 +561,7 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 			
 			packer.packString(message); //Message
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -618,14 +615,14 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 								}
 							}
 							
-							dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+							dataProxy.send(packer.toPacket(true));
 						}
 						
 						//Incrementing the index
 						requestIndex++;
 						
 						//Updating the progress
-						emitter.onNext(new ReduxEventAttachmentUpload.Progress(totalBytesRead, totalLength));
+						emitter.onNext(new ReduxEventAttachmentUpload.Progress(totalBytesRead, totalLength, attachmentChunkSize));
 					}
 				}
 				
@@ -656,7 +653,7 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 			packer.packInt(attachmentChunkSize); //Chunk size
 			packer.packString(attachmentGUID); //File GUID
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -665,6 +662,11 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 		}
 	}
 	
+	@Override
+	public void cancelAttachmentDownload(short requestID) {
+		//Download requests aren't tracked on this protocol version
+	}
+	
 	@Override
 	public boolean requestConversationInfo(Collection<String> conversations) {
 		//Returning false if there is no connection thread
@@ -676,7 +678,7 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 			packer.packArrayHeader(conversations.size());
 			for(String item : conversations) packer.packString(item);
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -696,7 +698,7 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 			packer.packLong(timeLower);
 			packer.packLong(timeUpper);
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -717,7 +719,7 @@ public class ClientProtocol4 extends ProtocolManager<EncryptedPacket> {
 			packer.packLong(timeLower);
 			packer.packLong(timeUpper);
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -3,6 +3,7 @@ package me.tagavari.airmessage.connection.comm5;
 import android.os.Build;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.BufferedInputStream;
 import java.io.File;
@@ -11,6 +12,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.security.DigestInputStream;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
@@ -18,6 +20,8 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.DeflaterInputStream;
 import java.util.zip.InflaterOutputStream;
 
@@ -27,9 +31,11 @@ import me.tagavari.airmessage.common.Blocks;
 import me.tagavari.airmessage.connection.DataProxy;
 import me.tagavari.airmessage.connection.MassRetrievalParams;
 import me.tagavari.airmessage.connection.encryption.EncryptionAES;
+import me.tagavari.airmessage.connection.encryption.EncryptionManager;
 import me.tagavari.airmessage.connection.exception.AMRemoteUpdateException;
 import me.tagavari.airmessage.connection.exception.AMRequestException;
 import me.tagavari.airmessage.connection.exception.LargeAllocationException;
+import me.tagavari.airmessage.connection.exception.PacketSendException;
 import me.tagavari.airmessage.constants.MIMEConstants;
 import me.tagavari.airmessage.data.SharedPreferencesManager;
 import me.tagavari.airmessage.enums.AttachmentReqErrorCode;
@@ -40,6 +46,7 @@ import me.tagavari.airmessage.enums.FaceTimeInitiateCode;
 import me.tagavari.airmessage.enums.GroupAction;
 import me.tagavari.airmessage.enums.MessageSendErrorCode;
 import me.tagavari.airmessage.enums.MessageState;
+import me.tagavari.airmessage.enums.ProxyType;
 import me.tagavari.airmessage.enums.TapbackType;
 import me.tagavari.airmessage.flavor.CrashlyticsBridge;
 import me.tagavari.airmessage.helper.LookAheadStreamIterator;
@@ -54,7 +61,8 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 	private static final String hashAlgorithm = "MD5";
 	private static final String platformID = "android";
 
-	private static final int attachmentChunkSize = 1024 * 1024; //1 MB
+	private static final int uploadThreadCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 3));
+	private static final int uploadChunksInFlight = 6;
 
 	//Top-level net header type values
 	private static final int nhtClose = 0;
@@ -131,6 +139,11 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 	private static final int nstOutgoingFaceTimeCallHandledError = 2;
 
 	private short lastMassRetrievalRequestID = -1;
+	private EncryptionManager uploadEncryptionManager = null;
+	private String uploadEncryptionPassword = null;
+	private final ChunkSizeController uploadChunkSizeController = new ChunkSizeController();
+	private final ChunkSizeController downloadChunkSizeController = new ChunkSizeController();
+	private final Map<Short, DownloadTiming> downloadTimingMap = new ConcurrentHashMap<>();
 
 	ClientProtocol5(ClientComm5 communicationsManager, DataProxy<EncryptedPacket> dataProxy) {
 		super(communicationsManager, dataProxy);
@@ -140,7 +153,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 		try(AirPacker packer = AirPacker.get()) {
 			packer.packInt(header);
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), shouldEncrypt));
+			dataProxy.send(packer.toPacket(shouldEncrypt));
 			
 			return true;
 		} catch(BufferOverflowException exception) {
@@ -151,7 +164,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 	}
 	
 	@Override
-	void processData(byte[] data, boolean wasEncrypted) {
+	void processData(ByteBuffer data, boolean wasEncrypted) {
 		//Wrapping the data in an unpacker
 		AirUnpacker unpacker = new AirUnpacker(data);
 		try {
@@ -310,7 +323,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 	
 	private void handleMessageMessageUpdate(AirUnpacker unpacker) throws BufferUnderflowException, LargeAllocationException {
 		List<Blocks.ConversationItem> conversationItems = unpackConversationItems(unpacker);
-		communicationsManager.runListener(listener -> listener.onMessageUpdate(conversationItems));
+		communicationsManager.runDataListener(listener -> listener.onMessageUpdate(conversationItems));
 	}
 	
 	private void handleMessageMassRetrieval(AirUnpacker unpacker) {
@@ -334,7 +347,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 			List<Blocks.ConversationItem> conversationItems = unpackConversationItems(unpacker);
 			
 			//Processing the packet
-			communicationsManager.runListener(listener -> listener.onMassRetrievalUpdate(requestID, packetIndex, conversationItems));
+			communicationsManager.runDataListener(listener -> listener.onMassRetrievalUpdate(requestID, packetIndex, conversationItems));
 		}
 	}
 	
@@ -358,14 +371,12 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 		boolean isLast = unpacker.unpackBoolean();
 		
 		String fileGUID = unpacker.unpackString();
-		byte[] fileData = unpacker.unpackPayload();
+		ByteBuffer fileData = unpacker.unpackPayloadBuffer();
 		
 		//Processing the data
-		communicationsManager.runListener(listener -> {
-			if(requestIndex == 0) listener.onMassRetrievalFileStart(requestID, fileGUID, fileName, downloadFileName, downloadFileType, InflaterOutputStream::new);
-			listener.onMassRetrievalFileProgress(requestID, requestIndex, fileGUID, fileData);
-			if(isLast) listener.onMassRetrievalFileComplete(requestID, fileGUID);
-		});
+		if(requestIndex == 0) communicationsManager.runListener(listener -> listener.onMassRetrievalFileStart(requestID, fileGUID, fileName, downloadFileName, downloadFileType, InflaterOutputStream::new));
+		communicationsManager.runDataListener(listener -> listener.onMassRetrievalFileProgress(requestID, requestIndex, fileGUID, fileData));
+		if(isLast) communicationsManager.runListener(listener -> listener.onMassRetrievalFileComplete(requestID, fileGUID));
 	}
 	
 	private void handleMessageConversationUpdate(AirUnpacker unpacker) {
@@ -381,7 +392,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 		List<Blocks.ModifierInfo> modifiers = unpackModifiers(unpacker);
 		
 		//Processing the conversations
-		communicationsManager.runListener(listener -> listener.onModifierUpdate(modifiers));
+		communicationsManager.runDataListener(listener -> listener.onModifierUpdate(modifiers));
 	}
 	
 	private void handleMessageAttachmentRequest(AirUnpacker unpacker) {
@@ -404,14 +415,24 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 		
 		boolean isLast = unpacker.unpackBoolean();
 		
-		byte[] fileData = unpacker.unpackPayload();
+		ByteBuffer fileData = unpacker.unpackPayloadBuffer();
+		
+		//Measuring the time it took to receive this chunk
+		int chunkSize;
+		DownloadTiming timing = isLast ? downloadTimingMap.remove(requestID) : downloadTimingMap.get(requestID);
+		if(timing != null) {
+			long chunkTime = System.nanoTime();
+			downloadChunkSizeController.recordChunk(fileData.remaining(), chunkTime - timing.lastChunkTime);
+			timing.lastChunkTime = chunkTime;
+			chunkSize = timing.chunkSize;
+		} else {
+			chunkSize = ChunkSizeController.defaultChunkSize;
+		}
 		
 		//Forwarding the data to the listeners
-		communicationsManager.runListener(listener -> {
-			if(requestIndex == 0) listener.onFileRequestStart(requestID, downloadFileName, downloadFileType, fileLength, InflaterOutputStream::new);
-			listener.onFileRequestData(requestID, requestIndex, fileData);
-			if(isLast) listener.onFileRequestComplete(requestID);
-		});
+		if(requestIndex == 0) communicationsManager.runListener(listener -> listener.onFileRequestStart(requestID, downloadFileName, downloadFileType, fileLength, chunkSize, InflaterOutputStream::new));
+		communicationsManager.runDataListener(listener -> listener.onFileRequestData(requestID, requestIndex, fileData));
+		if(isLast) communicationsManager.runListener(listener -> listener.onFileRequestComplete(requestID));
 	}
 	
 	private void handleMessageAttachmentRequestConfirm(AirUnpacker unpacker) {
@@ -424,6 +445,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 		short requestID = unpacker.unpackShort();
 		int errorCode = mapNRCAttachmentReqCode(unpacker.unpackInt());
 		
+		downloadTimingMap.remove(requestID);
 		communicationsManager.runListener(listener -> listener.onFileRequestFail(requestID, errorCode));
 	}
 	
@@ -603,7 +625,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 			for(String item : chatMembers) packer.packString(item);
 			packer.packString(service);
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -639,7 +661,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 				packer.packBoolean(params.attachmentFilterDLOutside); //Whether or not to download "other" items
 			}
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -697,7 +719,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 				
 				packer.packPayload(secureData);
 				
-				dataProxy.send(new EncryptedPacket(packer.toByteArray(), false));
+				dataProxy.send(packer.toPacket(false));
 				return true;
 			} catch(BufferOverflowException | GeneralSecurityException exception) {
 				exception.printStackTrace();
@@ -715,7 +737,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 				packer.packString(clientName); //Client name
 				packer.packString(platformID); //Platform ID
 				
-				dataProxy.send(new EncryptedPacket(packer.toByteArray(), false));
+				dataProxy.send(packer.toPacket(false));
 				return true;
 			} catch(BufferOverflowException exception) {
 				exception.printStackTrace();
@@ -751,7 +773,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 			
 			packer.packString(message); //Message
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -765,12 +787,18 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 		return Observable.create((emitter) -> {
 			try {
 				MessageDigest messageDigest = MessageDigest.getInstance(hashAlgorithm);
-				try(InputStream inputStream = new DeflaterInputStream(new DigestInputStream(new BufferedInputStream(new FileInputStream(file)), messageDigest))) {
+				
+				//AM Connect only queues packets when they are sent, so their timing doesn't reflect the network speed
+				ChunkSizeController chunkSizeController = communicationsManager.getDataProxyType() == ProxyType.connect ? null : uploadChunkSizeController;
+				
+				try(InputStream inputStream = new DeflaterInputStream(new DigestInputStream(new BufferedInputStream(new FileInputStream(file)), messageDigest));
+					UploadPipeline pipeline = new UploadPipeline(dataProxy, getUploadEncryptionManager(), uploadThreadCount, uploadChunksInFlight, chunkSizeController)) {
 					long totalLength = inputStream.available();
 					long totalBytesRead = 0;
 					int requestIndex = 0;
+					int chunkSize = chunkSizeController != null ? chunkSizeController.getChunkSize() : ChunkSizeController.defaultChunkSize;
 					
-					for(LookAheadStreamIterator iterator = new LookAheadStreamIterator(attachmentChunkSize, inputStream); iterator.hasNext();) {
+					for(LookAheadStreamIterator iterator = new LookAheadStreamIterator(chunkSize, inputStream); iterator.hasNext();) {
 						LookAheadStreamIterator.ForwardsStreamData data = iterator.next();
 						
 						//Adding to the total bytes read
@@ -803,25 +831,31 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 								}
 							}
 							
-							dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+							pipeline.submit(packer.toPacket(true));
 						}
 						
 						//Incrementing the index
 						requestIndex++;
 						
 						//Updating the progress
-						emitter.onNext(new ReduxEventAttachmentUpload.Progress(totalBytesRead, totalLength));
+						emitter.onNext(new ReduxEventAttachmentUpload.Progress(totalBytesRead, totalLength, chunkSize));
 					}
+					
+					//Waiting for the upload to finish
+					pipeline.finish();
 				}
 				
 				//Finishing
 				byte[] checksum = messageDigest.digest();
 				emitter.onNext(new ReduxEventAttachmentUpload.Complete(checksum));
 				emitter.onComplete();
+			} catch(PacketSendException exception) {
+				exception.printStackTrace();
+				throw new AMRequestException(MessageSendErrorCode.localNetwork, exception);
 			} catch(IOException exception) {
 				exception.printStackTrace();
 				throw new AMRequestException(MessageSendErrorCode.localIO, exception);
-			} catch(NoSuchAlgorithmException | BufferOverflowException exception) {
+			} catch(NoSuchAlgorithmException | GeneralSecurityException | BufferOverflowException exception) {
 				exception.printStackTrace();
 				CrashlyticsBridge.recordException(exception);
 				throw new AMRequestException(MessageSendErrorCode.localInternal, exception);
@@ -829,19 +863,40 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 		});
 	}
 	
+	/**
+	 * Gets the encryption manager to use for encrypting uploads ahead of time
+	 * @return The encryption manager, or NULL if packets should not be encrypted
+	 */
+	@Nullable
+	private synchronized EncryptionManager getUploadEncryptionManager() {
+		String password = communicationsManager.getPassword();
+		if(!dataProxy.isServerRequestsEncryption() || password == null) return null;
+		
+		//Reusing the encryption manager between uploads, so its key doesn't have to be derived again
+		if(uploadEncryptionManager == null || !password.equals(uploadEncryptionPassword)) {
+			uploadEncryptionManager = new EncryptionAES(password);
+			uploadEncryptionPassword = password;
+		}
+		
+		return uploadEncryptionManager;
+	}
+	
 	@Override
 	public boolean requestAttachmentDownload(short requestID, String attachmentGUID) {
 		//Returning false if there is no open connection
 		if(!communicationsManager.isConnectionOpened()) return false;
 		
 		try(AirPacker packer = AirPacker.get()) {
+			int chunkSize = downloadChunkSizeController.getChunkSize();
+			
 			packer.packInt(nhtAttachmentReq);
 			
 			packer.packShort(requestID); //Request ID
-			packer.packInt(attachmentChunkSize); //Chunk size
+			packer.packInt(chunkSize); //Chunk size
 			packer.packString(attachmentGUID); //File GUID
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			downloadTimingMap.put(requestID, new DownloadTiming(chunkSize, System.nanoTime()));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -850,6 +905,11 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 		}
 	}
 	
+	@Override
+	public void cancelAttachmentDownload(short requestID) {
+		downloadTimingMap.remove(requestID);
+	}
+	
 	@Override
 	public boolean requestConversationInfo(Collection<String> conversations) {
 		//Returning false if there is no connection thread
@@ -861,7 +921,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 			packer.packArrayHeader(conversations.size());
 			for(String item : conversations) packer.packString(item);
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -881,7 +941,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 			packer.packLong(timeLower);
 			packer.packLong(timeUpper);
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -902,7 +962,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 			packer.packLong(timeLower);
 			packer.packLong(timeUpper);
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -920,7 +980,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 			packer.packInt(nhtSoftwareUpdateInstall);
 			packer.packInt(updateID);
 
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -937,7 +997,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 		try(AirPacker packer = AirPacker.get()) {
 			packer.packInt(nhtFaceTimeCreateLink);
 
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -958,7 +1018,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 				packer.packString(address);
 			}
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -977,7 +1037,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 			packer.packString(caller);
 			packer.packBoolean(accept);
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -994,7 +1054,7 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 		try(AirPacker packer = AirPacker.get()) {
 			packer.packInt(nhtFaceTimeDisconnect);
 			
-			dataProxy.send(new EncryptedPacket(packer.toByteArray(), true));
+			dataProxy.send(packer.toPacket(true));
 			return true;
 		} catch(BufferOverflowException exception) {
 			exception.printStackTrace();
@@ -1343,4 +1403,17 @@ public class ClientProtocol5 extends ProtocolManager<EncryptedPacket> {
 		//Returning the list
 		return list;
 	}
+	
+	/**
+	 * Tracks the timing of an attachment download, to measure the time between chunks
+	 */
+	private static class DownloadTiming {
+		final int chunkSize;
+		long lastChunkTime;
+		
+		DownloadTiming(int chunkSize, long lastChunkTime) {
+			this.chunkSize = chunkSize;
+			this.lastChunkTime = lastChunkTime;
+		}
+	}
 }
\ No newline at end of file
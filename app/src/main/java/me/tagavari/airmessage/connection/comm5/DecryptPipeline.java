@@ -0,0 +1,127 @@
+package me.tagavari.airmessage.connection.comm5;
+
+import androidx.annotation.Nullable;
+import me.tagavari.airmessage.connection.encryption.EncryptionManager;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decrypts packets received by a data proxy on a worker thread, and passes them to a listener in the order they were received
+ * Submitting a packet blocks while too many packets are waiting to be decrypted, so that a slow consumer pauses reading from the network instead of filling up memory
+ */
+class DecryptPipeline implements AutoCloseable {
+	//Creating the constants
+	private static final long closeTimeout = 1000; //1 second
+	
+	//Creating the parameter values
+	@Nullable private final EncryptionManager encryptionManager;
+	private final Listener listener;
+	
+	//Creating the state values
+	private volatile Thread workerThread = null;
+	private final ExecutorService decryptExecutor = Executors.newSingleThreadExecutor((runnable) -> workerThread = new Thread(runnable));
+	private final Semaphore inFlightSemaphore;
+	private final int maxInFlight;
+	private volatile boolean isClosed = false;
+	
+	/**
+	 * Creates a new decrypt pipeline
+	 * @param encryptionManager The encryption manager to decrypt packets with, or NULL if encryption isn't available
+	 * @param maxInFlight The maximum amount of packets that can be waiting to be decrypted at once
+	 * @param listener The listener to pass decrypted packets to
+	 */
+	DecryptPipeline(@Nullable EncryptionManager encryptionManager, int maxInFlight, Listener listener) {
+		this.encryptionManager = encryptionManager;
+		this.listener = listener;
+		this.inFlightSemaphore = new Semaphore(maxInFlight);
+		this.maxInFlight = maxInFlight;
+	}
+	
+	/**
+	 * Queues a packet to be decrypted and passed to the listener
+	 * The packet's data is decrypted in place, so the provided buffer must not be used by the caller afterwards.
+	 * @param data The received data
+	 * @param isEncrypted Whether the data is encrypted
+	 * @param isSecure Whether the data was sent securely
+	 */
+	void submit(ByteBuffer data, boolean isEncrypted, boolean isSecure) throws InterruptedException {
+		//Waiting for space in the pipeline
+		inFlightSemaphore.acquire();
+		if(isClosed) {
+			inFlightSemaphore.release();
+			return;
+		}
+		
+		try {
+			decryptExecutor.execute(() -> {
+				try {
+					//Decrypting the data
+					ByteBuffer content = data;
+					if(isEncrypted && encryptionManager != null) {
+						content = encryptionManager.decrypt(content);
+					}
+					
+					//Handling the packet
+					listener.onPacket(new EncryptedPacket(content, isSecure));
+				} catch(BufferUnderflowException | GeneralSecurityException exception) {
+					listener.onError(exception);
+				} finally {
+					inFlightSemaphore.release();
+				}
+			});
+		} catch(RejectedExecutionException exception) {
+			//The pipeline was closed in the meantime
+			inFlightSemaphore.release();
+		}
+	}
+	
+	/**
+	 * Gets the amount of packets that can be submitted before submitting blocks
+	 */
+	int getAvailableSlots() {
+		return inFlightSemaphore.availablePermits();
+	}
+	
+	/**
+	 * Stops accepting packets, and waits for packets that were already submitted to be passed to the listener
+	 * If this is called from the listener, the remaining packets are handled after this method returns.
+	 */
+	@Override
+	public void close() {
+		isClosed = true;
+		decryptExecutor.shutdown();
+		
+		//Releasing any thread waiting to submit a packet
+		inFlightSemaphore.release(maxInFlight);
+		
+		//Waiting for the remaining packets to be handled
+		if(Thread.currentThread() == workerThread) return;
+		try {
+			if(!decryptExecutor.awaitTermination(closeTimeout, TimeUnit.MILLISECONDS)) {
+				decryptExecutor.shutdownNow();
+			}
+		} catch(InterruptedException exception) {
+			decryptExecutor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	interface Listener {
+		/**
+		 * Called on the pipeline's worker thread when a packet has been decrypted
+		 */
+		void onPacket(EncryptedPacket packet);
+		
+		/**
+		 * Called on the pipeline's worker thread when a packet couldn't be decrypted
+		 */
+		void onError(Exception exception);
+	}
+}
\ No newline at end of file
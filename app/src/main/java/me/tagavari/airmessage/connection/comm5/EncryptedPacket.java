@@ -1,23 +1,119 @@
 package me.tagavari.airmessage.connection.comm5;
 
+import me.tagavari.airmessage.connection.encryption.EncryptionManager;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
 /**
  * A packet sent or received from a {@link me.tagavari.airmessage.connection.DataProxy}
  * Has an extra 'encrypt' flag that determines if this packet is encrypted during transit
  */
 public class EncryptedPacket {
-	private byte[] data;
-	private boolean encrypt;
+	/**
+	 * The amount of space reserved in front of encrypted data, so that a data proxy can write its header there instead of copying the data into a new buffer
+	 * This fits a 4-byte integer followed by a flag byte, which is the header used by all data proxies.
+	 */
+	public static final int reservedHeaderLength = Integer.SIZE / Byte.SIZE + 1;
+	
+	private final ByteBuffer data;
+	private final boolean encrypt;
+	private volatile ByteBuffer encryptedData = null;
+	private volatile Runnable sentListener = null;
+	private volatile Runnable failedListener = null;
 	
 	public EncryptedPacket(byte[] data, boolean encrypt) {
-		this.data = data;
+		this(ByteBuffer.wrap(data), encrypt);
+	}
+	
+	/**
+	 * Creates a packet from the remaining data in a buffer, without copying it
+	 */
+	public EncryptedPacket(ByteBuffer data, boolean encrypt) {
+		this.data = data.slice();
 		this.encrypt = encrypt;
 	}
 	
+	/**
+	 * Gets this packet's data as an array, copying it if the data doesn't cover its entire backing array
+	 */
 	public byte[] getData() {
-		return data;
+		if(data.hasArray() && data.arrayOffset() == 0 && data.remaining() == data.array().length) {
+			return data.array();
+		}
+		
+		byte[] array = new byte[data.remaining()];
+		data.duplicate().get(array);
+		return array;
+	}
+	
+	/**
+	 * Gets a view of this packet's data
+	 */
+	public ByteBuffer getDataBuffer() {
+		return data.duplicate();
 	}
 	
 	public boolean getEncrypt() {
 		return encrypt;
 	}
+	
+	/**
+	 * Encrypts this packet's data ahead of time, so that it doesn't have to be encrypted when it is sent
+	 * @param encryptionManager The encryption manager to encrypt the data with
+	 */
+	public void prepareEncryptedData(EncryptionManager encryptionManager) throws GeneralSecurityException {
+		encryptedData = encrypt(encryptionManager);
+	}
+	
+	/**
+	 * Gets a view of this packet's encrypted data, encrypting it now if it wasn't prepared ahead of time
+	 * The buffer has {@link #reservedHeaderLength} bytes of free space before its position, which the caller may write a header to.
+	 * @param encryptionManager The encryption manager to encrypt the data with, if it wasn't already encrypted
+	 */
+	public ByteBuffer getEncryptedDataBuffer(EncryptionManager encryptionManager) throws GeneralSecurityException {
+		ByteBuffer encryptedData = this.encryptedData;
+		if(encryptedData != null) return encryptedData.duplicate();
+		else return encrypt(encryptionManager);
+	}
+	
+	private ByteBuffer encrypt(EncryptionManager encryptionManager) throws GeneralSecurityException {
+		//Encrypting the data directly into its output buffer, after the space reserved for a header
+		ByteBuffer encryptedData = ByteBuffer.allocate(reservedHeaderLength + encryptionManager.getEncryptedLength(data.remaining()));
+		encryptedData.position(reservedHeaderLength);
+		encryptionManager.encrypt(data.duplicate(), encryptedData);
+		encryptedData.limit(encryptedData.position());
+		encryptedData.position(reservedHeaderLength);
+		return encryptedData;
+	}
+	
+	/**
+	 * Sets a listener to be called once this packet has been written by its data proxy
+	 */
+	void setSentListener(Runnable sentListener) {
+		this.sentListener = sentListener;
+	}
+	
+	/**
+	 * Notifies this packet's listener that it has been written by its data proxy
+	 */
+	void notifySent() {
+		Runnable sentListener = this.sentListener;
+		if(sentListener != null) sentListener.run();
+	}
+	
+	/**
+	 * Sets a listener to be called if this packet couldn't be written by its data proxy
+	 */
+	void setFailedListener(Runnable failedListener) {
+		this.failedListener = failedListener;
+	}
+	
+	/**
+	 * Notifies this packet's listener that it couldn't be written by its data proxy
+	 */
+	void notifyFailed() {
+		Runnable failedListener = this.failedListener;
+		if(failedListener != null) failedListener.run();
+	}
 }
\ No newline at end of file
@@ -11,6 +11,7 @@ import me.tagavari.airmessage.util.ConversationTarget;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
 
@@ -34,7 +35,7 @@ abstract class ProtocolManager<Packet> {
 	 * @param data The data received from the network
 	 * @param wasEncrypted True if this data was encrypted
 	 */
-	abstract void processData(byte[] data, boolean wasEncrypted);
+	abstract void processData(ByteBuffer data, boolean wasEncrypted);
 	
 	/**
 	 * Sends a ping packet to the server
@@ -80,6 +81,14 @@ abstract class ProtocolManager<Packet> {
 	 */
 	public abstract boolean requestAttachmentDownload(short requestID, String attachmentGUID);
 	
+	/**
+	 * Stops tracking a download request that the client gave up on
+	 * The server isn't notified, and any further data it sends for the request is ignored.
+	 *
+	 * @param requestID The ID of the request
+	 */
+	public abstract void cancelAttachmentDownload(short requestID);
+	
 	/**
 	 * Sends a request to fetch conversation information
 	 *
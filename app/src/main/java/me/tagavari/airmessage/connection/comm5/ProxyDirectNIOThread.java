@@ -0,0 +1,297 @@
+package me.tagavari.airmessage.connection.comm5;
+
+import android.util.Log;
+import me.tagavari.airmessage.connection.encryption.EncryptionManager;
+import me.tagavari.airmessage.enums.ConnectionErrorCode;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A thread that handles connecting to, reading from and writing to the server over a single non-blocking channel
+ */
+class ProxyDirectNIOThread extends Thread {
+	private static final String TAG = "ProxyDirectNIOThread-5";
+	private static final int maxPacketAllocation = 50 * 1024 * 1024; //50 MB
+	
+	//Creating the constants
+	private static final int socketTimeout = 1000 * 10; //10 seconds
+	private static final int readBufferSize = 64 * 1024; //64 kB
+	private static final int headerLength = (Integer.SIZE / Byte.SIZE) + 1; //Content length + encryption flag
+	
+	//Creating the parameter values
+	private final Listener listener;
+	
+	private final String hostname;
+	private final int port;
+	private final String hostnameFallback;
+	private final int portFallback;
+	private final EncryptionManager encryptionManager;
+	
+	private boolean usingFallback;
+	
+	//Creating the I/O values
+	private final Queue<EncryptedPacket> uploadQueue = new ConcurrentLinkedQueue<>();
+	private final Deque<ByteBuffer[]> pendingWrites = new ArrayDeque<>();
+	private final Deque<EncryptedPacket> pendingPackets = new ArrayDeque<>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(readBufferSize);
+	private ByteBuffer readContent = null;
+	private boolean readContentEncrypted;
+	private Selector selector;
+	
+	ProxyDirectNIOThread(Listener listener, String hostname, int port, String hostnameFallback, int portFallback, EncryptionManager encryptionManager) {
+		this.listener = listener;
+		this.hostname = hostname;
+		this.port = port;
+		this.hostnameFallback = hostnameFallback;
+		this.portFallback = portFallback;
+		this.encryptionManager = encryptionManager;
+	}
+	
+	@Override
+	public void run() {
+		SocketChannel channel;
+		SelectionKey selectionKey;
+		
+		try {
+			//Returning if the thread is interrupted
+			if(isInterrupted()) return;
+			
+			if(hostnameFallback != null) {
+				try {
+					//Connecting to the primary server
+					channel = openChannel(hostname, port);
+					usingFallback = false;
+				} catch(IOException exception) {
+					//Printing the stack trace
+					exception.printStackTrace();
+					
+					//Connecting to the fallback server
+					channel = openChannel(hostnameFallback, portFallback);
+					usingFallback = true;
+				}
+			} else {
+				//Connecting to the primary server
+				channel = openChannel(hostname, port);
+				usingFallback = false;
+			}
+			
+			//Registering the channel for reads
+			synchronized(this) {
+				selector = Selector.open();
+			}
+			channel.configureBlocking(false);
+			selectionKey = channel.register(selector, SelectionKey.OP_READ);
+		} catch(IOException exception) {
+			//Printing the stack trace
+			exception.printStackTrace();
+			
+			//Updating the state
+			listener.onClose(ConnectionErrorCode.connection);
+			
+			//Returning
+			return;
+		}
+		
+		//Returning if the thread is interrupted
+		if(isInterrupted()) {
+			closeQuietly(channel);
+			return;
+		}
+		
+		//Notifying the listener
+		listener.onOpen();
+		
+		while(!isInterrupted()) {
+			try {
+				//Waiting for the channel to be ready, or for new packets to be queued
+				selector.select();
+				if(isInterrupted()) break;
+				
+				//Reading from the channel
+				if(selector.selectedKeys().contains(selectionKey) && selectionKey.isReadable()) {
+					if(!readChannel(channel)) {
+						listener.onClose(ConnectionErrorCode.connection);
+						break;
+					}
+				}
+				selector.selectedKeys().clear();
+				
+				//Writing to the channel
+				EncryptedPacket packet;
+				while((packet = uploadQueue.poll()) != null) {
+					pendingWrites.add(framePacket(packet));
+					pendingPackets.add(packet);
+				}
+				writeChannel(channel);
+				
+				//Only waiting for the channel to become writable if there is data that couldn't be written
+				selectionKey.interestOps(pendingWrites.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			} catch(IOException | RuntimeException | GeneralSecurityException exception) {
+				//Closing the connection
+				exception.printStackTrace();
+				listener.onClose(ConnectionErrorCode.connection);
+				
+				//Breaking
+				break;
+			}
+		}
+		
+		//Closing the channel
+		closeQuietly(channel);
+	}
+	
+	/**
+	 * Opens a channel to the specified server, waiting for the connection to complete
+	 */
+	private static SocketChannel openChannel(String hostname, int port) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.socket().connect(new InetSocketAddress(hostname, port), socketTimeout);
+		} catch(IOException exception) {
+			channel.close();
+			throw exception;
+		}
+		return channel;
+	}
+	
+	/**
+	 * Closes the channel and the selector, ignoring any errors
+	 */
+	private void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch(IOException exception) {
+			exception.printStackTrace();
+		}
+		
+		try {
+			if(selector != null) selector.close();
+		} catch(IOException exception) {
+			exception.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Reads all available data from the channel, and notifies the listener of any completed packets
+	 * @return FALSE if the connection should be closed
+	 */
+	private boolean readChannel(SocketChannel channel) throws IOException, GeneralSecurityException {
+		while(true) {
+			int readCount = channel.read(readBuffer);
+			if(readCount == -1) return false; //Stream is closed
+			else if(readCount == 0) return true; //No more data available
+			
+			readBuffer.flip();
+			while(readBuffer.hasRemaining()) {
+				//Reading the header data
+				if(readContent == null) {
+					if(readBuffer.remaining() < headerLength) break;
+					
+					int contentLen = readBuffer.getInt();
+					readContentEncrypted = readBuffer.get() != 0;
+					
+					//Checking if the content length is greater than the maximum packet allocation
+					if(contentLen < 0 || contentLen > maxPacketAllocation) {
+						//Logging the error
+						Log.w(TAG, "Rejecting large packet (size: " + contentLen + ")");
+						
+						//Closing the connection
+						return false;
+					}
+					
+					readContent = ByteBuffer.allocate(contentLen);
+				}
+				
+				//Reading the content
+				if(readBuffer.remaining() <= readContent.remaining()) {
+					readContent.put(readBuffer);
+				} else {
+					ByteBuffer readSlice = readBuffer.slice();
+					readSlice.limit(readContent.remaining());
+					readContent.put(readSlice);
+					readBuffer.position(readBuffer.position() + readSlice.limit());
+				}
+				
+				if(!readContent.hasRemaining()) {
+					readContent.flip();
+					
+					//Decrypting the content in place
+					ByteBuffer data = readContent;
+					if(readContentEncrypted) data = encryptionManager.decrypt(data);
+					readContent = null;
+					
+					//Processing the data
+					listener.onMessage(data, readContentEncrypted);
+				}
+			}
+			readBuffer.compact();
+		}
+	}
+	
+	/**
+	 * Writes as much pending data as the channel will accept
+	 */
+	private void writeChannel(SocketChannel channel) throws IOException {
+		ByteBuffer[] buffers;
+		while((buffers = pendingWrites.peek()) != null) {
+			channel.write(buffers);
+			
+			//Stopping if the channel's send buffer is full
+			if(buffers[buffers.length - 1].hasRemaining()) return;
+			
+			pendingWrites.remove();
+			pendingPackets.remove().notifySent();
+		}
+	}
+	
+	/**
+	 * Encrypts a packet's data if necessary, and prepares its header
+	 * @return The buffers to write to the channel, in order
+	 */
+	private ByteBuffer[] framePacket(EncryptedPacket packet) throws GeneralSecurityException {
+		ByteBuffer data = packet.getEncrypt() ? packet.getEncryptedDataBuffer(encryptionManager) : packet.getDataBuffer();
+		
+		ByteBuffer header = ByteBuffer.allocate(headerLength);
+		header.putInt(data.remaining());
+		header.put((byte) (packet.getEncrypt() ? 1 : 0));
+		header.flip();
+		
+		return new ByteBuffer[]{header, data};
+	}
+	
+	/**
+	 * Queues a packet to be sent to the server
+	 */
+	void queuePacket(EncryptedPacket packet) {
+		uploadQueue.add(packet);
+		
+		//Waking up the selector to write the packet
+		synchronized(this) {
+			if(selector != null) selector.wakeup();
+		}
+	}
+	
+	boolean isUsingFallback() {
+		return usingFallback;
+	}
+	
+	/**
+	 * A listener for updates
+	 * Please note that these functions will be called from a worker thread
+	 */
+	interface Listener {
+		void onOpen();
+		void onClose(@ConnectionErrorCode int reason);
+		void onMessage(ByteBuffer data, boolean wasEncrypted);
+	}
+}
\ No newline at end of file
@@ -3,6 +3,7 @@ package me.tagavari.airmessage.connection.comm5;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
+import android.util.Log;
 import androidx.annotation.Nullable;
 import me.tagavari.airmessage.connection.DataProxy;
 import me.tagavari.airmessage.connection.encryption.EncryptionAES;
@@ -16,15 +17,22 @@ import me.tagavari.airmessage.util.ConnectionParams;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 
 /**
  * Establishes a direct connection with the server
  */
 class ProxyDirectTCP extends DataProxy<EncryptedPacket> {
+	private static final String TAG = ProxyDirectTCP.class.getSimpleName();
+	
 	//Creating the handler
 	private final Handler handler = new Handler(Looper.getMainLooper());
 	
+	//Creating the parameter values
+	private final int maxBatchSize;
+	private final long batchWindowMillis;
+	
 	//Creating the state values
 	private boolean isRunning = false;
 	private ProxyDirectTCPReader readerThread;
@@ -35,7 +43,7 @@ class ProxyDirectTCP extends DataProxy<EncryptedPacket> {
 		@Override
 		public void onOpen(EncryptionManager encryptionManager, DataOutputStream outputStream) {
 			//Starting the writer thread
-			writerThread = new ProxyDirectTCPWriter(ProxyDirectTCP.this::stopAsync, encryptionManager, outputStream);
+			writerThread = new ProxyDirectTCPWriter(ProxyDirectTCP.this::stopAsync, encryptionManager, outputStream, maxBatchSize, batchWindowMillis);
 			writerThread.start();
 			
 			notifyOpen();
@@ -47,11 +55,25 @@ class ProxyDirectTCP extends DataProxy<EncryptedPacket> {
 		}
 		
 		@Override
-		public void onMessage(byte[] data, boolean wasEncrypted) {
+		public void onMessage(ByteBuffer data, boolean wasEncrypted) {
 			notifyMessage(new EncryptedPacket(data, wasEncrypted));
 		}
 	};
 	
+	public ProxyDirectTCP() {
+		this(ProxyDirectTCPWriter.defaultMaxBatchSize, ProxyDirectTCPWriter.defaultBatchWindowMillis);
+	}
+	
+	/**
+	 * Creates a new direct proxy
+	 * @param maxBatchSize The maximum amount of packets to write before flushing the socket
+	 * @param batchWindowMillis How long to wait for more packets to add to a batch before flushing the socket, or 0 to only include packets that are already queued
+	 */
+	public ProxyDirectTCP(int maxBatchSize, long batchWindowMillis) {
+		this.maxBatchSize = maxBatchSize;
+		this.batchWindowMillis = batchWindowMillis;
+	}
+	
 	@Override
 	public void start(Context context, @Nullable ConnectionParams override) {
 		//Returning if this proxy is already running
@@ -130,7 +152,10 @@ class ProxyDirectTCP extends DataProxy<EncryptedPacket> {
 		
 		//Stopping the threads
 		if(readerThread != null) readerThread.interrupt();
-		if(writerThread != null) writerThread.interrupt();
+		if(writerThread != null) {
+			writerThread.interrupt();
+			Log.i(TAG, "Sent " + getPacketCount() + " packets in " + getFlushCount() + " flushes (average " + getAveragePacketsPerFlush() + ", max " + getMaxPacketsPerFlush() + " per flush)");
+		}
 		
 		//Calling the listener
 		notifyClose(code);
@@ -151,4 +176,32 @@ class ProxyDirectTCP extends DataProxy<EncryptedPacket> {
 		writerThread.queuePacket(packet);
 		return true;
 	}
+	
+	/**
+	 * Gets the total amount of packets written over the current connection
+	 */
+	public long getPacketCount() {
+		return writerThread == null ? 0 : writerThread.getPacketCount();
+	}
+	
+	/**
+	 * Gets the total amount of times the socket has been flushed over the current connection
+	 */
+	public long getFlushCount() {
+		return writerThread == null ? 0 : writerThread.getFlushCount();
+	}
+	
+	/**
+	 * Gets the largest amount of packets sent in a single flush over the current connection
+	 */
+	public int getMaxPacketsPerFlush() {
+		return writerThread == null ? 0 : writerThread.getMaxPacketsPerFlush();
+	}
+	
+	/**
+	 * Gets the average amount of packets sent per flush over the current connection
+	 */
+	public float getAveragePacketsPerFlush() {
+		return writerThread == null ? 0 : writerThread.getAveragePacketsPerFlush();
+	}
 }
\ No newline at end of file
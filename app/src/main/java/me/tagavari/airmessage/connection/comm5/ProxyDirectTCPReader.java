@@ -4,11 +4,13 @@ import android.util.Log;
 import me.tagavari.airmessage.connection.encryption.EncryptionManager;
 import me.tagavari.airmessage.enums.ConnectionErrorCode;
 
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 
 /**
@@ -20,6 +22,7 @@ class ProxyDirectTCPReader extends Thread {
 	
 	//Creating the constants
 	private static final int socketTimeout = 1000 * 10; //10 seconds
+	private static final int outputBufferSize = 64 * 1024; //64 kB
 	
 	//Creating the parameter values
 	private final Listener listener;
@@ -86,7 +89,7 @@ class ProxyDirectTCPReader extends Thread {
 			
 			//Getting the streams
 			inputStream = new DataInputStream(socket.getInputStream());
-			outputStream = new DataOutputStream(socket.getOutputStream());
+			outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), outputBufferSize));
 		} catch(IOException exception) {
 			//Printing the stack trace
 			exception.printStackTrace();
@@ -137,11 +140,12 @@ class ProxyDirectTCPReader extends Thread {
 					}
 				}
 				
-				//Decrypting the content
-				if(isEncrypted) content = encryptionManager.decrypt(content);
+				//Decrypting the content in place
+				ByteBuffer data = ByteBuffer.wrap(content);
+				if(isEncrypted) data = encryptionManager.decrypt(data);
 				
 				//Processing the data
-				listener.onMessage(content, isEncrypted);
+				listener.onMessage(data, isEncrypted);
 			} catch(IOException | RuntimeException | GeneralSecurityException exception) {
 				//Closing the connection
 				exception.printStackTrace();
@@ -171,6 +175,6 @@ class ProxyDirectTCPReader extends Thread {
 	interface Listener {
 		void onOpen(EncryptionManager encryptionManager, DataOutputStream outputStream);
 		void onClose(@ConnectionErrorCode int reason);
-		void onMessage(byte[] data, boolean wasEncrypted);
+		void onMessage(ByteBuffer data, boolean wasEncrypted);
 	}
 }
\ No newline at end of file
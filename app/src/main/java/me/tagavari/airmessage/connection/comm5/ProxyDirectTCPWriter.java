@@ -6,11 +6,20 @@ import me.tagavari.airmessage.enums.ConnectionErrorCode;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 class ProxyDirectTCPWriter extends Thread {
+	//Creating the constants
+	static final int defaultMaxBatchSize = 64; //64 packets
+	static final long defaultBatchWindowMillis = 0; //Only batch packets that are already queued
+	
 	//Creating the queue
 	final BlockingQueue<EncryptedPacket> uploadQueue = new LinkedBlockingQueue<>();
 	
@@ -18,36 +27,78 @@ class ProxyDirectTCPWriter extends Thread {
 	private final Consumer<Integer> errorListener;
 	private final EncryptionManager encryptionManager;
 	private final DataOutputStream outputStream;
+	private final int maxBatchSize;
+	private final long batchWindowNanos;
+	
+	//Creating the statistics values
+	private final AtomicLong statPacketCount = new AtomicLong();
+	private final AtomicLong statFlushCount = new AtomicLong();
+	private volatile int statMaxPacketsPerFlush = 0;
 	
-	public ProxyDirectTCPWriter(Consumer<Integer> errorListener, EncryptionManager encryptionManager, DataOutputStream outputStream) {
+	/**
+	 * Creates a new writer
+	 * @param errorListener A listener to be called when the writer encounters an error
+	 * @param encryptionManager The encryption manager to use for encrypted packets
+	 * @param outputStream The stream to write to, which should be buffered
+	 * @param maxBatchSize The maximum amount of packets to write before flushing the stream
+	 * @param batchWindowMillis How long to wait for more packets to add to a batch before flushing the stream, or 0 to only include packets that are already queued
+	 */
+	public ProxyDirectTCPWriter(Consumer<Integer> errorListener, EncryptionManager encryptionManager, DataOutputStream outputStream, int maxBatchSize, long batchWindowMillis) {
+		if(maxBatchSize < 1) throw new IllegalArgumentException("Max batch size must be at least 1");
+		if(batchWindowMillis < 0) throw new IllegalArgumentException("Batch window must not be negative");
+		
 		this.errorListener = errorListener;
 		this.encryptionManager = encryptionManager;
 		this.outputStream = outputStream;
+		this.maxBatchSize = maxBatchSize;
+		this.batchWindowNanos = TimeUnit.MILLISECONDS.toNanos(batchWindowMillis);
 	}
 	
 	@Override
 	public void run() {
 		EncryptedPacket packet;
+		List<EncryptedPacket> batch = new ArrayList<>(maxBatchSize);
 		
 		try {
 			while(!isInterrupted()) {
 				try {
+					//Waiting for a packet to start the batch
 					packet = uploadQueue.take();
-					sendDataSync(packet.getData(), packet.getEncrypt());
+					long batchDeadline = System.nanoTime() + batchWindowNanos;
 					
-					while((packet = uploadQueue.poll()) != null) {
-						sendDataSync(packet.getData(), packet.getEncrypt());
-					}
+					//Writing packets until the queue stays empty for the batch window, or the batch is full
+					do {
+						batch.add(packet);
+						sendDataSync(packet);
+						if(batch.size() >= maxBatchSize) break;
+						
+						packet = uploadQueue.poll();
+						if(packet == null && batchWindowNanos > 0) {
+							long remainingNanos = batchDeadline - System.nanoTime();
+							if(remainingNanos > 0) packet = uploadQueue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+						}
+					} while(packet != null);
 					
+					//Sending the batch
 					outputStream.flush();
+					recordFlush(batch.size());
+					
+					//Notifying the packets once they have left the stream's buffer
+					for(EncryptedPacket sentPacket : batch) sentPacket.notifySent();
 				} catch(IOException | GeneralSecurityException exception) {
 					exception.printStackTrace();
 					
+					for(EncryptedPacket failedPacket : batch) failedPacket.notifyFailed();
 					errorListener.accept(ConnectionErrorCode.connection);
+				} finally {
+					batch.clear();
 				}
 			}
 		} catch(InterruptedException exception) {
 			exception.printStackTrace();
+			
+			//Failing packets that were written but never flushed
+			for(EncryptedPacket failedPacket : batch) failedPacket.notifyFailed();
 		}
 	}
 	
@@ -56,15 +107,54 @@ class ProxyDirectTCPWriter extends Thread {
 	}
 	
 	/**
-	 * Encrypts data if necessary, and then submits it to the stream
-	 * @param data The data to send
-	 * @param isEncrypted Whether to encrypt this data
+	 * Updates the statistics after a batch of packets is flushed
+	 */
+	private void recordFlush(int batchCount) {
+		statPacketCount.addAndGet(batchCount);
+		statFlushCount.incrementAndGet();
+		if(batchCount > statMaxPacketsPerFlush) statMaxPacketsPerFlush = batchCount;
+	}
+	
+	/**
+	 * Gets the total amount of packets written by this writer
+	 */
+	public long getPacketCount() {
+		return statPacketCount.get();
+	}
+	
+	/**
+	 * Gets the total amount of times this writer has flushed its stream
+	 */
+	public long getFlushCount() {
+		return statFlushCount.get();
+	}
+	
+	/**
+	 * Gets the largest amount of packets this writer has sent in a single flush
+	 */
+	public int getMaxPacketsPerFlush() {
+		return statMaxPacketsPerFlush;
+	}
+	
+	/**
+	 * Gets the average amount of packets this writer has sent per flush
+	 */
+	public float getAveragePacketsPerFlush() {
+		long flushCount = statFlushCount.get();
+		if(flushCount == 0) return 0;
+		return (float) statPacketCount.get() / flushCount;
+	}
+	
+	/**
+	 * Encrypts a packet's data if necessary, and then writes it to the stream
+	 * The packet isn't notified until the stream is flushed.
+	 * @param packet The packet to send
 	 */
-	private synchronized void sendDataSync(byte[] data, boolean isEncrypted) throws IOException, GeneralSecurityException {
-		if(isEncrypted) data = encryptionManager.encrypt(data);
+	private synchronized void sendDataSync(EncryptedPacket packet) throws IOException, GeneralSecurityException {
+		ByteBuffer data = packet.getEncrypt() ? packet.getEncryptedDataBuffer(encryptionManager) : packet.getDataBuffer();
 		
-		outputStream.writeInt(data.length);
-		outputStream.writeBoolean(isEncrypted);
-		outputStream.write(data);
+		outputStream.writeInt(data.remaining());
+		outputStream.writeBoolean(packet.getEncrypt());
+		outputStream.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
 	}
 }
\ No newline at end of file
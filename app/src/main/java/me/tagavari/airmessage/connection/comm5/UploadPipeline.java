@@ -0,0 +1,159 @@
+package me.tagavari.airmessage.connection.comm5;
+
+import androidx.annotation.Nullable;
+import me.tagavari.airmessage.connection.DataProxy;
+import me.tagavari.airmessage.connection.encryption.EncryptionManager;
+import me.tagavari.airmessage.connection.exception.PacketSendException;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a sequence of packets to a data proxy, encrypting them on a pool of worker threads
+ * Packets are sent in the order they are submitted, and submitting a packet blocks while too many packets are waiting to be encrypted or written
+ */
+class UploadPipeline implements AutoCloseable {
+	//Creating the constants
+	private static final long writeTimeout = 30 * 1000; //30 seconds
+	
+	//Creating the parameter values
+	private final DataProxy<EncryptedPacket> dataProxy;
+	@Nullable private final EncryptionManager encryptionManager;
+	@Nullable private final ChunkSizeController chunkSizeController;
+	
+	//Creating the state values
+	private final ExecutorService encryptionExecutor;
+	private final Deque<Future<EncryptedPacket>> pendingPackets = new ArrayDeque<>();
+	private final Semaphore inFlightSemaphore;
+	private final int maxInFlight;
+	private long lastSentTime = -1;
+	private volatile boolean isWriteFailed = false;
+	
+	/**
+	 * Creates a new upload pipeline
+	 * @param dataProxy The data proxy to send packets to
+	 * @param encryptionManager The encryption manager to encrypt packets with ahead of time, or NULL to leave encryption to the data proxy
+	 * @param threadCount The amount of threads to use for encryption
+	 * @param maxInFlight The maximum amount of packets that can be waiting to be encrypted or written at once
+	 * @param chunkSizeController The controller to report the time taken to write each packet to, or NULL if the timing isn't needed
+	 */
+	UploadPipeline(DataProxy<EncryptedPacket> dataProxy, @Nullable EncryptionManager encryptionManager, int threadCount, int maxInFlight, @Nullable ChunkSizeController chunkSizeController) {
+		this.dataProxy = dataProxy;
+		this.encryptionManager = encryptionManager;
+		this.chunkSizeController = chunkSizeController;
+		this.encryptionExecutor = Executors.newFixedThreadPool(threadCount);
+		this.inFlightSemaphore = new Semaphore(maxInFlight);
+		this.maxInFlight = maxInFlight;
+	}
+	
+	/**
+	 * Queues a packet to be encrypted and sent
+	 * @param packet The packet to send
+	 * @throws PacketSendException If the packet couldn't be handed to the data proxy, or the data proxy stopped writing packets
+	 */
+	void submit(EncryptedPacket packet) throws PacketSendException, GeneralSecurityException, InterruptedException {
+		//Waiting for space in the pipeline, sending packets that are ready in the meantime
+		while(!inFlightSemaphore.tryAcquire()) {
+			if(!pendingPackets.isEmpty()) {
+				sendNext();
+			} else if(!inFlightSemaphore.tryAcquire(writeTimeout, TimeUnit.MILLISECONDS)) {
+				throw new PacketSendException("Timed out waiting for packets to be written");
+			} else {
+				break;
+			}
+		}
+		checkWriteFailed();
+		
+		//Encrypting the packet
+		long submitTime = System.nanoTime();
+		int packetLength = packet.getDataBuffer().remaining();
+		packet.setSentListener(() -> {
+			onPacketSent(packetLength, submitTime);
+			inFlightSemaphore.release();
+		});
+		packet.setFailedListener(() -> {
+			isWriteFailed = true;
+			inFlightSemaphore.release();
+		});
+		pendingPackets.add(encryptionExecutor.submit(() -> {
+			if(encryptionManager != null && packet.getEncrypt()) packet.prepareEncryptedData(encryptionManager);
+			return packet;
+		}));
+		
+		//Sending any packets that have finished encrypting
+		while(!pendingPackets.isEmpty() && pendingPackets.peek().isDone()) {
+			sendNext();
+		}
+	}
+	
+	/**
+	 * Waits for all submitted packets to be encrypted and written
+	 * @throws PacketSendException If a packet couldn't be handed to the data proxy, or the data proxy stopped writing packets
+	 */
+	void finish() throws PacketSendException, GeneralSecurityException, InterruptedException {
+		//Sending the remaining packets
+		while(!pendingPackets.isEmpty()) {
+			sendNext();
+		}
+		
+		//Waiting for the data proxy to write all packets
+		if(!inFlightSemaphore.tryAcquire(maxInFlight, writeTimeout, TimeUnit.MILLISECONDS)) {
+			throw new PacketSendException("Timed out waiting for packets to be written");
+		}
+		inFlightSemaphore.release(maxInFlight);
+		checkWriteFailed();
+	}
+	
+	/**
+	 * Throws an exception if the data proxy reported that it couldn't write a packet
+	 */
+	private void checkWriteFailed() throws PacketSendException {
+		if(isWriteFailed) {
+			throw new PacketSendException("Failed to write packet");
+		}
+	}
+	
+	/**
+	 * Waits for the oldest pending packet to finish encrypting, and sends it to the data proxy
+	 */
+	private void sendNext() throws PacketSendException, GeneralSecurityException, InterruptedException {
+		checkWriteFailed();
+		
+		EncryptedPacket packet;
+		try {
+			packet = pendingPackets.remove().get();
+		} catch(ExecutionException exception) {
+			Throwable cause = exception.getCause();
+			if(cause instanceof GeneralSecurityException) throw (GeneralSecurityException) cause;
+			else if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+			else throw new IllegalStateException(cause);
+		}
+		
+		if(!dataProxy.send(packet)) {
+			throw new PacketSendException("Failed to queue packet for sending");
+		}
+	}
+	
+	/**
+	 * Reports the time it took to write a packet, counting from when the previous packet finished writing
+	 */
+	private synchronized void onPacketSent(int packetLength, long submitTime) {
+		long sentTime = System.nanoTime();
+		if(chunkSizeController != null) {
+			chunkSizeController.recordChunk(packetLength, sentTime - Math.max(submitTime, lastSentTime));
+		}
+		lastSentTime = sentTime;
+	}
+	
+	@Override
+	public void close() {
+		encryptionExecutor.shutdownNow();
+	}
+}
\ No newline at end of file
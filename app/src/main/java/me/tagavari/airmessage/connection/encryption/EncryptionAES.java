@@ -11,6 +11,8 @@ import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.security.spec.KeySpec;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class EncryptionAES implements EncryptionManager {
 	//Creating the constants
@@ -21,73 +23,155 @@ public class EncryptionAES implements EncryptionManager {
 	private static final String cipherTransformation = "AES/GCM/NoPadding";
 	private static final int keyIterationCount = 10000;
 	private static final int keyLength = 128; //128 bits
+	private static final int keyCacheSize = 32;
 	
 	//Creating the secure random
-	private SecureRandom random;
+	private final SecureRandom random = new SecureRandom();
 	
 	//Creating the parameter values
 	private final String password;
 	
+	//Creating the key values
+	private final Map<ByteBuffer, SecretKeySpec> keyCache = new LinkedHashMap<ByteBuffer, SecretKeySpec>(keyCacheSize, 0.75F, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ByteBuffer, SecretKeySpec> eldest) {
+			return size() > keyCacheSize;
+		}
+	};
+	private byte[] sessionSalt = null;
+	private SecretKeySpec sessionKey = null;
+	private final ThreadLocal<Cipher> threadCipher = new ThreadLocal<>();
+	
 	public EncryptionAES(String password) {
 		this.password = password;
 	}
 	
 	@Override
 	public byte[] encrypt(byte[] inData) throws GeneralSecurityException {
-		//Initializing the random
-		if(random == null) random = new SecureRandom();
+		ByteBuffer byteBuffer = ByteBuffer.allocate(getEncryptedLength(inData.length));
+		encrypt(ByteBuffer.wrap(inData), byteBuffer);
+		return byteBuffer.array();
+	}
+	
+	@Override
+	public byte[] decrypt(byte[] inData) throws GeneralSecurityException {
+		//Getting the key
+		SecretKeySpec secretKeySpec = getKey(Arrays.copyOfRange(inData, 0, saltLen));
 		
-		//Generating a salt
-		byte[] salt = new byte[saltLen];
-		random.nextBytes(salt);
+		//Creating the IV
+		GCMParameterSpec gcmSpec = new GCMParameterSpec(keyLength, inData, saltLen, ivLen);
 		
-		//Creating the key
-		SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(keyFactoryAlgorithm);
-		KeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, keyIterationCount, keyLength);
-		SecretKey secretKey = secretKeyFactory.generateSecret(keySpec);
-		SecretKeySpec secretKeySpec = new SecretKeySpec(secretKey.getEncoded(), keyAlgorithm);
+		//Creating the cipher
+		Cipher cipher = getCipher();
+		cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, gcmSpec);
+		
+		//Deciphering the data
+		return cipher.doFinal(inData, saltLen + ivLen, inData.length - (saltLen + ivLen));
+	}
+	
+	@Override
+	public int getEncryptedLength(int length) {
+		return saltLen + ivLen + length + keyLength / Byte.SIZE;
+	}
+	
+	@Override
+	public void encrypt(ByteBuffer inData, ByteBuffer outData) throws GeneralSecurityException {
+		//Getting the salt and key for this session
+		byte[] salt;
+		SecretKeySpec secretKeySpec;
+		synchronized(this) {
+			if(sessionSalt == null) {
+				byte[] newSalt = new byte[saltLen];
+				random.nextBytes(newSalt);
+				sessionKey = deriveKey(newSalt);
+				sessionSalt = newSalt;
+			}
+			
+			salt = sessionSalt;
+			secretKeySpec = sessionKey;
+		}
 		
 		//Generating the IV
 		byte[] iv = new byte[ivLen];
 		random.nextBytes(iv);
 		GCMParameterSpec gcmSpec = new GCMParameterSpec(keyLength, iv);
 		
-		Cipher cipher = Cipher.getInstance(cipherTransformation);
+		Cipher cipher = getCipher();
 		cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, gcmSpec);
 		
-		//Encrypting the data
-		byte[] data = cipher.doFinal(inData);
-		
-		//Combining the salt, IV, and data
-		byte[] allByteArray = new byte[saltLen + ivLen + data.length];
-		ByteBuffer byteBuffer = ByteBuffer.wrap(allByteArray);
-		byteBuffer.put(salt);
-		byteBuffer.put(iv);
-		byteBuffer.put(data);
-		return byteBuffer.array();
+		//Writing the salt and IV, followed by the encrypted data
+		outData.put(salt);
+		outData.put(iv);
+		cipher.doFinal(inData, outData);
 	}
 	
 	@Override
-	public byte[] decrypt(byte[] inData) throws GeneralSecurityException {
-		//Reading the data
-		byte[] salt = Arrays.copyOfRange(inData, 0, saltLen);
-		byte[] iv = Arrays.copyOfRange(inData, saltLen, saltLen + ivLen);
-		byte[] data = Arrays.copyOfRange(inData, saltLen + ivLen, inData.length);
+	public ByteBuffer decrypt(ByteBuffer data) throws GeneralSecurityException {
+		//Reading the salt and IV
+		ByteBuffer inData = data.duplicate();
+		byte[] salt = new byte[saltLen];
+		inData.get(salt);
+		byte[] iv = new byte[ivLen];
+		inData.get(iv);
 		
-		//Creating the key
-		SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(keyFactoryAlgorithm);
-		KeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, keyIterationCount, keyLength);
-		SecretKey secretKey = secretKeyFactory.generateSecret(keySpec);
-		SecretKeySpec secretKeySpec = new SecretKeySpec(secretKey.getEncoded(), keyAlgorithm);
+		//Getting the key
+		SecretKeySpec secretKeySpec = getKey(salt);
 		
 		//Creating the IV
 		GCMParameterSpec gcmSpec = new GCMParameterSpec(keyLength, iv);
 		
 		//Creating the cipher
-		Cipher cipher = Cipher.getInstance(cipherTransformation);
+		Cipher cipher = getCipher();
 		cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, gcmSpec);
 		
-		//Deciphering the data
-		return cipher.doFinal(data);
+		//Deciphering the data over the encrypted data
+		ByteBuffer outData = inData.duplicate();
+		int outLength = cipher.doFinal(inData, outData);
+		
+		outData.position(outData.position() - outLength);
+		outData.limit(outData.position() + outLength);
+		return outData.slice();
+	}
+	
+	/**
+	 * Gets the key for the specified salt, deriving it if it isn't cached
+	 */
+	private SecretKeySpec getKey(byte[] salt) throws GeneralSecurityException {
+		ByteBuffer saltKey = ByteBuffer.wrap(salt);
+		
+		//Checking the cache
+		synchronized(keyCache) {
+			SecretKeySpec secretKeySpec = keyCache.get(saltKey);
+			if(secretKeySpec != null) return secretKeySpec;
+		}
+		
+		//Deriving the key and saving it to the cache
+		SecretKeySpec secretKeySpec = deriveKey(salt);
+		synchronized(keyCache) {
+			keyCache.put(saltKey, secretKeySpec);
+		}
+		return secretKeySpec;
+	}
+	
+	/**
+	 * Derives a key from the password with the specified salt
+	 */
+	private SecretKeySpec deriveKey(byte[] salt) throws GeneralSecurityException {
+		SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(keyFactoryAlgorithm);
+		KeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, keyIterationCount, keyLength);
+		SecretKey secretKey = secretKeyFactory.generateSecret(keySpec);
+		return new SecretKeySpec(secretKey.getEncoded(), keyAlgorithm);
+	}
+	
+	/**
+	 * Gets the cipher instance for the current thread
+	 */
+	private Cipher getCipher() throws GeneralSecurityException {
+		Cipher cipher = threadCipher.get();
+		if(cipher == null) {
+			cipher = Cipher.getInstance(cipherTransformation);
+			threadCipher.set(cipher);
+		}
+		return cipher;
 	}
 }
\ No newline at end of file
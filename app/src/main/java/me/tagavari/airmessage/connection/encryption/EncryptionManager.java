@@ -1,5 +1,6 @@
 package me.tagavari.airmessage.connection.encryption;
 
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 
 public interface EncryptionManager {
@@ -18,4 +19,29 @@ public interface EncryptionManager {
 	 * @throws GeneralSecurityException If there was an error during the encryption process
 	 */
 	byte[] decrypt(byte[] inData) throws GeneralSecurityException;
+	
+	/**
+	 * Gets the length of the output of {@link #encrypt(ByteBuffer, ByteBuffer)} for input data of a certain length
+	 * @param length The length of the data to encrypt
+	 * @return The length of the encrypted data
+	 */
+	int getEncryptedLength(int length);
+	
+	/**
+	 * Encrypts the remaining data in the input buffer, and writes the result to the output buffer
+	 * The positions of both buffers are advanced by the amount of data read or written
+	 * @param inData The data to encrypt
+	 * @param outData The buffer to write the encrypted data to, with at least {@link #getEncryptedLength(int)} bytes remaining
+	 * @throws GeneralSecurityException If there was an error during the encryption process
+	 */
+	void encrypt(ByteBuffer inData, ByteBuffer outData) throws GeneralSecurityException;
+	
+	/**
+	 * Decrypts the remaining data in the provided buffer in place, without allocating a new buffer for the result
+	 * The contents of the provided buffer are overwritten
+	 * @param data The data to decrypt
+	 * @return A view of the decrypted data, backed by the provided buffer
+	 * @throws GeneralSecurityException If there was an error during the encryption process
+	 */
+	ByteBuffer decrypt(ByteBuffer data) throws GeneralSecurityException;
 }
\ No newline at end of file
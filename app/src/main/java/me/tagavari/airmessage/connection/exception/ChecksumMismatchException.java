@@ -0,0 +1,8 @@
+package me.tagavari.airmessage.connection.exception;
+
+//When a downloaded file doesn't match the checksum provided by the server
+public class ChecksumMismatchException extends Exception {
+	public ChecksumMismatchException(String message) {
+		super(message);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,10 @@
+package me.tagavari.airmessage.connection.exception;
+
+import java.io.IOException;
+
+//When packets can't be handed to the data proxy, or the data proxy stops writing them
+public class PacketSendException extends IOException {
+	public PacketSendException(String message) {
+		super(message);
+	}
+}
\ No newline at end of file
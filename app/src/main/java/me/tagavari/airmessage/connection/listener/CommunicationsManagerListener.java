@@ -12,10 +12,12 @@ import me.tagavari.airmessage.util.CompoundErrorDetails;
 import me.tagavari.airmessage.util.ServerUpdateData;
 
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 
 /**
  * A listener for communicating from a communications manager to a connection manager
+ * Data events (message and modifier updates, mass retrieval items, and file chunks) are called on the network events thread, while all other events are called on the main thread.
  */
 public interface CommunicationsManagerListener {
 	void onOpen(String installationID, String deviceName, String systemVersion, String softwareVersion, String userName, boolean supportsFaceTime);
@@ -28,14 +30,14 @@ public interface CommunicationsManagerListener {
 	void onMassRetrievalComplete(short requestID);
 	void onMassRetrievalFail(short requestID);
 	void onMassRetrievalFileStart(short requestID, String fileGUID, String fileName, @Nullable String downloadFileName, @Nullable String downloadFileType, @Nullable Function<OutputStream, OutputStream> streamWrapper);
-	void onMassRetrievalFileProgress(short requestID, int responseIndex, String fileGUID, byte[] fileData);
+	void onMassRetrievalFileProgress(short requestID, int responseIndex, String fileGUID, ByteBuffer fileData);
 	void onMassRetrievalFileComplete(short requestID, String fileGUID);
 
 	void onConversationUpdate(Collection<Blocks.ConversationInfo> data);
 	void onModifierUpdate(Collection<Blocks.ModifierInfo> data);
 
-	void onFileRequestStart(short requestID, @Nullable String downloadFileName, @Nullable String downloadFileType, long fileLength, @Nullable Function<OutputStream, OutputStream> streamWrapper);
-	void onFileRequestData(short requestID, int responseIndex, byte[] data);
+	void onFileRequestStart(short requestID, @Nullable String downloadFileName, @Nullable String downloadFileType, long fileLength, int chunkSize, @Nullable Function<OutputStream, OutputStream> streamWrapper);
+	void onFileRequestData(short requestID, int responseIndex, ByteBuffer data);
 	void onFileRequestComplete(short requestID);
 	void onFileRequestFail(short requestID, @AttachmentReqErrorCode int errorCode);
 
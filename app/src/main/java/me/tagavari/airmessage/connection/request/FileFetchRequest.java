@@ -1,33 +1,55 @@
 package me.tagavari.airmessage.connection.request;
 
 import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
 import androidx.annotation.Nullable;
 import androidx.arch.core.util.Function;
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
 import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Scheduler;
 import io.reactivex.rxjava3.core.Single;
-import io.reactivex.rxjava3.schedulers.Schedulers;
+import me.tagavari.airmessage.connection.AttachmentDownloadManager;
+import me.tagavari.airmessage.connection.exception.ChecksumMismatchException;
 import me.tagavari.airmessage.data.DatabaseManager;
+import me.tagavari.airmessage.data.SharedPreferencesManager;
 import me.tagavari.airmessage.helper.AttachmentStorageHelper;
+import me.tagavari.airmessage.helper.DataStreamHelper;
+import me.tagavari.airmessage.util.DownloadResumeState;
 
 import java.io.*;
-import java.util.concurrent.Executors;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
 
 public class FileFetchRequest {
-	private final Scheduler requestScheduler = Schedulers.from(Executors.newSingleThreadExecutor(), true);
+	private static final String TAG = FileFetchRequest.class.getSimpleName();
+	private static final String hashAlgorithm = "MD5";
+	private static final long resumeStateSaveBytes = 4 * 1024 * 1024; //Save the download's progress at least every 4 MB...
+	private static final long resumeStateSaveMillis = 5 * 1000; //...or every 5 seconds
+	
+	private final Scheduler requestScheduler = AttachmentDownloadManager.createRequestScheduler();
 	
 	private final long messageID;
 	private final long attachmentID;
 	private final String fileName;
 	
+	private Context context;
 	private File targetFile;
+	private ResumableFileOutputStream fileStream;
 	private OutputStream outputStream;
+	@Nullable private MessageDigest messageDigest;
 	private long totalLength;
+	private int chunkSize;
 	private @Nullable String downloadFileName;
 	private @Nullable String downloadFileType;
 	private long bytesWritten = 0;
 	private int expectedResponseIndex = 0;
+	private volatile int lastFlushedChunkIndex = -1;
+	private long lastSavedLength = 0;
+	private long lastSaveTime = 0;
+	private volatile boolean isClosed = false;
 	
 	public FileFetchRequest(long messageID, long attachmentID, String fileName) {
 		this.messageID = messageID;
@@ -44,22 +66,56 @@ public class FileFetchRequest {
 	}
 	
 	/**
-	 * Initializes this request's streams
+	 * Initializes this request's streams, picking up from a previous interrupted download of this attachment if possible
 	 */
-	public void initialize(Context context, @Nullable String downloadFileName, @Nullable String downloadFileType, long totalLength, @Nullable Function<OutputStream, OutputStream> streamWrapper) throws IOException {
-		targetFile = AttachmentStorageHelper.prepareContentFile(context, AttachmentStorageHelper.dirNameAttachment, downloadFileName != null ? downloadFileName : fileName);
-		outputStream = new BufferedOutputStream(new FileOutputStream(targetFile));
+	public void initialize(Context context, @Nullable String downloadFileName, @Nullable String downloadFileType, long totalLength, int chunkSize, @Nullable Function<OutputStream, OutputStream> streamWrapper) throws IOException {
+		this.context = context.getApplicationContext();
+		
+		//Checking for a partial download to resume
+		long resumeLength = 0;
+		DownloadResumeState resumeState = SharedPreferencesManager.getDownloadResumeState(context, attachmentID);
+		if(resumeState != null) {
+			File resumeFile = AttachmentStorageHelper.getAbsolutePath(context, resumeState.getFilePath());
+			if(resumeFile.isFile() && resumeState.getTotalLength() == totalLength && Objects.equals(resumeState.getDownloadFileName(), downloadFileName) && Objects.equals(resumeState.getDownloadFileType(), downloadFileType)) {
+				//Resuming the download
+				Log.i(TAG, "Resuming download of attachment " + attachmentID + " after chunk #" + resumeState.getChunkIndex() + " (" + resumeState.getConfirmedLength() + " bytes)");
+				targetFile = resumeFile;
+				resumeLength = resumeState.getConfirmedLength();
+			} else {
+				//Discarding the outdated partial download
+				if(resumeFile.exists()) AttachmentStorageHelper.deleteContentFile(AttachmentStorageHelper.dirNameAttachment, resumeFile);
+				SharedPreferencesManager.removeDownloadResumeState(context, attachmentID);
+			}
+		}
+		if(targetFile == null) {
+			targetFile = AttachmentStorageHelper.prepareContentFile(context, AttachmentStorageHelper.dirNameAttachment, downloadFileName != null ? downloadFileName : fileName);
+		}
+		
+		//Hashing the file as it is written, so it can be checked against the server's checksum once the download completes
+		try {
+			messageDigest = MessageDigest.getInstance(hashAlgorithm);
+		} catch(NoSuchAlgorithmException exception) {
+			exception.printStackTrace();
+			messageDigest = null;
+		}
+		
+		//Opening the streams
+		fileStream = new ResumableFileOutputStream(targetFile, resumeLength, messageDigest);
+		outputStream = fileStream;
 		if(streamWrapper != null) outputStream = streamWrapper.apply(outputStream);
 		this.downloadFileName = downloadFileName;
 		this.downloadFileType = downloadFileType;
 		this.totalLength = totalLength;
+		this.chunkSize = chunkSize;
+		lastSavedLength = resumeLength;
+		lastSaveTime = SystemClock.elapsedRealtime();
 	}
 	
 	/**
 	 * Writes a chunk of data to disk for this request
 	 * @return A single that completes with the total amount of bytes written
 	 */
-	public Single<Long> writeChunk(int responseIndex, byte[] data) {
+	public Single<Long> writeChunk(int responseIndex, ByteBuffer data) {
 		//Validating the request index
 		if(responseIndex != expectedResponseIndex) {
 			return Single.error(new IllegalStateException("Request out of order: expected #" + expectedResponseIndex + ", received #" + responseIndex));
@@ -67,31 +123,90 @@ public class FileFetchRequest {
 		expectedResponseIndex++;
 		
 		//Writing the data
-		return Completable.fromAction(() -> outputStream.write(data))
+		int dataLength = data.remaining();
+		return Completable.fromAction(() -> {
+					DataStreamHelper.writeBuffer(data, outputStream);
+					
+					//Saving our progress every so often, so the download can be resumed if it is interrupted
+					outputStream.flush();
+					lastFlushedChunkIndex = responseIndex;
+					if(fileStream.getConfirmedLength() - lastSavedLength >= resumeStateSaveBytes || SystemClock.elapsedRealtime() - lastSaveTime >= resumeStateSaveMillis) {
+						saveResumeState(responseIndex);
+					}
+				})
 				.subscribeOn(requestScheduler)
 				.observeOn(AndroidSchedulers.mainThread())
 				//Incrementing the bytes written
-				.doOnComplete(() -> bytesWritten += data.length)
+				.doOnComplete(() -> bytesWritten += dataLength)
 				//Return the total bytes written
 				.andThen(Single.fromCallable(() -> bytesWritten));
 	}
 	
+	/**
+	 * Saves the progress of this request, up to the data that has been flushed to disk
+	 * @param chunkIndex The index of the last chunk that was written
+	 */
+	private void saveResumeState(int chunkIndex) {
+		if(isClosed) return;
+		
+		long confirmedLength = fileStream.getConfirmedLength();
+		SharedPreferencesManager.setDownloadResumeState(context, attachmentID, new DownloadResumeState(
+				AttachmentStorageHelper.getRelativePath(context, targetFile),
+				downloadFileName,
+				downloadFileType,
+				totalLength,
+				chunkIndex,
+				confirmedLength
+		));
+		lastSavedLength = confirmedLength;
+		lastSaveTime = SystemClock.elapsedRealtime();
+	}
+	
 	/**
 	 * Completes this request and updates the attachment's state on disk
+	 * Fails with a {@link ChecksumMismatchException} if the downloaded file doesn't match the checksum provided by the server
 	 */
 	public Single<File> complete(Context context) {
 		return Completable.fromAction(() -> {
 			close();
+			if(fileStream.getVerifiedLength() > 0) {
+				Log.i(TAG, "Skipped rewriting " + fileStream.getVerifiedLength() + " bytes of attachment " + attachmentID);
+			}
+			
+			//Checking the file against the server's checksum
+			byte[] fileChecksum = DatabaseManager.getInstance().getAttachmentChecksum(attachmentID);
+			if(fileChecksum != null && messageDigest != null && !MessageDigest.isEqual(fileChecksum, messageDigest.digest())) {
+				discardFile();
+				throw new ChecksumMismatchException("Downloaded file for attachment " + attachmentID + " doesn't match checksum");
+			}
+			
+			SharedPreferencesManager.removeDownloadResumeState(context, attachmentID);
 			DatabaseManager.getInstance().updateAttachmentFile(attachmentID, context, targetFile, downloadFileName, downloadFileType);
 		}).subscribeOn(requestScheduler).observeOn(AndroidSchedulers.mainThread()).andThen(Single.just(targetFile));
 	}
 	
 	/**
-	 * Closes this request's streams and scheduler for use when we are done with this request
+	 * Closes this request's streams for use when we are done with this request
 	 */
 	public void close() throws IOException {
+		isClosed = true;
 		if(outputStream != null) outputStream.close();
-		requestScheduler.shutdown();
+	}
+	
+	/**
+	 * Suspends this request, closing its streams but keeping the partially downloaded file so it can be resumed later
+	 * If no data has been saved for this attachment yet, the file is discarded instead.
+	 */
+	public void suspend() throws IOException {
+		//Saving any progress since the last save
+		int chunkIndex = lastFlushedChunkIndex;
+		if(targetFile != null && chunkIndex != -1) saveResumeState(chunkIndex);
+		close();
+		
+		//Cleaning up if there is nothing to resume from
+		if(targetFile != null && SharedPreferencesManager.getDownloadResumeState(context, attachmentID) == null) {
+			discardFile();
+		}
 	}
 	
 	/**
@@ -99,7 +214,36 @@ public class FileFetchRequest {
 	 */
 	public void cancel() throws IOException {
 		close();
-		if(targetFile != null) AttachmentStorageHelper.deleteContentFile(AttachmentStorageHelper.dirNameAttachment, targetFile);
+		discardFile();
+	}
+	
+	/**
+	 * Deletes the downloaded file and any saved progress
+	 */
+	private void discardFile() {
+		if(targetFile == null) return;
+		
+		AttachmentStorageHelper.deleteContentFile(AttachmentStorageHelper.dirNameAttachment, targetFile);
+		SharedPreferencesManager.removeDownloadResumeState(context, attachmentID);
+	}
+	
+	/**
+	 * Gets whether a partial download of an attachment has been saved, and can be resumed
+	 */
+	public static boolean hasPartialDownload(Context context, long attachmentID) {
+		return SharedPreferencesManager.getDownloadResumeState(context, attachmentID) != null;
+	}
+	
+	/**
+	 * Deletes the partial download of an attachment and its saved progress, for when the download won't be resumed
+	 */
+	public static void discardPartialDownload(Context context, long attachmentID) {
+		DownloadResumeState resumeState = SharedPreferencesManager.getDownloadResumeState(context, attachmentID);
+		if(resumeState == null) return;
+		
+		File resumeFile = AttachmentStorageHelper.getAbsolutePath(context, resumeState.getFilePath());
+		if(resumeFile.exists()) AttachmentStorageHelper.deleteContentFile(AttachmentStorageHelper.dirNameAttachment, resumeFile);
+		SharedPreferencesManager.removeDownloadResumeState(context, attachmentID);
 	}
 	
 	/**
@@ -124,4 +268,11 @@ public class FileFetchRequest {
 	public long getTotalLength() {
 		return totalLength;
 	}
+	
+	/**
+	 * Gets the chunk size the attachment file is being downloaded with
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
 }
\ No newline at end of file
@@ -9,16 +9,22 @@ import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Scheduler;
 import io.reactivex.rxjava3.core.Single;
 import io.reactivex.rxjava3.schedulers.Schedulers;
+import kotlin.Pair;
 import me.tagavari.airmessage.common.Blocks;
 import me.tagavari.airmessage.data.DatabaseManager;
 import me.tagavari.airmessage.helper.AttachmentStorageHelper;
+import me.tagavari.airmessage.helper.DataStreamHelper;
 import me.tagavari.airmessage.messaging.ConversationInfo;
 import me.tagavari.airmessage.messaging.ConversationItem;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.Executors;
 
 public class MassRetrievalRequest {
@@ -30,7 +36,7 @@ public class MassRetrievalRequest {
 	
 	//Conversations state
 	private boolean initialInfoReceived = false;
-	private volatile List<ConversationInfo> conversationList;
+	private volatile Map<String, ConversationInfo> conversationMap; //Conversations by GUID
 	
 	//Messages state
 	private int totalMessageCount;
@@ -75,7 +81,7 @@ public class MassRetrievalRequest {
 				ConversationInfo item = DatabaseManager.getInstance().addReadyConversationInfoAMBridge(structConversation);
 				if(item != null) conversationInfoList.add(item);
 			}
-			this.conversationList = conversationInfoList;
+			this.conversationMap = indexConversations(conversationInfoList);
 			return conversationInfoList;
 		}).subscribeOn(requestScheduler).observeOn(AndroidSchedulers.mainThread());
 	}
@@ -98,22 +104,12 @@ public class MassRetrievalRequest {
 		expectedResponseIndex++;
 		
 		return Single.fromCallable(() -> {
-			List<ConversationItem> addedItemList = new ArrayList<>();
+			//Matching the messages to their conversations
+			List<Pair<Long, Blocks.ConversationItem>> writeList = matchConversationItems(conversationMap, itemList);
 			
-			//Adding the messages
-			for(Blocks.ConversationItem structItem : itemList) {
-				//Finding the parent conversation
-				ConversationInfo parentConversation = conversationList.stream().filter(conversation -> structItem.chatGuid.equals(conversation.getGUID())).findAny().orElse(null);
-				if(parentConversation == null) {
-					Log.w(TAG, "Mass retrieval referenced conversation not found: " + structItem.chatGuid);
-					continue;
-				}
-				
-				//Writing the item
-				ConversationItem conversationItem = DatabaseManager.getInstance().addConversationStruct(context, parentConversation.getLocalID(), structItem, true);
-				if(conversationItem == null) continue;
-				addedItemList.add(conversationItem);
-			}
+			//Writing the items
+			List<ConversationItem> addedItemList = DatabaseManager.getInstance().addConversationStructs(context, writeList, true);
+			addedItemList.removeIf(Objects::isNull);
 			
 			return addedItemList;
 		}).subscribeOn(requestScheduler).observeOn(AndroidSchedulers.mainThread()).doOnSuccess(addedItems -> {
@@ -122,6 +118,39 @@ public class MassRetrievalRequest {
 		});
 	}
 	
+	/**
+	 * Indexes a list of conversations by their GUID
+	 * If multiple conversations share a GUID, the first one is kept.
+	 */
+	static Map<String, ConversationInfo> indexConversations(List<ConversationInfo> conversationList) {
+		Map<String, ConversationInfo> conversationMap = new HashMap<>(conversationList.size() * 4 / 3 + 1);
+		for(ConversationInfo conversation : conversationList) conversationMap.putIfAbsent(conversation.getGUID(), conversation);
+		return conversationMap;
+	}
+	
+	/**
+	 * Matches conversation items to the local IDs of their parent conversations
+	 * Items whose conversation can't be found are skipped.
+	 * @param conversationMap The conversations to match against, by GUID
+	 * @param itemList The items to match
+	 * @return A list of items paired with the local ID of their conversation, in the same order as the input
+	 */
+	static List<Pair<Long, Blocks.ConversationItem>> matchConversationItems(Map<String, ConversationInfo> conversationMap, Collection<Blocks.ConversationItem> itemList) {
+		List<Pair<Long, Blocks.ConversationItem>> writeList = new ArrayList<>(itemList.size());
+		for(Blocks.ConversationItem structItem : itemList) {
+			//Finding the parent conversation
+			ConversationInfo parentConversation = conversationMap.get(structItem.chatGuid);
+			if(parentConversation == null) {
+				Log.w(TAG, "Mass retrieval referenced conversation not found: " + structItem.chatGuid);
+				continue;
+			}
+			
+			writeList.add(new Pair<>(parentConversation.getLocalID(), structItem));
+		}
+		
+		return writeList;
+	}
+	
 	/**
 	 * Initializes the response for an attachment file
 	 * @param context The context to use
@@ -153,7 +182,7 @@ public class MassRetrievalRequest {
 	 * @param data The attachment's data
 	 * @return A completable to represent this task
 	 */
-	public Completable writeChunkAttachment(String guid, int responseIndex, byte[] data) {
+	public Completable writeChunkAttachment(String guid, int responseIndex, ByteBuffer data) {
 		return Completable.fromAction(() -> {
 			//Validating and increasing the index
 			if(responseIndex != attachmentExpectedRequestIndex) {
@@ -167,7 +196,7 @@ public class MassRetrievalRequest {
 			}
 			
 			//Writing the data
-			attachmentOutputStream.write(data);
+			DataStreamHelper.writeBuffer(data, attachmentOutputStream);
 		}).subscribeOn(requestScheduler).observeOn(AndroidSchedulers.mainThread());
 	}
 	
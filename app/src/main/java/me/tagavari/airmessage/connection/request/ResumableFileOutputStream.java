@@ -0,0 +1,148 @@
+package me.tagavari.airmessage.connection.request;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+
+/**
+ * An output stream that writes a download to a file, picking up from a partially written copy of the same file
+ * The data that is already on disk is compared against the incoming data rather than being written again.
+ * If the two don't match, the file is truncated at the first mismatched byte and the rest of the data is written from there.
+ */
+class ResumableFileOutputStream extends OutputStream {
+	//Creating the constants
+	private static final int bufferSize = 64 * 1024; //64 kB
+	
+	//Creating the stream values
+	private final RandomAccessFile file;
+	@Nullable private final MessageDigest messageDigest;
+	private final byte[] buffer = new byte[bufferSize];
+	private int bufferLength = 0;
+	
+	//Creating the state values
+	private long verifyLength; //The amount of bytes at the start of the file that are still waiting to be checked
+	private long verifiedLength = 0; //The amount of bytes that matched the existing file
+	private long confirmedLength = 0; //The amount of bytes that have been verified or written to the file
+	
+	/**
+	 * Creates a new resumable file output stream
+	 * @param targetFile The file to write to
+	 * @param resumeLength The amount of bytes from the start of the file to check instead of writing, or 0 to write the file from scratch
+	 * @param messageDigest A message digest to pass all data through, or NULL if unavailable
+	 */
+	ResumableFileOutputStream(File targetFile, long resumeLength, @Nullable MessageDigest messageDigest) throws IOException {
+		file = new RandomAccessFile(targetFile, "rw");
+		this.messageDigest = messageDigest;
+		
+		//Discarding any data past the part of the file we're resuming from
+		verifyLength = Math.max(0, Math.min(resumeLength, file.length()));
+		file.setLength(verifyLength);
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[]{(byte) b}, 0, 1);
+	}
+	
+	@Override
+	public void write(@NonNull byte[] b, int off, int len) throws IOException {
+		if(messageDigest != null) messageDigest.update(b, off, len);
+		
+		//Checking the data against the existing file
+		while(len > 0 && verifyLength > 0) {
+			int checkLength = (int) Math.min(Math.min(len, verifyLength), buffer.length);
+			file.readFully(buffer, 0, checkLength);
+			
+			int mismatchIndex = findMismatch(buffer, b, off, checkLength);
+			if(mismatchIndex != -1) {
+				//Discarding the rest of the existing file, and writing the data from here
+				long mismatchPosition = confirmedLength + mismatchIndex;
+				file.setLength(mismatchPosition);
+				file.seek(mismatchPosition);
+				verifiedLength += mismatchIndex;
+				confirmedLength = mismatchPosition;
+				verifyLength = 0;
+				
+				off += mismatchIndex;
+				len -= mismatchIndex;
+				break;
+			}
+			
+			verifyLength -= checkLength;
+			verifiedLength += checkLength;
+			confirmedLength += checkLength;
+			off += checkLength;
+			len -= checkLength;
+		}
+		if(len == 0) return;
+		
+		//Writing large blocks directly
+		if(len >= buffer.length) {
+			flushBuffer();
+			file.write(b, off, len);
+			confirmedLength += len;
+			return;
+		}
+		
+		//Adding the data to the buffer
+		if(len > buffer.length - bufferLength) flushBuffer();
+		System.arraycopy(b, off, buffer, bufferLength, len);
+		bufferLength += len;
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+		} finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * Writes any buffered data to the file
+	 */
+	private void flushBuffer() throws IOException {
+		if(bufferLength == 0) return;
+		
+		file.write(buffer, 0, bufferLength);
+		confirmedLength += bufferLength;
+		bufferLength = 0;
+	}
+	
+	/**
+	 * Gets the amount of bytes that have been verified against the existing file or flushed to disk
+	 */
+	long getConfirmedLength() {
+		return confirmedLength;
+	}
+	
+	/**
+	 * Gets the amount of bytes that matched the existing file, and didn't have to be written again
+	 */
+	long getVerifiedLength() {
+		return verifiedLength;
+	}
+	
+	/**
+	 * Finds the first index where two arrays differ
+	 * @return The index of the first mismatched byte, or -1 if the arrays match
+	 */
+	private static int findMismatch(byte[] existing, byte[] incoming, int incomingOffset, int length) {
+		for(int i = 0; i < length; i++) {
+			if(existing[i] != incoming[incomingOffset + i]) return i;
+		}
+		
+		return -1;
+	}
+}
\ No newline at end of file
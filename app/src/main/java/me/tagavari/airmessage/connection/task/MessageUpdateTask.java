@@ -42,17 +42,31 @@ public class MessageUpdateTask {
 			List<ConversationInfo> incompleteServerConversations = new ArrayList<>();
 			List<Pair<MessageInfo, AttachmentInfo>> collectedAttachments = collectAttachments ? new ArrayList<>() : null;
 			
-			//Grouping the messages by conversation and iterating
+			//Grouping the messages by conversation
+			List<Pair<ConversationInfo, Integer>> conversationGroups = new ArrayList<>();
+			List<Pair<Long, Blocks.ConversationItem>> writeList = new ArrayList<>(conversationItems.size());
 			for(Map.Entry<String, List<Blocks.ConversationItem>> entry : conversationItems.stream().collect(Collectors.groupingBy(item -> item.chatGuid)).entrySet()) {
 				//Retrieving / creating the conversation from the database
 				ConversationInfo conversationInfo = DatabaseManager.getInstance().addRetrieveServerCreatedConversationInfo(context, entry.getKey());
 				if(conversationInfo == null) continue;
 				
+				conversationGroups.add(new Pair<>(conversationInfo, entry.getValue().size()));
+				for(Blocks.ConversationItem conversationItem : entry.getValue()) writeList.add(new Pair<>(conversationInfo.getLocalID(), conversationItem));
+			}
+			
+			//Adding the conversation items to the database
+			List<ReplaceInsertResult> writeResults = DatabaseManager.getInstance().mergeOrWriteConversationItems(context, writeList, false);
+			
+			//Iterating over the conversations
+			int resultIndex = 0;
+			for(Pair<ConversationInfo, Integer> group : conversationGroups) {
+				ConversationInfo conversationInfo = group.getFirst();
+				List<ReplaceInsertResult> conversationResults = writeResults.subList(resultIndex, resultIndex + group.getSecond());
+				resultIndex += group.getSecond();
+				
 				int newIncomingMessageCount = 0;
-				List<ReplaceInsertResult> newItems = conversationInfo.getState() == ConversationState.ready ? new ArrayList<>(entry.getValue().size()) : null;
-				for(Blocks.ConversationItem conversationItem : entry.getValue()) {
-					//Adding the conversation item to the database
-					ReplaceInsertResult replaceInsertResult = DatabaseManager.getInstance().mergeOrWriteConversationItem(context, conversationInfo.getLocalID(), conversationItem, false);
+				List<ReplaceInsertResult> newItems = conversationInfo.getState() == ConversationState.ready ? new ArrayList<>(conversationResults.size()) : null;
+				for(ReplaceInsertResult replaceInsertResult : conversationResults) {
 					if(replaceInsertResult == null) continue;
 					
 					ConversationItem targetItem = replaceInsertResult.getTargetItem();
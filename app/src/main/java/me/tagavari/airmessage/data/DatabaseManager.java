@@ -3,12 +3,17 @@ package me.tagavari.airmessage.data;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteTransactionListener;
+import android.os.Build;
+import android.os.SystemClock;
 import android.provider.BaseColumns;
 import android.util.Base64;
+import android.util.Log;
 import android.util.LongSparseArray;
 import android.webkit.MimeTypeMap;
 import androidx.annotation.Nullable;
@@ -21,6 +26,7 @@ import me.tagavari.airmessage.enums.*;
 import me.tagavari.airmessage.flavor.CrashlyticsBridge;
 import me.tagavari.airmessage.helper.*;
 import me.tagavari.airmessage.messaging.*;
+import me.tagavari.airmessage.util.MessageSearchResult;
 import me.tagavari.airmessage.util.ModifierMetadata;
 import me.tagavari.airmessage.util.ReplaceInsertResult;
 
@@ -29,13 +35,23 @@ import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
 public class DatabaseManager extends SQLiteOpenHelper {
+	private static final String TAG = DatabaseManager.class.getSimpleName();
+	
 	//If you change the database schema, you must increment the database version
 	private static final String DATABASE_NAME = "messages.db";
-	private static final int DATABASE_VERSION = 15;
+	private static final int DATABASE_VERSION = 20;
+	
+	//Creating the write-ahead log settings
+	private static final int walAutoCheckpointPages = 1000; //Checkpoint after about 4 MB of changes, rather than the Android default of 100 pages
+	private static final long walJournalSizeLimit = 4 * 1024 * 1024; //Truncate the log file back to 4 MB after checkpoints
+	
+	//Creating the load settings
+	private static final int detailLoadChunkSize = 500; //The amount of messages to load attachments and modifiers for at once when loading a whole conversation
 	
 	//Creating the fetch statements
 	/* private static final String SQL_FETCH_CONVERSATIONS = "SELECT * FROM (" +
@@ -74,6 +90,22 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			Contract.ConversationEntry.COLUMN_NAME_DRAFTMESSAGE,
 			Contract.ConversationEntry.COLUMN_NAME_DRAFTUPDATETIME
 	};
+	private static final String sqlTableConversationPreview = Contract.ConversationEntry.TABLE_NAME + " LEFT JOIN " + Contract.MessageEntry.TABLE_NAME +
+			" ON " + Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry._ID + " = " + Contract.ConversationEntry.TABLE_NAME + "." + Contract.ConversationEntry.COLUMN_NAME_PREVIEWMESSAGE;
+	private static final String[] sqlQueryConversationPreviewData = new String[] {
+			Contract.ConversationEntry.TABLE_NAME + "." + Contract.ConversationEntry.COLUMN_NAME_PREVIEWMESSAGE + " AS " + Contract.ConversationEntry.COLUMN_NAME_PREVIEWMESSAGE,
+			Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_ITEMTYPE + " AS preview_item_type",
+			Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_DATE + " AS preview_date",
+			Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_SENDER + " AS preview_sender",
+			Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT + " AS preview_text",
+			Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT + " AS preview_subject",
+			Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_SENDSTYLE + " AS preview_send_style",
+			Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_ERROR + " AS preview_error"
+	};
+	private static final String[] sqlQueryConversationSummaryData = Stream.concat(
+			Arrays.stream(sqlQueryConversationData).map(column -> Contract.ConversationEntry.TABLE_NAME + "." + column + " AS " + column),
+			Arrays.stream(sqlQueryConversationPreviewData)
+	).toArray(String[]::new);
 	//private static final String messageSortOrder = "COALESCE(" + Contract.MessageEntry.TABLE_NAME + '.' + Contract.MessageEntry.COLUMN_NAME_SERVERID + ',' + Contract.MessageEntry.TABLE_NAME + '.' + Contract.MessageEntry._ID + ')';
 	//private static final String messageSortOrder = "CASE WHEN " + Contract.MessageEntry.TABLE_NAME + '.' + Contract.MessageEntry.COLUMN_NAME_SERVERID + " IS NULL THEN " + Contract.MessageEntry.TABLE_NAME + '.' + Contract.MessageEntry._ID + " ELSE " + Contract.MessageEntry.TABLE_NAME + '.' + Contract.MessageEntry.COLUMN_NAME_SERVERID + " END";
 	private static final String messageSortOrderDesc = Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + " DESC, " + Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET + " DESC";
@@ -119,7 +151,8 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			Contract.ConversationEntry.COLUMN_NAME_MUTED + " INTEGER NOT NULL DEFAULT 0," +
 			Contract.ConversationEntry.COLUMN_NAME_COLOR + " INTEGER NOT NULL DEFAULT " + 0xFF000000 + ',' + //Black
 			Contract.ConversationEntry.COLUMN_NAME_DRAFTMESSAGE + " TEXT," +
-			Contract.ConversationEntry.COLUMN_NAME_DRAFTUPDATETIME + " INTEGER NOT NULL DEFAULT 0" +
+			Contract.ConversationEntry.COLUMN_NAME_DRAFTUPDATETIME + " INTEGER NOT NULL DEFAULT 0," +
+			Contract.ConversationEntry.COLUMN_NAME_PREVIEWMESSAGE + " INTEGER" +
 			");";
 	private static final String SQL_CREATE_TABLE_DRAFTS = "CREATE TABLE " + Contract.DraftFileEntry.TABLE_NAME + " (" +
 			Contract.DraftFileEntry._ID + " INTEGER PRIMARY KEY UNIQUE," +
@@ -148,7 +181,8 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADFILETYPE + " TEXT," +
 			Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADFILENAME + " TEXT," +
 			Contract.AttachmentEntry.COLUMN_NAME_SORT + " INTEGER, " +
-			Contract.AttachmentEntry.COLUMN_NAME_SHOULDAUTODOWNLOAD + " INTEGER NOT NULL DEFAULT 0" +
+			Contract.AttachmentEntry.COLUMN_NAME_SHOULDAUTODOWNLOAD + " INTEGER NOT NULL DEFAULT 0, " +
+			Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADED + " INTEGER NOT NULL DEFAULT 0" +
 			");";
 	private static final String SQL_CREATE_TABLE_MESSAGEPREVIEW = "CREATE TABLE " + Contract.MessagePreviewEntry.TABLE_NAME + " (" +
 			Contract.MessagePreviewEntry._ID + " INTEGER PRIMARY KEY UNIQUE," +
@@ -175,6 +209,105 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			Contract.TapbackEntry.COLUMN_NAME_SENDER + " TEXT," +
 			Contract.TapbackEntry.COLUMN_NAME_CODE + " INTEGER NOT NULL" +
 			");";
+	
+	//Creating the index creation statements
+	private static final String SQL_CREATE_INDEX_MESSAGES_CHAT = "CREATE INDEX messages_chat_index ON " + Contract.MessageEntry.TABLE_NAME + " (" +
+			Contract.MessageEntry.COLUMN_NAME_CHAT + ", " +
+			Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + ", " +
+			Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET +
+			");";
+	private static final String SQL_CREATE_INDEX_MESSAGES_CHAT_DATE = "CREATE INDEX messages_chat_date_index ON " + Contract.MessageEntry.TABLE_NAME + " (" +
+			Contract.MessageEntry.COLUMN_NAME_CHAT + ", " +
+			Contract.MessageEntry.COLUMN_NAME_DATE +
+			");";
+	private static final String SQL_CREATE_INDEX_MESSAGES_GUID = "CREATE INDEX messages_guid_index ON " + Contract.MessageEntry.TABLE_NAME + " (" + Contract.MessageEntry.COLUMN_NAME_GUID + ");";
+	private static final String SQL_CREATE_INDEX_MESSAGES_SORT = "CREATE INDEX messages_sort_index ON " + Contract.MessageEntry.TABLE_NAME + " (" +
+			Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + ", " +
+			Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET +
+			");";
+	private static final String SQL_CREATE_INDEX_CONVERSATIONS_GUID = "CREATE INDEX conversations_guid_index ON " + Contract.ConversationEntry.TABLE_NAME + " (" +
+			Contract.ConversationEntry.COLUMN_NAME_GUID + ", " +
+			Contract.ConversationEntry.COLUMN_NAME_SERVICEHANDLER +
+			");";
+	private static final String SQL_CREATE_INDEX_MEMBERS_CHAT = "CREATE INDEX users_chat_index ON " + Contract.MemberEntry.TABLE_NAME + " (" +
+			Contract.MemberEntry.COLUMN_NAME_CHAT + ", " +
+			Contract.MemberEntry.COLUMN_NAME_MEMBER +
+			");";
+	private static final String SQL_CREATE_INDEX_ATTACHMENTS_MESSAGE = "CREATE INDEX attachments_message_index ON " + Contract.AttachmentEntry.TABLE_NAME + " (" +
+			Contract.AttachmentEntry.COLUMN_NAME_MESSAGE + ", " +
+			Contract.AttachmentEntry.COLUMN_NAME_SORT +
+			");";
+	private static final String SQL_CREATE_INDEX_ATTACHMENTS_GUID = "CREATE INDEX attachments_guid_index ON " + Contract.AttachmentEntry.TABLE_NAME + " (" + Contract.AttachmentEntry.COLUMN_NAME_GUID + ");";
+	private static final String SQL_CREATE_INDEX_STICKER_MESSAGE = "CREATE INDEX sticker_message_index ON " + Contract.StickerEntry.TABLE_NAME + " (" + Contract.StickerEntry.COLUMN_NAME_MESSAGE + ");";
+	private static final String SQL_CREATE_INDEX_TAPBACK_MESSAGE = "CREATE INDEX tapback_message_index ON " + Contract.TapbackEntry.TABLE_NAME + " (" +
+			Contract.TapbackEntry.COLUMN_NAME_MESSAGE + ", " +
+			Contract.TapbackEntry.COLUMN_NAME_MESSAGEINDEX +
+			");";
+	
+	//Creating the conversation preview statements, which keep each conversation's preview message up-to-date as messages are added, moved and removed
+	private static final String sqlPreviewItemTypes = "(" + ConversationItemType.message + ", " + ConversationItemType.chatCreate + ")";
+	private static final String sqlSelectPreviewMessage = "CASE WHEN " + Contract.ConversationEntry.TABLE_NAME + "." + Contract.ConversationEntry.COLUMN_NAME_SERVICEHANDLER + " = " + ServiceHandler.appleBridge +
+			" THEN (SELECT " + Contract.MessageEntry._ID + " FROM " + Contract.MessageEntry.TABLE_NAME +
+			" WHERE " + Contract.MessageEntry.COLUMN_NAME_CHAT + " = " + Contract.ConversationEntry.TABLE_NAME + "." + Contract.ConversationEntry._ID + " AND " + Contract.MessageEntry.COLUMN_NAME_ITEMTYPE + " IN " + sqlPreviewItemTypes +
+			" ORDER BY " + messageSortOrderDesc + ", " + Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry._ID + " DESC LIMIT 1)" +
+			" ELSE (SELECT " + Contract.MessageEntry._ID + " FROM " + Contract.MessageEntry.TABLE_NAME +
+			" WHERE " + Contract.MessageEntry.COLUMN_NAME_CHAT + " = " + Contract.ConversationEntry.TABLE_NAME + "." + Contract.ConversationEntry._ID + " AND " + Contract.MessageEntry.COLUMN_NAME_ITEMTYPE + " IN " + sqlPreviewItemTypes +
+			" ORDER BY " + messageSortOrderDescSimple + ", " + Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry._ID + " DESC LIMIT 1)" +
+			" END";
+	private static final String SQL_UPDATE_PREVIEW_MESSAGES = "UPDATE " + Contract.ConversationEntry.TABLE_NAME + " SET " + Contract.ConversationEntry.COLUMN_NAME_PREVIEWMESSAGE + " = " + sqlSelectPreviewMessage + ";";
+	private static final String SQL_CREATE_TRIGGER_PREVIEW_INSERT = "CREATE TRIGGER conversations_preview_insert AFTER INSERT ON " + Contract.MessageEntry.TABLE_NAME +
+			" WHEN NEW." + Contract.MessageEntry.COLUMN_NAME_ITEMTYPE + " IN " + sqlPreviewItemTypes + " BEGIN" +
+			//Replacing the preview message, unless the current one sorts after the new message
+			" UPDATE " + Contract.ConversationEntry.TABLE_NAME + " SET " + Contract.ConversationEntry.COLUMN_NAME_PREVIEWMESSAGE + " = NEW." + Contract.MessageEntry._ID +
+			" WHERE " + Contract.ConversationEntry._ID + " = NEW." + Contract.MessageEntry.COLUMN_NAME_CHAT + " AND NOT EXISTS (SELECT 1 FROM " + Contract.MessageEntry.TABLE_NAME +
+			" WHERE " + Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry._ID + " = " + Contract.ConversationEntry.TABLE_NAME + "." + Contract.ConversationEntry.COLUMN_NAME_PREVIEWMESSAGE + " AND CASE WHEN " + Contract.ConversationEntry.TABLE_NAME + "." + Contract.ConversationEntry.COLUMN_NAME_SERVICEHANDLER + " = " + ServiceHandler.appleBridge +
+			" THEN (" + Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + " > NEW." + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED +
+			" OR (" + Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + " = NEW." + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + " AND " + Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET + " > NEW." + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET + "))" +
+			" ELSE " + Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_DATE + " > NEW." + Contract.MessageEntry.COLUMN_NAME_DATE + " END);" +
+			" END;";
+	private static final String SQL_CREATE_TRIGGER_PREVIEW_UPDATE = "CREATE TRIGGER conversations_preview_update AFTER UPDATE OF " +
+			Contract.MessageEntry.COLUMN_NAME_CHAT + ", " + Contract.MessageEntry.COLUMN_NAME_ITEMTYPE + ", " + Contract.MessageEntry.COLUMN_NAME_DATE + ", " + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + ", " + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET +
+			" ON " + Contract.MessageEntry.TABLE_NAME +
+			" WHEN (OLD." + Contract.MessageEntry.COLUMN_NAME_ITEMTYPE + " IN " + sqlPreviewItemTypes + " OR NEW." + Contract.MessageEntry.COLUMN_NAME_ITEMTYPE + " IN " + sqlPreviewItemTypes + ")" +
+			" AND (OLD." + Contract.MessageEntry.COLUMN_NAME_CHAT + " != NEW." + Contract.MessageEntry.COLUMN_NAME_CHAT +
+			" OR OLD." + Contract.MessageEntry.COLUMN_NAME_ITEMTYPE + " != NEW." + Contract.MessageEntry.COLUMN_NAME_ITEMTYPE +
+			" OR OLD." + Contract.MessageEntry.COLUMN_NAME_DATE + " != NEW." + Contract.MessageEntry.COLUMN_NAME_DATE +
+			" OR OLD." + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + " IS NOT NEW." + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED +
+			" OR OLD." + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET + " IS NOT NEW." + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET + ") BEGIN" +
+			" UPDATE " + Contract.ConversationEntry.TABLE_NAME + " SET " + Contract.ConversationEntry.COLUMN_NAME_PREVIEWMESSAGE + " = " + sqlSelectPreviewMessage +
+			" WHERE " + Contract.ConversationEntry._ID + " IN (OLD." + Contract.MessageEntry.COLUMN_NAME_CHAT + ", NEW." + Contract.MessageEntry.COLUMN_NAME_CHAT + ");" +
+			" END;";
+	private static final String SQL_CREATE_TRIGGER_PREVIEW_DELETE = "CREATE TRIGGER conversations_preview_delete AFTER DELETE ON " + Contract.MessageEntry.TABLE_NAME +
+			" WHEN OLD." + Contract.MessageEntry.COLUMN_NAME_ITEMTYPE + " IN " + sqlPreviewItemTypes + " BEGIN" +
+			" UPDATE " + Contract.ConversationEntry.TABLE_NAME + " SET " + Contract.ConversationEntry.COLUMN_NAME_PREVIEWMESSAGE + " = " + sqlSelectPreviewMessage +
+			" WHERE " + Contract.ConversationEntry._ID + " = OLD." + Contract.MessageEntry.COLUMN_NAME_CHAT + " AND " + Contract.ConversationEntry.COLUMN_NAME_PREVIEWMESSAGE + " = OLD." + Contract.MessageEntry._ID + ";" +
+			" END;";
+	
+	//Creating the message search statements, which keep a full-text index of message text and subjects in sync with the messages table
+	private static final String SQL_CREATE_TABLE_MESSAGE_SEARCH = "CREATE VIRTUAL TABLE " + Contract.MessageSearchEntry.TABLE_NAME + " USING fts4(" +
+			Contract.MessageSearchEntry.COLUMN_NAME_MESSAGETEXT + ", " +
+			Contract.MessageSearchEntry.COLUMN_NAME_MESSAGESUBJECT +
+			(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? ", tokenize=unicode61" : "") + //The unicode61 tokenizer isn't available on the versions of SQLite that ship with older versions of Android
+			");";
+	private static final String sqlInsertMessageSearch = "INSERT INTO " + Contract.MessageSearchEntry.TABLE_NAME + " (docid, " + Contract.MessageSearchEntry.COLUMN_NAME_MESSAGETEXT + ", " + Contract.MessageSearchEntry.COLUMN_NAME_MESSAGESUBJECT + ")";
+	private static final String SQL_FILL_MESSAGE_SEARCH = sqlInsertMessageSearch +
+			" SELECT " + Contract.MessageEntry._ID + ", " + Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT + ", " + Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT + " FROM " + Contract.MessageEntry.TABLE_NAME +
+			" WHERE " + Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT + " IS NOT NULL OR " + Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT + " IS NOT NULL;";
+	private static final String SQL_CREATE_TRIGGER_SEARCH_INSERT = "CREATE TRIGGER messages_search_insert AFTER INSERT ON " + Contract.MessageEntry.TABLE_NAME +
+			" WHEN NEW." + Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT + " IS NOT NULL OR NEW." + Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT + " IS NOT NULL BEGIN" +
+			" " + sqlInsertMessageSearch + " VALUES (NEW." + Contract.MessageEntry._ID + ", NEW." + Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT + ", NEW." + Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT + ");" +
+			" END;";
+	private static final String SQL_CREATE_TRIGGER_SEARCH_UPDATE = "CREATE TRIGGER messages_search_update AFTER UPDATE OF " + Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT + ", " + Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT + " ON " + Contract.MessageEntry.TABLE_NAME +
+			" WHEN OLD." + Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT + " IS NOT NEW." + Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT + " OR OLD." + Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT + " IS NOT NEW." + Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT + " BEGIN" +
+			" DELETE FROM " + Contract.MessageSearchEntry.TABLE_NAME + " WHERE docid = OLD." + Contract.MessageEntry._ID + ";" +
+			" " + sqlInsertMessageSearch + " SELECT NEW." + Contract.MessageEntry._ID + ", NEW." + Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT + ", NEW." + Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT +
+			" WHERE NEW." + Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT + " IS NOT NULL OR NEW." + Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT + " IS NOT NULL;" +
+			" END;";
+	private static final String SQL_CREATE_TRIGGER_SEARCH_DELETE = "CREATE TRIGGER messages_search_delete AFTER DELETE ON " + Contract.MessageEntry.TABLE_NAME +
+			" WHEN OLD." + Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT + " IS NOT NULL OR OLD." + Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT + " IS NOT NULL BEGIN" +
+			" DELETE FROM " + Contract.MessageSearchEntry.TABLE_NAME + " WHERE docid = OLD." + Contract.MessageEntry._ID + ";" +
+			" END;";
+	
 	/* private static final String SQL_CREATE_TABLE_BLOCKED = "CREATE TABLE " + Contract.BlockedEntry.TABLE_NAME + " (" +
 			Contract.BlockedEntry.COLUMN_NAME_ADDRESS + " TEXT NOT NULL," +
 			Contract.BlockedEntry.COLUMN_NAME_BLOCKCOUNT + " INTEGER NOT NULL DEFAULT 0" +
@@ -183,8 +316,61 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	//Creating the database instance variable
 	private static DatabaseManager instance = null;
 	
+	//Creating the sort ID cache
+	private final SortAnchorCache sortAnchorCache = new SortAnchorCache();
+	private final SQLiteTransactionListener sortAnchorTransactionListener = new SQLiteTransactionListener() {
+		@Override
+		public void onBegin() {
+		}
+		
+		@Override
+		public void onCommit() {
+		}
+		
+		@Override
+		public void onRollback() {
+			//Messages recorded in the cache during the transaction were never written
+			sortAnchorCache.invalidate();
+		}
+	};
+	
 	private DatabaseManager(Context context) {
 		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		
+		//Using write-ahead logging, so that reads can run on their own connections while a write is in progress
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			setWriteAheadLoggingEnabled(true);
+		}
+	}
+	
+	@Override
+	public void onConfigure(SQLiteDatabase database) {
+		configureWriteAheadLog(database);
+	}
+	
+	@Override
+	public void onOpen(SQLiteDatabase database) {
+		//onConfigure() and setWriteAheadLoggingEnabled() aren't available on older versions of Android
+		if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !database.isReadOnly()) {
+			database.enableWriteAheadLogging();
+			configureWriteAheadLog(database);
+		}
+	}
+	
+	/**
+	 * Applies synchronization and checkpoint settings for write-ahead logging
+	 */
+	private static void configureWriteAheadLog(SQLiteDatabase database) {
+		//Syncing to disk on checkpoints only, which is still safe from corruption in WAL mode
+		database.execSQL("PRAGMA synchronous = NORMAL");
+		
+		//These pragmas return a row, so they have to be run as queries
+		try(Cursor cursor = database.rawQuery("PRAGMA wal_autocheckpoint = " + walAutoCheckpointPages, null)) {
+			cursor.moveToFirst();
+		}
+		try(Cursor cursor = database.rawQuery("PRAGMA journal_size_limit = " + walJournalSizeLimit, null)) {
+			cursor.moveToFirst();
+		}
 	}
 	
 	@Override
@@ -198,7 +384,28 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		database.execSQL(SQL_CREATE_TABLE_MESSAGEPREVIEW);
 		database.execSQL(SQL_CREATE_TABLE_STICKER);
 		database.execSQL(SQL_CREATE_TABLE_TAPBACK);
+		database.execSQL(SQL_CREATE_TABLE_MESSAGE_SEARCH);
 		//database.execSQL(SQL_CREATE_TABLE_BLOCKED);
+		
+		//Creating the indices
+		database.execSQL(SQL_CREATE_INDEX_MESSAGES_CHAT);
+		database.execSQL(SQL_CREATE_INDEX_MESSAGES_CHAT_DATE);
+		database.execSQL(SQL_CREATE_INDEX_MESSAGES_GUID);
+		database.execSQL(SQL_CREATE_INDEX_MESSAGES_SORT);
+		database.execSQL(SQL_CREATE_INDEX_CONVERSATIONS_GUID);
+		database.execSQL(SQL_CREATE_INDEX_MEMBERS_CHAT);
+		database.execSQL(SQL_CREATE_INDEX_ATTACHMENTS_MESSAGE);
+		database.execSQL(SQL_CREATE_INDEX_ATTACHMENTS_GUID);
+		database.execSQL(SQL_CREATE_INDEX_STICKER_MESSAGE);
+		database.execSQL(SQL_CREATE_INDEX_TAPBACK_MESSAGE);
+		
+		//Creating the triggers
+		database.execSQL(SQL_CREATE_TRIGGER_PREVIEW_INSERT);
+		database.execSQL(SQL_CREATE_TRIGGER_PREVIEW_UPDATE);
+		database.execSQL(SQL_CREATE_TRIGGER_PREVIEW_DELETE);
+		database.execSQL(SQL_CREATE_TRIGGER_SEARCH_INSERT);
+		database.execSQL(SQL_CREATE_TRIGGER_SEARCH_UPDATE);
+		database.execSQL(SQL_CREATE_TRIGGER_SEARCH_DELETE);
 	}
 	
 	@Override
@@ -555,6 +762,39 @@ public class DatabaseManager extends SQLiteOpenHelper {
 						"sort INTEGER, " +
 						"should_auto_download INTEGER NOT NULL DEFAULT 0" +
 						");", false);
+			case 15:
+				//Adding indices for commonly queried columns
+				database.execSQL("CREATE INDEX IF NOT EXISTS messages_chat_index ON messages (chat, sort_id_linked, sort_id_linked_offset);");
+				database.execSQL("CREATE INDEX IF NOT EXISTS messages_guid_index ON messages (guid);");
+				database.execSQL("CREATE INDEX IF NOT EXISTS messages_sort_index ON messages (sort_id_linked, sort_id_linked_offset);");
+				database.execSQL("CREATE INDEX IF NOT EXISTS conversations_guid_index ON conversations (guid, service_handler);");
+				database.execSQL("CREATE INDEX IF NOT EXISTS users_chat_index ON users (chat, member);");
+				database.execSQL("CREATE INDEX IF NOT EXISTS attachments_message_index ON attachments (message, sort);");
+				database.execSQL("CREATE INDEX IF NOT EXISTS attachments_guid_index ON attachments (guid);");
+				database.execSQL("CREATE INDEX IF NOT EXISTS sticker_message_index ON sticker (message);");
+				database.execSQL("CREATE INDEX IF NOT EXISTS tapback_message_index ON tapback (message, message_index);");
+			case 16:
+				//Adding a reference to each conversation's preview message, and the triggers that maintain it
+				database.execSQL("ALTER TABLE conversations ADD preview_message INTEGER;");
+				database.execSQL(SQL_UPDATE_PREVIEW_MESSAGES);
+				database.execSQL(SQL_CREATE_TRIGGER_PREVIEW_INSERT);
+				database.execSQL(SQL_CREATE_TRIGGER_PREVIEW_UPDATE);
+				database.execSQL(SQL_CREATE_TRIGGER_PREVIEW_DELETE);
+			case 17:
+				//Adding the message search index, and the triggers that keep it up-to-date
+				database.execSQL(SQL_CREATE_TABLE_MESSAGE_SEARCH);
+				database.execSQL(SQL_FILL_MESSAGE_SEARCH);
+				database.execSQL(SQL_CREATE_TRIGGER_SEARCH_INSERT);
+				database.execSQL(SQL_CREATE_TRIGGER_SEARCH_UPDATE);
+				database.execSQL(SQL_CREATE_TRIGGER_SEARCH_DELETE);
+			case 18:
+				//Adding an index for paging through conversations that are sorted by date
+				database.execSQL("CREATE INDEX IF NOT EXISTS messages_chat_date_index ON messages (chat, date);");
+			case 19:
+				//Tracking whether each attachment's file is present, so loading attachments doesn't have to check the disk
+				//Attachments with a path are assumed to be present until the next reconciliation sweep checks them
+				database.execSQL("ALTER TABLE attachments ADD downloaded INTEGER NOT NULL DEFAULT 0;");
+				database.execSQL("UPDATE attachments SET downloaded = 1 WHERE path IS NOT NULL;");
 		}
 	}
 	
@@ -613,6 +853,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			static final String COLUMN_NAME_COLOR = "color";
 			static final String COLUMN_NAME_DRAFTMESSAGE = "draft_message";
 			static final String COLUMN_NAME_DRAFTUPDATETIME = "draft_update_time";
+			static final String COLUMN_NAME_PREVIEWMESSAGE = "preview_message"; //The latest message or creation event in this conversation, kept up-to-date by triggers
 		}
 		
 		static class DraftFileEntry implements BaseColumns {
@@ -646,6 +887,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			static final String COLUMN_NAME_DOWNLOADFILENAME = "download_name"; //The name type of the downloaded file (NULL if the same as attachment file)
 			static final String COLUMN_NAME_SORT = "sort";
 			static final String COLUMN_NAME_SHOULDAUTODOWNLOAD = "should_auto_download"; //Whether this file should be downloaded automatically when it is loaded
+			static final String COLUMN_NAME_DOWNLOADED = "downloaded"; //Whether the file at this attachment's path was last known to be present on disk
 		}
 		
 		static class MessagePreviewEntry implements BaseColumns {
@@ -676,6 +918,12 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			static final String COLUMN_NAME_CODE = "code";
 		}
 		
+		static class MessageSearchEntry {
+			static final String TABLE_NAME = "messages_search"; //A full-text index of messages, where each row's docid is the ID of its message
+			static final String COLUMN_NAME_MESSAGETEXT = "message_text";
+			static final String COLUMN_NAME_MESSAGESUBJECT = "message_subject";
+		}
+		
 		/* static class BlockedEntry implements BaseColumns {
 			static final String TABLE_NAME = "blocked";
 			static final String COLUMN_NAME_ADDRESS = "address";
@@ -865,64 +1113,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	}
 	
 	public List<ConversationInfo> fetchConversationsWithState(Context context, @ConversationState int conversationState) {
-		//Creating the conversation list
-		List<ConversationInfo> conversationList = new ArrayList<>();
-		
-		//Getting the database
-		SQLiteDatabase database = getReadableDatabase();
-		
-		//Querying the database
-		Cursor cursor = database.query(Contract.ConversationEntry.TABLE_NAME, sqlQueryConversationData,
-				Contract.ConversationEntry.COLUMN_NAME_STATE + " = ?",
-				new String[]{Integer.toString(conversationState)}, null, null, null);
-		
-		//Getting the indexes
-		int indexChatID = cursor.getColumnIndexOrThrow(Contract.ConversationEntry._ID);
-		int indexChatGUID = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_GUID);
-		int indexChatExternalID = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_EXTERNALID);
-		int indexChatServiceHandler = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_SERVICEHANDLER);
-		int indexChatService = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_SERVICE);
-		int indexChatName = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_NAME);
-		int indexChatUnreadMessages = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_UNREADMESSAGECOUNT);
-		int indexChatArchived = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_ARCHIVED);
-		int indexChatMuted = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_MUTED);
-		int indexChatColor = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_COLOR);
-		int indexDraftMessage = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_DRAFTMESSAGE);
-		int indexDraftUpdateTime = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_DRAFTUPDATETIME);
-		
-		//Iterating over the results
-		while(cursor.moveToNext()) {
-			//Getting the conversation info
-			long chatID = cursor.getLong(indexChatID);
-			String chatGUID = cursor.getString(indexChatGUID);
-			long externalID = cursor.getLong(indexChatExternalID);
-			@ServiceHandler int serviceHandler = cursor.getInt(indexChatServiceHandler);
-			String service = cursor.getString(indexChatService);
-			String chatTitle = cursor.getString(indexChatName);
-			int chatUnreadMessages = cursor.getInt(indexChatUnreadMessages);
-			boolean chatArchived = cursor.getInt(indexChatArchived) != 0;
-			boolean chatMuted = cursor.getInt(indexChatMuted) != 0;
-			int chatColor = cursor.getInt(indexChatColor);
-			ConversationPreview preview = getConversationPreview(chatID, serviceHandler);
-			String draftMessage = cursor.getString(indexDraftMessage);
-			long draftUpdateTime = cursor.getLong(indexDraftUpdateTime);
-			
-			//Getting the members and drafts
-			ArrayList<MemberInfo> conversationMembers = loadConversationMembers(database, chatID);
-			ArrayList<FileDraft> draftFiles = loadDraftFiles(database, chatID, context);
-			
-			//Creating the conversation
-			ConversationInfo conversationInfo = new ConversationInfo(chatID, chatGUID, externalID, conversationState, serviceHandler, service, chatColor, conversationMembers, chatTitle, chatUnreadMessages, chatArchived, chatMuted, preview, draftMessage, draftFiles, draftUpdateTime);
-			
-			//Adding the conversation to the list
-			conversationList.add(conversationInfo);
-		}
-		
-		//Closing the cursor
-		cursor.close();
-		
-		//Returning the conversation list
-		return conversationList;
+		return loadConversationSummaries(context, Contract.ConversationEntry.TABLE_NAME + "." + Contract.ConversationEntry.COLUMN_NAME_STATE + " = ?", new String[]{Integer.toString(conversationState)}, null);
 	}
 	
 	/**
@@ -945,71 +1136,160 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	 * @return A list of conversations
 	 */
 	public List<ConversationInfo> fetchSummaryConversations(Context context, boolean onlyArchived, int limit) {
+		//Loading the conversations
+		List<ConversationInfo> conversationList = loadConversationSummaries(context,
+				Contract.ConversationEntry.TABLE_NAME + "." + Contract.ConversationEntry.COLUMN_NAME_STATE + " != ? AND " + Contract.ConversationEntry.TABLE_NAME + "." + Contract.ConversationEntry.COLUMN_NAME_ARCHIVED + (onlyArchived ? " != " : " = ") + "0", new String[]{Integer.toString(ConversationState.incompleteServer)},
+				limit == -1 ? null : Integer.toString(limit));
+		
+		//Sorting and returning the conversation list
+		Collections.sort(conversationList, ConversationHelper.conversationComparator);
+		return conversationList;
+	}
+	
+	/**
+	 * Loads a list of conversations along with their previews, members and draft files
+	 * Each conversation's preview is read from its preview message in the same query, and the members, draft files and preview attachments
+	 * of all conversations are loaded with a single query each.
+	 * @param context The context to use
+	 * @param selection The filter to apply to the conversations, with columns qualified by table name
+	 * @param selectionArgs The arguments for the filter
+	 * @param limit The maximum number of conversations to load, or NULL for no limit
+	 * @return A list of conversations
+	 */
+	private List<ConversationInfo> loadConversationSummaries(Context context, String selection, String[] selectionArgs, @Nullable String limit) {
 		//Getting the database
 		SQLiteDatabase database = getReadableDatabase();
 		
 		//Creating the conversation list
 		List<ConversationInfo> conversationList = new ArrayList<>();
+		LongSparseArray<ArrayList<MemberInfo>> memberMap = new LongSparseArray<>();
+		LongSparseArray<ArrayList<FileDraft>> draftMap = new LongSparseArray<>();
+		LongSparseArray<List<AttachmentPreview>> previewAttachmentMap = new LongSparseArray<>();
 		
 		//Querying the database
-		Cursor cursor = database.query(Contract.ConversationEntry.TABLE_NAME, sqlQueryConversationData,
-				Contract.ConversationEntry.COLUMN_NAME_STATE + " != ? AND " + Contract.ConversationEntry.COLUMN_NAME_ARCHIVED + (onlyArchived ? " != " : " = ") + "0", new String[]{Integer.toString(ConversationState.incompleteServer)},
-				null, null, null, limit == -1 ? null : Integer.toString(limit));
-		
-		//Getting the indexes
-		int indexChatID = cursor.getColumnIndexOrThrow(Contract.ConversationEntry._ID);
-		int indexChatGUID = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_GUID);
-		int indexChatExternalID = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_EXTERNALID);
-		int indexChatState = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_STATE);
-		int indexChatServiceHandler = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_SERVICEHANDLER);
-		int indexChatService = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_SERVICE);
-		int indexChatName = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_NAME);
-		int indexChatUnreadMessages = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_UNREADMESSAGECOUNT);
-		int indexChatArchived = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_ARCHIVED);
-		int indexChatMuted = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_MUTED);
-		int indexChatColor = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_COLOR);
-		int indexDraftMessage = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_DRAFTMESSAGE);
-		int indexDraftUpdateTime = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_DRAFTUPDATETIME);
-		
-		//Iterating over the results
-		while(cursor.moveToNext()) {
-			//Getting the conversation info
-			long chatID = cursor.getLong(indexChatID);
-			String chatGUID = cursor.getString(indexChatGUID);
-			long externalID = cursor.getLong(indexChatExternalID);
-			@ConversationState int conversationState = cursor.getInt(indexChatState);
-			int serviceHandler = cursor.getInt(indexChatServiceHandler);
-			String service = cursor.getString(indexChatService);
-			String chatName = cursor.getString(indexChatName);
-			int chatUnreadMessages = cursor.getInt(indexChatUnreadMessages);
-			boolean chatArchived = cursor.getInt(indexChatArchived) != 0;
-			boolean chatMuted = cursor.getInt(indexChatMuted) != 0;
-			int chatColor = cursor.getInt(indexChatColor);
-			String draftMessage = cursor.getString(indexDraftMessage);
-			long draftUpdateTime = cursor.getLong(indexDraftUpdateTime);
-
-			//Getting the members and drafts
-			ArrayList<MemberInfo> conversationMembers = loadConversationMembers(database, chatID);
-			ArrayList<FileDraft> draftFiles = loadDraftFiles(database, chatID, context);
-			
-			//Getting the preview
-			ConversationPreview conversationPreview = getConversationPreview(chatID, serviceHandler);
-			
-			//Creating the conversation
-			ConversationInfo conversationInfo = new ConversationInfo(chatID, chatGUID, externalID, conversationState, serviceHandler, service, chatColor, conversationMembers, chatName, chatUnreadMessages, chatArchived, chatMuted, conversationPreview, draftMessage, draftFiles, draftUpdateTime);
+		try(Cursor cursor = database.query(sqlTableConversationPreview, sqlQueryConversationSummaryData, selection, selectionArgs, null, null, null, limit)) {
+			//Getting the indexes
+			int indexChatID = cursor.getColumnIndexOrThrow(Contract.ConversationEntry._ID);
+			int indexChatGUID = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_GUID);
+			int indexChatExternalID = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_EXTERNALID);
+			int indexChatState = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_STATE);
+			int indexChatServiceHandler = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_SERVICEHANDLER);
+			int indexChatService = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_SERVICE);
+			int indexChatName = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_NAME);
+			int indexChatUnreadMessages = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_UNREADMESSAGECOUNT);
+			int indexChatArchived = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_ARCHIVED);
+			int indexChatMuted = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_MUTED);
+			int indexChatColor = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_COLOR);
+			int indexDraftMessage = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_DRAFTMESSAGE);
+			int indexDraftUpdateTime = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_DRAFTUPDATETIME);
+			ConversationPreviewIndices previewIndices = ConversationPreviewIndices.fromCursor(cursor);
 			
-			//Adding the conversation to the list
-			conversationList.add(conversationInfo);
+			//Iterating over the results
+			while(cursor.moveToNext()) {
+				//Getting the conversation info
+				long chatID = cursor.getLong(indexChatID);
+				String chatGUID = cursor.getString(indexChatGUID);
+				long externalID = cursor.getLong(indexChatExternalID);
+				@ConversationState int conversationState = cursor.getInt(indexChatState);
+				@ServiceHandler int serviceHandler = cursor.getInt(indexChatServiceHandler);
+				String service = cursor.getString(indexChatService);
+				String chatName = cursor.getString(indexChatName);
+				int chatUnreadMessages = cursor.getInt(indexChatUnreadMessages);
+				boolean chatArchived = cursor.getInt(indexChatArchived) != 0;
+				boolean chatMuted = cursor.getInt(indexChatMuted) != 0;
+				int chatColor = cursor.getInt(indexChatColor);
+				String draftMessage = cursor.getString(indexDraftMessage);
+				long draftUpdateTime = cursor.getLong(indexDraftUpdateTime);
+				
+				//Getting the preview
+				ConversationPreview conversationPreview = readConversationPreview(previewIndices, cursor, previewAttachmentMap);
+				
+				//Creating the member and draft lists, to be filled in once all conversations have been read
+				ArrayList<MemberInfo> conversationMembers = new ArrayList<>();
+				memberMap.put(chatID, conversationMembers);
+				ArrayList<FileDraft> draftFiles = new ArrayList<>();
+				draftMap.put(chatID, draftFiles);
+				
+				//Creating the conversation
+				ConversationInfo conversationInfo = new ConversationInfo(chatID, chatGUID, externalID, conversationState, serviceHandler, service, chatColor, conversationMembers, chatName, chatUnreadMessages, chatArchived, chatMuted, conversationPreview, draftMessage, draftFiles, draftUpdateTime);
+				
+				//Adding the conversation to the list
+				conversationList.add(conversationInfo);
+			}
 		}
 		
-		//Closing the cursor
-		cursor.close();
+		//Loading the members, drafts and preview attachments
+		if(!conversationList.isEmpty()) {
+			loadConversationMembers(database, memberMap);
+			loadDraftFiles(database, draftMap, context);
+			loadPreviewAttachments(database, previewAttachmentMap);
+		}
 		
-		//Sorting and returning the conversation list
-		Collections.sort(conversationList, ConversationHelper.conversationComparator);
+		//Returning the conversation list
 		return conversationList;
 	}
 	
+	/**
+	 * Searches the text and subjects of all messages
+	 * Results are ordered by recency only, from newest to oldest, and are not ranked by relevance. To load the next page of results, pass in the last result of the previous page.
+	 * @param query The text to search for, as entered by the user
+	 * @param after The last result of the previous page, or NULL to load the first page
+	 * @param limit The maximum number of results to return
+	 * @return A list of messages that match the query
+	 */
+	public List<MessageSearchResult> searchMessages(String query, @Nullable MessageSearchResult after, int limit) {
+		//Building the match expression
+		String matchQuery = MessageSearchHelper.buildMatchQuery(query);
+		if(matchQuery == null) return new ArrayList<>();
+		
+		//Building the selection
+		String selection = Contract.MessageSearchEntry.TABLE_NAME + " MATCH ?";
+		String[] selectionArgs;
+		if(after == null) {
+			selectionArgs = new String[]{matchQuery};
+		} else {
+			//Continuing from the previous page's last result
+			selection += " AND (" + Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_DATE + " < ? OR (" +
+					Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_DATE + " = ? AND " + Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry._ID + " < ?))";
+			selectionArgs = new String[]{matchQuery, Long.toString(after.getDate()), Long.toString(after.getDate()), Long.toString(after.getMessageID())};
+		}
+		
+		List<MessageSearchResult> resultList = new ArrayList<>();
+		try(Cursor cursor = getReadableDatabase().query(
+				Contract.MessageSearchEntry.TABLE_NAME + " JOIN " + Contract.MessageEntry.TABLE_NAME + " ON " + Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry._ID + " = " + Contract.MessageSearchEntry.TABLE_NAME + ".docid",
+				new String[]{
+						Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry._ID + " AS " + Contract.MessageEntry._ID,
+						Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_CHAT + " AS " + Contract.MessageEntry.COLUMN_NAME_CHAT,
+						Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_DATE + " AS " + Contract.MessageEntry.COLUMN_NAME_DATE,
+						Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_SENDER + " AS " + Contract.MessageEntry.COLUMN_NAME_SENDER,
+						Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT + " AS " + Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT,
+						Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT + " AS " + Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT
+				},
+				selection, selectionArgs, null, null,
+				Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry.COLUMN_NAME_DATE + " DESC, " + Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry._ID + " DESC",
+				Integer.toString(limit))) {
+			int iLocalID = cursor.getColumnIndexOrThrow(Contract.MessageEntry._ID);
+			int iChat = cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_CHAT);
+			int iDate = cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_DATE);
+			int iSender = cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_SENDER);
+			int iMessageText = cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT);
+			int iMessageSubject = cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT);
+			
+			while(cursor.moveToNext()) {
+				resultList.add(new MessageSearchResult(
+						cursor.getLong(iLocalID),
+						cursor.getLong(iChat),
+						cursor.getLong(iDate),
+						cursor.isNull(iSender) ? null : cursor.getString(iSender),
+						cursor.isNull(iMessageText) ? null : cursor.getString(iMessageText),
+						cursor.isNull(iMessageSubject) ? null : cursor.getString(iMessageSubject)
+				));
+			}
+		}
+		
+		return resultList;
+	}
+	
 	/* void switchMessageOwnership(long identifierFrom, long identifierTo) {
 		//Creating the content values
 		ContentValues contentValues = new ContentValues();
@@ -1077,9 +1357,9 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	}
 	
 	private static class AttachmentInfoIndices {
-		final int iLocalID, iGuid, iFileName, iFileType, iFileSize, iFilePath, iChecksum, iSort, iDownloadFileName, iDownloadFileType, iShouldAutoDownload;
+		final int iLocalID, iGuid, iFileName, iFileType, iFileSize, iFilePath, iChecksum, iSort, iDownloadFileName, iDownloadFileType, iShouldAutoDownload, iDownloaded;
 		
-		public AttachmentInfoIndices(int iLocalID, int iGuid, int iFileName, int iFileType, int iFileSize, int iFilePath, int iChecksum, int iDownloadFileName, int iDownloadFileType, int iSort, int iShouldAutoDownload) {
+		public AttachmentInfoIndices(int iLocalID, int iGuid, int iFileName, int iFileType, int iFileSize, int iFilePath, int iChecksum, int iDownloadFileName, int iDownloadFileType, int iSort, int iShouldAutoDownload, int iDownloaded) {
 			this.iLocalID = iLocalID;
 			this.iGuid = iGuid;
 			this.iFileName = iFileName;
@@ -1091,6 +1371,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			this.iDownloadFileType = iDownloadFileType;
 			this.iSort = iSort;
 			this.iShouldAutoDownload = iShouldAutoDownload;
+			this.iDownloaded = iDownloaded;
 		}
 		
 		public static AttachmentInfoIndices fromCursor(Cursor cursor) {
@@ -1105,8 +1386,9 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			int iDownloadFileType = cursor.getColumnIndexOrThrow(Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADFILETYPE);
 			int iSort = cursor.getColumnIndexOrThrow(Contract.AttachmentEntry.COLUMN_NAME_SORT);
 			int iShouldAutoDownload = cursor.getColumnIndexOrThrow(Contract.AttachmentEntry.COLUMN_NAME_SHOULDAUTODOWNLOAD);
+			int iDownloaded = cursor.getColumnIndexOrThrow(Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADED);
 			
-			return new AttachmentInfoIndices(iLocalID, iGuid, iFileName, iFileType, iFileSize, iFilePath, iChecksum, iDownloadFileName, iDownloadFileType, iSort, iShouldAutoDownload);
+			return new AttachmentInfoIndices(iLocalID, iGuid, iFileName, iFileType, iFileSize, iFilePath, iChecksum, iDownloadFileName, iDownloadFileType, iSort, iShouldAutoDownload, iDownloaded);
 		}
 	}
 	
@@ -1114,6 +1396,44 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	 * Loads a conversation item from a cursor; for internal use only
 	 */
 	private ConversationItem loadConversationItem(Context context, ConversationItemIndices indices, Cursor cursor, SQLiteDatabase database) {
+		//Reading the item
+		ConversationItem conversationItem = readConversationItem(indices, cursor);
+		
+		//Loading the message's attachments and modifiers
+		if(conversationItem instanceof MessageInfo) {
+			LongSparseArray<MessageInfo> messageMap = new LongSparseArray<>(1);
+			messageMap.put(conversationItem.getLocalID(), (MessageInfo) conversationItem);
+			loadApplyMessageDetails(context, database, messageMap);
+		}
+		
+		return conversationItem;
+	}
+	
+	/**
+	 * Loads a chunk of conversation items from a cursor, starting after the cursor's current position; for internal use only
+	 * The attachments, stickers and tapbacks of all messages in the chunk are loaded with a single query per table.
+	 * @param maxCount The maximum amount of items to load, or -1 to load until the end of the cursor
+	 */
+	private List<ConversationItem> loadConversationItemChunk(Context context, ConversationItemIndices indices, Cursor cursor, SQLiteDatabase database, int maxCount) {
+		//Reading the items
+		List<ConversationItem> conversationItems = new ArrayList<>();
+		LongSparseArray<MessageInfo> messageMap = new LongSparseArray<>();
+		while((maxCount == -1 || conversationItems.size() < maxCount) && cursor.moveToNext()) {
+			ConversationItem conversationItem = readConversationItem(indices, cursor);
+			conversationItems.add(conversationItem);
+			if(conversationItem instanceof MessageInfo) messageMap.put(conversationItem.getLocalID(), (MessageInfo) conversationItem);
+		}
+		
+		//Loading the messages' attachments and modifiers
+		loadApplyMessageDetails(context, database, messageMap);
+		
+		return conversationItems;
+	}
+	
+	/**
+	 * Reads a conversation item's row from a cursor, without loading any attachments or modifiers; for internal use only
+	 */
+	private static ConversationItem readConversationItem(ConversationItemIndices indices, Cursor cursor) {
 		//Getting the general message info
 		long localID = cursor.getLong(indices.iLocalID);
 		long serverID = cursor.isNull(indices.iServerID) ? -1 : cursor.getLong(indices.iServerID);
@@ -1135,23 +1455,8 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			String messageSubject = MMSSMSHelper.cleanMMSSubject(cursor.getString(indices.iMessageSubject));
 			int previewState = cursor.getInt(indices.iPreviewState);
 			
-			//Querying the database for attachments
-			ArrayList<AttachmentInfo> attachments;
-			try(Cursor attachmentCursor = database.query(Contract.AttachmentEntry.TABLE_NAME, null, Contract.AttachmentEntry.COLUMN_NAME_MESSAGE + " = ?", new String[]{Long.toString(localID)}, null, null, Contract.AttachmentEntry.COLUMN_NAME_SORT + " ASC")) {
-				//Creating the attachments list
-				attachments = new ArrayList<>(attachmentCursor.getCount());
-				
-				//Loading the attachments
-				AttachmentInfoIndices attachmentIndices = AttachmentInfoIndices.fromCursor(attachmentCursor);
-				while(attachmentCursor.moveToNext()) {
-					attachments.add(loadAttachmentInfo(context, attachmentIndices, attachmentCursor));
-				}
-			}
-			
-			//Creating the conversation item
-			MessageInfo messageInfo = new MessageInfo(localID, serverID, guid, date, sender, messageText, messageSubject, attachments, sendStyle, sendStyleViewed, dateRead, stateCode, errorCode, errorDetailsAvailable, null);
-			loadApplyStickers(context, messageInfo);
-			loadApplyTapbacks(messageInfo);
+			//Creating the conversation item (attachments are filled in by loadApplyMessageDetails)
+			MessageInfo messageInfo = new MessageInfo(localID, serverID, guid, date, sender, messageText, messageSubject, new ArrayList<>(), sendStyle, sendStyleViewed, dateRead, stateCode, errorCode, errorDetailsAvailable, null);
 			
 			//Setting the message preview state
 			MessageComponentText messageTextInfo = messageInfo.getMessageTextComponent();
@@ -1197,7 +1502,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	 */
 	private static AttachmentInfo loadAttachmentInfo(Context context, AttachmentInfoIndices indices, Cursor cursor) {
 		//Getting the attachment data
-		File file = cursor.isNull(indices.iFilePath) ? null : AttachmentStorageHelper.getAbsolutePath(context, cursor.getString(indices.iFilePath));
+		File file = cursor.isNull(indices.iFilePath) || cursor.getInt(indices.iDownloaded) == 0 ? null : AttachmentStorageHelper.getAbsolutePath(context, cursor.getString(indices.iFilePath));
 		String fileName = cursor.getString(indices.iFileName);
 		String fileType = cursor.getString(indices.iFileType);
 		long fileSize = cursor.isNull(indices.iFileSize) ? -1 : cursor.getLong(indices.iFileSize);
@@ -1212,8 +1517,8 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		long fileID = cursor.getLong(indices.iLocalID);
 		String fileGuid = cursor.getString(indices.iGuid);
 		
-		//Checking if the attachment has data
-		if(file != null && file.exists() && file.isFile()) {
+		//Checking if the attachment has data (files that go missing are marked as not downloaded by reconcileAttachmentFiles())
+		if(file != null) {
 			//Adding the as a file
 			return new AttachmentInfo(fileID, fileGuid, fileName, fileType, fileSize, sort, file, null, downloadedFileName, downloadedFileType, shouldAutoDownload);
 		} else {
@@ -1240,7 +1545,11 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		ConversationItemIndices indices = ConversationItemIndices.fromCursor(cursor);
 		
 		//Getting the items
-		while(cursor.moveToNext()) conversationItems.add(loadConversationItem(context, indices, cursor, database));
+		List<ConversationItem> chunk;
+		do {
+			chunk = loadConversationItemChunk(context, indices, cursor, database, detailLoadChunkSize);
+			conversationItems.addAll(chunk);
+		} while(chunk.size() == detailLoadChunkSize);
 		
 		//Closing the cursor
 		cursor.close();
@@ -1253,19 +1562,76 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	 * Loads stickers for a particular message and applies it to the message
 	 */
 	public void loadApplyStickers(Context context, MessageInfo messageInfo) {
+		LongSparseArray<MessageInfo> messageMap = new LongSparseArray<>(1);
+		messageMap.put(messageInfo.getLocalID(), messageInfo);
+		loadApplyStickers(context, getReadableDatabase(), messageMap);
+	}
+	
+	/**
+	 * Loads tapbacks for a particular message and applies it to the message
+	 */
+	public void loadApplyTapbacks(MessageInfo messageInfo) {
+		LongSparseArray<MessageInfo> messageMap = new LongSparseArray<>(1);
+		messageMap.put(messageInfo.getLocalID(), messageInfo);
+		loadApplyTapbacks(getReadableDatabase(), messageMap);
+	}
+	
+	/**
+	 * Loads the attachments, stickers and tapbacks of a group of messages, and applies them to the messages
+	 * @param context The context to use
+	 * @param database The database to read from
+	 * @param messageMap The messages to load, keyed by their local ID
+	 */
+	private void loadApplyMessageDetails(Context context, SQLiteDatabase database, LongSparseArray<MessageInfo> messageMap) {
+		if(messageMap.size() == 0) return;
+		
+		//Attachments have to be loaded first, since stickers and tapbacks reference components by index
+		loadApplyAttachments(context, database, messageMap);
+		loadApplyStickers(context, database, messageMap);
+		loadApplyTapbacks(database, messageMap);
+	}
+	
+	/**
+	 * Loads attachments for a group of messages and applies them to the messages
+	 */
+	private static void loadApplyAttachments(Context context, SQLiteDatabase database, LongSparseArray<MessageInfo> messageMap) {
+		//Querying the database for attachments
+		try(Cursor attachmentCursor = database.query(Contract.AttachmentEntry.TABLE_NAME, null, Contract.AttachmentEntry.COLUMN_NAME_MESSAGE + " IN (" + joinKeys(messageMap) + ")", null, null, null,
+				Contract.AttachmentEntry.COLUMN_NAME_MESSAGE + " ASC, " + Contract.AttachmentEntry.COLUMN_NAME_SORT + " ASC")) {
+			//Getting the indexes
+			AttachmentInfoIndices attachmentIndices = AttachmentInfoIndices.fromCursor(attachmentCursor);
+			int iMessage = attachmentCursor.getColumnIndexOrThrow(Contract.AttachmentEntry.COLUMN_NAME_MESSAGE);
+			
+			//Adding the results to the messages
+			while(attachmentCursor.moveToNext()) {
+				MessageInfo messageInfo = messageMap.get(attachmentCursor.getLong(iMessage));
+				if(messageInfo == null) continue;
+				messageInfo.getAttachments().add(loadAttachmentInfo(context, attachmentIndices, attachmentCursor));
+			}
+		}
+	}
+	
+	/**
+	 * Loads stickers for a group of messages and applies them to the messages
+	 */
+	private static void loadApplyStickers(Context context, SQLiteDatabase database, LongSparseArray<MessageInfo> messageMap) {
 		//Querying the database for stickers
-		try(Cursor stickerCursor = getReadableDatabase().query(Contract.StickerEntry.TABLE_NAME, null,
-				Contract.StickerEntry.COLUMN_NAME_MESSAGE + " = ?", new String[]{Long.toString(messageInfo.getLocalID())}, null, null, null)) {
+		try(Cursor stickerCursor = database.query(Contract.StickerEntry.TABLE_NAME, null,
+				Contract.StickerEntry.COLUMN_NAME_MESSAGE + " IN (" + joinKeys(messageMap) + ")", null, null, null, null)) {
 			//Getting the indexes
 			int sIdentifierIndex = stickerCursor.getColumnIndexOrThrow(Contract.StickerEntry._ID);
+			int sIdentifierMessage = stickerCursor.getColumnIndexOrThrow(Contract.StickerEntry.COLUMN_NAME_MESSAGE);
 			int sIdentifierMessageIndex = stickerCursor.getColumnIndexOrThrow(Contract.StickerEntry.COLUMN_NAME_MESSAGEINDEX);
 			int sIdentifierGuid = stickerCursor.getColumnIndexOrThrow(Contract.StickerEntry.COLUMN_NAME_GUID);
 			int sIdentifierSender = stickerCursor.getColumnIndexOrThrow(Contract.StickerEntry.COLUMN_NAME_SENDER);
 			int sIdentifierDate = stickerCursor.getColumnIndexOrThrow(Contract.StickerEntry.COLUMN_NAME_DATE);
 			int sIdentifierPath = stickerCursor.getColumnIndexOrThrow(Contract.StickerEntry.COLUMN_NAME_FILEPATH);
 			
-			//Adding the results to the message
+			//Adding the results to the messages
 			while(stickerCursor.moveToNext()) {
+				MessageInfo messageInfo = messageMap.get(stickerCursor.getLong(sIdentifierMessage));
+				if(messageInfo == null) continue;
+				
 				long stickerID = stickerCursor.getLong(sIdentifierIndex);
 				String stickerGUID = stickerCursor.getString(sIdentifierGuid);
 				int stickerComponentIndex = stickerCursor.getInt(sIdentifierMessageIndex);
@@ -1280,20 +1646,24 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	}
 	
 	/**
-	 * Loads tapbacks for a particular message and applies it to the message
+	 * Loads tapbacks for a group of messages and applies them to the messages
 	 */
-	public void loadApplyTapbacks(MessageInfo messageInfo) {
+	private static void loadApplyTapbacks(SQLiteDatabase database, LongSparseArray<MessageInfo> messageMap) {
 		//Querying the database for tapbacks
-		try(Cursor tapbackCursor = getReadableDatabase().query(Contract.TapbackEntry.TABLE_NAME, new String[]{Contract.TapbackEntry._ID, Contract.TapbackEntry.COLUMN_NAME_MESSAGEINDEX, Contract.TapbackEntry.COLUMN_NAME_SENDER, Contract.TapbackEntry.COLUMN_NAME_CODE},
-				Contract.TapbackEntry.COLUMN_NAME_MESSAGE + " = ?", new String[]{Long.toString(messageInfo.getLocalID())}, null, null, null)) {
+		try(Cursor tapbackCursor = database.query(Contract.TapbackEntry.TABLE_NAME, new String[]{Contract.TapbackEntry._ID, Contract.TapbackEntry.COLUMN_NAME_MESSAGE, Contract.TapbackEntry.COLUMN_NAME_MESSAGEINDEX, Contract.TapbackEntry.COLUMN_NAME_SENDER, Contract.TapbackEntry.COLUMN_NAME_CODE},
+				Contract.TapbackEntry.COLUMN_NAME_MESSAGE + " IN (" + joinKeys(messageMap) + ")", null, null, null, null)) {
 			//Getting the indexes
 			int tIdentifierIndex = tapbackCursor.getColumnIndexOrThrow(Contract.TapbackEntry._ID);
+			int tIdentifierMessage = tapbackCursor.getColumnIndexOrThrow(Contract.TapbackEntry.COLUMN_NAME_MESSAGE);
 			int tIdentifierMessageIndex = tapbackCursor.getColumnIndexOrThrow(Contract.TapbackEntry.COLUMN_NAME_MESSAGEINDEX);
 			int tIdentifierSender = tapbackCursor.getColumnIndexOrThrow(Contract.TapbackEntry.COLUMN_NAME_SENDER);
 			int tIdentifierCode = tapbackCursor.getColumnIndexOrThrow(Contract.TapbackEntry.COLUMN_NAME_CODE);
 			
-			//Adding the results to the message
+			//Adding the results to the messages
 			while(tapbackCursor.moveToNext()) {
+				MessageInfo messageInfo = messageMap.get(tapbackCursor.getLong(tIdentifierMessage));
+				if(messageInfo == null) continue;
+				
 				long tapbackID = tapbackCursor.getLong(tIdentifierIndex);
 				int tapbackComponentIndex = tapbackCursor.getInt(tIdentifierMessageIndex);
 				String tapbackSender = tapbackCursor.getString(tIdentifierSender);
@@ -1305,6 +1675,18 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		}
 	}
 	
+	/**
+	 * Joins the keys of a map into a comma-separated list, for use in an IN clause
+	 */
+	private static String joinKeys(LongSparseArray<?> map) {
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < map.size(); i++) {
+			if(i > 0) builder.append(',');
+			builder.append(map.keyAt(i));
+		}
+		return builder.toString();
+	}
+	
 	public ConversationItem loadConversationItem(Context context, long localID) {
 		//Getting the database
 		SQLiteDatabase database = getReadableDatabase();
@@ -1390,11 +1772,9 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		//Getting the indices
 		ConversationItemIndices indices = ConversationItemIndices.fromCursor(cursor);
 		
-		//Getting the items
-		while(cursor.moveToNext()) {
-			//Filtering out non-message items
-			if(cursor.getInt(indices.iItemType) != ConversationItemType.message) continue;
-			messageList.add((MessageInfo) loadConversationItem(context, indices, cursor, database));
+		//Getting the items, filtering out non-message items
+		for(ConversationItem conversationItem : loadConversationItemChunk(context, indices, cursor, database, -1)) {
+			if(conversationItem instanceof MessageInfo) messageList.add((MessageInfo) conversationItem);
 		}
 		
 		//Closing the cursor
@@ -1410,11 +1790,57 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		contentValues.putNull(Contract.AttachmentEntry.COLUMN_NAME_FILEPATH);
 		contentValues.putNull(Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADFILENAME);
 		contentValues.putNull(Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADFILETYPE);
+		contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADED, 0);
 		
 		//Updating the database
 		getWritableDatabase().update(Contract.AttachmentEntry.TABLE_NAME, contentValues, Contract.AttachmentEntry._ID + " = ?", new String[]{Long.toString(localID)});
 	}
 	
+	/**
+	 * Checks that the files of all downloaded attachments are still present on disk, and marks any that are missing as not downloaded
+	 * Loading attachments trusts the downloaded flag rather than checking the disk, so this should be run periodically in the background.
+	 * @param context The context to use
+	 * @return The number of attachments that were marked as not downloaded
+	 */
+	public int reconcileAttachmentFiles(Context context) {
+		//Getting the database
+		SQLiteDatabase database = getWritableDatabase();
+		
+		//Finding attachments whose files are missing
+		List<Pair<Long, String>> missingList = new ArrayList<>();
+		try(Cursor cursor = database.query(Contract.AttachmentEntry.TABLE_NAME, new String[]{Contract.AttachmentEntry._ID, Contract.AttachmentEntry.COLUMN_NAME_FILEPATH},
+				Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADED + " != 0 AND " + Contract.AttachmentEntry.COLUMN_NAME_FILEPATH + " IS NOT NULL", null, null, null, null)) {
+			int iLocalID = cursor.getColumnIndexOrThrow(Contract.AttachmentEntry._ID);
+			int iPath = cursor.getColumnIndexOrThrow(Contract.AttachmentEntry.COLUMN_NAME_FILEPATH);
+			
+			while(cursor.moveToNext()) {
+				String path = cursor.getString(iPath);
+				File file = AttachmentStorageHelper.getAbsolutePath(context, path);
+				if(!file.isFile()) missingList.add(new Pair<>(cursor.getLong(iLocalID), path));
+			}
+		}
+		
+		if(missingList.isEmpty()) return 0;
+		
+		//Marking the attachments as not downloaded, unless they have been given a new file in the meantime
+		int updateCount = 0;
+		ContentValues contentValues = new ContentValues();
+		contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADED, 0);
+		database.beginTransaction();
+		try {
+			for(Pair<Long, String> missing : missingList) {
+				updateCount += database.update(Contract.AttachmentEntry.TABLE_NAME, contentValues,
+						Contract.AttachmentEntry._ID + " = ? AND " + Contract.AttachmentEntry.COLUMN_NAME_FILEPATH + " = ?", new String[]{Long.toString(missing.getFirst()), missing.getSecond()});
+			}
+			
+			database.setTransactionSuccessful();
+		} finally {
+			database.endTransaction();
+		}
+		
+		return updateCount;
+	}
+	
 	/**
 	 * Removes all attachment files saved to disk under iMessage conversations
 	 */
@@ -1455,6 +1881,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_FILEPATH, AttachmentStorageHelper.getRelativePath(context, file));
 		contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADFILENAME, downloadedFileName);
 		contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADFILETYPE, downloadedFileType);
+		contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADED, 1);
 		
 		//Updating the data
 		getWritableDatabase().update(Contract.AttachmentEntry.TABLE_NAME, contentValues, Contract.AttachmentEntry._ID + " = ?", new String[]{Long.toString(localID)});
@@ -1466,6 +1893,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_FILEPATH, AttachmentStorageHelper.getRelativePath(context, file));
 		contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADFILENAME, downloadedFileName);
 		contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADFILETYPE, downloadedFileType);
+		contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADED, 1);
 		
 		//Updating the data
 		getWritableDatabase().update(Contract.AttachmentEntry.TABLE_NAME, contentValues, Contract.AttachmentEntry.COLUMN_NAME_GUID + " = ?", new String[]{guid});
@@ -1480,6 +1908,21 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		getWritableDatabase().update(Contract.AttachmentEntry.TABLE_NAME, contentValues, Contract.AttachmentEntry._ID + " = ?", new String[]{Long.toString(localID)});
 	}
 	
+	/**
+	 * Gets the checksum of an attachment file
+	 * @param localID The local ID of the attachment
+	 * @return The checksum of the attachment file, or NULL if unavailable
+	 */
+	@Nullable
+	public byte[] getAttachmentChecksum(long localID) {
+		try(Cursor cursor = getReadableDatabase().query(Contract.AttachmentEntry.TABLE_NAME, new String[]{Contract.AttachmentEntry.COLUMN_NAME_FILECHECKSUM}, Contract.AttachmentEntry._ID + " = ?", new String[]{Long.toString(localID)}, null, null, null, "1")) {
+			if(!cursor.moveToNext()) return null;
+			
+			String stringChecksum = cursor.getString(0);
+			return stringChecksum == null ? null : Base64.decode(stringChecksum, Base64.NO_WRAP);
+		}
+	}
+	
 	/* static void createUpdateAttachmentFile(SQLiteDatabase writableDatabase, long localID, AttachmentInfo attachmentInfo, File file) {
 		//Checking if there is a matching attachment
 		Cursor cursor = writableDatabase.query(Contract.AttachmentEntry.TABLE_NAME, null, Contract.AttachmentEntry._ID + "=?", new String[]{Long.toString(localID)}, null, null, null, "1");
@@ -1593,82 +2036,81 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	/**
 	 * Gets the conversation preview information for a specified conversation
 	 * @param conversationID The ID of the conversation
-	 * @param serviceHandler The service handler of the conversation
 	 * @return The conversation preview data for the conversation, or NULL if unavailable
 	 */
 	@Nullable
-	private ConversationPreview getConversationPreview(long conversationID, @ServiceHandler int serviceHandler) {
+	private ConversationPreview getConversationPreview(long conversationID) {
 		//Getting the database
 		SQLiteDatabase database = getReadableDatabase();
 		
-		//Getting the last item
-		long date;
-		long lastItemID;
-		int itemType;
-		try(Cursor cursor = database.query(Contract.MessageEntry.TABLE_NAME,
-				new String[]{Contract.MessageEntry._ID, Contract.MessageEntry.COLUMN_NAME_ITEMTYPE, Contract.MessageEntry.COLUMN_NAME_DATE},
-				Contract.MessageEntry.COLUMN_NAME_CHAT + " = ? AND " + Contract.MessageEntry.COLUMN_NAME_ITEMTYPE + " IN (?, ?)", new String[]{Long.toString(conversationID), Integer.toString(ConversationItemType.message), Integer.toString(ConversationItemType.chatCreate)},
-				null, null,
-				getConversationBySortDesc(serviceHandler),
-				"1")) {
-			//Returning null if there are no results
+		//Reading the conversation's preview message
+		LongSparseArray<List<AttachmentPreview>> previewAttachmentMap = new LongSparseArray<>(1);
+		ConversationPreview preview;
+		try(Cursor cursor = database.query(sqlTableConversationPreview, sqlQueryConversationPreviewData,
+				Contract.ConversationEntry.TABLE_NAME + "." + Contract.ConversationEntry._ID + " = ?", new String[]{Long.toString(conversationID)},
+				null, null, null, "1")) {
 			if(!cursor.moveToNext()) return null;
+			preview = readConversationPreview(ConversationPreviewIndices.fromCursor(cursor), cursor, previewAttachmentMap);
+		}
+		
+		//Loading the preview's attachments
+		loadPreviewAttachments(database, previewAttachmentMap);
+		
+		return preview;
+	}
+	
+	private static class ConversationPreviewIndices {
+		final int iPreviewMessage, iItemType, iDate, iSender, iMessageText, iMessageSubject, iSendStyle, iError;
+		
+		ConversationPreviewIndices(int iPreviewMessage, int iItemType, int iDate, int iSender, int iMessageText, int iMessageSubject, int iSendStyle, int iError) {
+			this.iPreviewMessage = iPreviewMessage;
+			this.iItemType = iItemType;
+			this.iDate = iDate;
+			this.iSender = iSender;
+			this.iMessageText = iMessageText;
+			this.iMessageSubject = iMessageSubject;
+			this.iSendStyle = iSendStyle;
+			this.iError = iError;
+		}
+		
+		static ConversationPreviewIndices fromCursor(Cursor cursor) {
+			int iPreviewMessage = cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_PREVIEWMESSAGE);
+			int iItemType = cursor.getColumnIndexOrThrow("preview_item_type");
+			int iDate = cursor.getColumnIndexOrThrow("preview_date");
+			int iSender = cursor.getColumnIndexOrThrow("preview_sender");
+			int iMessageText = cursor.getColumnIndexOrThrow("preview_text");
+			int iMessageSubject = cursor.getColumnIndexOrThrow("preview_subject");
+			int iSendStyle = cursor.getColumnIndexOrThrow("preview_send_style");
+			int iError = cursor.getColumnIndexOrThrow("preview_error");
 			
-			//Getting the data
-			date = cursor.getLong(cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_DATE));
-			lastItemID = cursor.getLong(cursor.getColumnIndexOrThrow(Contract.MessageEntry._ID));
-			itemType = cursor.getInt(cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_ITEMTYPE));
+			return new ConversationPreviewIndices(iPreviewMessage, iItemType, iDate, iSender, iMessageText, iMessageSubject, iSendStyle, iError);
 		}
+	}
+	
+	/**
+	 * Reads a conversation preview from the preview message columns of a cursor; for internal use only
+	 * @param previewAttachmentMap A map to add message previews without text to, so their attachments can be loaded afterwards
+	 * @return The conversation preview, or NULL if the conversation has no preview message
+	 */
+	@Nullable
+	private static ConversationPreview readConversationPreview(ConversationPreviewIndices indices, Cursor cursor, LongSparseArray<List<AttachmentPreview>> previewAttachmentMap) {
+		//Returning null if the conversation has no preview message
+		if(cursor.isNull(indices.iPreviewMessage) || cursor.isNull(indices.iItemType)) return null;
 		
+		long date = cursor.getLong(indices.iDate);
+		int itemType = cursor.getInt(indices.iItemType);
 		if(itemType == ConversationItemType.message) { //Message
-			//Retrieving the message data
-			try(Cursor messageCursor = database.query(Contract.MessageEntry.TABLE_NAME,
-					new String[]{Contract.MessageEntry.COLUMN_NAME_SENDER, Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT, Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT, Contract.MessageEntry.COLUMN_NAME_SENDSTYLE, Contract.MessageEntry.COLUMN_NAME_ERROR},
-					Contract.MessageEntry._ID + " = ?", new String[]{Long.toString(lastItemID)},
-					null, null, null)) {
-				//Returning null if there are no results
-				if(!messageCursor.moveToNext()) return null;
-				
-				int currentIndex = messageCursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_SENDER);
-				String sender = messageCursor.isNull(currentIndex) ? null : messageCursor.getString(currentIndex);
-				
-				currentIndex = messageCursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_MESSAGETEXT);
-				String message = messageCursor.isNull(currentIndex) ? null : messageCursor.getString(currentIndex);
-				
-				currentIndex = messageCursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_MESSAGESUBJECT);
-				String subject = messageCursor.isNull(currentIndex) ? null : MMSSMSHelper.cleanMMSSubject(messageCursor.getString(currentIndex));
-				
-				currentIndex = messageCursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_SENDSTYLE);
-				String sendStyle = messageCursor.isNull(currentIndex) ? null : messageCursor.getString(currentIndex);
-				
-				boolean hasError = messageCursor.getInt(messageCursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_ERROR)) != MessageSendErrorCode.none;
-				
-				//Closing the cursor
-				messageCursor.close();
-				
-				//Checking if the message is valid
-				if(message != null) {
-					//Returning the conversation message preview (without the attachments)
-					return new ConversationPreview.Message(date, sender == null, message, subject, new ArrayList<>(), sendStyle, hasError);
-				}
-				
-				//Retrieving the attachments
-				try(Cursor attachmentCursor = database.query(Contract.AttachmentEntry.TABLE_NAME,
-						new String[]{Contract.AttachmentEntry.COLUMN_NAME_FILETYPE, Contract.AttachmentEntry.COLUMN_NAME_FILENAME},
-						Contract.AttachmentEntry.COLUMN_NAME_MESSAGE + " = ?", new String[]{Long.toString(lastItemID)},
-						null, null, null)) {
-					//Getting the attachments
-					List<AttachmentPreview> attachments = new ArrayList<>(attachmentCursor.getCount());
-					int indexType = attachmentCursor.getColumnIndexOrThrow(Contract.AttachmentEntry.COLUMN_NAME_FILETYPE);
-					int indexName = attachmentCursor.getColumnIndexOrThrow(Contract.AttachmentEntry.COLUMN_NAME_FILENAME);
-					for(int i = 0; attachmentCursor.moveToNext(); i++) {
-						attachments.add(new AttachmentPreview(attachmentCursor.getString(indexName), attachmentCursor.getString(indexType)));
-					}
-					
-					//Returning the conversation message preview
-					return new ConversationPreview.Message(date, sender == null, null, subject, attachments, sendStyle, hasError);
-				}
-			}
+			String sender = cursor.isNull(indices.iSender) ? null : cursor.getString(indices.iSender);
+			String message = cursor.isNull(indices.iMessageText) ? null : cursor.getString(indices.iMessageText);
+			String subject = cursor.isNull(indices.iMessageSubject) ? null : MMSSMSHelper.cleanMMSSubject(cursor.getString(indices.iMessageSubject));
+			String sendStyle = cursor.isNull(indices.iSendStyle) ? null : cursor.getString(indices.iSendStyle);
+			boolean hasError = cursor.getInt(indices.iError) != MessageSendErrorCode.none;
+			
+			//Only loading attachments if the message has no text to show
+			List<AttachmentPreview> attachments = new ArrayList<>();
+			if(message == null) previewAttachmentMap.put(cursor.getLong(indices.iPreviewMessage), attachments);
+			
+			return new ConversationPreview.Message(date, sender == null, message, subject, attachments, sendStyle, hasError);
 		} else if(itemType == ConversationItemType.chatCreate) { //Chat creation
 			return new ConversationPreview.ChatCreation(date);
 		} else { //No compatible type
@@ -1676,6 +2118,28 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		}
 	}
 	
+	/**
+	 * Loads the attachments of a group of preview messages
+	 * @param database The database to use for this query
+	 * @param previewAttachmentMap The attachment lists to fill, keyed by the ID of their message
+	 */
+	private static void loadPreviewAttachments(SQLiteDatabase database, LongSparseArray<List<AttachmentPreview>> previewAttachmentMap) {
+		if(previewAttachmentMap.size() == 0) return;
+		
+		try(Cursor cursor = database.query(Contract.AttachmentEntry.TABLE_NAME,
+				new String[]{Contract.AttachmentEntry.COLUMN_NAME_MESSAGE, Contract.AttachmentEntry.COLUMN_NAME_FILETYPE, Contract.AttachmentEntry.COLUMN_NAME_FILENAME},
+				Contract.AttachmentEntry.COLUMN_NAME_MESSAGE + " IN (" + joinKeys(previewAttachmentMap) + ")", null,
+				null, null, Contract.AttachmentEntry.COLUMN_NAME_MESSAGE + " ASC, " + Contract.AttachmentEntry.COLUMN_NAME_SORT + " ASC")) {
+			int indexMessage = cursor.getColumnIndexOrThrow(Contract.AttachmentEntry.COLUMN_NAME_MESSAGE);
+			int indexType = cursor.getColumnIndexOrThrow(Contract.AttachmentEntry.COLUMN_NAME_FILETYPE);
+			int indexName = cursor.getColumnIndexOrThrow(Contract.AttachmentEntry.COLUMN_NAME_FILENAME);
+			while(cursor.moveToNext()) {
+				List<AttachmentPreview> attachments = previewAttachmentMap.get(cursor.getLong(indexMessage));
+				if(attachments != null) attachments.add(new AttachmentPreview(cursor.getString(indexName), cursor.getString(indexType)));
+			}
+		}
+	}
+	
 	/**
 	 * Tries to find a conversation with matching members in the database; otherwise creates a new client-incomplete conversation with the members
 	 * @param context The context to use
@@ -1977,6 +2441,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		contentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET, 0);
 		
 		long createdMessageLocalID = database.insert(Contract.MessageEntry.TABLE_NAME, null, contentValues);
+		if(createdMessageLocalID != -1) recordSortID(contentValues);
 		
 		return new ChatCreateAction(createdMessageLocalID, System.currentTimeMillis());
 	}
@@ -2086,7 +2551,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		boolean chatArchived = cursor.getInt(cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_ARCHIVED)) != 0;
 		boolean chatMuted = cursor.getInt(cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_MUTED)) != 0;
 		int chatColor = cursor.getInt(cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_COLOR));
-		ConversationPreview preview = getConversationPreview(localID, serviceHandler);
+		ConversationPreview preview = getConversationPreview(localID);
 		String draftMessage = cursor.getString(cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_DRAFTMESSAGE));
 		long draftUpdateTime = cursor.getLong(cursor.getColumnIndexOrThrow(Contract.ConversationEntry.COLUMN_NAME_DRAFTUPDATETIME));
 		
@@ -2114,6 +2579,23 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		return conversationMembers;
 	}
 	
+	/**
+	 * Fetches the members of a group of conversations
+	 * @param database The database to use for this query
+	 * @param memberMap The member lists to fill, keyed by the ID of their conversation
+	 */
+	private static void loadConversationMembers(SQLiteDatabase database, LongSparseArray<ArrayList<MemberInfo>> memberMap) {
+		try(Cursor cursor = database.query(Contract.MemberEntry.TABLE_NAME, new String[]{Contract.MemberEntry.COLUMN_NAME_CHAT, Contract.MemberEntry.COLUMN_NAME_MEMBER, Contract.MemberEntry.COLUMN_NAME_COLOR}, Contract.MemberEntry.COLUMN_NAME_CHAT + " IN (" + joinKeys(memberMap) + ")", null, null, null, null)) {
+			int indexChat = cursor.getColumnIndexOrThrow(Contract.MemberEntry.COLUMN_NAME_CHAT);
+			int indexMember = cursor.getColumnIndexOrThrow(Contract.MemberEntry.COLUMN_NAME_MEMBER);
+			int indexColor = cursor.getColumnIndexOrThrow(Contract.MemberEntry.COLUMN_NAME_COLOR);
+			while(cursor.moveToNext()) {
+				ArrayList<MemberInfo> conversationMembers = memberMap.get(cursor.getLong(indexChat));
+				if(conversationMembers != null) conversationMembers.add(new MemberInfo(cursor.getString(indexMember), cursor.getInt(indexColor)));
+			}
+		}
+	}
+	
 	/**
 	 * Fetches a list of draft files for a conversation
 	 * @param database The database to use for this query
@@ -2122,9 +2604,23 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	 * @return A list of draft files of the conversation
 	 */
 	private ArrayList<FileDraft> loadDraftFiles(SQLiteDatabase database, long conversationID, Context context) {
+		LongSparseArray<ArrayList<FileDraft>> draftMap = new LongSparseArray<>(1);
 		ArrayList<FileDraft> draftFiles = new ArrayList<>();
-		try(Cursor cursor = database.query(Contract.DraftFileEntry.TABLE_NAME, new String[]{Contract.DraftFileEntry._ID, Contract.DraftFileEntry.COLUMN_NAME_FILE, Contract.DraftFileEntry.COLUMN_NAME_FILENAME, Contract.DraftFileEntry.COLUMN_NAME_FILESIZE, Contract.DraftFileEntry.COLUMN_NAME_FILETYPE, Contract.DraftFileEntry.COLUMN_NAME_MEDIASTOREID, Contract.DraftFileEntry.COLUMN_NAME_MODIFICATIONDATE}, Contract.DraftFileEntry.COLUMN_NAME_CHAT + " = ?", new String[]{Long.toString(conversationID)}, null, null, null)) {
+		draftMap.put(conversationID, draftFiles);
+		loadDraftFiles(database, draftMap, context);
+		return draftFiles;
+	}
+	
+	/**
+	 * Fetches the draft files of a group of conversations
+	 * @param database The database to use for this query
+	 * @param draftMap The draft file lists to fill, keyed by the ID of their conversation
+	 * @param context The context to use
+	 */
+	private static void loadDraftFiles(SQLiteDatabase database, LongSparseArray<ArrayList<FileDraft>> draftMap, Context context) {
+		try(Cursor cursor = database.query(Contract.DraftFileEntry.TABLE_NAME, new String[]{Contract.DraftFileEntry._ID, Contract.DraftFileEntry.COLUMN_NAME_CHAT, Contract.DraftFileEntry.COLUMN_NAME_FILE, Contract.DraftFileEntry.COLUMN_NAME_FILENAME, Contract.DraftFileEntry.COLUMN_NAME_FILESIZE, Contract.DraftFileEntry.COLUMN_NAME_FILETYPE, Contract.DraftFileEntry.COLUMN_NAME_MEDIASTOREID, Contract.DraftFileEntry.COLUMN_NAME_MODIFICATIONDATE}, Contract.DraftFileEntry.COLUMN_NAME_CHAT + " IN (" + joinKeys(draftMap) + ")", null, null, null, null)) {
 			int indexIdentifier = cursor.getColumnIndexOrThrow(Contract.DraftFileEntry._ID);
+			int indexChat = cursor.getColumnIndexOrThrow(Contract.DraftFileEntry.COLUMN_NAME_CHAT);
 			int indexFile = cursor.getColumnIndexOrThrow(Contract.DraftFileEntry.COLUMN_NAME_FILE);
 			int indexFileName = cursor.getColumnIndexOrThrow(Contract.DraftFileEntry.COLUMN_NAME_FILENAME);
 			int indexFileSize = cursor.getColumnIndexOrThrow(Contract.DraftFileEntry.COLUMN_NAME_FILESIZE);
@@ -2132,6 +2628,9 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			int indexMediaStoreID = cursor.getColumnIndexOrThrow(Contract.DraftFileEntry.COLUMN_NAME_MEDIASTOREID);
 			int indexModificationDate = cursor.getColumnIndexOrThrow(Contract.DraftFileEntry.COLUMN_NAME_MODIFICATIONDATE);
 			while(cursor.moveToNext()) {
+				ArrayList<FileDraft> draftFiles = draftMap.get(cursor.getLong(indexChat));
+				if(draftFiles == null) continue;
+				
 				draftFiles.add(new FileDraft(
 						cursor.getLong(indexIdentifier),
 						AttachmentStorageHelper.getAbsolutePath(context, cursor.getString(indexFile)),
@@ -2143,7 +2642,6 @@ public class DatabaseManager extends SQLiteOpenHelper {
 				));
 			}
 		}
-		return draftFiles;
 	}
 	
 	/**
@@ -2257,9 +2755,22 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	 */
 	@Nullable
 	public ReplaceInsertResult mergeOrWriteConversationItem(Context context, long conversationID, Blocks.ConversationItem conversationItem, boolean isHistory) {
-		//Getting the database
-		SQLiteDatabase database = getWritableDatabase();
-		
+		return mergeOrWriteConversationItem(context, getWritableDatabase(), null, conversationID, conversationItem, isHistory);
+	}
+	
+	/**
+	 * Adds a batch of messages to their conversations in a single transaction, first attempting to merge each message into a ghost message
+	 * @param context The context to use
+	 * @param conversationItems A list of pairs of the ID of the conversation to add each item to, and the item to add
+	 * @param isHistory Whether the added messages should be treated as history, ie. should not receive treatment as newly received messages
+	 * @return A list of results containing created, updated and deleted messages, in the same order as the input list, with NULL entries for items that couldn't be written
+	 */
+	public List<ReplaceInsertResult> mergeOrWriteConversationItems(Context context, List<Pair<Long, Blocks.ConversationItem>> conversationItems, boolean isHistory) {
+		return writeBatch(conversationItems, (database, batchWriter, conversationID, conversationItem) -> mergeOrWriteConversationItem(context, database, batchWriter, conversationID, conversationItem, isHistory));
+	}
+	
+	@Nullable
+	private ReplaceInsertResult mergeOrWriteConversationItem(Context context, SQLiteDatabase database, @Nullable BatchWriter batchWriter, long conversationID, Blocks.ConversationItem conversationItem, boolean isHistory) {
 		//Checking if the item is a message
 		if(conversationItem instanceof Blocks.MessageInfo) {
 			Blocks.MessageInfo messageStruct = (Blocks.MessageInfo) conversationItem;
@@ -2304,6 +2815,9 @@ public class DatabaseManager extends SQLiteOpenHelper {
 					//Updating the message values
 					database.update(Contract.MessageEntry.TABLE_NAME, messageContentValues, Contract.MessageEntry._ID + " = ?", new String[]{Long.toString(result.getTargetMessageID())});
 					
+					//Messages were moved or deleted, so the latest sort ID has to be read again
+					sortAnchorCache.invalidate();
+					
 					ArrayList<AttachmentInfo> messageAttachments = new ArrayList<>();
 					
 					//Updating the existing attachment
@@ -2353,7 +2867,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 					
 					//Writing new attachments
 					for(Blocks.AttachmentInfo attachmentStruct : result.getNewAttachments()) {
-						AttachmentInfo attachmentInfo = addMessageAttachment(context, result.getTargetMessageID(), attachmentStruct, isHistory);
+						AttachmentInfo attachmentInfo = addMessageAttachment(context, database, batchWriter, result.getTargetMessageID(), attachmentStruct, isHistory);
 						if(attachmentInfo != null) messageAttachments.add(attachmentInfo);
 					}
 					
@@ -2375,7 +2889,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		}
 		
 		//Adding the conversation item normally
-		ConversationItem addedItem = addConversationStruct(context, conversationID, conversationItem, isHistory);
+		ConversationItem addedItem = addConversationStruct(context, database, batchWriter, conversationID, conversationItem, isHistory);
 		if(addedItem == null) return null;
 		return new ReplaceInsertResult(addedItem, Collections.singletonList(addedItem), Collections.emptyList(), Collections.emptyList());
 	}
@@ -2391,6 +2905,17 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		//Getting the database
 		SQLiteDatabase database = getWritableDatabase();
 		
+		database.beginTransactionWithListener(sortAnchorTransactionListener);
+		try {
+			ReplaceInsertResult result = transferConversationItemReplaceGhost(context, database, conversationID, conversationItem);
+			database.setTransactionSuccessful();
+			return result;
+		} finally {
+			database.endTransaction();
+		}
+	}
+	
+	private ReplaceInsertResult transferConversationItemReplaceGhost(Context context, SQLiteDatabase database, long conversationID, ConversationItem conversationItem) {
 		//Checking if the item is a message
 		if(conversationItem.getItemType() == ConversationItemType.message) {
 			MessageInfo messageItem = (MessageInfo) conversationItem;
@@ -2424,22 +2949,14 @@ public class DatabaseManager extends SQLiteOpenHelper {
 					//Deleting discarded messages
 					if(!result.getDiscardedMessageIDs().isEmpty()) {
 						database.delete(Contract.MessageEntry.TABLE_NAME, Contract.MessageEntry._ID + " IN (" + result.getDiscardedMessageIDs().stream().map(value -> Long.toString(value)).collect(Collectors.joining(",")) + ")", null);
+						sortAnchorCache.invalidate();
 					}
 					
 					//Creating the content values
 					ContentValues messageContentValues = new ContentValues();
 					if(conversationItem.getServerID() == -1) {
 						messageContentValues.putNull(Contract.MessageEntry.COLUMN_NAME_SERVERID);
-						try(Cursor cursor = database.query(Contract.MessageEntry.TABLE_NAME, new String[]{Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED, Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET}, Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + " = (SELECT MAX(" + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + ") FROM " + Contract.MessageEntry.TABLE_NAME + ")", null, null, null, Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET + " DESC", "1")) {
-							if(cursor.moveToNext()) {
-								//Same message, +1 offset
-								messageContentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED, cursor.getLong(cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED)));
-								messageContentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET, cursor.getInt(cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET)) + 1);
-							} else {
-								messageContentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED, -1);
-								messageContentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET, 0);
-							}
-						}
+						putLocalSortID(database, messageContentValues);
 					} else {
 						messageContentValues.put(Contract.MessageEntry.COLUMN_NAME_SERVERID, messageItem.getServerID());
 						messageContentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED, messageItem.getServerID());
@@ -2456,6 +2973,9 @@ public class DatabaseManager extends SQLiteOpenHelper {
 					//Updating the message values
 					database.update(Contract.MessageEntry.TABLE_NAME, messageContentValues, Contract.MessageEntry._ID + " = ?", new String[]{Long.toString(result.getTargetMessageID())});
 					
+					//The target message's previous sort ID may have been the latest one
+					if(conversationItem.getServerID() != -1) sortAnchorCache.invalidate();
+					
 					ArrayList<AttachmentInfo> messageAttachments = new ArrayList<>();
 					
 					//Updating the existing attachment
@@ -2519,6 +3039,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 					
 					//Deleting the original message from the old conversation
 					database.delete(Contract.MessageEntry.TABLE_NAME, Contract.MessageEntry._ID + " = ?", new String[]{Long.toString(messageItem.getLocalID())});
+					sortAnchorCache.invalidate();
 					
 					//Creating the final message
 					MessageInfo messageInfo = new MessageInfo(result.getTargetMessageID(), messageItem.getServerID(), messageItem.getGuid(), messageItem.getDate(), null, messageItem.getMessageTextComponent(), messageAttachments, messageItem.getSendStyle(), sendStyleViewed, messageItem.getDateRead(), messageItem.getMessageState(), messageItem.getErrorCode(), messageItem.isErrorDetailsAvailable(), null);
@@ -2534,7 +3055,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		//We couldn't replace the item, so just do a standard conversation item ownership transfer
 		ContentValues contentValues = new ContentValues();
 		contentValues.put(Contract.MessageEntry.COLUMN_NAME_CHAT, conversationID);
-		getWritableDatabase().update(Contract.MessageEntry.TABLE_NAME, contentValues, Contract.MessageEntry._ID + " = ?", new String[]{Long.toString(conversationItem.getLocalID())});
+		database.update(Contract.MessageEntry.TABLE_NAME, contentValues, Contract.MessageEntry._ID + " = ?", new String[]{Long.toString(conversationItem.getLocalID())});
 		
 		return new ReplaceInsertResult(conversationItem, Collections.singletonList(conversationItem), Collections.emptyList(), Collections.emptyList());
 	}
@@ -2601,20 +3122,34 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		//Getting the database
 		SQLiteDatabase database = getWritableDatabase();
 		
+		database.beginTransactionWithListener(sortAnchorTransactionListener);
+		try {
+			ConversationItem result = addConversationStruct(context, database, null, conversationID, conversationItem, isHistory);
+			database.setTransactionSuccessful();
+			return result;
+		} finally {
+			database.endTransaction();
+		}
+	}
+	
+	/**
+	 * Writes a batch of conversation structs to the database in a single transaction
+	 * @param context The context to use
+	 * @param conversationItems A list of pairs of the ID of the conversation to add each item to, and the item to add
+	 * @param isHistory Whether the added messages should be treated as history, ie. should not receive treatment as newly received messages
+	 * @return A list of completed conversation items, in the same order as the input list, with NULL entries for items that couldn't be written
+	 */
+	public List<ConversationItem> addConversationStructs(Context context, List<Pair<Long, Blocks.ConversationItem>> conversationItems, boolean isHistory) {
+		return writeBatch(conversationItems, (database, batchWriter, conversationID, conversationItem) -> addConversationStruct(context, database, batchWriter, conversationID, conversationItem, isHistory));
+	}
+	
+	@Nullable
+	private ConversationItem addConversationStruct(Context context, SQLiteDatabase database, @Nullable BatchWriter batchWriter, long conversationID, Blocks.ConversationItem conversationItem, boolean isHistory) {
 		//Creating the content values and adding the common data
 		ContentValues contentValues = new ContentValues();
 		if(conversationItem.serverID == -1) {
 			contentValues.putNull(Contract.MessageEntry.COLUMN_NAME_SERVERID);
-			try(Cursor cursor = database.query(Contract.MessageEntry.TABLE_NAME, new String[]{Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED, Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET}, Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + " = (SELECT MAX(" + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + ") FROM " + Contract.MessageEntry.TABLE_NAME + ")", null, null, null, Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET + " DESC", "1")) {
-				if(cursor.moveToNext()) {
-					//Same message, +1 offset
-					contentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED, cursor.getLong(cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED)));
-					contentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET, cursor.getInt(cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET)) + 1);
-				} else {
-					contentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED, -1);
-					contentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET, 0);
-				}
-			}
+			putLocalSortID(database, contentValues);
 		} else {
 			contentValues.put(Contract.MessageEntry.COLUMN_NAME_SERVERID, conversationItem.serverID);
 			contentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED, conversationItem.serverID);
@@ -2646,7 +3181,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			//Inserting the conversation into the database
 			long messageLocalID;
 			try {
-				messageLocalID = database.insertOrThrow(Contract.MessageEntry.TABLE_NAME, null, contentValues);
+				messageLocalID = insertMessage(database, batchWriter, contentValues);
 			} catch(SQLiteConstraintException exception) {
 				//Printing the stack trace
 				exception.printStackTrace();
@@ -2656,7 +3191,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			}
 			
 			//Adding the attachments
-			ArrayList<AttachmentInfo> attachments = new ArrayList<>(messageInfoStruct.attachments.stream().map(attachment -> addMessageAttachment(context, messageLocalID, attachment, isHistory)).filter(Objects::nonNull).collect(Collectors.toList()));
+			ArrayList<AttachmentInfo> attachments = new ArrayList<>(messageInfoStruct.attachments.stream().map(attachment -> addMessageAttachment(context, database, batchWriter, messageLocalID, attachment, isHistory)).filter(Objects::nonNull).collect(Collectors.toList()));
 			
 			//Adding the modifiers
 			List<Pair<StickerInfo, ModifierMetadata>> stickers = addMessageStickers(context, messageLocalID, messageInfoStruct.stickers);
@@ -2690,7 +3225,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			//Inserting the action into the database
 			long localID;
 			try {
-				localID = database.insertOrThrow(Contract.MessageEntry.TABLE_NAME, null, contentValues);
+				localID = insertMessage(database, batchWriter, contentValues);
 			} catch(SQLiteConstraintException exception) {
 				//Printing the stack trace
 				exception.printStackTrace();
@@ -2715,7 +3250,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			//Inserting the action into the database
 			long localID;
 			try {
-				localID = database.insertOrThrow(Contract.MessageEntry.TABLE_NAME, null, contentValues);
+				localID = insertMessage(database, batchWriter, contentValues);
 			} catch(SQLiteConstraintException exception) {
 				//Printing the stack trace
 				exception.printStackTrace();
@@ -2732,6 +3267,132 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		return null;
 	}
 	
+	/**
+	 * Inserts a row into the messages table, and keeps track of its sort ID
+	 * @param database The database to write to
+	 * @param batchWriter The batch this message is being written as a part of, or NULL if this isn't part of a batch
+	 * @param contentValues The values of the message
+	 * @return The local ID of the inserted message
+	 * @throws SQLiteConstraintException If the message conflicts with an existing message
+	 */
+	private long insertMessage(SQLiteDatabase database, @Nullable BatchWriter batchWriter, ContentValues contentValues) {
+		long localID;
+		if(batchWriter == null) localID = database.insertOrThrow(Contract.MessageEntry.TABLE_NAME, null, contentValues);
+		else localID = batchWriter.getStatementCache().insertOrThrow(Contract.MessageEntry.TABLE_NAME, contentValues);
+		
+		recordSortID(contentValues);
+		return localID;
+	}
+	
+	/**
+	 * Assigns a new message without a server ID the sort position after the latest message in the database
+	 * This must be called in a transaction started with sortAnchorTransactionListener, so that the reserved position is released if the write is rolled back
+	 * @param database The database to read the latest sort ID from, if it isn't cached
+	 * @param contentValues The content values to add the sort ID to
+	 */
+	private void putLocalSortID(SQLiteDatabase database, ContentValues contentValues) {
+		while(true) {
+			//Reading the latest sort ID from the database if it isn't cached
+			if(!sortAnchorCache.isLoaded()) {
+				try(Cursor cursor = database.query(Contract.MessageEntry.TABLE_NAME, new String[]{Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED, Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET}, Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + " = (SELECT MAX(" + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + ") FROM " + Contract.MessageEntry.TABLE_NAME + ")", null, null, null, Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET + " DESC", "1")) {
+					if(cursor.moveToNext()) sortAnchorCache.load(cursor.getLong(0), cursor.getInt(1));
+					else sortAnchorCache.loadEmpty();
+				}
+			}
+			
+			synchronized(sortAnchorCache) {
+				//Reading the sort ID again if the cache was cleared in the meantime
+				if(!sortAnchorCache.isLoaded()) continue;
+				
+				//Same message, +1 offset
+				long sortID = sortAnchorCache.getNextSortID();
+				int sortIDOffset = sortAnchorCache.getNextSortIDOffset();
+				
+				//Reserving the position, so that messages written at the same time don't share it
+				sortAnchorCache.record(sortID, sortIDOffset);
+				
+				contentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED, sortID);
+				contentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET, sortIDOffset);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Updates the sort ID cache with a message that was written to the database
+	 * @param contentValues The values of the written message
+	 */
+	private void recordSortID(ContentValues contentValues) {
+		Long sortID = contentValues.getAsLong(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED);
+		if(sortID == null) return;
+		
+		sortAnchorCache.record(sortID, contentValues.getAsInteger(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET));
+	}
+	
+	/**
+	 * Writes a list of conversation items to the database in a single transaction, and logs the rate that rows were written at
+	 * @param conversationItems A list of pairs of the ID of the conversation to add each item to, and the item to add
+	 * @param itemWriter The function to write each item with
+	 * @return A list of the results of each write, in the same order as the input list
+	 */
+	private <T> List<T> writeBatch(List<Pair<Long, Blocks.ConversationItem>> conversationItems, BatchItemWriter<T> itemWriter) {
+		//Getting the database
+		SQLiteDatabase database = getWritableDatabase();
+		
+		List<T> resultList = new ArrayList<>(conversationItems.size());
+		long startTime = SystemClock.elapsedRealtime();
+		long rowCount;
+		
+		database.beginTransactionWithListener(sortAnchorTransactionListener);
+		try(BatchWriter batchWriter = new BatchWriter(database)) {
+			//Counting changes inside the transaction, so that both queries run on the connection that holds it
+			long startChanges = DatabaseUtils.longForQuery(database, "SELECT total_changes()", null);
+			
+			//Writing the items
+			for(Pair<Long, Blocks.ConversationItem> pair : conversationItems) {
+				resultList.add(itemWriter.write(database, batchWriter, pair.getFirst(), pair.getSecond()));
+			}
+			
+			rowCount = DatabaseUtils.longForQuery(database, "SELECT total_changes()", null) - startChanges;
+			database.setTransactionSuccessful();
+		} finally {
+			database.endTransaction();
+		}
+		
+		//Logging the write rate
+		long elapsedTime = SystemClock.elapsedRealtime() - startTime;
+		Log.i(TAG, "Wrote " + rowCount + " rows for " + conversationItems.size() + " conversation items in " + elapsedTime + " ms (" + String.format(Locale.US, "%.2f", (double) rowCount / Math.max(elapsedTime, 1)) + " rows/ms)");
+		
+		return resultList;
+	}
+	
+	/**
+	 * Writes a single conversation item as a part of a batch
+	 */
+	private interface BatchItemWriter<T> {
+		T write(SQLiteDatabase database, BatchWriter batchWriter, long conversationID, Blocks.ConversationItem conversationItem);
+	}
+	
+	/**
+	 * Holds the state shared between the writes of a batch
+	 */
+	private static class BatchWriter implements AutoCloseable {
+		private final InsertStatementCache statementCache;
+		
+		BatchWriter(SQLiteDatabase database) {
+			statementCache = new InsertStatementCache(database);
+		}
+		
+		InsertStatementCache getStatementCache() {
+			return statementCache;
+		}
+		
+		@Override
+		public void close() {
+			statementCache.close();
+		}
+	}
+	
 	/**
 	 * Adds a new conversation item to a conversation
 	 * @param conversationID The ID of the conversation
@@ -2743,23 +3404,23 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		//Getting the database
 		SQLiteDatabase database = getWritableDatabase();
 		
+		database.beginTransactionWithListener(sortAnchorTransactionListener);
+		try {
+			long localID = addConversationItem(database, conversationID, conversationItem, offsetRequired);
+			database.setTransactionSuccessful();
+			return localID;
+		} finally {
+			database.endTransaction();
+		}
+	}
+	
+	private long addConversationItem(SQLiteDatabase database, long conversationID, ConversationItem conversationItem, boolean offsetRequired) {
 		//Creating the content values and adding the common data
 		ContentValues contentValues = new ContentValues();
 		if(offsetRequired) {
 			if(conversationItem.getServerID() == -1) {
 				contentValues.putNull(Contract.MessageEntry.COLUMN_NAME_SERVERID);
-				try(Cursor cursor = database.query(Contract.MessageEntry.TABLE_NAME, new String[]{Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED, Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET},
-						Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + " = (SELECT MAX(" + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + ") FROM " + Contract.MessageEntry.TABLE_NAME + ")", null,
-						null, null, Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET + " DESC", "1")) {
-					if(cursor.moveToNext()) {
-						//Same message, +1 offset
-						contentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED, cursor.getLong(cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED)));
-						contentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET, cursor.getInt(cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET)) + 1);
-					} else {
-						contentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED, -1);
-						contentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET, 0);
-					}
-				}
+				putLocalSortID(database, contentValues);
 			} else {
 				contentValues.put(Contract.MessageEntry.COLUMN_NAME_SERVERID, conversationItem.getServerID());
 				contentValues.put(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED, conversationItem.getServerID());
@@ -2791,6 +3452,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			//Inserting the conversation into the database
 			try {
 				itemLocalID = database.insertOrThrow(Contract.MessageEntry.TABLE_NAME, null, contentValues);
+				recordSortID(contentValues);
 			} catch(SQLiteConstraintException exception) {
 				//Printing the stack trace
 				exception.printStackTrace();
@@ -2808,7 +3470,10 @@ public class DatabaseManager extends SQLiteOpenHelper {
 				contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_FILENAME, attachment.getFileName());
 				contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_FILETYPE, attachment.getContentType());
 				if(attachment.getFileSize() != -1) contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_FILESIZE, attachment.getFileSize());
-				if(attachment.getFile() != null) contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_FILEPATH, AttachmentStorageHelper.getRelativePath(MainApplication.getInstance(), attachment.getFile()));
+				if(attachment.getFile() != null) {
+					contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_FILEPATH, AttachmentStorageHelper.getRelativePath(MainApplication.getInstance(), attachment.getFile()));
+					contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADED, 1);
+				}
 				contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_FILECHECKSUM, attachment.getFileChecksum());
 				if(attachment.getSort() != -1) contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_SORT, attachment.getSort());
 				
@@ -2878,12 +3543,14 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	/**
 	 * Writes a message attachment block to the database
 	 * @param context The context to use
+	 * @param database The database to write to
+	 * @param batchWriter The batch this attachment is being written as a part of, or NULL if this isn't part of a batch
 	 * @param messageID The ID of the message to add the attachment to
 	 * @param attachmentStruct The attachment to write
 	 * @param isHistory Whether the added attachment should be treated as history, ie. should not receive treatment as a newly received message
 	 * @return The complete attachment info
 	 */
-	private AttachmentInfo addMessageAttachment(Context context, long messageID, Blocks.AttachmentInfo attachmentStruct, boolean isHistory) {
+	private AttachmentInfo addMessageAttachment(Context context, SQLiteDatabase database, @Nullable BatchWriter batchWriter, long messageID, Blocks.AttachmentInfo attachmentStruct, boolean isHistory) {
 		//Creating the content values
 		ContentValues contentValues = new ContentValues();
 		contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_GUID, attachmentStruct.guid);
@@ -2899,7 +3566,8 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		//Inserting the attachment into the database
 		long localID;
 		try {
-			localID = getWritableDatabase().insertOrThrow(Contract.AttachmentEntry.TABLE_NAME, null, contentValues);
+			if(batchWriter != null) localID = batchWriter.getStatementCache().insertOrThrow(Contract.AttachmentEntry.TABLE_NAME, contentValues);
+			else localID = database.insertOrThrow(Contract.AttachmentEntry.TABLE_NAME, null, contentValues);
 		} catch(SQLiteConstraintException exception) {
 			//Printing the stack trace
 			exception.printStackTrace();
@@ -2927,7 +3595,10 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_FILENAME, attachment.getFileName());
 		contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_FILETYPE, attachment.getContentType());
 		if(attachment.getFileSize() != -1) contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_FILESIZE, attachment.getFileSize());
-		if(attachment.getFile() != null) contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_FILEPATH, AttachmentStorageHelper.getRelativePath(context, attachment.getFile()));
+		if(attachment.getFile() != null) {
+			contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_FILEPATH, AttachmentStorageHelper.getRelativePath(context, attachment.getFile()));
+			contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_DOWNLOADED, 1);
+		}
 		contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_FILECHECKSUM, attachment.getFileChecksum());
 		if(attachment.getSort() != -1) contentValues.put(Contract.AttachmentEntry.COLUMN_NAME_SORT, attachment.getSort());
 		
@@ -3372,6 +4043,7 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		
 		//Deleting the message entries
 		database.delete(Contract.MessageEntry.TABLE_NAME, Contract.MessageEntry._ID + " = ?", new String[]{Long.toString(messageID)});
+		sortAnchorCache.invalidate();
 		
 		//Deleting associated attachment files
 		try(Cursor cursor = database.query(Contract.AttachmentEntry.TABLE_NAME, new String[]{Contract.AttachmentEntry.COLUMN_NAME_FILEPATH},
@@ -3605,10 +4277,6 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		}
 	}
 	
-	private static String getConversationSortByDesc(ConversationInfo conversationInfo) {
-		return getConversationBySortDesc(conversationInfo.getServiceHandler());
-	}
-	
 	private static String getConversationBySortDesc(@ServiceHandler int serviceHandler) {
 		//When using AM bridge, a more advanced ordering system must be used to ensure messages are properly displayed. Otherwise, they can simply be sorted by date.
 		return serviceHandler == ServiceHandler.appleBridge ? messageSortOrderDesc : messageSortOrderDescSimple;
@@ -3636,51 +4304,80 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	} */
 	
 	public static abstract class LazyLoader<T> {
-		SQLiteDatabase database;
-		Cursor cursor;
-		
-		public void initialize(SQLiteDatabase database, Cursor cursor) {
-			this.database = database;
-			this.cursor = cursor;
-		}
-		
-		public void setCursorPosition(int cursorPosition) {
-			cursor.moveToPosition(cursorPosition);
-		}
-		
 		public abstract List<T> loadNextChunk(Context context);
 	}
 	
+	/**
+	 * Loads a conversation's items page by page, starting from the newest
+	 * Each page is queried separately, continuing from the sort position of the last item of the previous page,
+	 * so no cursor is held open between pages and messages that are added in the meantime don't shift the pages.
+	 * Pages grow while the user is quickly scrolling back through the conversation, and shrink back down when they slow down.
+	 */
 	public static class ConversationLazyLoader extends LazyLoader<ConversationItem> {
+		//Creating the constants
+		private static final int minPageSize = Messaging.messageChunkSize;
+		private static final int maxPageSize = Messaging.messageChunkSize * 8;
+		private static final long fastScrollInterval = 1000; //If the next page is requested within this many milliseconds of the last page being loaded, the user is scrolling quickly
+		
 		private final DatabaseManager databaseManager;
-		private final ConversationItemIndices conversationItemIndices;
+		private final long conversationID;
+		@ServiceHandler private final int serviceHandler;
+		
+		//Creating the state values
+		private int pageSize = minPageSize;
+		private long lastLoadTime = -1;
+		private boolean isKeySet = false;
+		private long keySortIDLinked, keySortIDLinkedOffset, keyDate, keyLocalID; //The sort position of the last item that was loaded
 		
 		public ConversationLazyLoader(DatabaseManager databaseManager, ConversationInfo conversationInfo) {
 			this.databaseManager = databaseManager;
-			
-			//Building the query
-			SQLiteDatabase database = databaseManager.getReadableDatabase();
-			Cursor cursor = database.query(Contract.MessageEntry.TABLE_NAME, null,
-					Contract.MessageEntry.COLUMN_NAME_CHAT + " = ?", new String[]{Long.toString(conversationInfo.getLocalID())},
-					null, null, getConversationSortByDesc(conversationInfo), null);
-			
-			//Getting the indices
-			conversationItemIndices = ConversationItemIndices.fromCursor(cursor);
-			
-			//Initializing the loader
-			super.initialize(database, cursor);
+			conversationID = conversationInfo.getLocalID();
+			serviceHandler = conversationInfo.getServiceHandler();
 		}
 		
 		@Override
 		public List<ConversationItem> loadNextChunk(Context context) {
-			//Creating the message list
-			List<ConversationItem> conversationItems = new ArrayList<>();
+			//Updating the page size
+			updatePageSize();
+			
+			//Building the query
+			String selection = Contract.MessageEntry.COLUMN_NAME_CHAT + " = ?";
+			String[] selectionArgs;
+			if(serviceHandler == ServiceHandler.appleBridge) {
+				if(isKeySet) {
+					selection += " AND (" + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + " < ? OR (" + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED + " = ? AND (" +
+							Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET + " < ? OR (" + Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET + " = ? AND " + Contract.MessageEntry._ID + " < ?))))";
+					selectionArgs = new String[]{Long.toString(conversationID), Long.toString(keySortIDLinked), Long.toString(keySortIDLinked), Long.toString(keySortIDLinkedOffset), Long.toString(keySortIDLinkedOffset), Long.toString(keyLocalID)};
+				} else {
+					selectionArgs = new String[]{Long.toString(conversationID)};
+				}
+			} else {
+				if(isKeySet) {
+					selection += " AND (" + Contract.MessageEntry.COLUMN_NAME_DATE + " < ? OR (" + Contract.MessageEntry.COLUMN_NAME_DATE + " = ? AND " + Contract.MessageEntry._ID + " < ?))";
+					selectionArgs = new String[]{Long.toString(conversationID), Long.toString(keyDate), Long.toString(keyDate), Long.toString(keyLocalID)};
+				} else {
+					selectionArgs = new String[]{Long.toString(conversationID)};
+				}
+			}
 			
 			//Loading the messages
-			for(int i = 0; i < Messaging.messageChunkSize; i++) {
-				if(!super.cursor.moveToNext()) break;
-				conversationItems.add(databaseManager.loadConversationItem(context, conversationItemIndices, super.cursor, super.database));
+			SQLiteDatabase database = databaseManager.getReadableDatabase();
+			List<ConversationItem> conversationItems;
+			try(Cursor cursor = database.query(Contract.MessageEntry.TABLE_NAME, null, selection, selectionArgs, null, null,
+					getConversationBySortDesc(serviceHandler) + ", " + Contract.MessageEntry.TABLE_NAME + "." + Contract.MessageEntry._ID + " DESC",
+					Integer.toString(pageSize))) {
+				conversationItems = databaseManager.loadConversationItemChunk(context, ConversationItemIndices.fromCursor(cursor), cursor, database, -1);
+				
+				//Saving the sort position of the last item, to continue from on the next page
+				if(cursor.moveToLast()) {
+					keySortIDLinked = cursor.getLong(cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKED));
+					keySortIDLinkedOffset = cursor.getLong(cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_SORTID_LINKEDOFFSET));
+					keyDate = cursor.getLong(cursor.getColumnIndexOrThrow(Contract.MessageEntry.COLUMN_NAME_DATE));
+					keyLocalID = cursor.getLong(cursor.getColumnIndexOrThrow(Contract.MessageEntry._ID));
+					isKeySet = true;
+				}
 			}
+			lastLoadTime = SystemClock.uptimeMillis();
 			
 			//Reversing the list
 			Collections.reverse(conversationItems);
@@ -3688,5 +4385,18 @@ public class DatabaseManager extends SQLiteOpenHelper {
 			//Returning the list
 			return conversationItems;
 		}
+		
+		/**
+		 * Doubles the page size if the user requested this page soon after the last one was loaded, or halves it otherwise
+		 */
+		private void updatePageSize() {
+			if(lastLoadTime == -1) return;
+			
+			if(SystemClock.uptimeMillis() - lastLoadTime < fastScrollInterval) {
+				pageSize = Math.min(pageSize * 2, maxPageSize);
+			} else {
+				pageSize = Math.max(pageSize / 2, minPageSize);
+			}
+		}
 	}
 }
\ No newline at end of file
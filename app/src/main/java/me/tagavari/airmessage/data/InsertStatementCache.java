@@ -0,0 +1,97 @@
+package me.tagavari.airmessage.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inserts rows with compiled statements, so that repeated inserts of the same shape only have their SQL compiled once
+ * Statements are keyed by their table and set of columns, so columns that are left out of the content values still receive their default values.
+ */
+class InsertStatementCache implements AutoCloseable {
+	//Creating the database values
+	private final SQLiteDatabase database;
+	private final Map<String, SQLiteStatement> statementMap = new HashMap<>();
+	
+	InsertStatementCache(SQLiteDatabase database) {
+		this.database = database;
+	}
+	
+	/**
+	 * Inserts a row into the database, using a compiled statement
+	 * @param table The table to insert the row into
+	 * @param values The values of the row
+	 * @return The row ID of the inserted row
+	 * @throws android.database.SQLException If the row couldn't be inserted, such as from a constraint violation
+	 */
+	long insertOrThrow(String table, ContentValues values) {
+		//Getting the columns in a consistent order
+		List<String> columns = new ArrayList<>(values.keySet());
+		Collections.sort(columns);
+		
+		//Getting or compiling the statement
+		String sql = buildInsertSQL(table, columns);
+		SQLiteStatement statement = statementMap.get(sql);
+		if(statement == null) {
+			statement = database.compileStatement(sql);
+			statementMap.put(sql, statement);
+		}
+		
+		//Binding the values
+		statement.clearBindings();
+		for(int i = 0; i < columns.size(); i++) {
+			bindValue(statement, i + 1, values.get(columns.get(i)));
+		}
+		
+		//Inserting the row
+		return statement.executeInsert();
+	}
+	
+	@Override
+	public void close() {
+		for(SQLiteStatement statement : statementMap.values()) statement.close();
+		statementMap.clear();
+	}
+	
+	/**
+	 * Builds an insert statement for a set of columns
+	 */
+	private static String buildInsertSQL(String table, List<String> columns) {
+		StringBuilder builder = new StringBuilder("INSERT INTO ").append(table).append(" (");
+		for(int i = 0; i < columns.size(); i++) {
+			if(i > 0) builder.append(',');
+			builder.append(columns.get(i));
+		}
+		builder.append(") VALUES (");
+		for(int i = 0; i < columns.size(); i++) {
+			if(i > 0) builder.append(',');
+			builder.append('?');
+		}
+		return builder.append(')').toString();
+	}
+	
+	/**
+	 * Binds a content value to a statement, matching the conversions used by {@link SQLiteDatabase#insert(String, String, ContentValues)}
+	 */
+	private static void bindValue(SQLiteStatement statement, int index, Object value) {
+		if(value == null) {
+			statement.bindNull(index);
+		} else if(value instanceof Double || value instanceof Float) {
+			statement.bindDouble(index, ((Number) value).doubleValue());
+		} else if(value instanceof Number) {
+			statement.bindLong(index, ((Number) value).longValue());
+		} else if(value instanceof Boolean) {
+			statement.bindLong(index, (Boolean) value ? 1 : 0);
+		} else if(value instanceof byte[]) {
+			statement.bindBlob(index, (byte[]) value);
+		} else {
+			statement.bindString(index, value.toString());
+		}
+	}
+}
\ No newline at end of file
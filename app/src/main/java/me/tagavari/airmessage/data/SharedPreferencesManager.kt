@@ -10,6 +10,7 @@ import me.tagavari.airmessage.enums.ProxyType
 import me.tagavari.airmessage.helper.StringHelper
 import me.tagavari.airmessage.util.ConnectionParams
 import me.tagavari.airmessage.util.DirectConnectionDetails
+import me.tagavari.airmessage.util.DownloadResumeState
 import java.io.IOException
 import java.security.GeneralSecurityException
 import java.util.*
@@ -40,6 +41,19 @@ object SharedPreferencesManager {
 	private const val sharedPreferencesSecureKeyAddressFallback = "hostname_fallback"
 	private const val sharedPreferencesSecureKeyPassword = "password"
 	
+	private const val sharedPreferencesDownloadsFile = "downloads"
+	private const val sharedPreferencesDownloadsKeyFilePath = "file_path" //The relative path of the partially downloaded file
+	private const val sharedPreferencesDownloadsKeyDownloadFileName = "download_file_name" //The updated file name of the download
+	private const val sharedPreferencesDownloadsKeyDownloadFileType = "download_file_type" //The updated file type of the download
+	private const val sharedPreferencesDownloadsKeyTotalLength = "total_length" //The total length of the attachment file
+	private const val sharedPreferencesDownloadsKeyChunkIndex = "chunk_index" //The index of the last chunk confirmed to be written to disk
+	private const val sharedPreferencesDownloadsKeyConfirmedLength = "confirmed_length" //The amount of bytes confirmed to be written to disk
+	
+	//Opening encrypted shared preferences goes through the keystore, so the instance and the decrypted connection details are kept for the life of the process
+	private val secureLock = Any()
+	@Volatile private var secureSharedPrefs: SharedPreferences? = null
+	@Volatile private var directConnectionDetailsCache: DirectConnectionDetails? = null
+	
 	/**
 	 * Gets the shared preferences instance for installation-related information
 	 */
@@ -54,18 +68,61 @@ object SharedPreferencesManager {
 		return context.getSharedPreferences(sharedPreferencesConnectivityFile, Context.MODE_PRIVATE)
 	}
 	
+	/**
+	 * Gets the shared preferences instance for interrupted attachment downloads
+	 */
+	private fun getDownloadsSharedPrefs(context: Context): SharedPreferences {
+		return context.getSharedPreferences(sharedPreferencesDownloadsFile, Context.MODE_PRIVATE)
+	}
+	
 	/**
 	 * Gets the shared preferences instance for sensitive information
 	 */
 	@Throws(GeneralSecurityException::class, IOException::class)
 	private fun getSecureSharedPrefs(context: Context): SharedPreferences {
-		return EncryptedSharedPreferences.create(
-			sharedPreferencesSecureFile,
-			MasterKeys.getOrCreate(MasterKeys.AES256_GCM_SPEC),
-			context,
-			EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
-			EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM
-		)
+		secureSharedPrefs?.let { return it }
+		
+		synchronized(secureLock) {
+			return secureSharedPrefs ?: EncryptedSharedPreferences.create(
+				sharedPreferencesSecureFile,
+				MasterKeys.getOrCreate(MasterKeys.AES256_GCM_SPEC),
+				context.applicationContext,
+				EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
+				EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM
+			).also { secureSharedPrefs = it }
+		}
+	}
+	
+	/**
+	 * Gets the address, fallback address, and password used for direct connections as they are stored, reading them from disk if they aren't cached
+	 */
+	@Throws(GeneralSecurityException::class, IOException::class)
+	private fun getDirectConnectionDetailsCached(context: Context): DirectConnectionDetails {
+		directConnectionDetailsCache?.let { return it }
+		
+		synchronized(secureLock) {
+			directConnectionDetailsCache?.let { return it }
+			
+			val prefs = getSecureSharedPrefs(context)
+			return DirectConnectionDetails(
+				prefs.getString(sharedPreferencesSecureKeyAddress, null),
+				prefs.getString(sharedPreferencesSecureKeyAddressFallback, null),
+				prefs.getString(sharedPreferencesSecureKeyPassword, null)
+			).also { directConnectionDetailsCache = it }
+		}
+	}
+	
+	/**
+	 * Applies changes to the secure shared preferences, and discards the cached connection details
+	 */
+	@Throws(GeneralSecurityException::class, IOException::class)
+	private fun editSecureSharedPrefs(context: Context, block: (SharedPreferences.Editor) -> Unit) {
+		synchronized(secureLock) {
+			val editor = getSecureSharedPrefs(context).edit()
+			block(editor)
+			editor.apply()
+			directConnectionDetailsCache = null
+		}
 	}
 	
 	/**
@@ -183,7 +240,10 @@ object SharedPreferencesManager {
 		preferencesEditor.commit()
 		installationEditor.commit()
 		connectivityEditor.commit()
-		secureEditor.commit()
+		synchronized(secureLock) {
+			secureEditor.commit()
+			directConnectionDetailsCache = null
+		}
 	}
 	
 	/**
@@ -209,7 +269,7 @@ object SharedPreferencesManager {
 	@JvmStatic
 	@Throws(GeneralSecurityException::class, IOException::class)
 	fun getDirectConnectionAddress(context: Context): String? {
-		return getSecureSharedPrefs(context).getString(sharedPreferencesSecureKeyAddress, null)
+		return getDirectConnectionDetailsCached(context).address
 	}
 	
 	/**
@@ -217,7 +277,7 @@ object SharedPreferencesManager {
 	 */
 	@Throws(GeneralSecurityException::class, IOException::class)
 	fun getDirectConnectionFallbackAddress(context: Context): String? {
-		return getSecureSharedPrefs(context).getString(sharedPreferencesSecureKeyAddressFallback, null)
+		return getDirectConnectionDetailsCached(context).fallbackAddress
 	}
 	
 	/**
@@ -226,7 +286,7 @@ object SharedPreferencesManager {
 	@JvmStatic
 	@Throws(GeneralSecurityException::class, IOException::class)
 	fun getDirectConnectionPassword(context: Context): String? {
-		return getSecureSharedPrefs(context).getString(sharedPreferencesSecureKeyPassword, null)
+		return getDirectConnectionDetailsCached(context).password
 	}
 	
 	/**
@@ -235,7 +295,7 @@ object SharedPreferencesManager {
 	@JvmStatic
 	@Throws(GeneralSecurityException::class, IOException::class)
 	fun setDirectConnectionPassword(context: Context, password: String?) {
-		getSecureSharedPrefs(context).edit().putString(sharedPreferencesSecureKeyPassword, password).apply()
+		editSecureSharedPrefs(context) { it.putString(sharedPreferencesSecureKeyPassword, password) }
 	}
 	
 	/**
@@ -244,11 +304,11 @@ object SharedPreferencesManager {
 	@JvmStatic
 	@Throws(GeneralSecurityException::class, IOException::class)
 	fun getDirectConnectionDetails(context: Context): DirectConnectionDetails {
-		val prefs = getSecureSharedPrefs(context)
+		val details = getDirectConnectionDetailsCached(context)
 		return DirectConnectionDetails(
-			StringHelper.nullifyEmptyString(prefs.getString(sharedPreferencesSecureKeyAddress, null)),
-			StringHelper.nullifyEmptyString(prefs.getString(sharedPreferencesSecureKeyAddressFallback, null)),
-			StringHelper.nullifyEmptyString(prefs.getString(sharedPreferencesSecureKeyPassword, null))
+			StringHelper.nullifyEmptyString(details.address),
+			StringHelper.nullifyEmptyString(details.fallbackAddress),
+			StringHelper.nullifyEmptyString(details.password)
 		)
 	}
 	
@@ -258,11 +318,11 @@ object SharedPreferencesManager {
 	@JvmStatic
 	@Throws(GeneralSecurityException::class, IOException::class)
 	fun setDirectConnectionDetails(context: Context, params: DirectConnectionDetails) {
-		getSecureSharedPrefs(context).edit()
-			.putString(sharedPreferencesSecureKeyAddress, params.address)
-			.putString(sharedPreferencesSecureKeyAddressFallback, params.fallbackAddress)
-			.putString(sharedPreferencesSecureKeyPassword, params.password)
-			.apply()
+		editSecureSharedPrefs(context) {
+			it.putString(sharedPreferencesSecureKeyAddress, params.address)
+				.putString(sharedPreferencesSecureKeyAddressFallback, params.fallbackAddress)
+				.putString(sharedPreferencesSecureKeyPassword, params.password)
+		}
 	}
 	
 	/**
@@ -271,11 +331,11 @@ object SharedPreferencesManager {
 	@JvmStatic
 	@Throws(GeneralSecurityException::class, IOException::class)
 	fun setDirectConnectionDetails(context: Context, params: ConnectionParams.Direct) {
-		getSecureSharedPrefs(context).edit()
-			.putString(sharedPreferencesSecureKeyAddress, params.address)
-			.putString(sharedPreferencesSecureKeyAddressFallback, params.fallbackAddress)
-			.putString(sharedPreferencesSecureKeyPassword, params.password)
-			.apply()
+		editSecureSharedPrefs(context) {
+			it.putString(sharedPreferencesSecureKeyAddress, params.address)
+				.putString(sharedPreferencesSecureKeyAddressFallback, params.fallbackAddress)
+				.putString(sharedPreferencesSecureKeyPassword, params.password)
+		}
 	}
 	
 	/**
@@ -325,14 +385,6 @@ object SharedPreferencesManager {
 		return getConnectivitySharedPrefs(context).getLong(sharedPreferencesConnectivityKeyLastConnectionTime, -1)
 	}
 	
-	/**
-	 * Sets the time this client last connected to the server
-	 */
-	@JvmStatic
-	fun setLastConnectionTime(context: Context, time: Long) {
-		getConnectivitySharedPrefs(context).edit().putLong(sharedPreferencesConnectivityKeyLastConnectionTime, time).apply()
-	}
-	
 	/**
 	 * Fetches the last server message ID, or -1 if unavailable
 	 */
@@ -342,19 +394,21 @@ object SharedPreferencesManager {
 	}
 	
 	/**
-	 * Sets the last server message ID
-	 */
-	@JvmStatic
-	fun setLastServerMessageID(context: Context, lastMessageID: Long) {
-		getConnectivitySharedPrefs(context).edit().putLong(sharedPreferencesConnectivityKeyLastServerMessageID, lastMessageID).apply()
-	}
-	
-	/**
-	 * Removes the last server message ID
+	 * Sets the last connection time and the last server message ID in a single write
+	 * These values are cached in memory by the connection manager, which is the only place that should write them.
+	 * @param lastConnectionTime The time this client last connected to the server, or NULL to leave it unchanged
+	 * @param lastServerMessageID The last server message ID, -1 to remove it, or NULL to leave it unchanged
 	 */
 	@JvmStatic
-	fun removeLastServerMessageID(context: Context) {
-		getConnectivitySharedPrefs(context).edit().remove(sharedPreferencesConnectivityKeyLastServerMessageID).apply()
+	fun setConnectionBookkeeping(context: Context, lastConnectionTime: Long?, lastServerMessageID: Long?) {
+		val editor = getConnectivitySharedPrefs(context).edit()
+		lastConnectionTime?.let { editor.putLong(sharedPreferencesConnectivityKeyLastConnectionTime, it) }
+		when(lastServerMessageID) {
+			null -> {}
+			-1L -> editor.remove(sharedPreferencesConnectivityKeyLastServerMessageID)
+			else -> editor.putLong(sharedPreferencesConnectivityKeyLastServerMessageID, lastServerMessageID)
+		}
+		editor.apply()
 	}
 	
 	/**
@@ -420,4 +474,60 @@ object SharedPreferencesManager {
 	fun setTextMessageConversationsInstalled(context: Context, value: Boolean) {
 		getConnectivitySharedPrefs(context).edit().putBoolean(sharedPreferencesConnectivityKeyTextMessageConversationsInstalled, value).apply()
 	}
+	
+	/**
+	 * Gets the saved progress of an interrupted attachment download, or NULL if unavailable
+	 * @param attachmentID The local ID of the attachment
+	 */
+	@JvmStatic
+	fun getDownloadResumeState(context: Context, attachmentID: Long): DownloadResumeState? {
+		val sharedPrefs = getDownloadsSharedPrefs(context)
+		val filePath = sharedPrefs.getString(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyFilePath), null) ?: return null
+		
+		return DownloadResumeState(
+			filePath,
+			sharedPrefs.getString(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyDownloadFileName), null),
+			sharedPrefs.getString(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyDownloadFileType), null),
+			sharedPrefs.getLong(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyTotalLength), -1),
+			sharedPrefs.getInt(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyChunkIndex), -1),
+			sharedPrefs.getLong(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyConfirmedLength), 0)
+		)
+	}
+	
+	/**
+	 * Saves the progress of an attachment download, so that it can be resumed if it is interrupted
+	 * @param attachmentID The local ID of the attachment
+	 */
+	@JvmStatic
+	fun setDownloadResumeState(context: Context, attachmentID: Long, state: DownloadResumeState) {
+		getDownloadsSharedPrefs(context).edit()
+			.putString(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyFilePath), state.filePath)
+			.putString(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyDownloadFileName), state.downloadFileName)
+			.putString(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyDownloadFileType), state.downloadFileType)
+			.putLong(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyTotalLength), state.totalLength)
+			.putInt(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyChunkIndex), state.chunkIndex)
+			.putLong(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyConfirmedLength), state.confirmedLength)
+			.apply()
+	}
+	
+	/**
+	 * Removes the saved progress of an attachment download
+	 * @param attachmentID The local ID of the attachment
+	 */
+	@JvmStatic
+	fun removeDownloadResumeState(context: Context, attachmentID: Long) {
+		getDownloadsSharedPrefs(context).edit()
+			.remove(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyFilePath))
+			.remove(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyDownloadFileName))
+			.remove(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyDownloadFileType))
+			.remove(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyTotalLength))
+			.remove(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyChunkIndex))
+			.remove(getDownloadKey(attachmentID, sharedPreferencesDownloadsKeyConfirmedLength))
+			.apply()
+	}
+	
+	/**
+	 * Gets the key of a download value for a specific attachment
+	 */
+	private fun getDownloadKey(attachmentID: Long, key: String) = "${attachmentID}_$key"
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+package me.tagavari.airmessage.data;
+
+/**
+ * Keeps track of the latest linked sort ID in the messages table, so that new local messages can be placed after it without querying the database
+ * Once loaded, the cache is updated as messages are written. Deleting messages or rolling back a transaction clears it, and it is read from the database again the next time it's needed.
+ */
+class SortAnchorCache {
+	//Creating the state values
+	private boolean loaded = false;
+	private boolean available; //Whether the messages table contains any messages with a sort ID
+	private long sortID;
+	private int sortIDOffset;
+	
+	/**
+	 * Gets whether the latest sort ID is known, or has to be read from the database
+	 */
+	synchronized boolean isLoaded() {
+		return loaded;
+	}
+	
+	/**
+	 * Sets the latest sort ID read from the database
+	 * This has no effect if the cache was loaded in the meantime, as the cached value may already include newer messages.
+	 */
+	synchronized void load(long sortID, int sortIDOffset) {
+		if(loaded) return;
+		
+		loaded = true;
+		available = true;
+		this.sortID = sortID;
+		this.sortIDOffset = sortIDOffset;
+	}
+	
+	/**
+	 * Marks the messages table as having no messages with a sort ID
+	 * This has no effect if the cache was loaded in the meantime, as the cached value may already include newer messages.
+	 */
+	synchronized void loadEmpty() {
+		if(loaded) return;
+		
+		loaded = true;
+		available = false;
+	}
+	
+	/**
+	 * Discards the cached sort ID, so that it is read from the database again
+	 */
+	synchronized void invalidate() {
+		loaded = false;
+	}
+	
+	/**
+	 * Updates the cached sort ID with a newly written message
+	 */
+	synchronized void record(long sortID, int sortIDOffset) {
+		if(!loaded) return;
+		
+		if(!available || sortID > this.sortID) {
+			available = true;
+			this.sortID = sortID;
+			this.sortIDOffset = sortIDOffset;
+		} else if(sortID == this.sortID && sortIDOffset > this.sortIDOffset) {
+			this.sortIDOffset = sortIDOffset;
+		}
+	}
+	
+	/**
+	 * Gets the sort ID to use for a new message without a server ID
+	 * The cache must be loaded before calling this method.
+	 */
+	synchronized long getNextSortID() {
+		return available ? sortID : -1;
+	}
+	
+	/**
+	 * Gets the sort ID offset to use for a new message without a server ID
+	 * The cache must be loaded before calling this method.
+	 */
+	synchronized int getNextSortIDOffset() {
+		return available ? sortIDOffset + 1 : 0;
+	}
+}
\ No newline at end of file
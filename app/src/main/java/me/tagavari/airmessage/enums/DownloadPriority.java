@@ -0,0 +1,15 @@
+package me.tagavari.airmessage.enums;
+
+import androidx.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+//Lower values are downloaded first
+@Retention(RetentionPolicy.SOURCE)
+@IntDef({DownloadPriority.visible, DownloadPriority.autoDownload, DownloadPriority.background})
+public @interface DownloadPriority {
+	int visible = 0; //The user is looking at or has requested this attachment
+	int autoDownload = 1; //This attachment is being downloaded automatically
+	int background = 2; //This attachment isn't on screen
+}
\ No newline at end of file
@@ -5,6 +5,7 @@ import android.os.FileUtils
 import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
+import java.nio.ByteBuffer
 
 /**
  * Helper class for manipulating streams of data
@@ -36,4 +37,27 @@ object DataStreamHelper {
 			return totalLength
 		}
 	}
+	
+	/**
+	 * Writes the remaining data in a buffer to a stream, without changing the buffer's position
+	 * @param buffer The buffer to read from
+	 * @param outputStream The stream to write to
+	 */
+	@JvmStatic
+	@Throws(IOException::class)
+	fun writeBuffer(buffer: ByteBuffer, outputStream: OutputStream) {
+		if(buffer.hasArray()) {
+			//Writing directly from the buffer's backing array
+			outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())
+		} else {
+			//Copying the buffer through a temporary array
+			val source = buffer.duplicate()
+			val buf = ByteArray(minOf(standardBuffer, source.remaining()))
+			while(source.hasRemaining()) {
+				val len = minOf(buf.size, source.remaining())
+				source.get(buf, 0, len)
+				outputStream.write(buf, 0, len)
+			}
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package me.tagavari.airmessage.helper
+
+object MessageSearchHelper {
+	private val termSeparatorRegex = Regex("[^\\p{L}\\p{N}]+")
+	
+	/**
+	 * Converts a user's search query into a full-text search match expression
+	 * Each word in the query is matched as a prefix, and all words must be present in a message for it to match.
+	 * @param query The text the user entered
+	 * @return The match expression, or NULL if the query doesn't contain any searchable words
+	 */
+	@JvmStatic
+	fun buildMatchQuery(query: String): String? {
+		//Splitting the query on anything that isn't a letter or number, which also strips out any quotes
+		val terms = query.split(termSeparatorRegex).filter { it.isNotEmpty() }
+		if(terms.isEmpty()) return null
+		
+		//Quoting each term so that words like "OR" and "NEAR" aren't read as operators
+		//The prefix marker has to go inside the quotes, otherwise FTS only matches the whole word
+		return terms.joinToString(" ") { "\"$it*\"" }
+	}
+}
\ No newline at end of file
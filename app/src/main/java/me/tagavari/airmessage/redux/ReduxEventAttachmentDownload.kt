@@ -5,6 +5,6 @@ import java.io.File
 //An event to represent the status of an attachment download
 abstract class ReduxEventAttachmentDownload {
 	data class Start(val fileLength: Long) : ReduxEventAttachmentDownload()
-	data class Progress(val bytesProgress: Long, val bytesTotal: Long) : ReduxEventAttachmentDownload()
+	data class Progress(val bytesProgress: Long, val bytesTotal: Long, val chunkSize: Int) : ReduxEventAttachmentDownload()
 	data class Complete(val file: File) : ReduxEventAttachmentDownload()
 }
\ No newline at end of file
@@ -3,7 +3,7 @@ package me.tagavari.airmessage.redux
 //An event to represent the status of an attachment upload
 abstract class ReduxEventAttachmentUpload {
 	//While this file is being uploaded
-	data class Progress(val bytesProgress: Long, val bytesTotal: Long) : ReduxEventAttachmentUpload()
+	data class Progress(val bytesProgress: Long, val bytesTotal: Long, val chunkSize: Int) : ReduxEventAttachmentUpload()
 	
 	//When this file has finished being uploaded
 	data class Complete(val fileHash: ByteArray) : ReduxEventAttachmentUpload()
@@ -0,0 +1,19 @@
+package me.tagavari.airmessage.util
+
+/**
+ * Represents the saved progress of an interrupted attachment download
+ * @param filePath The relative path of the partially downloaded file
+ * @param downloadFileName The updated file name of the download, or NULL if the file name isn't being changed
+ * @param downloadFileType The updated file type of the download, or NULL if the file type isn't being changed
+ * @param totalLength The total length of the attachment file that's being downloaded
+ * @param chunkIndex The index of the last chunk that was confirmed to be written to disk
+ * @param confirmedLength The amount of bytes of the file that were confirmed to be written to disk
+ */
+data class DownloadResumeState(
+	val filePath: String,
+	val downloadFileName: String?,
+	val downloadFileType: String?,
+	val totalLength: Long,
+	val chunkIndex: Int,
+	val confirmedLength: Long
+)
\ No newline at end of file
@@ -0,0 +1,19 @@
+package me.tagavari.airmessage.util
+
+/**
+ * Represents a message that matched a search query
+ * @param messageID The local ID of the message
+ * @param conversationID The local ID of the conversation the message belongs to
+ * @param date The date the message was sent
+ * @param sender The sender of the message, or NULL if the message was sent by the user
+ * @param text The text of the message
+ * @param subject The subject of the message
+ */
+data class MessageSearchResult(
+	val messageID: Long,
+	val conversationID: Long,
+	val date: Long,
+	val sender: String?,
+	val text: String?,
+	val subject: String?
+)
\ No newline at end of file
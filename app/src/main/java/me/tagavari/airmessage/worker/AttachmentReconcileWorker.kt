@@ -0,0 +1,25 @@
+package me.tagavari.airmessage.worker
+
+import android.content.Context
+import android.util.Log
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+import me.tagavari.airmessage.data.DatabaseManager
+
+/**
+ * Marks attachments whose files have gone missing from disk as not downloaded
+ */
+class AttachmentReconcileWorker(appContext: Context, workerParams: WorkerParameters): Worker(appContext, workerParams) {
+    override fun doWork(): Result {
+        val missingCount = DatabaseManager.getInstance().reconcileAttachmentFiles(applicationContext)
+        Log.i(TAG, "Marked $missingCount missing attachment files as not downloaded")
+
+        return Result.success()
+    }
+
+    companion object {
+        private val TAG = AttachmentReconcileWorker::class.java.simpleName
+        const val workName = "AttachmentReconcileWorker"
+        const val intervalDays = 1L //How often to check for missing files
+    }
+}
\ No newline at end of file
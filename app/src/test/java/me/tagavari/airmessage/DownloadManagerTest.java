@@ -0,0 +1,177 @@
+package me.tagavari.airmessage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import me.tagavari.airmessage.connection.AttachmentDownloadManager;
+import me.tagavari.airmessage.enums.DownloadPriority;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class DownloadManagerTest {
+	@Test
+	public void testConcurrencyLimit() {
+		AttachmentDownloadManager manager = new AttachmentDownloadManager();
+		manager.setMaxConcurrentDownloads(2);
+		
+		List<PublishSubject<Integer>> tasks = new ArrayList<>();
+		List<TestObserver<Integer>> observers = new ArrayList<>();
+		for(int i = 0; i < 5; i++) {
+			PublishSubject<Integer> task = PublishSubject.create();
+			tasks.add(task);
+			observers.add(manager.enqueue(i, DownloadPriority.autoDownload, () -> task).test());
+		}
+		
+		//Only the first two downloads should be running
+		assertThat(manager.getActiveCount()).isEqualTo(2);
+		assertThat(manager.getPendingCount()).isEqualTo(3);
+		assertThat(tasks.get(1).hasObservers()).isTrue();
+		assertThat(tasks.get(2).hasObservers()).isFalse();
+		
+		//Finishing a download should start the next one
+		tasks.get(0).onNext(1);
+		tasks.get(0).onComplete();
+		observers.get(0).assertValues(1).assertComplete();
+		assertThat(tasks.get(2).hasObservers()).isTrue();
+		
+		//Failed downloads should also free up their slot
+		tasks.get(1).onError(new IllegalStateException());
+		observers.get(1).assertError(IllegalStateException.class);
+		assertThat(tasks.get(3).hasObservers()).isTrue();
+		assertThat(manager.getActiveCount()).isEqualTo(2);
+		assertThat(manager.getPendingCount()).isEqualTo(1);
+	}
+	
+	@Test
+	public void testPriority() {
+		AttachmentDownloadManager manager = new AttachmentDownloadManager();
+		manager.setMaxConcurrentDownloads(1);
+		
+		List<String> startOrder = new ArrayList<>();
+		PublishSubject<Integer> firstTask = PublishSubject.create();
+		PublishSubject<Integer> autoDownloadTask = PublishSubject.create();
+		PublishSubject<Integer> visibleTask = PublishSubject.create();
+		
+		manager.enqueue(0, DownloadPriority.autoDownload, () -> {
+			startOrder.add("first");
+			return firstTask;
+		}).test();
+		manager.enqueue(1, DownloadPriority.autoDownload, () -> {
+			startOrder.add("autoDownload");
+			return autoDownloadTask;
+		}).test();
+		manager.enqueue(2, DownloadPriority.visible, () -> {
+			startOrder.add("visible");
+			return visibleTask;
+		}).test();
+		
+		//Finishing each download in turn
+		firstTask.onComplete();
+		visibleTask.onComplete();
+		autoDownloadTask.onComplete();
+		
+		assertThat(startOrder).containsExactly("first", "visible", "autoDownload").inOrder();
+	}
+	
+	@Test
+	public void testPromote() {
+		AttachmentDownloadManager manager = new AttachmentDownloadManager();
+		manager.setMaxConcurrentDownloads(1);
+		
+		List<String> startOrder = new ArrayList<>();
+		PublishSubject<Integer> firstTask = PublishSubject.create();
+		PublishSubject<Integer> secondTask = PublishSubject.create();
+		PublishSubject<Integer> thirdTask = PublishSubject.create();
+		
+		manager.enqueue(0, DownloadPriority.autoDownload, () -> {
+			startOrder.add("first");
+			return firstTask;
+		}).test();
+		manager.enqueue(1, DownloadPriority.autoDownload, () -> {
+			startOrder.add("second");
+			return secondTask;
+		}).test();
+		manager.enqueue(2, DownloadPriority.autoDownload, () -> {
+			startOrder.add("third");
+			return thirdTask;
+		}).test();
+		
+		//Opening the last attachment should move it ahead of the other automatic download
+		assertThat(manager.promote(2, DownloadPriority.visible)).isTrue();
+		
+		//Downloads that have already started, or already have the priority, should be left alone
+		assertThat(manager.promote(0, DownloadPriority.visible)).isFalse();
+		assertThat(manager.promote(2, DownloadPriority.visible)).isFalse();
+		assertThat(manager.getPendingCount()).isEqualTo(2);
+		
+		//Finishing each download in turn
+		firstTask.onComplete();
+		thirdTask.onComplete();
+		secondTask.onComplete();
+		
+		assertThat(startOrder).containsExactly("first", "third", "second").inOrder();
+	}
+	
+	@Test
+	public void testOnScreen() {
+		AttachmentDownloadManager manager = new AttachmentDownloadManager();
+		manager.setMaxConcurrentDownloads(1);
+		
+		List<String> startOrder = new ArrayList<>();
+		List<PublishSubject<Integer>> tasks = new ArrayList<>();
+		String[] names = {"first", "visible", "autoDownload", "returned"};
+		int[] priorities = {DownloadPriority.autoDownload, DownloadPriority.visible, DownloadPriority.autoDownload, DownloadPriority.autoDownload};
+		for(int i = 0; i < names.length; i++) {
+			PublishSubject<Integer> task = PublishSubject.create();
+			tasks.add(task);
+			String name = names[i];
+			manager.enqueue(i, priorities[i], () -> {
+				startOrder.add(name);
+				return task;
+			}).test();
+		}
+		
+		//Scrolling the visible attachment off screen should move it behind the other downloads
+		assertThat(manager.setOnScreen(1, false)).isTrue();
+		
+		//Scrolling an attachment back on screen should restore its place in the queue
+		assertThat(manager.setOnScreen(3, false)).isTrue();
+		assertThat(manager.setOnScreen(3, true)).isTrue();
+		
+		//Downloads that have already started should be left alone
+		assertThat(manager.setOnScreen(0, false)).isFalse();
+		
+		//Finishing each download in turn
+		tasks.get(0).onComplete();
+		tasks.get(2).onComplete();
+		tasks.get(3).onComplete();
+		tasks.get(1).onComplete();
+		
+		assertThat(startOrder).containsExactly("first", "autoDownload", "returned", "visible").inOrder();
+	}
+	
+	@Test
+	public void testCancel() {
+		AttachmentDownloadManager manager = new AttachmentDownloadManager();
+		manager.setMaxConcurrentDownloads(1);
+		
+		PublishSubject<Integer> firstTask = PublishSubject.create();
+		PublishSubject<Integer> secondTask = PublishSubject.create();
+		TestObserver<Integer> firstObserver = manager.enqueue(0, DownloadPriority.autoDownload, () -> firstTask).test();
+		TestObserver<Integer> secondObserver = manager.enqueue(1, DownloadPriority.autoDownload, () -> secondTask).test();
+		
+		//Cancelling a pending download should remove it from the queue
+		secondObserver.dispose();
+		assertThat(manager.getPendingCount()).isEqualTo(0);
+		
+		//Cancelling a running download should stop it and free up its slot
+		firstObserver.dispose();
+		assertThat(firstTask.hasObservers()).isFalse();
+		assertThat(manager.getActiveCount()).isEqualTo(0);
+		assertThat(secondTask.hasObservers()).isFalse();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,89 @@
+package me.tagavari.airmessage;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import me.tagavari.airmessage.connection.encryption.EncryptionAES;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class EncryptionTest {
+	private static final String password = "password";
+	
+	@Test
+	public void testEncryption() throws GeneralSecurityException {
+		final byte[][] testEncryptionValues = {
+				"Hello, world!".getBytes(),
+				new byte[0],
+				new byte[1024 * 1024]
+		};
+		new Random().nextBytes(testEncryptionValues[2]);
+		
+		EncryptionAES encryptionSender = new EncryptionAES(password);
+		EncryptionAES encryptionReceiver = new EncryptionAES(password);
+		
+		for(byte[] value : testEncryptionValues) {
+			//Decrypting with the same instance and with a separate instance
+			byte[] encrypted = encryptionSender.encrypt(value);
+			assertThat(encryptionSender.decrypt(encrypted)).isEqualTo(value);
+			assertThat(encryptionReceiver.decrypt(encrypted)).isEqualTo(value);
+			
+			//Making sure IVs aren't reused
+			assertThat(encryptionSender.encrypt(value)).isNotEqualTo(encrypted);
+		}
+	}
+	
+	@Test
+	public void testEncryptionInPlace() throws GeneralSecurityException {
+		byte[] value = new byte[64 * 1024];
+		new Random().nextBytes(value);
+		
+		EncryptionAES encryption = new EncryptionAES(password);
+		
+		//Encrypting the data into a buffer with space for a header
+		final int headerLength = 5;
+		ByteBuffer frame = ByteBuffer.allocate(headerLength + encryption.getEncryptedLength(value.length));
+		frame.position(headerLength);
+		encryption.encrypt(ByteBuffer.wrap(value), frame);
+		assertThat(frame.hasRemaining()).isFalse();
+		
+		//Decrypting the data in place
+		frame.position(headerLength);
+		ByteBuffer decrypted = new EncryptionAES(password).decrypt(frame);
+		assertThat(decrypted.array()).isSameInstanceAs(frame.array());
+		
+		byte[] decryptedArray = new byte[decrypted.remaining()];
+		decrypted.get(decryptedArray);
+		assertThat(decryptedArray).isEqualTo(value);
+	}
+	
+	@Test(expected = GeneralSecurityException.class)
+	public void testEncryptionWrongPassword() throws GeneralSecurityException {
+		byte[] encrypted = new EncryptionAES(password).encrypt("Hello, world!".getBytes());
+		new EncryptionAES("wrong password").decrypt(encrypted);
+	}
+	
+	@Test
+	public void testEncryptionKeyCache() throws GeneralSecurityException {
+		byte[] packet1 = "Hello, world!".getBytes();
+		byte[] packet2 = "Goodbye, world!".getBytes();
+		
+		EncryptionAES encryptionSender = new EncryptionAES(password);
+		EncryptionAES encryptionReceiver = new EncryptionAES(password);
+		
+		//Packets from the same sender should share a salt, so the sender's key is reused
+		byte[] encrypted1 = encryptionSender.encrypt(packet1);
+		byte[] encrypted2 = encryptionSender.encrypt(packet2);
+		assertThat(Arrays.copyOf(encrypted1, 8)).isEqualTo(Arrays.copyOf(encrypted2, 8));
+		
+		//The receiver's cached key should decrypt later packets the same as a newly derived key
+		assertThat(encryptionReceiver.decrypt(encrypted1)).isEqualTo(packet1);
+		assertThat(encryptionReceiver.decrypt(encrypted2)).isEqualTo(packet2);
+		assertThat(encryptionReceiver.decrypt(encrypted1)).isEqualTo(new EncryptionAES(password).decrypt(encrypted1));
+		assertThat(encryptionReceiver.decrypt(encrypted2)).isEqualTo(new EncryptionAES(password).decrypt(encrypted2));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,162 @@
+package me.tagavari.airmessage;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import me.tagavari.airmessage.connection.comm5.AirPacker;
+import me.tagavari.airmessage.connection.comm5.AirUnpacker;
+import me.tagavari.airmessage.connection.comm5.EncryptedPacket;
+import me.tagavari.airmessage.connection.encryption.EncryptionAES;
+import me.tagavari.airmessage.connection.encryption.EncryptionManager;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class PackerTest {
+	@Test
+	public void testPackerGrowth() {
+		byte[] payload = new byte[8 * 1024 * 1024];
+		new Random().nextBytes(payload);
+		
+		EncryptedPacket packet;
+		try(AirPacker packer = AirPacker.get()) {
+			packer.packInt(1);
+			packer.packPayload(payload);
+			packer.packString("Hello, world!");
+			packet = packer.toPacket(true);
+		}
+		
+		AirUnpacker unpacker = new AirUnpacker(packet.getDataBuffer());
+		assertThat(unpacker.unpackInt()).isEqualTo(1);
+		assertThat(unpacker.unpackPayload()).isEqualTo(payload);
+		assertThat(unpacker.unpackString()).isEqualTo("Hello, world!");
+		assertThat(packet.getEncrypt()).isTrue();
+	}
+	
+	@Test
+	public void testUnpackerSlices() {
+		byte[] payload = new byte[1024 * 1024];
+		new Random().nextBytes(payload);
+		
+		EncryptedPacket packet;
+		try(AirPacker packer = AirPacker.get()) {
+			packer.packString("Hello, world!");
+			packer.packPayload(payload);
+			packer.packString("Goodbye, world!");
+			packet = packer.toPacket(false);
+		}
+		
+		AirUnpacker unpacker = new AirUnpacker(packet.getDataBuffer());
+		assertThat(unpacker.unpackString()).isEqualTo("Hello, world!");
+		
+		//Checking that the payload is read without being copied
+		ByteBuffer payloadBuffer = unpacker.unpackPayloadBuffer();
+		assertThat(payloadBuffer.array()).isSameInstanceAs(packet.getDataBuffer().array());
+		byte[] payloadArray = new byte[payloadBuffer.remaining()];
+		payloadBuffer.get(payloadArray);
+		assertThat(payloadArray).isEqualTo(payload);
+		
+		assertThat(unpacker.unpackString()).isEqualTo("Goodbye, world!");
+	}
+	
+	@Test(expected = BufferUnderflowException.class)
+	public void testUnpackerTruncated() {
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		buffer.putInt(1024);
+		buffer.flip();
+		new AirUnpacker(buffer).unpackPayloadBuffer();
+	}
+	
+	@Test(expected = BufferOverflowException.class)
+	public void testPackerOverflow() {
+		try(AirPacker packer = AirPacker.get()) {
+			packer.packPayload(new byte[64 * 1024 * 1024]);
+		}
+	}
+	
+	@Test
+	public void testPackerConcurrency() throws Exception {
+		final int threadCount = 8;
+		final int packetCount = 500;
+		
+		//Packing packets from several threads at once
+		Queue<EncryptedPacket> sentPackets = new ConcurrentLinkedQueue<>();
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		CountDownLatch startLatch = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>(threadCount);
+		for(int t = 0; t < threadCount; t++) {
+			final int threadIndex = t;
+			futures.add(executor.submit(() -> {
+				startLatch.await();
+				for(int i = 0; i < packetCount; i++) {
+					try(AirPacker packer = AirPacker.get()) {
+						packer.packInt(threadIndex);
+						packer.packInt(i);
+						packer.packString("Packet " + threadIndex + "-" + i);
+						packer.packPayload(createPayload(threadIndex, i));
+						sentPackets.add(packer.toPacket(true));
+					}
+				}
+				return null;
+			}));
+		}
+		startLatch.countDown();
+		for(Future<?> future : futures) future.get();
+		executor.shutdown();
+		
+		//Checking that no packet was corrupted by another thread
+		assertThat(sentPackets).hasSize(threadCount * packetCount);
+		boolean[][] received = new boolean[threadCount][packetCount];
+		for(EncryptedPacket packet : sentPackets) {
+			AirUnpacker unpacker = new AirUnpacker(packet.getDataBuffer());
+			int threadIndex = unpacker.unpackInt();
+			int i = unpacker.unpackInt();
+			assertThat(unpacker.unpackString()).isEqualTo("Packet " + threadIndex + "-" + i);
+			assertThat(unpacker.unpackPayload()).isEqualTo(createPayload(threadIndex, i));
+			
+			assertThat(received[threadIndex][i]).isFalse();
+			received[threadIndex][i] = true;
+		}
+	}
+	
+	@Test
+	public void testEncryptedHeaderSpace() throws Exception {
+		EncryptionManager encryptionManager = new EncryptionAES("password");
+		
+		EncryptedPacket packet;
+		try(AirPacker packer = AirPacker.get()) {
+			packer.packString("Hello, world!");
+			packet = packer.toPacket(true);
+		}
+		
+		//Space for a header should be reserved in front of the encrypted data
+		ByteBuffer encryptedData = packet.getEncryptedDataBuffer(encryptionManager);
+		assertThat(encryptedData.position()).isEqualTo(EncryptedPacket.reservedHeaderLength);
+		
+		//Writing a header there shouldn't affect the encrypted data
+		ByteBuffer message = encryptedData.duplicate();
+		message.position(0);
+		message.putInt(100).put((byte) -100);
+		
+		ByteBuffer data = encryptionManager.decrypt(encryptedData);
+		assertThat(new AirUnpacker(data).unpackString()).isEqualTo("Hello, world!");
+	}
+	
+	private static byte[] createPayload(int threadIndex, int packetIndex) {
+		Random random = new Random(threadIndex * 100000L + packetIndex);
+		byte[] payload = new byte[packetIndex % 50 == 0 ? 256 * 1024 : random.nextInt(2048)];
+		random.nextBytes(payload);
+		return payload;
+	}
+}
\ No newline at end of file
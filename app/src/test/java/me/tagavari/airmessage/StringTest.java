@@ -5,6 +5,7 @@ import org.junit.Test;
 import java.io.IOException;
 import java.util.Random;
 
+import me.tagavari.airmessage.helper.MessageSearchHelper;
 import me.tagavari.airmessage.helper.StandardCompressionHelper;
 import me.tagavari.airmessage.helper.StringHelper;
 
@@ -25,6 +26,13 @@ public class StringTest {
 		assertThat(StringHelper.defaultEmptyString("hi", "fallback")).isNotEqualTo("fallback");
 	}
 	
+	@Test
+	public void testSearchMatchQuery() {
+		assertThat(MessageSearchHelper.buildMatchQuery("")).isNull();
+		assertThat(MessageSearchHelper.buildMatchQuery(" ?! ")).isNull();
+		assertThat(MessageSearchHelper.buildMatchQuery("\"\"")).isNull();
+	}
+	
 	@Test
 	public void testEmojiCheck() {
 		assertThat(StringHelper.stringContainsOnlyEmoji("❤❤️️")).isTrue();
@@ -0,0 +1,155 @@
+package me.tagavari.airmessage.connection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ConnectionBookkeeperTest {
+	private static final int packetCount = 10_000;
+	private static final long packetIntervalMillis = 5;
+	
+	@Test
+	public void testLoad() {
+		TestStore store = new TestStore(100, 200);
+		ConnectionBookkeeper bookkeeper = new ConnectionBookkeeper(store, new TestTimer());
+		
+		//Values should be read from the store until they are changed
+		assertThat(bookkeeper.getLastConnectionTime()).isEqualTo(100L);
+		assertThat(bookkeeper.getLastServerMessageID()).isEqualTo(200L);
+		
+		//Changed values should be served from memory before they are written
+		bookkeeper.setLastConnectionTime(150);
+		bookkeeper.removeLastServerMessageID();
+		assertThat(bookkeeper.getLastConnectionTime()).isEqualTo(150L);
+		assertThat(bookkeeper.getLastServerMessageID()).isEqualTo(-1L);
+		assertThat(store.writeCount).isEqualTo(0);
+	}
+	
+	@Test
+	public void testFlush() {
+		TestStore store = new TestStore(-1, -1);
+		TestTimer timer = new TestTimer();
+		ConnectionBookkeeper bookkeeper = new ConnectionBookkeeper(store, timer);
+		
+		//Flushing without any changes shouldn't write anything
+		bookkeeper.flush();
+		assertThat(store.writeCount).isEqualTo(0);
+		
+		//Changes should be written together, and cancel the scheduled flush
+		bookkeeper.setLastConnectionTime(100);
+		bookkeeper.setLastServerMessageID(200);
+		assertThat(timer.taskList).hasSize(1);
+		bookkeeper.flush();
+		assertThat(timer.taskList).isEmpty();
+		assertThat(store.writeCount).isEqualTo(1);
+		assertThat(store.lastConnectionTime).isEqualTo(100L);
+		assertThat(store.lastServerMessageID).isEqualTo(200L);
+		
+		//Only changed values should be written
+		bookkeeper.setLastConnectionTime(300);
+		bookkeeper.flush();
+		assertThat(store.writeCount).isEqualTo(2);
+		assertThat(store.lastSavedServerMessageID).isNull();
+	}
+	
+	/**
+	 * Receives packets at a steady rate, and counts how many times the connection details are written to disk
+	 */
+	@Test
+	public void testWritesPerPackets() {
+		TestStore store = new TestStore(-1, -1);
+		TestTimer timer = new TestTimer();
+		ConnectionBookkeeper bookkeeper = new ConnectionBookkeeper(store, timer);
+		
+		long time = 0;
+		for(int i = 0; i < packetCount; i++) {
+			time += packetIntervalMillis;
+			timer.advanceTo(time);
+			
+			bookkeeper.setLastConnectionTime(time);
+			if(i % 10 == 0) bookkeeper.setLastServerMessageID(i);
+		}
+		
+		//Disconnecting
+		bookkeeper.flush();
+		
+		//There should be one write per flush interval, plus the write when disconnecting
+		long expectedWrites = packetCount * packetIntervalMillis / ConnectionBookkeeper.flushDelayMillis + 1;
+		assertThat((long) store.writeCount).isAtMost(expectedWrites);
+		assertThat(store.lastConnectionTime).isEqualTo(time);
+		assertThat(store.lastServerMessageID).isEqualTo(packetCount - 10L);
+	}
+	
+	/**
+	 * A store that keeps values in memory, and counts the number of writes
+	 */
+	private static class TestStore implements ConnectionBookkeeper.Store {
+		long lastConnectionTime;
+		long lastServerMessageID;
+		Long lastSavedServerMessageID;
+		int writeCount = 0;
+		
+		TestStore(long lastConnectionTime, long lastServerMessageID) {
+			this.lastConnectionTime = lastConnectionTime;
+			this.lastServerMessageID = lastServerMessageID;
+		}
+		
+		@Override
+		public long loadLastConnectionTime() {
+			return lastConnectionTime;
+		}
+		
+		@Override
+		public long loadLastServerMessageID() {
+			return lastServerMessageID;
+		}
+		
+		@Override
+		public void save(Long lastConnectionTime, Long lastServerMessageID) {
+			if(lastConnectionTime != null) this.lastConnectionTime = lastConnectionTime;
+			if(lastServerMessageID != null) this.lastServerMessageID = lastServerMessageID;
+			lastSavedServerMessageID = lastServerMessageID;
+			writeCount++;
+		}
+	}
+	
+	/**
+	 * A timer that runs tasks as simulated time advances
+	 */
+	private static class TestTimer implements ConnectionBookkeeper.FlushTimer {
+		final List<Task> taskList = new ArrayList<>();
+		long currentTime = 0;
+		
+		@Override
+		public void schedule(Runnable runnable, long delayMillis) {
+			taskList.add(new Task(runnable, currentTime + delayMillis));
+		}
+		
+		@Override
+		public void cancel(Runnable runnable) {
+			taskList.removeIf(task -> task.runnable == runnable);
+		}
+		
+		void advanceTo(long time) {
+			currentTime = time;
+			for(Task task : new ArrayList<>(taskList)) {
+				if(task.runTime > time) continue;
+				taskList.remove(task);
+				task.runnable.run();
+			}
+		}
+		
+		private static class Task {
+			final Runnable runnable;
+			final long runTime;
+			
+			Task(Runnable runnable, long runTime) {
+				this.runnable = runnable;
+				this.runTime = runTime;
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,99 @@
+package me.tagavari.airmessage.connection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class NetworkEventDispatcherTest {
+	private static final int eventCount = 10_000;
+	
+	/**
+	 * Dispatches a mix of main and data events, and checks that they are handled in order on the right threads
+	 */
+	@Test
+	public void testEventOrder() throws InterruptedException {
+		//Standing in for the main thread
+		AtomicReference<Thread> mainThread = new AtomicReference<>();
+		ExecutorService mainExecutor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable);
+			mainThread.set(thread);
+			return thread;
+		});
+		
+		try {
+			NetworkEventDispatcher dispatcher = new NetworkEventDispatcher(mainExecutor, null);
+			List<Integer> handledList = Collections.synchronizedList(new ArrayList<>(eventCount));
+			List<String> errorList = Collections.synchronizedList(new ArrayList<>());
+			CountDownLatch latch = new CountDownLatch(eventCount);
+			
+			for(int i = 0; i < eventCount; i++) {
+				int index = i;
+				boolean isMainEvent = i % 10 == 0;
+				if(isMainEvent) {
+					dispatcher.dispatchMain(listener -> {
+						if(Thread.currentThread() != mainThread.get()) errorList.add("Main event " + index + " ran off the main thread");
+						handledList.add(index);
+						latch.countDown();
+					});
+				} else {
+					dispatcher.dispatchData(listener -> {
+						if(Thread.currentThread() == mainThread.get()) errorList.add("Data event " + index + " ran on the main thread");
+						handledList.add(index);
+						latch.countDown();
+					});
+				}
+			}
+			
+			assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+			assertThat(errorList).isEmpty();
+			for(int i = 0; i < eventCount; i++) {
+				assertThat(handledList.get(i)).isEqualTo(i);
+			}
+		} finally {
+			mainExecutor.shutdown();
+		}
+	}
+	
+	/**
+	 * Checks that data events see changes made by an earlier main event
+	 */
+	@Test
+	public void testMainEventVisibility() throws InterruptedException {
+		ExecutorService mainExecutor = Executors.newSingleThreadExecutor();
+		
+		try {
+			NetworkEventDispatcher dispatcher = new NetworkEventDispatcher(mainExecutor, null);
+			int[] state = {0};
+			AtomicReference<Integer> observedState = new AtomicReference<>();
+			CountDownLatch latch = new CountDownLatch(1);
+			
+			dispatcher.dispatchMain(listener -> {
+				//Making the main event slow, so a data event that didn't wait for it would run first
+				try {
+					Thread.sleep(100);
+				} catch(InterruptedException exception) {
+					Thread.currentThread().interrupt();
+				}
+				state[0] = 1;
+			});
+			dispatcher.dispatchData(listener -> {
+				observedState.set(state[0]);
+				latch.countDown();
+			});
+			
+			assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+			assertThat(observedState.get()).isEqualTo(1);
+		} finally {
+			mainExecutor.shutdown();
+		}
+	}
+}
\ No newline at end of file
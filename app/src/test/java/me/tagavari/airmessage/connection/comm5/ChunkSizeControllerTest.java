@@ -0,0 +1,53 @@
+package me.tagavari.airmessage.connection.comm5;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ChunkSizeControllerTest {
+	@Test
+	public void testDefaultChunkSize() {
+		assertThat(new ChunkSizeController().getChunkSize()).isEqualTo(ChunkSizeController.defaultChunkSize);
+	}
+	
+	@Test
+	public void testFastConnection() {
+		//1 GB/s
+		ChunkSizeController controller = new ChunkSizeController();
+		for(int i = 0; i < 10; i++) controller.recordChunk(1024 * 1024 * 1024, TimeUnit.SECONDS.toNanos(1));
+		assertThat(controller.getChunkSize()).isEqualTo(ChunkSizeController.maxChunkSize);
+	}
+	
+	@Test
+	public void testSlowConnection() {
+		//10 kB/s
+		ChunkSizeController controller = new ChunkSizeController();
+		for(int i = 0; i < 10; i++) controller.recordChunk(10 * 1024, TimeUnit.SECONDS.toNanos(1));
+		assertThat(controller.getChunkSize()).isEqualTo(ChunkSizeController.minChunkSize);
+	}
+	
+	@Test
+	public void testAdjustsToThroughput() {
+		//4 MB/s, which should give chunks of about 2 MB
+		ChunkSizeController controller = new ChunkSizeController();
+		for(int i = 0; i < 20; i++) controller.recordChunk(4 * 1024 * 1024, TimeUnit.SECONDS.toNanos(1));
+		assertThat(controller.getChunkSize()).isAtMost(2 * 1024 * 1024);
+		assertThat(controller.getChunkSize()).isAtLeast(2 * 1024 * 1024 - 64 * 1024);
+		
+		//Dropping to 1 MB/s
+		for(int i = 0; i < 20; i++) controller.recordChunk(1024 * 1024, TimeUnit.SECONDS.toNanos(1));
+		assertThat(controller.getChunkSize()).isAtMost(1024 * 1024);
+		assertThat(controller.getChunkSize()).isAtLeast(512 * 1024);
+	}
+	
+	@Test
+	public void testIgnoresInvalidSamples() {
+		ChunkSizeController controller = new ChunkSizeController();
+		controller.recordChunk(1024, 0);
+		controller.recordChunk(0, TimeUnit.SECONDS.toNanos(1));
+		assertThat(controller.getBytesPerSecond()).isEqualTo(-1.0);
+		assertThat(controller.getChunkSize()).isEqualTo(ChunkSizeController.defaultChunkSize);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,169 @@
+package me.tagavari.airmessage.connection.comm5;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import me.tagavari.airmessage.connection.encryption.EncryptionAES;
+import me.tagavari.airmessage.connection.encryption.EncryptionManager;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class DecryptPipelineTest {
+	private static final String password = "password";
+	
+	/**
+	 * Submits a mix of encrypted and unencrypted packets, and checks that they are decrypted and handled in order
+	 */
+	@Test
+	public void testDecryptPipelineOrder() throws Exception {
+		final int packetCount = 1000;
+		EncryptionManager encryptionManager = new EncryptionAES(password);
+		
+		List<EncryptedPacket> receivedPackets = Collections.synchronizedList(new ArrayList<>());
+		List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch latch = new CountDownLatch(packetCount);
+		
+		try(DecryptPipeline pipeline = new DecryptPipeline(encryptionManager, 4, new TestListener(packet -> {
+			receivedPackets.add(packet);
+			latch.countDown();
+		}, errors))) {
+			for(int i = 0; i < packetCount; i++) {
+				boolean isEncrypted = i % 3 != 0;
+				ByteBuffer data = ByteBuffer.allocate(Integer.BYTES).putInt(i);
+				data.flip();
+				if(isEncrypted) data = ByteBuffer.wrap(encryptionManager.encrypt(data.array()));
+				
+				pipeline.submit(data, isEncrypted, true);
+			}
+			
+			assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+		}
+		
+		assertThat(errors).isEmpty();
+		assertThat(receivedPackets).hasSize(packetCount);
+		for(int i = 0; i < packetCount; i++) {
+			assertThat(receivedPackets.get(i).getDataBuffer().getInt()).isEqualTo(i);
+		}
+	}
+	
+	/**
+	 * Checks that the pipeline fills up while its listener is busy, and that a blocked submission goes through once there is space again
+	 */
+	@Test
+	public void testDecryptPipelineBackpressure() throws Exception {
+		final int maxInFlight = 4;
+		CountDownLatch handlerLatch = new CountDownLatch(1);
+		CountDownLatch receivedLatch = new CountDownLatch(maxInFlight + 1);
+		List<EncryptedPacket> receivedPackets = Collections.synchronizedList(new ArrayList<>());
+		
+		try(DecryptPipeline pipeline = new DecryptPipeline(null, maxInFlight, new TestListener(packet -> {
+			//Holding up the worker thread
+			try {
+				handlerLatch.await();
+			} catch(InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+			
+			receivedPackets.add(packet);
+			receivedLatch.countDown();
+		}, new ArrayList<>()))) {
+			//Filling up the pipeline
+			for(int i = 0; i < maxInFlight; i++) {
+				pipeline.submit(createPacket(i), false, true);
+			}
+			assertThat(pipeline.getAvailableSlots()).isEqualTo(0);
+			
+			//Submitting another packet, which has to wait for space
+			Thread submitThread = new Thread(() -> {
+				try {
+					pipeline.submit(createPacket(maxInFlight), false, true);
+				} catch(InterruptedException exception) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			submitThread.start();
+			
+			//Letting the listener handle the packets
+			handlerLatch.countDown();
+			assertThat(receivedLatch.await(10, TimeUnit.SECONDS)).isTrue();
+			submitThread.join(10 * 1000);
+			assertThat(submitThread.isAlive()).isFalse();
+		}
+		
+		assertThat(receivedPackets).hasSize(maxInFlight + 1);
+		for(int i = 0; i < receivedPackets.size(); i++) {
+			assertThat(receivedPackets.get(i).getDataBuffer().getInt()).isEqualTo(i);
+		}
+	}
+	
+	/**
+	 * Checks that closing the pipeline hands packets that were already submitted to the listener, and ignores packets submitted afterwards
+	 */
+	@Test
+	public void testDecryptPipelineCloseDrain() throws Exception {
+		final int packetCount = 4;
+		CountDownLatch handlerLatch = new CountDownLatch(1);
+		AtomicInteger receivedCount = new AtomicInteger();
+		
+		DecryptPipeline pipeline = new DecryptPipeline(null, packetCount, new TestListener(packet -> {
+			//Holding up the worker thread
+			try {
+				handlerLatch.await();
+			} catch(InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+			
+			receivedCount.incrementAndGet();
+		}, new ArrayList<>()));
+		
+		for(int i = 0; i < packetCount; i++) {
+			pipeline.submit(createPacket(i), false, true);
+		}
+		
+		//Closing the pipeline while the listener is still busy
+		Thread closeThread = new Thread(pipeline::close);
+		closeThread.start();
+		handlerLatch.countDown();
+		closeThread.join(10 * 1000);
+		assertThat(closeThread.isAlive()).isFalse();
+		assertThat(receivedCount.get()).isEqualTo(packetCount);
+		
+		//Packets submitted after closing should be ignored
+		pipeline.submit(createPacket(packetCount), false, true);
+		assertThat(receivedCount.get()).isEqualTo(packetCount);
+	}
+	
+	private static ByteBuffer createPacket(int value) {
+		ByteBuffer data = ByteBuffer.allocate(Integer.BYTES).putInt(value);
+		data.flip();
+		return data;
+	}
+	
+	private static class TestListener implements DecryptPipeline.Listener {
+		private final Consumer<EncryptedPacket> packetConsumer;
+		private final List<Exception> errors;
+		
+		TestListener(Consumer<EncryptedPacket> packetConsumer, List<Exception> errors) {
+			this.packetConsumer = packetConsumer;
+			this.errors = errors;
+		}
+		
+		@Override
+		public void onPacket(EncryptedPacket packet) {
+			packetConsumer.accept(packet);
+		}
+		
+		@Override
+		public void onError(Exception exception) {
+			errors.add(exception);
+		}
+	}
+}
\ No newline at end of file
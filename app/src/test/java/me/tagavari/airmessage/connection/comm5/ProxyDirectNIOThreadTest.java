@@ -0,0 +1,187 @@
+package me.tagavari.airmessage.connection.comm5;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import me.tagavari.airmessage.connection.encryption.EncryptionAES;
+import me.tagavari.airmessage.connection.encryption.EncryptionManager;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Runs the non-blocking direct connection against a server on a loopback socket
+ */
+public class ProxyDirectNIOThreadTest {
+	private static final String password = "password";
+	
+	private ServerSocket serverSocket;
+	private Socket serverConnection;
+	private ProxyDirectNIOThread thread;
+	private final BlockingQueue<EncryptedPacket> receivedPackets = new LinkedBlockingQueue<>();
+	private final CountDownLatch openLatch = new CountDownLatch(1);
+	private final CountDownLatch closeLatch = new CountDownLatch(1);
+	
+	@Before
+	public void setUp() throws Exception {
+		serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		
+		thread = new ProxyDirectNIOThread(new ProxyDirectNIOThread.Listener() {
+			@Override
+			public void onOpen() {
+				openLatch.countDown();
+			}
+			
+			@Override
+			public void onClose(int reason) {
+				closeLatch.countDown();
+			}
+			
+			@Override
+			public void onMessage(ByteBuffer data, boolean wasEncrypted) {
+				receivedPackets.add(new EncryptedPacket(data, wasEncrypted));
+			}
+		}, serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort(), null, -1, new EncryptionAES(password));
+		thread.start();
+		
+		serverConnection = serverSocket.accept();
+		assertThat(openLatch.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		thread.interrupt();
+		thread.join(5000);
+		serverConnection.close();
+		serverSocket.close();
+	}
+	
+	@Test
+	public void testReadFraming() throws Exception {
+		//Writing several packets at once, so that they arrive in a single read
+		List<byte[]> packets = new ArrayList<>();
+		for(int i = 0; i < 10; i++) packets.add(createData(i * 7, i));
+		
+		DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(serverConnection.getOutputStream()));
+		for(byte[] packet : packets) writeFrame(outputStream, packet, false);
+		
+		//Writing an encrypted packet
+		byte[] secret = createData(100, 42);
+		ByteBuffer encrypted = new EncryptedPacket(secret, true).getEncryptedDataBuffer(new EncryptionAES(password));
+		byte[] encryptedArray = new byte[encrypted.remaining()];
+		encrypted.get(encryptedArray);
+		writeFrame(outputStream, encryptedArray, true);
+		outputStream.flush();
+		
+		//Making sure every packet was received whole and in order
+		for(byte[] packet : packets) {
+			EncryptedPacket received = receivedPackets.poll(5, TimeUnit.SECONDS);
+			assertThat(received.getData()).isEqualTo(packet);
+			assertThat(received.getEncrypt()).isFalse();
+		}
+		EncryptedPacket received = receivedPackets.poll(5, TimeUnit.SECONDS);
+		assertThat(received.getData()).isEqualTo(secret);
+		assertThat(received.getEncrypt()).isTrue();
+	}
+	
+	@Test
+	public void testPartialReads() throws Exception {
+		//Writing a packet one byte at a time, so that the header and content are split across reads
+		byte[] smallPacket = createData(32, 1);
+		DataOutputStream outputStream = new DataOutputStream(serverConnection.getOutputStream());
+		ByteBuffer frame = ByteBuffer.allocate(5 + smallPacket.length);
+		frame.putInt(smallPacket.length).put((byte) 0).put(smallPacket);
+		for(byte value : frame.array()) {
+			outputStream.write(value);
+			outputStream.flush();
+			Thread.sleep(1);
+		}
+		assertThat(receivedPackets.poll(5, TimeUnit.SECONDS).getData()).isEqualTo(smallPacket);
+		
+		//Writing a packet that is larger than the read buffer, followed directly by another packet
+		byte[] largePacket = createData(1024 * 1024, 2);
+		byte[] trailingPacket = createData(10, 3);
+		writeFrame(outputStream, largePacket, false);
+		writeFrame(outputStream, trailingPacket, false);
+		outputStream.flush();
+		assertThat(receivedPackets.poll(5, TimeUnit.SECONDS).getData()).isEqualTo(largePacket);
+		assertThat(receivedPackets.poll(5, TimeUnit.SECONDS).getData()).isEqualTo(trailingPacket);
+	}
+	
+	@Test
+	public void testGatheringWrites() throws Exception {
+		EncryptionManager encryptionManager = new EncryptionAES(password);
+		
+		//Queuing packets, including one that is too large to fit in the socket's send buffer
+		List<byte[]> packets = new ArrayList<>();
+		packets.add(createData(16, 1));
+		packets.add(createData(8 * 1024 * 1024, 2));
+		packets.add(createData(0, 3));
+		packets.add(createData(64, 4));
+		
+		CountDownLatch sentLatch = new CountDownLatch(packets.size());
+		for(int i = 0; i < packets.size(); i++) {
+			EncryptedPacket packet = new EncryptedPacket(packets.get(i), i == 3);
+			packet.setSentListener(sentLatch::countDown);
+			thread.queuePacket(packet);
+		}
+		
+		//The large packet shouldn't be reported as sent before the server has read it
+		assertThat(sentLatch.await(500, TimeUnit.MILLISECONDS)).isFalse();
+		
+		//Reading each packet's header and content
+		DataInputStream inputStream = new DataInputStream(serverConnection.getInputStream());
+		for(int i = 0; i < packets.size(); i++) {
+			int length = inputStream.readInt();
+			boolean isEncrypted = inputStream.readBoolean();
+			byte[] data = new byte[length];
+			inputStream.readFully(data);
+			
+			assertThat(isEncrypted).isEqualTo(i == 3);
+			if(isEncrypted) data = toArray(encryptionManager.decrypt(ByteBuffer.wrap(data)));
+			assertThat(data).isEqualTo(packets.get(i));
+		}
+		
+		assertThat(sentLatch.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+	
+	@Test
+	public void testServerClose() throws Exception {
+		//Closing the connection from the server should close the proxy
+		serverConnection.close();
+		assertThat(closeLatch.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+	
+	private static void writeFrame(DataOutputStream outputStream, byte[] data, boolean isEncrypted) throws IOException {
+		outputStream.writeInt(data.length);
+		outputStream.writeBoolean(isEncrypted);
+		outputStream.write(data);
+	}
+	
+	private static byte[] createData(int length, int seed) {
+		byte[] data = new byte[length];
+		for(int i = 0; i < length; i++) data[i] = (byte) (seed * 31 + i);
+		return data;
+	}
+	
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] array = new byte[buffer.remaining()];
+		buffer.get(array);
+		return array;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,140 @@
+package me.tagavari.airmessage.connection.comm5;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ProxyDirectTCPWriterTest {
+	@Test
+	public void testFraming() throws Exception {
+		final int packetCount = 10;
+		ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+		
+		List<EncryptedPacket> packets = new ArrayList<>();
+		for(int i = 0; i < packetCount; i++) {
+			byte[] data = new byte[i * 3];
+			for(int j = 0; j < data.length; j++) data[j] = (byte) (i + j);
+			packets.add(new EncryptedPacket(data, false));
+		}
+		writeAll(new DataOutputStream(byteStream), packets, 64, packet -> {});
+		
+		//Making sure each packet was written with its length and encryption flag
+		DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(byteStream.toByteArray()));
+		for(EncryptedPacket packet : packets) {
+			int length = inputStream.readInt();
+			assertThat(length).isEqualTo(packet.getData().length);
+			assertThat(inputStream.readBoolean()).isFalse();
+			
+			byte[] data = new byte[length];
+			inputStream.readFully(data);
+			assertThat(data).isEqualTo(packet.getData());
+		}
+		assertThat(inputStream.available()).isEqualTo(0);
+	}
+	
+	@Test
+	public void testBatching() throws Exception {
+		//Recording how many times the stream was flushed when each packet is notified
+		CountingOutputStream countingStream = new CountingOutputStream();
+		List<Integer> notifyFlushCounts = new ArrayList<>();
+		
+		List<EncryptedPacket> packets = new ArrayList<>();
+		for(int i = 0; i < 10; i++) {
+			packets.add(new EncryptedPacket(new byte[]{(byte) i}, false));
+		}
+		
+		//Packets that are all queued up front should be sent in full batches
+		ProxyDirectTCPWriter writer = writeAll(new DataOutputStream(countingStream), packets, 4, packet -> notifyFlushCounts.add(countingStream.flushCount));
+		assertThat(writer.getPacketCount()).isEqualTo(10L);
+		assertThat(writer.getFlushCount()).isEqualTo(3L);
+		assertThat(writer.getMaxPacketsPerFlush()).isEqualTo(4);
+		assertThat(writer.getAveragePacketsPerFlush()).isWithin(0.01F).of(10F / 3);
+		assertThat(countingStream.flushCount).isEqualTo(3);
+		
+		//Packets should only be notified once the batch they're in is flushed
+		assertThat(notifyFlushCounts).containsExactly(1, 1, 1, 1, 2, 2, 2, 2, 3, 3).inOrder();
+	}
+	
+	@Test
+	public void testFailure() throws Exception {
+		//Failing every flush
+		FailingOutputStream failingStream = new FailingOutputStream();
+		CountDownLatch failedLatch = new CountDownLatch(2);
+		CountDownLatch errorLatch = new CountDownLatch(1);
+		
+		ProxyDirectTCPWriter writer = new ProxyDirectTCPWriter(code -> errorLatch.countDown(), null, new DataOutputStream(failingStream), 4, 0);
+		for(int i = 0; i < 2; i++) {
+			EncryptedPacket packet = new EncryptedPacket(new byte[]{(byte) i}, false);
+			packet.setSentListener(() -> {
+				throw new AssertionError("Packet was notified as sent");
+			});
+			packet.setFailedListener(failedLatch::countDown);
+			writer.queuePacket(packet);
+		}
+		
+		writer.start();
+		try {
+			//Packets in a batch that couldn't be flushed should be notified as failed
+			assertThat(failedLatch.await(5, TimeUnit.SECONDS)).isTrue();
+			assertThat(errorLatch.await(5, TimeUnit.SECONDS)).isTrue();
+			assertThat(writer.getFlushCount()).isEqualTo(0L);
+		} finally {
+			writer.interrupt();
+			writer.join();
+		}
+	}
+	
+	/**
+	 * Queues all packets before starting a writer, and waits for it to send them
+	 */
+	private static ProxyDirectTCPWriter writeAll(DataOutputStream outputStream, List<EncryptedPacket> packets, int maxBatchSize, Consumer<EncryptedPacket> sentListener) throws InterruptedException {
+		CountDownLatch sentLatch = new CountDownLatch(packets.size());
+		ProxyDirectTCPWriter writer = new ProxyDirectTCPWriter(code -> {
+			throw new AssertionError("Writer failed with error " + code);
+		}, null, outputStream, maxBatchSize, 0);
+		
+		for(EncryptedPacket packet : packets) {
+			packet.setSentListener(() -> {
+				sentListener.accept(packet);
+				sentLatch.countDown();
+			});
+			writer.queuePacket(packet);
+		}
+		
+		writer.start();
+		try {
+			assertThat(sentLatch.await(5, TimeUnit.SECONDS)).isTrue();
+		} finally {
+			writer.interrupt();
+			writer.join();
+		}
+		return writer;
+	}
+	
+	private static class CountingOutputStream extends ByteArrayOutputStream {
+		volatile int flushCount = 0;
+		
+		@Override
+		public void flush() {
+			flushCount++;
+		}
+	}
+	
+	private static class FailingOutputStream extends ByteArrayOutputStream {
+		@Override
+		public void flush() throws IOException {
+			throw new IOException("Flush failed");
+		}
+	}
+}
\ No newline at end of file
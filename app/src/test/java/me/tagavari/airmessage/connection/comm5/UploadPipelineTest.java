@@ -0,0 +1,98 @@
+package me.tagavari.airmessage.connection.comm5;
+
+import android.content.Context;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import me.tagavari.airmessage.connection.DataProxy;
+import me.tagavari.airmessage.connection.encryption.EncryptionAES;
+import me.tagavari.airmessage.connection.encryption.EncryptionManager;
+import me.tagavari.airmessage.connection.exception.PacketSendException;
+import me.tagavari.airmessage.util.ConnectionParams;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class UploadPipelineTest {
+	private static final String password = "password";
+	
+	@Test
+	public void testUploadPipelineOrder() throws Exception {
+		final int packetCount = 100;
+		EncryptionManager encryptionManager = new EncryptionAES(password);
+		
+		List<EncryptedPacket> sentPackets = new ArrayList<>();
+		DataProxy<EncryptedPacket> dataProxy = new TestDataProxy(packet -> {
+			sentPackets.add(packet);
+			packet.notifySent();
+		});
+		
+		try(UploadPipeline pipeline = new UploadPipeline(dataProxy, encryptionManager, 4, 8, null)) {
+			for(int i = 0; i < packetCount; i++) {
+				try(AirPacker packer = AirPacker.get()) {
+					packer.packInt(i);
+					pipeline.submit(packer.toPacket(true));
+				}
+			}
+			pipeline.finish();
+		}
+		
+		//Making sure packets were sent in order, and were encrypted ahead of time
+		assertThat(sentPackets).hasSize(packetCount);
+		for(int i = 0; i < packetCount; i++) {
+			ByteBuffer encryptedData = sentPackets.get(i).getEncryptedDataBuffer(null);
+			ByteBuffer data = new EncryptionAES(password).decrypt(encryptedData);
+			assertThat(new AirUnpacker(data).unpackInt()).isEqualTo(i);
+		}
+	}
+	
+	@Test(expected = PacketSendException.class)
+	public void testUploadPipelineWriteFailure() throws Exception {
+		//Failing to write every packet
+		DataProxy<EncryptedPacket> dataProxy = new TestDataProxy(EncryptedPacket::notifyFailed);
+		
+		try(UploadPipeline pipeline = new UploadPipeline(dataProxy, null, 1, 2, null)) {
+			for(int i = 0; i < 10; i++) {
+				try(AirPacker packer = AirPacker.get()) {
+					packer.packInt(i);
+					pipeline.submit(packer.toPacket(false));
+				}
+			}
+			pipeline.finish();
+		}
+	}
+	
+	/**
+	 * A data proxy that passes packets to a consumer
+	 */
+	private static class TestDataProxy extends DataProxy<EncryptedPacket> {
+		private final Consumer<EncryptedPacket> consumer;
+		
+		TestDataProxy(Consumer<EncryptedPacket> consumer) {
+			this.consumer = consumer;
+		}
+		
+		@Override
+		public void start(Context context, ConnectionParams override) {
+		}
+		
+		@Override
+		public void stop(int code) {
+		}
+		
+		@Override
+		public boolean send(EncryptedPacket packet) {
+			consumer.accept(packet);
+			return true;
+		}
+		
+		@Override
+		public boolean isUsingFallback() {
+			return false;
+		}
+	}
+}
\ No newline at end of file
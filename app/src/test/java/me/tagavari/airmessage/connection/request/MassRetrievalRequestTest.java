@@ -0,0 +1,91 @@
+package me.tagavari.airmessage.connection.request;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import kotlin.Pair;
+import me.tagavari.airmessage.common.Blocks;
+import me.tagavari.airmessage.enums.ConversationState;
+import me.tagavari.airmessage.enums.MessageSendErrorCode;
+import me.tagavari.airmessage.enums.MessageState;
+import me.tagavari.airmessage.enums.ServiceHandler;
+import me.tagavari.airmessage.messaging.ConversationInfo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MassRetrievalRequestTest {
+	@Test
+	public void testMatchConversationItems() {
+		List<ConversationInfo> conversationList = createConversations(3);
+		Map<String, ConversationInfo> conversationMap = MassRetrievalRequest.indexConversations(conversationList);
+		
+		List<Blocks.ConversationItem> itemList = new ArrayList<>();
+		itemList.add(createMessage(1, conversationList.get(2).getGUID()));
+		itemList.add(createMessage(2, conversationList.get(0).getGUID()));
+		itemList.add(createMessage(3, conversationList.get(2).getGUID()));
+		
+		//Items should be paired with their conversation's local ID, in their original order
+		List<Pair<Long, Blocks.ConversationItem>> matchList = MassRetrievalRequest.matchConversationItems(conversationMap, itemList);
+		assertThat(matchList).hasSize(3);
+		for(int i = 0; i < itemList.size(); i++) {
+			assertThat(matchList.get(i).getSecond()).isSameInstanceAs(itemList.get(i));
+		}
+		assertThat(matchList.get(0).getFirst()).isEqualTo(conversationList.get(2).getLocalID());
+		assertThat(matchList.get(1).getFirst()).isEqualTo(conversationList.get(0).getLocalID());
+		assertThat(matchList.get(2).getFirst()).isEqualTo(conversationList.get(2).getLocalID());
+	}
+	
+	@Test
+	public void testIndexKeepsFirstDuplicate() {
+		List<ConversationInfo> conversationList = createConversations(2);
+		conversationList.get(1).setGUID(conversationList.get(0).getGUID());
+		
+		Map<String, ConversationInfo> conversationMap = MassRetrievalRequest.indexConversations(conversationList);
+		assertThat(conversationMap).hasSize(1);
+		assertThat(conversationMap.get(conversationList.get(0).getGUID())).isSameInstanceAs(conversationList.get(0));
+	}
+	
+	/**
+	 * Checks the GUID index against scanning the conversation list for every item
+	 */
+	@Test
+	public void testMatchConversationItemsScan() {
+		final int conversationCount = 20;
+		final int messageCount = 200;
+		List<ConversationInfo> conversationList = createConversations(conversationCount);
+		
+		Random random = new Random(0);
+		List<Blocks.ConversationItem> itemList = new ArrayList<>(messageCount);
+		for(int i = 0; i < messageCount; i++) {
+			itemList.add(createMessage(i, conversationList.get(random.nextInt(conversationCount)).getGUID()));
+		}
+		
+		List<Pair<Long, Blocks.ConversationItem>> indexedList = MassRetrievalRequest.matchConversationItems(MassRetrievalRequest.indexConversations(conversationList), itemList);
+		
+		assertThat(indexedList).hasSize(messageCount);
+		for(int i = 0; i < messageCount; i++) {
+			String chatGUID = itemList.get(i).chatGuid;
+			long expectedID = conversationList.stream().filter(conversation -> chatGUID.equals(conversation.getGUID())).findAny().get().getLocalID();
+			assertThat(indexedList.get(i).getFirst()).isEqualTo(expectedID);
+		}
+	}
+	
+	private static List<ConversationInfo> createConversations(int count) {
+		List<ConversationInfo> conversationList = new ArrayList<>(count);
+		for(int i = 0; i < count; i++) {
+			conversationList.add(new ConversationInfo(i + 1, "iMessage;+;chat" + UUID.randomUUID(), -1, ConversationState.ready, ServiceHandler.appleBridge, null, new ArrayList<>(), null));
+		}
+		return conversationList;
+	}
+	
+	private static Blocks.MessageInfo createMessage(long serverID, String chatGUID) {
+		return new Blocks.MessageInfo(serverID, UUID.randomUUID().toString(), chatGUID, serverID * 1000, "Message " + serverID, null, null,
+				Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), null, MessageState.delivered, MessageSendErrorCode.none, 0);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,120 @@
+package me.tagavari.airmessage.connection.request;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.InflaterOutputStream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ResumableFileOutputStreamTest {
+	private static final int fileLength = 1024 * 1024; //1 MB
+	
+	@Test
+	public void testResumeMatchingFile() throws Exception {
+		byte[] data = createData();
+		File file = createPartialFile(data, fileLength / 2);
+		
+		//Writing the whole file again
+		MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+		try(ResumableFileOutputStream outputStream = new ResumableFileOutputStream(file, fileLength / 2, messageDigest)) {
+			writeInChunks(outputStream, data);
+			assertThat(outputStream.getVerifiedLength()).isEqualTo((long) fileLength / 2);
+			assertThat(outputStream.getConfirmedLength()).isEqualTo((long) fileLength);
+		}
+		
+		assertThat(Arrays.equals(Files.readAllBytes(file.toPath()), data)).isTrue();
+		assertThat(MessageDigest.isEqual(messageDigest.digest(), MessageDigest.getInstance("MD5").digest(data))).isTrue();
+	}
+	
+	@Test
+	public void testResumeCorruptedFile() throws Exception {
+		byte[] data = createData();
+		
+		//Corrupting a byte in the partial file
+		byte[] corruptedData = data.clone();
+		corruptedData[1000] ^= 1;
+		File file = createPartialFile(corruptedData, fileLength / 2);
+		
+		try(ResumableFileOutputStream outputStream = new ResumableFileOutputStream(file, fileLength / 2, null)) {
+			writeInChunks(outputStream, data);
+			assertThat(outputStream.getVerifiedLength()).isEqualTo(1000L);
+		}
+		
+		assertThat(Arrays.equals(Files.readAllBytes(file.toPath()), data)).isTrue();
+	}
+	
+	@Test
+	public void testResumeUnconfirmedData() throws Exception {
+		byte[] data = createData();
+		
+		//Only the first quarter of the partial file was confirmed, the rest is garbage
+		byte[] partialData = data.clone();
+		Arrays.fill(partialData, fileLength / 4, fileLength / 2, (byte) 0);
+		File file = createPartialFile(partialData, fileLength / 2);
+		
+		try(ResumableFileOutputStream outputStream = new ResumableFileOutputStream(file, fileLength / 4, null)) {
+			writeInChunks(outputStream, data);
+			assertThat(outputStream.getVerifiedLength()).isEqualTo((long) fileLength / 4);
+		}
+		
+		assertThat(Arrays.equals(Files.readAllBytes(file.toPath()), data)).isTrue();
+	}
+	
+	@Test
+	public void testResumeCompressedDownload() throws Exception {
+		byte[] data = createData();
+		File file = createPartialFile(data, fileLength / 3);
+		
+		//Compressing the data like the server does
+		ByteArrayOutputStream compressedStream = new ByteArrayOutputStream();
+		try(DeflaterInputStream inputStream = new DeflaterInputStream(new ByteArrayInputStream(data))) {
+			byte[] buffer = new byte[8192];
+			int length;
+			while((length = inputStream.read(buffer)) != -1) compressedStream.write(buffer, 0, length);
+		}
+		
+		//Downloading the compressed data again
+		ResumableFileOutputStream fileStream = new ResumableFileOutputStream(file, fileLength / 3, null);
+		try(OutputStream outputStream = new InflaterOutputStream(fileStream)) {
+			writeInChunks(outputStream, compressedStream.toByteArray());
+		}
+		
+		assertThat(fileStream.getVerifiedLength()).isEqualTo((long) fileLength / 3);
+		assertThat(Arrays.equals(Files.readAllBytes(file.toPath()), data)).isTrue();
+	}
+	
+	private static byte[] createData() {
+		byte[] data = new byte[fileLength];
+		Random random = new Random(0);
+		random.nextBytes(data);
+		for(int i = 0; i < data.length; i += 2) data[i] = 0;
+		return data;
+	}
+	
+	private static File createPartialFile(byte[] data, int length) throws IOException {
+		File file = File.createTempFile("download", ".bin");
+		file.deleteOnExit();
+		try(FileOutputStream outputStream = new FileOutputStream(file)) {
+			outputStream.write(data, 0, length);
+		}
+		return file;
+	}
+	
+	private static void writeInChunks(OutputStream outputStream, byte[] data) throws IOException {
+		for(int i = 0; i < data.length; i += 10000) {
+			outputStream.write(data, i, Math.min(10000, data.length - i));
+			outputStream.flush();
+		}
+	}
+}
\ No newline at end of file
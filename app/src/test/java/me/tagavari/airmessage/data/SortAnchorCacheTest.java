@@ -0,0 +1,135 @@
+package me.tagavari.airmessage.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class SortAnchorCacheTest {
+	@Test
+	public void testEmptyTable() {
+		SortAnchorCache cache = new SortAnchorCache();
+		assertThat(cache.isLoaded()).isFalse();
+		
+		//New messages in an empty table should start at -1
+		cache.loadEmpty();
+		assertThat(cache.isLoaded()).isTrue();
+		assertThat(cache.getNextSortID()).isEqualTo(-1L);
+		assertThat(cache.getNextSortIDOffset()).isEqualTo(0);
+	}
+	
+	@Test
+	public void testRecord() {
+		SortAnchorCache cache = new SortAnchorCache();
+		cache.load(100, 2);
+		assertThat(cache.getNextSortID()).isEqualTo(100L);
+		assertThat(cache.getNextSortIDOffset()).isEqualTo(3);
+		
+		//Older messages shouldn't move the anchor
+		cache.record(50, 7);
+		cache.record(100, 1);
+		assertThat(cache.getNextSortID()).isEqualTo(100L);
+		assertThat(cache.getNextSortIDOffset()).isEqualTo(3);
+		
+		//Newer messages should
+		cache.record(100, 3);
+		assertThat(cache.getNextSortIDOffset()).isEqualTo(4);
+		cache.record(120, 0);
+		assertThat(cache.getNextSortID()).isEqualTo(120L);
+		assertThat(cache.getNextSortIDOffset()).isEqualTo(1);
+	}
+	
+	@Test
+	public void testInvalidate() {
+		SortAnchorCache cache = new SortAnchorCache();
+		cache.load(100, 0);
+		cache.invalidate();
+		assertThat(cache.isLoaded()).isFalse();
+		
+		//Messages written while the cache isn't loaded are picked up when it's read again
+		cache.record(200, 0);
+		assertThat(cache.isLoaded()).isFalse();
+		cache.load(200, 0);
+		assertThat(cache.getNextSortID()).isEqualTo(200L);
+		
+		//A load that raced with another one shouldn't replace newer values
+		cache.record(300, 0);
+		cache.load(100, 0);
+		assertThat(cache.getNextSortID()).isEqualTo(300L);
+	}
+	
+	/**
+	 * Runs a random sequence of writes against a simulated messages table, and checks that every local message is given the same sort position that querying the table would have given it
+	 */
+	@Test
+	public void testMatchesQuery() {
+		Random random = new Random(0);
+		List<long[]> table = new ArrayList<>();
+		SortAnchorCache cache = new SortAnchorCache();
+		long serverID = 0;
+		
+		for(int i = 0; i < 10_000; i++) {
+			int action = random.nextInt(10);
+			if(action < 4) {
+				//Adding a local message
+				long[] expected = queryNextSortPosition(table);
+				long[] actual = reserveSortPosition(cache, table);
+				assertWithMessage("Local message " + i).that(actual).isEqualTo(expected);
+				table.add(actual);
+			} else if(action < 7) {
+				//Adding a message from the server, which may be older than the latest message
+				serverID += random.nextInt(5);
+				long[] row = {serverID - random.nextInt(3), 0};
+				table.add(row);
+				cache.record(row[0], (int) row[1]);
+			} else if(action < 9) {
+				//Deleting a message
+				if(table.isEmpty()) continue;
+				table.remove(random.nextInt(table.size()));
+				cache.invalidate();
+			} else {
+				//Writing local messages in a transaction that is rolled back
+				int rowCount = table.size();
+				for(int j = 0; j < 3; j++) table.add(reserveSortPosition(cache, table));
+				table.subList(rowCount, table.size()).clear();
+				cache.invalidate();
+			}
+		}
+	}
+	
+	/**
+	 * Mirrors DatabaseManager's handling of a new local message, reading the table only when the cache isn't loaded
+	 */
+	private static long[] reserveSortPosition(SortAnchorCache cache, List<long[]> table) {
+		if(!cache.isLoaded()) {
+			long[] latest = queryLatestSortPosition(table);
+			if(latest != null) cache.load(latest[0], (int) latest[1]);
+			else cache.loadEmpty();
+		}
+		
+		long[] position = {cache.getNextSortID(), cache.getNextSortIDOffset()};
+		cache.record(position[0], (int) position[1]);
+		return position;
+	}
+	
+	/**
+	 * Mirrors the original query for the latest sort ID, which reads the highest offset of the highest sort ID
+	 */
+	private static long[] queryLatestSortPosition(List<long[]> table) {
+		long[] latest = null;
+		for(long[] row : table) {
+			if(latest == null || row[0] > latest[0] || (row[0] == latest[0] && row[1] > latest[1])) latest = row;
+		}
+		return latest;
+	}
+	
+	private static long[] queryNextSortPosition(List<long[]> table) {
+		long[] latest = queryLatestSortPosition(table);
+		if(latest == null) return new long[]{-1, 0};
+		else return new long[]{latest[0], latest[1] + 1};
+	}
+}
\ No newline at end of file